@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.benchmark;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.mesos.Protos.Offer;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Generates synthetic resource offers and matching host attributes for benchmarks.
+ * <p>
+ * Offers are made for hosts named by {@link TaskGenerator#host(int)}, and hosts are spread evenly
+ * across racks.
+ */
+public final class OfferGenerator {
+
+  public static final String HOST_ATTRIBUTE = "host";
+  public static final String RACK_ATTRIBUTE = "rack";
+
+  private int hosts = 1;
+  private int racks = 1;
+  private double cpus = 16.0;
+  private long ramMb = 64 * 1024;
+  private long diskMb = 512 * 1024;
+  private int ports = 100;
+
+  public OfferGenerator setHosts(int hosts) {
+    checkArgument(hosts > 0);
+    this.hosts = hosts;
+    return this;
+  }
+
+  public OfferGenerator setRacks(int racks) {
+    checkArgument(racks > 0);
+    this.racks = racks;
+    return this;
+  }
+
+  public OfferGenerator setResources(double cpus, long ramMb, long diskMb, int ports) {
+    this.cpus = cpus;
+    this.ramMb = ramMb;
+    this.diskMb = diskMb;
+    this.ports = ports;
+    return this;
+  }
+
+  /**
+   * Gets the name of the rack that a host belongs to.
+   *
+   * @param host Host index.
+   * @return The rack of the host at {@code host}.
+   */
+  public String rack(int host) {
+    return "rack-" + (host % racks);
+  }
+
+  /**
+   * Creates an offer for a host.
+   *
+   * @param host Host index.
+   * @return An offer of the configured resources from the host at {@code host}.
+   */
+  public Offer offer(int host) {
+    String hostName = TaskGenerator.host(host);
+    Offer.Builder builder = Offer.newBuilder();
+    builder.getIdBuilder().setValue("offer-" + host);
+    builder.getFrameworkIdBuilder().setValue("framework-id");
+    builder.getSlaveIdBuilder().setValue(hostName + "-id");
+    builder.setHostname(hostName);
+    builder.addAllResources(new Resources(
+        cpus,
+        Amount.of(ramMb, Data.MB),
+        Amount.of(diskMb, Data.MB),
+        ports).toResourceList());
+    return builder.build();
+  }
+
+  /**
+   * Creates offers for all hosts.
+   *
+   * @return Generated offers.
+   */
+  public List<Offer> offers() {
+    ImmutableList.Builder<Offer> offers = ImmutableList.builder();
+    for (int host = 0; host < hosts; host++) {
+      offers.add(offer(host));
+    }
+    return offers.build();
+  }
+
+  /**
+   * Creates the attributes of a host.
+   *
+   * @param host Host index.
+   * @return Host and rack attributes of the host at {@code host}.
+   */
+  public HostAttributes hostAttributes(int host) {
+    String hostName = TaskGenerator.host(host);
+    return new HostAttributes(
+        hostName,
+        ImmutableSet.of(
+            new Attribute(HOST_ATTRIBUTE, ImmutableSet.of(hostName)),
+            new Attribute(RACK_ATTRIBUTE, ImmutableSet.of(rack(host)))))
+        .setMode(MaintenanceMode.NONE)
+        .setSlaveId(hostName + "-id");
+  }
+
+  /**
+   * Creates the attributes of all hosts.
+   *
+   * @return Generated host attributes.
+   */
+  public List<HostAttributes> allHostAttributes() {
+    ImmutableList.Builder<HostAttributes> attributes = ImmutableList.builder();
+    for (int host = 0; host < hosts; host++) {
+      attributes.add(hostAttributes(host));
+    }
+    return attributes.build();
+  }
+}
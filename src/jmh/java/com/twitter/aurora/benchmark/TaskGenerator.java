@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.benchmark;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Constraint;
+import com.twitter.aurora.gen.ExecutorConfig;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskEvent;
+import com.twitter.aurora.scheduler.base.JobKeys;
+import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Generates synthetic tasks for benchmarks.
+ * <p>
+ * Tasks are spread evenly across jobs, jobs are spread evenly across roles, and assigned tasks are
+ * spread evenly across hosts.  Task statuses are assigned round-robin from the configured
+ * statuses.  Generated values are deterministic, so that repeated runs operate on equal data.
+ */
+public final class TaskGenerator {
+
+  public static final String ENVIRONMENT = "prod";
+
+  private int roles = 1;
+  private int jobs = 1;
+  private int instancesPerJob = 1;
+  private int hosts = 1;
+  private List<ScheduleStatus> statuses = ImmutableList.of(ScheduleStatus.RUNNING);
+  private double cpus = 1.0;
+  private long ramMb = 1024;
+  private long diskMb = 1024;
+  private Set<Constraint> constraints = ImmutableSet.of();
+
+  public TaskGenerator setRoles(int roles) {
+    checkArgument(roles > 0);
+    this.roles = roles;
+    return this;
+  }
+
+  public TaskGenerator setJobs(int jobs) {
+    checkArgument(jobs > 0);
+    this.jobs = jobs;
+    return this;
+  }
+
+  public TaskGenerator setInstancesPerJob(int instancesPerJob) {
+    checkArgument(instancesPerJob > 0);
+    this.instancesPerJob = instancesPerJob;
+    return this;
+  }
+
+  public TaskGenerator setHosts(int hosts) {
+    checkArgument(hosts > 0);
+    this.hosts = hosts;
+    return this;
+  }
+
+  public TaskGenerator setStatuses(ScheduleStatus status, ScheduleStatus... statuses) {
+    this.statuses = ImmutableList.<ScheduleStatus>builder().add(status).add(statuses).build();
+    return this;
+  }
+
+  public TaskGenerator setResources(double cpus, long ramMb, long diskMb) {
+    this.cpus = cpus;
+    this.ramMb = ramMb;
+    this.diskMb = diskMb;
+    return this;
+  }
+
+  public TaskGenerator setConstraints(Constraint... constraints) {
+    this.constraints = ImmutableSet.copyOf(constraints);
+    return this;
+  }
+
+  /**
+   * Gets the key of a generated job.
+   *
+   * @param job Job index.
+   * @return The key of the job at {@code job}.
+   */
+  public IJobKey jobKey(int job) {
+    return JobKeys.from(role(job), ENVIRONMENT, "job-" + job);
+  }
+
+  /**
+   * Gets the name of a generated role.
+   *
+   * @param job Job index.
+   * @return The role owning the job at {@code job}.
+   */
+  public String role(int job) {
+    return "role-" + (job % roles);
+  }
+
+  /**
+   * Gets the name of a generated host.
+   *
+   * @param index Host index.
+   * @return The name of the host at {@code index}.
+   */
+  public static String host(int index) {
+    return "host-" + index;
+  }
+
+  /**
+   * Creates the task configuration shared by all instances of a job.
+   *
+   * @param job Job index.
+   * @return The task configuration for the job at {@code job}.
+   */
+  public TaskConfig taskConfig(int job) {
+    IJobKey jobKey = jobKey(job);
+    return ConfigurationManager.applyDefaultsIfUnset(new TaskConfig()
+        .setOwner(new Identity(jobKey.getRole(), jobKey.getRole()))
+        .setEnvironment(jobKey.getEnvironment())
+        .setJobName(jobKey.getName())
+        .setNumCpus(cpus)
+        .setRamMb(ramMb)
+        .setDiskMb(diskMb)
+        .setConstraints(constraints)
+        .setExecutorConfig(new ExecutorConfig("aurora", "benchmark executor config")));
+  }
+
+  /**
+   * Generates tasks for all instances of all jobs.
+   *
+   * @return Generated tasks.
+   */
+  public Set<IScheduledTask> build() {
+    ImmutableSet.Builder<IScheduledTask> tasks = ImmutableSet.builder();
+    int index = 0;
+    for (int job = 0; job < jobs; job++) {
+      TaskConfig config = taskConfig(job);
+      for (int instance = 0; instance < instancesPerJob; instance++) {
+        tasks.add(makeTask(config, instance, index++));
+      }
+    }
+    return tasks.build();
+  }
+
+  private IScheduledTask makeTask(TaskConfig config, int instance, int index) {
+    ScheduleStatus status = statuses.get(index % statuses.size());
+    AssignedTask assignedTask = new AssignedTask()
+        .setTaskId(String.format("%s-%s-%s-%d-%d",
+            config.getOwner().getRole(),
+            config.getEnvironment(),
+            config.getJobName(),
+            instance,
+            index))
+        .setInstanceId(instance)
+        .setTask(config.deepCopy());
+    if (status != ScheduleStatus.PENDING) {
+      String host = host(index % hosts);
+      assignedTask.setSlaveHost(host).setSlaveId(host + "-id");
+    }
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(assignedTask)
+        .setTaskEvents(ImmutableList.of(new TaskEvent(index, status))));
+  }
+
+  /**
+   * Creates a copy of a task with a different status.
+   *
+   * @param task Task to copy.
+   * @param status Status to set.
+   * @return The copied task.
+   */
+  public static IScheduledTask withStatus(IScheduledTask task, ScheduleStatus status) {
+    return IScheduledTask.build(checkNotNull(task).newBuilder().setStatus(status));
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.aurora.benchmark.TaskGenerator;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.Clock;
+import com.twitter.common.util.TruncatedBinaryBackoff;
+
+/**
+ * Benchmarks the rate at which {@link TaskGroups} hands pending tasks to the scheduling action,
+ * with tasks spread across varying numbers of groups and varying batch sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaskGroupsBenchmarks {
+
+  private static final int NUM_TASKS = 1000;
+
+  @Param({"1", "10", "100", "1000"})
+  private int numGroups;
+
+  @Param({"1", "10"})
+  private int batchSize;
+
+  private List<TaskStateChange> pendingEvents;
+
+  @Setup
+  public void setUp() {
+    ImmutableList.Builder<TaskStateChange> events = ImmutableList.builder();
+    for (IScheduledTask task : new TaskGenerator()
+        .setJobs(numGroups)
+        .setInstancesPerJob(NUM_TASKS / numGroups)
+        .setStatuses(ScheduleStatus.PENDING)
+        .build()) {
+
+      events.add(new TaskStateChange(task, ScheduleStatus.INIT));
+    }
+    pendingEvents = events.build();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_TASKS)
+  public void schedulePendingTasks() throws InterruptedException {
+    final CountDownLatch scheduled = new CountDownLatch(pendingEvents.size());
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    TaskGroups taskGroups = new TaskGroups(
+        executor,
+        MemStorage.newEmptyStorage(),
+        new TruncatedBinaryBackoff(
+            Amount.of(1L, Time.MILLISECONDS),
+            Amount.of(1L, Time.SECONDS)),
+        RateLimiter.create(Double.MAX_VALUE),
+        batchSize,
+        new SchedulingAction() {
+          @Override public boolean schedule(String taskId) {
+            scheduled.countDown();
+            return true;
+          }
+
+          @Override public Set<String> schedule(Set<String> taskIds) {
+            for (int i = 0; i < taskIds.size(); i++) {
+              scheduled.countDown();
+            }
+            return taskIds;
+          }
+        },
+        Clock.SYSTEM_CLOCK,
+        new ImmediateReschedule(),
+        new NoPreemption());
+
+    try {
+      for (TaskStateChange event : pendingEvents) {
+        taskGroups.taskChangedState(event);
+      }
+      scheduled.await();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class ImmediateReschedule implements RescheduleCalculator {
+    @Override public long getStartupReadyTimeMs(IScheduledTask task) {
+      return 0;
+    }
+
+    @Override public long getReadyTimeMs(IScheduledTask task) {
+      return 0;
+    }
+  }
+
+  private static class NoPreemption implements Preemptor {
+    @Override public Optional<String> findPreemptionSlotFor(String taskId) {
+      return Optional.absent();
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+
+import org.apache.mesos.Protos.Offer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.aurora.benchmark.OfferGenerator;
+import com.twitter.aurora.benchmark.TaskGenerator;
+import com.twitter.aurora.gen.Constraint;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.HostStatus;
+import com.twitter.aurora.gen.LimitConstraint;
+import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.gen.TaskConstraint;
+import com.twitter.aurora.gen.ValueConstraint;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
+import com.twitter.aurora.scheduler.state.MaintenanceController;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+
+/**
+ * Benchmarks {@link SchedulingFilterImpl#filter(ResourceSlot, String, ITaskConfig, String)} for
+ * tasks with value and limit constraints, evaluated against every offer in a cluster.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulingFilterBenchmarks {
+
+  private static final int RACKS = 50;
+
+  @Param({"1000", "10000"})
+  private int numHosts;
+
+  @Param({"10", "1000"})
+  private int instancesPerJob;
+
+  private SchedulingFilter filter;
+  private List<Offer> offers;
+  private ITaskConfig unconstrainedTask;
+  private ITaskConfig valueConstrainedTask;
+  private ITaskConfig limitConstrainedTask;
+
+  @Setup
+  public void setUp() {
+    OfferGenerator offerGenerator = new OfferGenerator().setHosts(numHosts).setRacks(RACKS);
+    offers = offerGenerator.offers();
+
+    Constraint rackValue = new Constraint(
+        OfferGenerator.RACK_ATTRIBUTE,
+        TaskConstraint.value(new ValueConstraint(false, ImmutableSet.of(
+            offerGenerator.rack(0),
+            offerGenerator.rack(1),
+            offerGenerator.rack(2)))));
+    Constraint hostLimit = new Constraint(
+        OfferGenerator.HOST_ATTRIBUTE,
+        TaskConstraint.limit(new LimitConstraint(1)));
+    Constraint rackLimit = new Constraint(
+        OfferGenerator.RACK_ATTRIBUTE,
+        TaskConstraint.limit(new LimitConstraint(instancesPerJob / RACKS + 1)));
+
+    TaskGenerator unconstrained = new TaskGenerator();
+    TaskGenerator valueConstrained = new TaskGenerator().setConstraints(rackValue);
+    TaskGenerator limitConstrained = new TaskGenerator()
+        .setInstancesPerJob(instancesPerJob)
+        .setHosts(numHosts)
+        .setConstraints(hostLimit, rackLimit);
+
+    unconstrainedTask = ITaskConfig.build(unconstrained.taskConfig(0));
+    valueConstrainedTask = ITaskConfig.build(valueConstrained.taskConfig(0));
+    limitConstrainedTask = ITaskConfig.build(limitConstrained.taskConfig(0));
+
+    Storage storage = MemStorage.newEmptyStorage();
+    final List<HostAttributes> hostAttributes = offerGenerator.allHostAttributes();
+    final Set<IScheduledTask> activeTasks = limitConstrained.build();
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        for (HostAttributes attributes : hostAttributes) {
+          storeProvider.getAttributeStore().saveHostAttributes(attributes);
+        }
+        storeProvider.getUnsafeTaskStore().saveTasks(activeTasks);
+      }
+    });
+
+    // Tasks were stored without notifications, so counts are loaded as they are on startup.
+    AttributeAggregates aggregates = new AttributeAggregates(storage);
+    aggregates.storageStarted(new StorageStarted());
+    filter = new SchedulingFilterImpl(storage, new NoMaintenance(), aggregates);
+  }
+
+  private int filterAll(ITaskConfig task) {
+    int vetoed = 0;
+    for (Offer offer : offers) {
+      Set<Veto> vetoes =
+          filter.filter(ResourceSlot.from(offer), offer.getHostname(), task, "benchmark-task");
+      if (!vetoes.isEmpty()) {
+        vetoed++;
+      }
+    }
+    return vetoed;
+  }
+
+  @Benchmark
+  public int filterUnconstrained() {
+    return filterAll(unconstrainedTask);
+  }
+
+  @Benchmark
+  public int filterValueConstraint() {
+    return filterAll(valueConstrainedTask);
+  }
+
+  @Benchmark
+  public int filterLimitConstraints() {
+    return filterAll(limitConstrainedTask);
+  }
+
+  /**
+   * A maintenance controller with no hosts in maintenance.
+   */
+  private static class NoMaintenance implements MaintenanceController {
+    @Override public Set<HostStatus> startMaintenance(Set<String> hosts) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Set<HostStatus> drain(Set<String> hosts) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public MaintenanceMode getMode(String host) {
+      return MaintenanceMode.NONE;
+    }
+
+    @Override public Set<HostStatus> getStatus(Set<String> hosts) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Set<HostStatus> endMaintenance(Set<String> hosts) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Multimap<String, String> getDrainingTasks() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
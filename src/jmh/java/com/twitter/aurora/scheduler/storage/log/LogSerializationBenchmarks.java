@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.aurora.benchmark.OfferGenerator;
+import com.twitter.aurora.benchmark.TaskGenerator;
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.storage.LogEntry;
+import com.twitter.aurora.gen.storage.Op;
+import com.twitter.aurora.gen.storage.SaveTasks;
+import com.twitter.aurora.gen.storage.SchedulerMetadata;
+import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.scheduler.log.Log.Entry;
+import com.twitter.aurora.scheduler.log.Log.Position;
+import com.twitter.aurora.scheduler.log.Log.Stream;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.EntrySerializer;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+/**
+ * Benchmarks the serialization of log entries: snapshot encoding and framing, snapshot
+ * compression, and coalescing of ops within a log transaction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogSerializationBenchmarks {
+
+  private static final int INSTANCES_PER_JOB = 100;
+  private static final int HOSTS = 5000;
+  private static final int TASKS_PER_OP = 10;
+  private static final Amount<Integer, Data> DEFLATE_BLOCK_SIZE = Amount.of(1, Data.MB);
+
+  @Param({"10000", "100000"})
+  private int numTasks;
+
+  private EntrySerializer entrySerializer;
+  private LogEntry snapshot;
+  private LogEntry deflatedSnapshot;
+  private LogEntry blockDeflatedSnapshot;
+  private StreamManager streamManager;
+  private List<Op> saveTaskOps;
+
+  @Setup
+  public void setUp() throws CodingException {
+    TaskGenerator taskGenerator = new TaskGenerator()
+        .setRoles(50)
+        .setJobs(Math.max(1, numTasks / INSTANCES_PER_JOB))
+        .setInstancesPerJob(Math.min(numTasks, INSTANCES_PER_JOB))
+        .setHosts(HOSTS);
+    Set<ScheduledTask> tasks = IScheduledTask.toBuildersSet(taskGenerator.build());
+
+    snapshot = LogEntry.snapshot(new Snapshot()
+        .setTimestamp(0L)
+        .setTasks(tasks)
+        .setHostAttributes(ImmutableSet.copyOf(
+            new OfferGenerator().setHosts(HOSTS).allHostAttributes()))
+        .setSchedulerMetadata(new SchedulerMetadata().setFrameworkId("framework-id")));
+    deflatedSnapshot = Entries.deflate(snapshot);
+    blockDeflatedSnapshot =
+        Entries.blockDeflate(snapshot, DEFLATE_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+
+    entrySerializer = new EntrySerializer(Amount.of(512, Data.KB));
+    streamManager = new StreamManager(
+        new UnusedStream(),
+        false,
+        false,
+        DEFLATE_BLOCK_SIZE,
+        Deflater.DEFAULT_COMPRESSION,
+        Amount.of(512, Data.KB),
+        0);
+
+    // Simulates tasks being repeatedly saved as they transition through states, which is the
+    // case that coalescing targets.
+    ImmutableList.Builder<Op> ops = ImmutableList.builder();
+    List<ScheduledTask> taskList = ImmutableList.copyOf(tasks);
+    List<ScheduleStatus> transitions =
+        ImmutableList.of(ScheduleStatus.ASSIGNED, ScheduleStatus.STARTING, ScheduleStatus.RUNNING);
+    for (ScheduleStatus status : transitions) {
+      for (int i = 0; i < taskList.size(); i += TASKS_PER_OP) {
+        int end = Math.min(taskList.size(), i + TASKS_PER_OP);
+        ImmutableSet.Builder<ScheduledTask> opTasks = ImmutableSet.builder();
+        for (ScheduledTask task : taskList.subList(i, end)) {
+          opTasks.add(task.deepCopy().setStatus(status));
+        }
+        ops.add(Op.saveTasks(new SaveTasks(opTasks.build())));
+      }
+    }
+    saveTaskOps = ops.build();
+  }
+
+  @Benchmark
+  public byte[][] serializeSnapshot() throws CodingException {
+    return entrySerializer.serialize(snapshot);
+  }
+
+  @Benchmark
+  public LogEntry deflateSnapshot() throws CodingException {
+    return Entries.deflate(snapshot);
+  }
+
+  @Benchmark
+  public LogEntry inflateSnapshot() throws CodingException {
+    return Entries.inflate(deflatedSnapshot);
+  }
+
+  @Benchmark
+  public LogEntry blockDeflateSnapshot() throws CodingException {
+    return Entries.blockDeflate(snapshot, DEFLATE_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Benchmark
+  public LogEntry blockInflateSnapshot() throws CodingException {
+    return Entries.inflate(blockDeflatedSnapshot);
+  }
+
+  @Benchmark
+  public int coalesceSaveTasks() {
+    StreamTransaction transaction = streamManager.startTransaction();
+    for (Op op : saveTaskOps) {
+      // Ops are mutated when coalesced, so each iteration must operate on copies.
+      transaction.add(op.deepCopy());
+    }
+    return transaction.getOpCount();
+  }
+
+  /**
+   * A stream that is never written to, as transactions are not committed.
+   */
+  private static class UnusedStream implements Stream {
+    @Override public Position append(byte[] contents) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public Iterator<Entry> readAll() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public void truncateBefore(Position position) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public void close() {
+      // No-op.
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.aurora.benchmark.TaskGenerator;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+
+/**
+ * Benchmarks {@link MemTaskStore#fetchTasks(Query.Builder)} for the query shapes issued by the
+ * scheduler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MemTaskStoreBenchmarks {
+
+  private static final int INSTANCES_PER_JOB = 100;
+  private static final int HOSTS = 5000;
+  private static final int ROLES = 50;
+
+  @Param({"10000", "100000", "500000"})
+  private int numTasks;
+
+  private MemTaskStore store;
+  private TaskGenerator generator;
+  private String taskId;
+  private IJobKey jobKey;
+  private String role;
+
+  @Setup
+  public void setUp() {
+    generator = new TaskGenerator()
+        .setRoles(ROLES)
+        .setJobs(Math.max(1, numTasks / INSTANCES_PER_JOB))
+        .setInstancesPerJob(Math.min(numTasks, INSTANCES_PER_JOB))
+        .setHosts(HOSTS)
+        .setStatuses(
+            ScheduleStatus.RUNNING,
+            ScheduleStatus.RUNNING,
+            ScheduleStatus.RUNNING,
+            ScheduleStatus.PENDING,
+            ScheduleStatus.FINISHED);
+    Set<IScheduledTask> tasks = generator.build();
+
+    store = new MemTaskStore();
+    store.saveTasks(tasks);
+
+    taskId = Tasks.id(Iterables.get(tasks, tasks.size() / 2));
+    jobKey = generator.jobKey(0);
+    role = generator.role(0);
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchById() {
+    return store.fetchTasks(Query.taskScoped(taskId));
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchByJob() {
+    return store.fetchTasks(Query.jobScoped(jobKey));
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchActiveByJob() {
+    return store.fetchTasks(Query.jobScoped(jobKey).active());
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchByRole() {
+    return store.fetchTasks(Query.roleScoped(role));
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchBySlaveHost() {
+    return store.fetchTasks(Query.slaveScoped(TaskGenerator.host(0)));
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchPending() {
+    return store.fetchTasks(Query.statusScoped(ScheduleStatus.PENDING));
+  }
+
+  @Benchmark
+  public ImmutableSet<IScheduledTask> fetchAll() {
+    return store.fetchTasks(Query.unscoped());
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.TaskInfo;
+
+import com.twitter.aurora.scheduler.Driver.DriverImpl;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.state.StateManager;
+import com.twitter.aurora.scheduler.storage.CommitActions;
+import com.twitter.common.application.ShutdownRegistry;
+import com.twitter.common.base.Command;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.LOST;
+
+/**
+ * A driver that sends launch, decline and kill requests to the mesos driver asynchronously, so
+ * that the mesos driver is never called while storage locks are held.
+ * <p>
+ * Requests made during a storage write operation are held until the write commits, and are
+ * discarded if it fails.  Requests are then sent on a single dispatch thread in the order they
+ * were queued.  Failures to send a request are logged, since the state that led to the request
+ * has already been committed.  Tasks whose launch could not be sent are moved to LOST, so that
+ * replacements are scheduled.
+ */
+class DriverOutbox implements Driver {
+  private static final Logger LOG = Logger.getLogger(DriverOutbox.class.getName());
+
+  @VisibleForTesting
+  static final Optional<String> LAUNCH_FAILED_MSG =
+      Optional.of("Failed to send the task launch to the mesos driver.");
+
+  private final Driver delegate;
+  private final CommitActions commitActions;
+  private final Provider<StateManager> stateManager;
+  private final Executor executor;
+
+  private final AtomicLong outboxDepth = Stats.exportLong("driver_outbox_depth");
+  private final AtomicLong dispatchFailures = Stats.exportLong("driver_outbox_dispatch_failures");
+  private final SlidingStats dispatchLatency =
+      new SlidingStats("driver_outbox_dispatch_latency", "nanos");
+
+  // The state manager sends requests through this driver, so it is provided lazily.
+  @Inject
+  DriverOutbox(
+      DriverImpl delegate,
+      CommitActions commitActions,
+      Provider<StateManager> stateManager,
+      ShutdownRegistry shutdownRegistry) {
+
+    this(delegate, commitActions, stateManager, createExecutor(shutdownRegistry));
+  }
+
+  @VisibleForTesting
+  DriverOutbox(
+      Driver delegate,
+      CommitActions commitActions,
+      Provider<StateManager> stateManager,
+      Executor executor) {
+
+    this.delegate = checkNotNull(delegate);
+    this.commitActions = checkNotNull(commitActions);
+    this.stateManager = checkNotNull(stateManager);
+    this.executor = checkNotNull(executor);
+  }
+
+  private static Executor createExecutor(ShutdownRegistry shutdownRegistry) {
+    final ExecutorService executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DriverOutbox-%d").build());
+    shutdownRegistry.addAction(new Command() {
+      @Override public void execute() {
+        new ExecutorServiceShutdown(executor, Amount.of(1L, Time.SECONDS)).execute();
+      }
+    });
+    return executor;
+  }
+
+  private void send(final String description, final Runnable request) {
+    final Runnable dispatch = new Runnable() {
+      private final long queuedNanos = System.nanoTime();
+
+      @Override public void run() {
+        outboxDepth.decrementAndGet();
+        dispatchLatency.accumulate(System.nanoTime() - queuedNanos);
+        try {
+          request.run();
+        } catch (RuntimeException e) {
+          LOG.log(Level.SEVERE, "Failed to " + description + ": " + e, e);
+          dispatchFailures.incrementAndGet();
+        }
+      }
+    };
+
+    commitActions.execute(new Runnable() {
+      @Override public void run() {
+        outboxDepth.incrementAndGet();
+        executor.execute(dispatch);
+      }
+    });
+  }
+
+  @Override
+  public void launchTask(OfferID offerId, TaskInfo task) {
+    launchTasks(offerId, ImmutableList.of(task));
+  }
+
+  @Override
+  public void launchTasks(final OfferID offerId, Collection<TaskInfo> tasks) {
+    final Collection<TaskInfo> launched = ImmutableList.copyOf(tasks);
+    send("launch tasks on offer " + offerId.getValue(), new Runnable() {
+      @Override public void run() {
+        try {
+          delegate.launchTasks(offerId, launched);
+        } catch (RuntimeException e) {
+          // The tasks are already ASSIGNED, and would otherwise wait for the task timeout.
+          Set<String> taskIds = Sets.newHashSet();
+          for (TaskInfo task : launched) {
+            taskIds.add(task.getTaskId().getValue());
+          }
+          stateManager.get().changeState(
+              Query.taskScoped(taskIds).byStatus(ASSIGNED),
+              LOST,
+              LAUNCH_FAILED_MSG);
+          throw e;
+        }
+      }
+    });
+  }
+
+  @Override
+  public void declineOffer(final OfferID offerId) {
+    send("decline offer " + offerId.getValue(), new Runnable() {
+      @Override public void run() {
+        delegate.declineOffer(offerId);
+      }
+    });
+  }
+
+  @Override
+  public void killTask(final String taskId) {
+    send("kill task " + taskId, new Runnable() {
+      @Override public void run() {
+        delegate.killTask(taskId);
+      }
+    });
+  }
+
+  @Override
+  public void stop() {
+    delegate.stop();
+  }
+
+  @Override
+  public Protos.Status run() {
+    return delegate.run();
+  }
+}
@@ -16,6 +16,9 @@
 package com.twitter.aurora.scheduler;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,7 +27,11 @@ import javax.inject.Inject;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 
 import org.apache.mesos.Protos.ExecutorID;
 import org.apache.mesos.Protos.FrameworkID;
@@ -39,17 +46,23 @@ import org.apache.mesos.SchedulerDriver;
 
 import com.twitter.aurora.GuiceUtils.AllowUnchecked;
 import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.comm.SchedulerMessage;
 import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.Event;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.SendNotification;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
+import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.common.application.Lifecycle;
+import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.Stats;
 
@@ -61,6 +74,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 class MesosSchedulerImpl implements Scheduler {
   private static final Logger LOG = Logger.getLogger(MesosSchedulerImpl.class.getName());
 
+  // Stored attributes are re-saved at least this often, in case they are replaced by other means
+  // such as restoring from a backup.
+  private static final long ATTRIBUTE_REFRESH_MINS = 10;
+
   private final AtomicLong resourceOffers = Stats.exportLong("scheduler_resource_offers");
   private final AtomicLong failedOffers = Stats.exportLong("scheduler_failed_offers");
   private final AtomicLong failedStatusUpdates = Stats.exportLong("scheduler_status_updates");
@@ -69,12 +86,20 @@ class MesosSchedulerImpl implements Scheduler {
   private final AtomicLong frameworkReregisters =
       Stats.exportLong("scheduler_framework_reregisters");
   private final AtomicLong lostExecutors = Stats.exportLong("scheduler_lost_executors");
+  private final AtomicLong attributeSaves = Stats.exportLong("scheduler_host_attribute_saves");
+
+  // The attributes last saved for each host, derived from offers.  Offers from a host whose
+  // attributes are unchanged do not need a storage write.
+  private final Cache<String, HostAttributes> savedAttributes = CacheBuilder.newBuilder()
+      .expireAfterWrite(ATTRIBUTE_REFRESH_MINS, TimeUnit.MINUTES)
+      .build();
 
   private final List<TaskLauncher> taskLaunchers;
 
   private final Storage storage;
   private final SchedulerCore schedulerCore;
   private final Lifecycle lifecycle;
+  private final Closure<PubsubEvent> eventSink;
   private volatile boolean registered = false;
 
   /**
@@ -83,18 +108,21 @@ class MesosSchedulerImpl implements Scheduler {
    * @param schedulerCore Core scheduler.
    * @param lifecycle Application lifecycle manager.
    * @param taskLaunchers Task launchers.
+   * @param eventSink Pubsub sink to notify of host attribute changes.
    */
   @Inject
   public MesosSchedulerImpl(
       Storage storage,
       SchedulerCore schedulerCore,
       final Lifecycle lifecycle,
-      List<TaskLauncher> taskLaunchers) {
+      List<TaskLauncher> taskLaunchers,
+      Closure<PubsubEvent> eventSink) {
 
     this.storage = checkNotNull(storage);
     this.schedulerCore = checkNotNull(schedulerCore);
     this.lifecycle = checkNotNull(lifecycle);
     this.taskLaunchers = checkNotNull(taskLaunchers);
+    this.eventSink = checkNotNull(eventSink);
   }
 
   @Override
@@ -141,14 +169,11 @@ class MesosSchedulerImpl implements Scheduler {
   public void resourceOffers(SchedulerDriver driver, List<Offer> offers) {
     Preconditions.checkState(registered, "Must be registered before receiving offers.");
 
-    for (final Offer offer : offers) {
+    saveHostAttributes(offers);
+
+    for (Offer offer : offers) {
       log(Level.FINE, "Received offer: %s", offer);
       resourceOffers.incrementAndGet();
-      storage.write(new MutateWork.NoResult.Quiet() {
-        @Override protected void execute(MutableStoreProvider storeProvider) {
-          storeProvider.getAttributeStore().saveHostAttributes(Conversions.getAttributes(offer));
-        }
-      });
 
       // Ordering of task launchers is important here, since offers are consumed greedily.
       // TODO(William Farner): Refactor this area of code now that the primary task launcher
@@ -174,6 +199,45 @@ class MesosSchedulerImpl implements Scheduler {
     }
   }
 
+  private void saveHostAttributes(List<Offer> offers) {
+    final Map<String, HostAttributes> updated = Maps.newLinkedHashMap();
+    for (Offer offer : offers) {
+      HostAttributes attributes = Conversions.getAttributes(offer);
+      if (!attributes.equals(savedAttributes.getIfPresent(attributes.getHost()))) {
+        updated.put(attributes.getHost(), attributes);
+      }
+    }
+    if (updated.isEmpty()) {
+      return;
+    }
+
+    List<HostAttributes> changed = storage.write(new MutateWork.Quiet<List<HostAttributes>>() {
+      @Override public List<HostAttributes> apply(MutableStoreProvider storeProvider) {
+        AttributeStore.Mutable store = storeProvider.getAttributeStore();
+        ImmutableList.Builder<HostAttributes> changed = ImmutableList.builder();
+        for (HostAttributes attributes : updated.values()) {
+          Optional<HostAttributes> previous = store.getHostAttributes(attributes.getHost());
+          // Stored attributes may be updated in place, so they are captured before saving.
+          Optional<Set<Attribute>> previousAttributes = previous.isPresent()
+              ? Optional.<Set<Attribute>>of(ImmutableSet.copyOf(previous.get().getAttributes()))
+              : Optional.<Set<Attribute>>absent();
+          store.saveHostAttributes(attributes);
+          if (previousAttributes.isPresent()
+              && !previousAttributes.get().equals(attributes.getAttributes())) {
+            changed.add(attributes);
+          }
+        }
+        return changed.build();
+      }
+    });
+    savedAttributes.putAll(updated);
+    attributeSaves.addAndGet(updated.size());
+
+    for (HostAttributes attributes : changed) {
+      eventSink.execute(new HostAttributesChanged(attributes));
+    }
+  }
+
   @Override
   public void offerRescinded(SchedulerDriver schedulerDriver, OfferID offerId) {
     LOG.info("Offer rescinded: " + offerId);
@@ -81,6 +81,29 @@ public final class ResourceSlot {
     return resources.getNumPorts();
   }
 
+  /**
+   * Calculates how many copies of a slot can be packed into this slot.
+   *
+   * @param slot Slot to pack.
+   * @return The number of copies of {@code slot} that fit within this slot.
+   */
+  public int countFits(ResourceSlot slot) {
+    long fits = Integer.MAX_VALUE;
+    if (slot.getNumCpus() > 0) {
+      fits = Math.min(fits, (long) (getNumCpus() / slot.getNumCpus()));
+    }
+    if (slot.getRam().as(Data.MB) > 0) {
+      fits = Math.min(fits, getRam().as(Data.MB) / slot.getRam().as(Data.MB));
+    }
+    if (slot.getDisk().as(Data.MB) > 0) {
+      fits = Math.min(fits, getDisk().as(Data.MB) / slot.getDisk().as(Data.MB));
+    }
+    if (slot.getNumPorts() > 0) {
+      fits = Math.min(fits, getNumPorts() / slot.getNumPorts());
+    }
+    return (int) fits;
+  }
+
   @VisibleForTesting
   public static ResourceSlot from(double cpu,
                                   Amount<Long, Data> ram,
@@ -33,6 +33,7 @@ import com.twitter.aurora.scheduler.Driver.DriverImpl;
 import com.twitter.aurora.scheduler.PulseMonitor.PulseMonitorImpl;
 import com.twitter.aurora.scheduler.SchedulerLifecycle.DriverReference;
 import com.twitter.aurora.scheduler.TaskIdGenerator.TaskIdGeneratorImpl;
+import com.twitter.aurora.scheduler.UserTaskLauncher.StatusUpdateSettings;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
 import com.twitter.aurora.scheduler.periodic.GcExecutorLauncher;
 import com.twitter.aurora.scheduler.periodic.GcExecutorLauncher.GcExecutor;
@@ -54,9 +55,19 @@ public class SchedulerModule extends AbstractModule {
   @CmdLine(name = "gc_executor_path", help = "Path to the gc executor launch script.")
   private static final Arg<String> GC_EXECUTOR_PATH = Arg.create(null);
 
+  @CmdLine(name = "status_update_queue_capacity",
+      help = "Maximum number of received task status updates waiting to be applied.  Receiving "
+          + "further status updates blocks until there is room.")
+  private static final Arg<Integer> STATUS_UPDATE_QUEUE_CAPACITY = Arg.create(10000);
+
+  @CmdLine(name = "status_update_batch_size",
+      help = "Maximum number of task status updates to apply in one storage transaction.")
+  private static final Arg<Integer> STATUS_UPDATE_BATCH_SIZE = Arg.create(1000);
+
   @Override
   protected void configure() {
-    bind(Driver.class).to(DriverImpl.class);
+    bind(Driver.class).to(DriverOutbox.class);
+    bind(DriverOutbox.class).in(Singleton.class);
     bind(DriverImpl.class).in(Singleton.class);
     bind(new TypeLiteral<Supplier<Optional<SchedulerDriver>>>() { }).to(DriverReference.class);
     bind(DriverReference.class).in(Singleton.class);
@@ -73,11 +84,14 @@ public class SchedulerModule extends AbstractModule {
         .toInstance(new PulseMonitorImpl<String>(EXECUTOR_GC_INTERVAL.get()));
 
     bind(GcExecutorLauncher.class).in(Singleton.class);
+    bind(StatusUpdateSettings.class).toInstance(new StatusUpdateSettings(
+        STATUS_UPDATE_QUEUE_CAPACITY.get(),
+        STATUS_UPDATE_BATCH_SIZE.get()));
     bind(UserTaskLauncher.class).in(Singleton.class);
 
     bind(SchedulerLifecycle.class).in(Singleton.class);
     PubsubEventModule.bindSubscriber(binder(), SchedulerLifecycle.class);
-    PubsubEventModule.bindSubscriber(binder(), TaskVars.class);
+    PubsubEventModule.bindAsyncSubscriber(binder(), TaskVars.class);
   }
 
   @Provides
@@ -15,6 +15,14 @@
  */
 package com.twitter.aurora.scheduler;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,6 +31,8 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
@@ -35,11 +45,33 @@ import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.state.StateManager;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.common.application.Lifecycle;
+import com.twitter.common.application.ShutdownRegistry;
+import com.twitter.common.base.Command;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A task launcher that matches resource offers against user tasks.
+ * <p>
+ * Status updates are placed on a bounded queue and applied in batches by a single thread, with
+ * each batch applied in one storage transaction.  Updates are applied in the order they were
+ * received.  When the queue is full, receiving a status update blocks until there is room.
+ * <p>
+ * The driver acknowledges a status update once it has been received, so a queued update is
+ * acknowledged before it is persisted, and at most the queue capacity of updates may be
+ * acknowledged but not yet persisted.  A batch that fails may have been partially applied in
+ * memory without being logged, so the scheduler shuts down rather than applying further updates,
+ * and any status update received afterwards is rejected.
  */
 class UserTaskLauncher implements TaskLauncher {
 
@@ -53,11 +85,81 @@ class UserTaskLauncher implements TaskLauncher {
 
   private final OfferQueue offerQueue;
   private final StateManager stateManager;
+  private final Storage storage;
+  private final Lifecycle lifecycle;
+  private final Executor executor;
+  private final int maxBatchSize;
+  private final BlockingQueue<TaskStatus> pendingUpdates;
+
+  // Whether a drain of pending updates is scheduled or running.
+  private final AtomicBoolean draining = new AtomicBoolean(false);
+  private volatile RuntimeException failure;
+
+  private final AtomicLong updatesApplied = Stats.exportLong("status_updates_applied");
+  private final AtomicLong batchFailures = Stats.exportLong("status_update_batch_failures");
+  private final SlidingStats batchSizes = new SlidingStats("status_update_batch", "updates");
+
+  static class StatusUpdateSettings {
+    private final int queueCapacity;
+    private final int maxBatchSize;
+
+    StatusUpdateSettings(int queueCapacity, int maxBatchSize) {
+      checkArgument(queueCapacity > 0);
+      this.queueCapacity = queueCapacity;
+      checkArgument(maxBatchSize > 0);
+      this.maxBatchSize = maxBatchSize;
+    }
+  }
 
   @Inject
-  UserTaskLauncher(OfferQueue offerQueue, StateManager stateManager) {
+  UserTaskLauncher(
+      OfferQueue offerQueue,
+      StateManager stateManager,
+      Storage storage,
+      Lifecycle lifecycle,
+      StatusUpdateSettings settings,
+      ShutdownRegistry shutdownRegistry) {
+
+    this(
+        offerQueue,
+        stateManager,
+        storage,
+        lifecycle,
+        createExecutor(shutdownRegistry),
+        settings.queueCapacity,
+        settings.maxBatchSize);
+  }
+
+  @VisibleForTesting
+  UserTaskLauncher(
+      OfferQueue offerQueue,
+      StateManager stateManager,
+      Storage storage,
+      Lifecycle lifecycle,
+      Executor executor,
+      int queueCapacity,
+      int maxBatchSize) {
+
     this.offerQueue = checkNotNull(offerQueue);
     this.stateManager = checkNotNull(stateManager);
+    this.storage = checkNotNull(storage);
+    this.lifecycle = checkNotNull(lifecycle);
+    this.executor = checkNotNull(executor);
+    checkArgument(maxBatchSize > 0);
+    this.maxBatchSize = maxBatchSize;
+    this.pendingUpdates = new ArrayBlockingQueue<>(queueCapacity);
+    Stats.exportSize("status_update_queue_size", pendingUpdates);
+  }
+
+  private static Executor createExecutor(ShutdownRegistry shutdownRegistry) {
+    final ExecutorService executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("StatusUpdate-%d").build());
+    shutdownRegistry.addAction(new Command() {
+      @Override public void execute() {
+        new ExecutorServiceShutdown(executor, Amount.of(1L, Time.SECONDS)).execute();
+      }
+    });
+    return executor;
   }
 
   @Override
@@ -69,7 +171,72 @@ class UserTaskLauncher implements TaskLauncher {
   }
 
   @Override
-  public synchronized boolean statusUpdate(TaskStatus status) {
+  public boolean statusUpdate(TaskStatus status) {
+    checkNotNull(status);
+
+    checkFailure();
+    try {
+      // Only waits when the queue is full, so that updates received while a batch is applied are
+      // queued for the next batch.
+      pendingUpdates.put(status);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SchedulerException(
+          "Interrupted while queueing status update for " + status.getTaskId().getValue(), e);
+    }
+    if (draining.compareAndSet(false, true)) {
+      executor.execute(drainer);
+    }
+
+    // Surfaces a failure applying this update when the executor runs it immediately.
+    checkFailure();
+    return true;
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw new SchedulerException("Status updates may no longer be applied.", failure);
+    }
+  }
+
+  private final Runnable drainer = new Runnable() {
+    @Override public void run() {
+      do {
+        try {
+          drainPendingUpdates();
+        } catch (RuntimeException e) {
+          // Updates of the failed batch may be applied in memory but not logged, so retrying them
+          // could not make them durable.  Stop instead, and let a new leader recover from the log.
+          LOG.log(Level.SEVERE, "Failed to apply status updates, shutting down: " + e, e);
+          batchFailures.incrementAndGet();
+          failure = e;
+          // Draining is not cleared, so that no further updates are applied.
+          lifecycle.shutdown();
+          return;
+        }
+        draining.set(false);
+        // An update queued after the last batch was taken may have seen the drain still running.
+      } while (!pendingUpdates.isEmpty() && draining.compareAndSet(false, true));
+    }
+  };
+
+  private void drainPendingUpdates() {
+    final List<TaskStatus> batch = Lists.newArrayListWithCapacity(maxBatchSize);
+    while (pendingUpdates.drainTo(batch, maxBatchSize) > 0) {
+      storage.write(new MutateWork.NoResult.Quiet() {
+        @Override protected void execute(MutableStoreProvider storeProvider) {
+          for (TaskStatus status : batch) {
+            applyStatusUpdate(status);
+          }
+        }
+      });
+      batchSizes.accumulate(batch.size());
+      updatesApplied.addAndGet(batch.size());
+      batch.clear();
+    }
+  }
+
+  private void applyStatusUpdate(TaskStatus status) {
     @Nullable String message = null;
     if (status.hasMessage()) {
       message = status.getMessage();
@@ -93,7 +260,6 @@ class UserTaskLauncher implements TaskLauncher {
       LOG.log(Level.WARNING, "Failed to update status for: " + status, e);
       throw e;
     }
-    return true;
   }
 
   @Override
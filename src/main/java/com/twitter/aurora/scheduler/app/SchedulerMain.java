@@ -44,6 +44,7 @@ import com.twitter.aurora.scheduler.cron.CronPredictor;
 import com.twitter.aurora.scheduler.cron.CronScheduler;
 import com.twitter.aurora.scheduler.cron.noop.NoopCronModule;
 import com.twitter.aurora.scheduler.local.IsolatedSchedulerModule;
+import com.twitter.aurora.scheduler.log.file.SegmentedFileLogModule;
 import com.twitter.aurora.scheduler.log.mesos.MesosLogStreamModule;
 import com.twitter.aurora.scheduler.quota.QuotaManager;
 import com.twitter.aurora.scheduler.quota.QuotaModule;
@@ -223,7 +224,11 @@ public class SchedulerMain extends AbstractApplication {
           bind(DriverFactory.class).to(DriverFactoryImpl.class);
           bind(DriverFactoryImpl.class).in(Singleton.class);
           bind(Boolean.class).annotatedWith(ShutdownOnDriverExit.class).toInstance(true);
-          install(new MesosLogStreamModule(zkClientConfig));
+          if (SegmentedFileLogModule.isEnabled()) {
+            install(new SegmentedFileLogModule());
+          } else {
+            install(new MesosLogStreamModule(zkClientConfig));
+          }
         }
       };
     }
@@ -15,10 +15,10 @@
  */
 package com.twitter.aurora.scheduler.async;
 
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.logging.Logger;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import com.google.common.base.Optional;
@@ -34,16 +34,23 @@ import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalcula
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.async.TaskGroups.TaskGroupsSettings;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
+import com.twitter.common.application.ShutdownRegistry;
+import com.twitter.common.application.modules.LifecycleModule;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.base.Command;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.stats.StatsProvider;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.Random;
 import com.twitter.common.util.TruncatedBinaryBackoff;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static com.twitter.aurora.scheduler.async.HistoryPruner.PruneBatch;
 import static com.twitter.aurora.scheduler.async.HistoryPruner.PruneThreshold;
 import static com.twitter.aurora.scheduler.async.Preemptor.PreemptorImpl;
 import static com.twitter.aurora.scheduler.async.Preemptor.PreemptorImpl.PreemptionDelay;
@@ -59,6 +66,16 @@ public class AsyncModule extends AbstractModule {
       help = "The number of worker threads to process async task operations with.")
   private static final Arg<Integer> ASYNC_WORKER_THREADS = Arg.create(1);
 
+  @CmdLine(name = "timer_tick_duration",
+      help = "Interval at which the timer for offer returns, task timeouts and history pruning "
+          + "runs expired timeouts.")
+  private static final Arg<Amount<Long, Time>> TIMER_TICK_DURATION =
+      Arg.create(Amount.of(100L, Time.MILLISECONDS));
+
+  @CmdLine(name = "timer_wheel_size",
+      help = "Number of buckets in the timer wheel, rounded up to a power of two.")
+  private static final Arg<Integer> TIMER_WHEEL_SIZE = Arg.create(4096);
+
   @CmdLine(name = "transient_task_state_timeout",
       help = "The amount of time after which to treat a task stuck in a transient state as LOST.")
   private static final Arg<Amount<Long, Time>> TRANSIENT_TASK_STATE_TIMEOUT =
@@ -84,10 +101,28 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> HISTORY_PRUNE_THRESHOLD =
       Arg.create(Amount.of(2L, Time.DAYS));
 
+  @CmdLine(name = "history_prune_batch_size",
+      help = "Maximum number of terminated tasks to prune in a single storage operation.")
+  private static final Arg<Integer> HISTORY_PRUNE_BATCH_SIZE = Arg.create(1000);
+
+  @CmdLine(name = "history_prune_batch_interval",
+      help = "Interval between batches of terminated tasks being pruned.")
+  private static final Arg<Amount<Long, Time>> HISTORY_PRUNE_BATCH_INTERVAL =
+      Arg.create(Amount.of(1L, Time.SECONDS));
+
   @CmdLine(name = "max_schedule_attempts_per_sec",
       help = "Maximum number of scheduling attempts to make per second.")
   private static final Arg<Double> MAX_SCHEDULE_ATTEMPTS_PER_SEC = Arg.create(10D);
 
+  @CmdLine(name = "max_schedule_batch_size",
+      help = "Maximum number of identical PENDING tasks to schedule in a single attempt.  Values "
+          + "greater than 1 enable packing of multiple tasks into a single resource offer.")
+  private static final Arg<Integer> MAX_SCHEDULE_BATCH_SIZE = Arg.create(1);
+
+  @CmdLine(name = "scheduling_threads",
+      help = "Number of threads used to evaluate task groups for scheduling concurrently.")
+  private static final Arg<Integer> SCHEDULING_THREADS = Arg.create(1);
+
   @CmdLine(name = "flapping_task_threshold",
       help = "A task that repeatedly runs for less than this time is considered to be flapping.")
   private static final Arg<Amount<Long, Time>> FLAPPING_THRESHOLD =
@@ -135,6 +170,13 @@ public class AsyncModule extends AbstractModule {
         return executor.getCompletedTaskCount();
       }
     });
+    HashedWheelTimer timer = new HashedWheelTimer(
+        executor,
+        Clock.SYSTEM_CLOCK,
+        TIMER_TICK_DURATION.get(),
+        TIMER_WHEEL_SIZE.get());
+    bind(HashedWheelTimer.class).toInstance(timer);
+    LifecycleModule.bindStartupAction(binder(), TimerLifecycle.class);
 
     // AsyncModule itself is not a subclass of PrivateModule because TaskEventModule internally uses
     // a MultiBinder, which cannot span multiple injectors.
@@ -142,7 +184,7 @@ public class AsyncModule extends AbstractModule {
       @Override protected void configure() {
         bind(new TypeLiteral<Amount<Long, Time>>() { })
             .toInstance(TRANSIENT_TASK_STATE_TIMEOUT.get());
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(Timer.class).to(HashedWheelTimer.class);
 
         bind(TaskTimeout.class).in(Singleton.class);
         requireBinding(StatsProvider.class);
@@ -155,7 +197,9 @@ public class AsyncModule extends AbstractModule {
       @Override protected void configure() {
         bind(TaskGroupsSettings.class).toInstance(new TaskGroupsSettings(
             new TruncatedBinaryBackoff(INITIAL_SCHEDULE_DELAY.get(), MAX_SCHEDULE_DELAY.get()),
-            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get())));
+            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get()),
+            MAX_SCHEDULE_BATCH_SIZE.get(),
+            SCHEDULING_THREADS.get()));
 
         bind(RescheduleCalculatorImpl.RescheduleCalculatorSettings.class)
             .toInstance(new RescheduleCalculatorImpl.RescheduleCalculatorSettings(
@@ -169,6 +213,8 @@ public class AsyncModule extends AbstractModule {
         if (ENABLE_PREEMPTOR.get()) {
           bind(Preemptor.class).to(PreemptorImpl.class);
           bind(PreemptorImpl.class).in(Singleton.class);
+          bind(PreemptionCandidates.class).in(Singleton.class);
+          expose(PreemptionCandidates.class);
           LOG.info("Preemptor Enabled.");
         } else {
           bind(Preemptor.class).toInstance(NULL_PREEMPTOR);
@@ -181,11 +227,14 @@ public class AsyncModule extends AbstractModule {
       }
     });
     PubsubEventModule.bindSubscriber(binder(), TaskGroups.class);
+    if (ENABLE_PREEMPTOR.get()) {
+      PubsubEventModule.bindSubscriber(binder(), PreemptionCandidates.class);
+    }
 
     binder().install(new PrivateModule() {
       @Override protected void configure() {
         bind(OfferReturnDelay.class).to(RandomJitterReturnDelay.class);
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(Timer.class).to(HashedWheelTimer.class);
         bind(OfferQueue.class).to(OfferQueueImpl.class);
         bind(OfferQueueImpl.class).in(Singleton.class);
         expose(OfferQueue.class);
@@ -200,13 +249,41 @@ public class AsyncModule extends AbstractModule {
         bind(Integer.class).annotatedWith(PruneThreshold.class).toInstance(100);
         bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(PruneThreshold.class)
             .toInstance(HISTORY_PRUNE_THRESHOLD.get());
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(Integer.class).annotatedWith(PruneBatch.class)
+            .toInstance(HISTORY_PRUNE_BATCH_SIZE.get());
+        bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(PruneBatch.class)
+            .toInstance(HISTORY_PRUNE_BATCH_INTERVAL.get());
+        bind(Timer.class).to(HashedWheelTimer.class);
 
         bind(HistoryPruner.class).in(Singleton.class);
         expose(HistoryPruner.class);
       }
     });
-    PubsubEventModule.bindSubscriber(binder(), HistoryPruner.class);
+    PubsubEventModule.bindAsyncSubscriber(binder(), HistoryPruner.class);
+  }
+
+  /**
+   * Starts the timer once the scheduler is starting, and stops it on shutdown.
+   */
+  static class TimerLifecycle implements Command {
+    private final HashedWheelTimer timer;
+    private final ShutdownRegistry shutdownRegistry;
+
+    @Inject
+    TimerLifecycle(HashedWheelTimer timer, ShutdownRegistry shutdownRegistry) {
+      this.timer = checkNotNull(timer);
+      this.shutdownRegistry = checkNotNull(shutdownRegistry);
+    }
+
+    @Override
+    public void execute() {
+      timer.start();
+      shutdownRegistry.addAction(new Command() {
+        @Override public void execute() {
+          timer.stop();
+        }
+      });
+    }
   }
 
   /**
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A timer that places timeouts in the buckets of a hashed timing wheel, making scheduling and
+ * cancellation constant-time operations regardless of the number of pending timeouts.
+ * <p>
+ * The wheel advances one bucket per tick, and all timeouts expiring in the buckets passed since
+ * the previous tick are run together on the thread processing the tick.  Timeouts are never run
+ * early, but may run up to one tick late, or later if a tick is delayed by the timeouts it runs.
+ * Timeouts further in the future than one revolution of the wheel remain in their bucket for the
+ * number of revolutions remaining.
+ */
+class HashedWheelTimer implements Timer {
+  private static final Logger LOG = Logger.getLogger(HashedWheelTimer.class.getName());
+
+  private final ScheduledExecutorService executor;
+  private final Clock clock;
+  private final long tickMillis;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final long startMillis;
+
+  // The next tick to be processed, counted from startMillis.  Guarded by the wheel.
+  private long nextTick = 0;
+
+  // The scheduled tick task, once started.  Guarded by this.
+  private ScheduledFuture<?> ticker;
+
+  private final AtomicLong pendingTimeouts = Stats.exportLong("timer_pending_timeouts");
+  private final AtomicLong expiredTimeouts = Stats.exportLong("timer_expired_timeouts");
+  private final SlidingStats expiryLag = new SlidingStats("timer_expiry_lag", "ms");
+
+  /**
+   * Creates a timer.  The timer does not advance until {@link #start()} is called.
+   *
+   * @param executor Executor to process ticks and run expired timeouts on.
+   * @param clock Clock to measure deadlines with.
+   * @param tickDuration Interval between ticks, which bounds the precision of the timer.
+   * @param wheelSize Number of buckets in the wheel, rounded up to a power of two.
+   */
+  HashedWheelTimer(
+      ScheduledExecutorService executor,
+      Clock clock,
+      Amount<Long, Time> tickDuration,
+      int wheelSize) {
+
+    this.executor = checkNotNull(executor);
+    this.clock = checkNotNull(clock);
+    this.tickMillis = tickDuration.as(Time.MILLISECONDS);
+    checkArgument(tickMillis > 0, "Tick duration must be at least one millisecond.");
+    checkArgument(wheelSize > 0 && wheelSize <= (1 << 30));
+
+    int buckets = Integer.highestOneBit(wheelSize);
+    if (buckets < wheelSize) {
+      buckets <<= 1;
+    }
+    this.wheel = new Bucket[buckets];
+    for (int i = 0; i < buckets; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = buckets - 1;
+    this.startMillis = clock.nowMillis();
+  }
+
+  /**
+   * Starts processing ticks on the executor.
+   */
+  synchronized void start() {
+    checkState(ticker == null, "Timer was already started.");
+    ticker = executor.scheduleAtFixedRate(
+        new Runnable() {
+          @Override public void run() {
+            tick();
+          }
+        },
+        tickMillis,
+        tickMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops processing ticks.  Pending timeouts are not run.
+   */
+  synchronized void stop() {
+    if (ticker != null) {
+      ticker.cancel(false);
+    }
+  }
+
+  @Override
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    checkNotNull(task);
+    checkNotNull(unit);
+
+    long deadline = clock.nowMillis() + Math.max(0, unit.toMillis(delay));
+    // Round up, so that the timeout is not run before its deadline.
+    long deadlineTick = (deadline - startMillis + tickMillis - 1) / tickMillis;
+
+    WheelTimeout timeout = new WheelTimeout(task, deadline);
+    synchronized (wheel) {
+      long tick = Math.max(deadlineTick, nextTick);
+      timeout.remainingRounds = (tick - nextTick) / wheel.length;
+      wheel[(int) (tick & mask)].add(timeout);
+    }
+    pendingTimeouts.incrementAndGet();
+    return timeout;
+  }
+
+  /**
+   * Advances the wheel to the current time, running all timeouts that have expired.
+   */
+  @VisibleForTesting
+  void tick() {
+    long now = clock.nowMillis();
+    long currentTick = (now - startMillis) / tickMillis;
+
+    List<WheelTimeout> expired = Lists.newArrayList();
+    synchronized (wheel) {
+      // A delayed tick catches up by visiting each bucket passed in turn, keeping the remaining
+      // rounds of timeouts consistent with the position of the wheel.
+      for (; nextTick <= currentTick; nextTick++) {
+        wheel[(int) (nextTick & mask)].expire(expired);
+      }
+    }
+
+    pendingTimeouts.addAndGet(-expired.size());
+    expiredTimeouts.addAndGet(expired.size());
+    for (WheelTimeout timeout : expired) {
+      expiryLag.accumulate(Math.max(0, now - timeout.deadline));
+      try {
+        timeout.task.run();
+      } catch (RuntimeException e) {
+        // Allow the remaining timeouts to run, and keep the tick scheduled.
+        LOG.log(Level.SEVERE, "Timeout task failed: " + e, e);
+      }
+    }
+  }
+
+  /**
+   * A doubly-linked list of timeouts, allowing removal of any timeout in constant time.
+   */
+  private static class Bucket {
+    private WheelTimeout head;
+
+    void add(WheelTimeout timeout) {
+      timeout.bucket = this;
+      timeout.next = head;
+      if (head != null) {
+        head.prev = timeout;
+      }
+      head = timeout;
+    }
+
+    void remove(WheelTimeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      } else {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.bucket = null;
+      timeout.prev = null;
+      timeout.next = null;
+    }
+
+    void expire(List<WheelTimeout> expired) {
+      WheelTimeout timeout = head;
+      while (timeout != null) {
+        WheelTimeout next = timeout.next;
+        if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          expired.add(timeout);
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+  }
+
+  private class WheelTimeout implements Timeout {
+    private final Runnable task;
+    private final long deadline;
+
+    // Guarded by the wheel.  A timeout is pending while it is in a bucket.
+    private long remainingRounds;
+    private Bucket bucket;
+    private WheelTimeout prev;
+    private WheelTimeout next;
+
+    WheelTimeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override public boolean cancel() {
+      synchronized (wheel) {
+        if (bucket == null) {
+          return false;
+        }
+        bucket.remove(this);
+      }
+      pendingTimeouts.decrementAndGet();
+      return true;
+    }
+  }
+}
@@ -21,9 +21,8 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -35,6 +34,7 @@ import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.BindingAnnotation;
 
@@ -46,6 +46,9 @@ import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
 import static java.lang.annotation.ElementType.FIELD;
@@ -53,6 +56,7 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.PARAMETER;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.scheduler.base.Tasks.LATEST_ACTIVITY;
@@ -64,6 +68,9 @@ import static com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 /**
  * Prunes tasks in a job based on per-job history and an inactive time threshold by observing tasks
  * transitioning into one of the inactive states.
+ * <p>
+ * Tasks to prune are deleted in bounded batches at a fixed interval, rather than individually as
+ * they expire, so that a burst of expiring tasks results in few large storage writes.
  */
 public class HistoryPruner implements EventSubscriber {
   private static final Logger LOG = Logger.getLogger(HistoryPruner.class.getName());
@@ -78,33 +85,60 @@ public class HistoryPruner implements EventSubscriber {
     return tasksByJob;
   }
 
-  private final ScheduledExecutorService executor;
+  private final Timer timer;
   private final Storage storage;
   private final StateManager stateManager;
   private final Clock clock;
   private final long pruneThresholdMillis;
   private final int perJobHistoryGoal;
-  private final Map<String, Future<?>> taskIdToFuture = Maps.newConcurrentMap();
+  private final Map<String, Timer.Timeout> taskIdToTimeout = Maps.newConcurrentMap();
+  private final int maxBatchSize;
+  private final long batchIntervalMillis;
+
+  // Tasks awaiting deletion, in the order they became eligible for pruning.
+  private final Set<String> pendingDeletes = Sets.newLinkedHashSet();
+  // Whether a flush of pending deletes is scheduled.  Guarded by pendingDeletes.
+  private boolean flushScheduled = false;
+
+  private final AtomicLong prunedTasks = Stats.exportLong("history_pruner_tasks_pruned");
+  private final SlidingStats batchSizes = new SlidingStats("history_pruner_batch", "tasks");
 
   @BindingAnnotation
   @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
   public @interface PruneThreshold { }
 
+  @BindingAnnotation
+  @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  public @interface PruneBatch { }
+
   @Inject
   HistoryPruner(
-      final ScheduledExecutorService executor,
+      final Timer timer,
       final Storage storage,
       final StateManager stateManager,
       final Clock clock,
       @PruneThreshold Amount<Long, Time> inactivePruneThreshold,
-      @PruneThreshold int perJobHistoryGoal) {
+      @PruneThreshold int perJobHistoryGoal,
+      @PruneBatch int maxBatchSize,
+      @PruneBatch Amount<Long, Time> batchInterval) {
 
-    this.executor = checkNotNull(executor);
+    this.timer = checkNotNull(timer);
     this.storage = checkNotNull(storage);
     this.stateManager = checkNotNull(stateManager);
     this.clock = checkNotNull(clock);
     this.pruneThresholdMillis = inactivePruneThreshold.as(Time.MILLISECONDS);
     this.perJobHistoryGoal = perJobHistoryGoal;
+    checkArgument(maxBatchSize > 0);
+    this.maxBatchSize = maxBatchSize;
+    this.batchIntervalMillis = batchInterval.as(Time.MILLISECONDS);
+
+    Stats.export(new StatImpl<Integer>("history_pruner_backlog") {
+      @Override public Integer read() {
+        synchronized (pendingDeletes) {
+          return pendingDeletes.size();
+        }
+      }
+    });
   }
 
   @VisibleForTesting
@@ -145,13 +179,64 @@ public class HistoryPruner implements EventSubscriber {
     }
   }
 
-  private void deleteTasks(Set<String> taskIds) {
-    LOG.info("Pruning inactive tasks " + taskIds);
-    stateManager.deleteTasks(taskIds);
+  /**
+   * Queues tasks for deletion in the next batch, scheduling the batch if one is not scheduled.
+   *
+   * @param taskIds Tasks to delete.
+   */
+  private void enqueueDeletes(Set<String> taskIds) {
+    boolean scheduleFlush;
+    synchronized (pendingDeletes) {
+      pendingDeletes.addAll(taskIds);
+      scheduleFlush = !flushScheduled && !pendingDeletes.isEmpty();
+      if (scheduleFlush) {
+        flushScheduled = true;
+      }
+    }
+    if (scheduleFlush) {
+      scheduleFlush();
+    }
+  }
+
+  private void scheduleFlush() {
+    timer.schedule(
+        new Runnable() {
+          @Override public void run() {
+            flush();
+          }
+        },
+        batchIntervalMillis,
+        TimeUnit.MILLISECONDS);
   }
 
   /**
-   * When triggered, removes the tasks scheduled for pruning and cancels any existing future.
+   * Deletes the oldest batch of pending tasks, scheduling another batch if tasks remain.
+   */
+  @VisibleForTesting
+  void flush() {
+    Set<String> batch;
+    boolean remaining;
+    synchronized (pendingDeletes) {
+      batch = ImmutableSet.copyOf(Iterables.limit(pendingDeletes, maxBatchSize));
+      pendingDeletes.removeAll(batch);
+      remaining = !pendingDeletes.isEmpty();
+      flushScheduled = remaining;
+    }
+
+    // Deleting tasks fires events handled by this class, so no locks may be held here.
+    if (!batch.isEmpty()) {
+      LOG.info("Pruning " + batch.size() + " inactive tasks " + batch);
+      stateManager.deleteTasks(batch);
+      prunedTasks.addAndGet(batch.size());
+      batchSizes.accumulate(batch.size());
+    }
+    if (remaining) {
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * When triggered, removes the tasks scheduled for pruning and cancels any existing timeout.
    *
    * @param event A new TasksDeleted event.
    */
@@ -160,11 +245,14 @@ public class HistoryPruner implements EventSubscriber {
     for (IScheduledTask task : event.getTasks()) {
       String id = Tasks.id(task);
       tasksByJob.remove(Tasks.SCHEDULED_TO_JOB_KEY.apply(task), id);
-      Future<?> future = taskIdToFuture.remove(id);
-      if (future != null) {
-        future.cancel(false);
+      Timer.Timeout timeout = taskIdToTimeout.remove(id);
+      if (timeout != null) {
+        timeout.cancel();
       }
     }
+    synchronized (pendingDeletes) {
+      pendingDeletes.removeAll(Tasks.ids(event.getTasks()));
+    }
   }
 
   private void registerInactiveTask(
@@ -177,13 +265,13 @@ public class HistoryPruner implements EventSubscriber {
     tasksByJob.put(jobKey, taskId);
     Runnable runnable = new Runnable() {
       @Override public void run() {
-        LOG.info("Pruning expired inactive task " + taskId);
+        LOG.fine("Pruning expired inactive task " + taskId);
         tasksByJob.remove(jobKey, taskId);
-        taskIdToFuture.remove(taskId);
-        deleteTasks(ImmutableSet.of(taskId));
+        taskIdToTimeout.remove(taskId);
+        enqueueDeletes(ImmutableSet.of(taskId));
       }
     };
-    taskIdToFuture.put(taskId, executor.schedule(runnable, timeRemaining, TimeUnit.MILLISECONDS));
+    taskIdToTimeout.put(taskId, timer.schedule(runnable, timeRemaining, TimeUnit.MILLISECONDS));
 
     ImmutableSet.Builder<String> pruneTaskIds = ImmutableSet.builder();
     Collection<String> tasks = tasksByJob.get(jobKey);
@@ -197,16 +285,17 @@ public class HistoryPruner implements EventSubscriber {
         String id = iterator.next();
         iterator.remove();
         pruneTaskIds.add(id);
-        Future<?> future = taskIdToFuture.remove(id);
-        if (future != null) {
-          future.cancel(false);
+        Timer.Timeout timeout = taskIdToTimeout.remove(id);
+        if (timeout != null) {
+          timeout.cancel();
         }
       }
     }
 
     Set<String> ids = pruneTaskIds.build();
     if (!ids.isEmpty()) {
-      deleteTasks(ids);
+      LOG.fine("History goal exceeded for " + jobKey + ", pruning " + ids);
+      enqueueDeletes(ids);
     }
   }
 }
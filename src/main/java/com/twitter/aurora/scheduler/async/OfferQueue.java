@@ -17,9 +17,9 @@ package com.twitter.aurora.scheduler.async;
 
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -30,15 +30,20 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
 import org.apache.mesos.Protos.TaskInfo;
 
 import com.twitter.aurora.gen.HostStatus;
@@ -79,6 +84,7 @@ public interface OfferQueue extends EventSubscriber {
 
   /**
    * Launches the first task that satisfies the {@code acceptor} by returning a {@link TaskInfo}.
+   * This may be called concurrently, an offer is only presented to one caller at a time.
    *
    * @param acceptor Function that determines if an offer is accepted.
    * @return {@code true} if the task was launched, {@code false} if no offers satisfied the
@@ -88,6 +94,21 @@ public interface OfferQueue extends EventSubscriber {
    */
   boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException;
 
+  /**
+   * Presents offers to the {@code acceptor} in order of preference, launching all tasks the
+   * acceptor assigns to an offer with a single launch request.  Offers are presented until
+   * {@code maxTasks} tasks have been launched, or all offers have been presented.
+   *
+   * @param acceptor Function that assigns tasks to an offer, returning an empty list if the
+   *                 offer is not accepted.
+   * @param maxTasks Maximum number of tasks to launch.
+   * @return The number of tasks launched.
+   * @throws LaunchException If the acceptor accepted an offer, but there was an error launching the
+   *                         tasks.  Tasks launched against previously-accepted offers remain
+   *                         launched.
+   */
+  int launchAll(Function<Offer, List<TaskInfo>> acceptor, int maxTasks) throws LaunchException;
+
   /**
    * Notifies the offer queue that a host has changed state.
    *
@@ -136,27 +157,27 @@ public interface OfferQueue extends EventSubscriber {
             })
             .compound(Ordering.arbitrary());
 
-    private final Set<HostOffer> hostOffers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+    private final HostOffers hostOffers = new HostOffers();
     private final AtomicLong offerRaces = Stats.exportLong("offer_accept_races");
+    private final AtomicLong reservationConflicts =
+        Stats.exportLong("offer_reservation_conflicts");
 
     private final Driver driver;
     private final OfferReturnDelay returnDelay;
-    private final ScheduledExecutorService executor;
+    private final Timer timer;
     private final MaintenanceController maintenance;
 
     @Inject
     OfferQueueImpl(Driver driver,
         OfferReturnDelay returnDelay,
-        ScheduledExecutorService executor,
+        Timer timer,
         MaintenanceController maintenance) {
 
       this.driver = driver;
       this.returnDelay = returnDelay;
-      this.executor = executor;
+      this.timer = timer;
       this.maintenance = maintenance;
-      // Potential gotcha - since this is now a ConcurrentSkipListSet, size() is more expensive.
-      // Could track this separately if it turns out to pose problems.
-      Stats.exportSize("outstanding_offers", hostOffers);
+      Stats.exportSize("outstanding_offers", hostOffers.offersById.values());
     }
 
     @Override
@@ -166,16 +187,10 @@ public interface OfferQueue extends EventSubscriber {
       // them after the return delay.
       // There's also a chance that we return an offer for compaction ~simultaneously with the
       // same-host offer being canceled/returned.  This is also fine.
-      List<HostOffer> sameSlave = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getSlaveId().equals(offer.getSlaveId());
-            }
-          })
-          .toList();
+      List<HostOffer> sameSlave = hostOffers.getForSlave(offer.getSlaveId());
       if (sameSlave.isEmpty()) {
         hostOffers.add(new HostOffer(offer, maintenance.getMode(offer.getHostname())));
-        executor.schedule(
+        timer.schedule(
             new Runnable() {
               @Override public void run() {
                 removeAndDecline(offer.getId());
@@ -196,11 +211,18 @@ public interface OfferQueue extends EventSubscriber {
     }
 
     void removeAndDecline(OfferID id) {
-      if (removeFromHostOffers(id)) {
+      // Offers reserved by a launch attempt are declined once the attempt releases them.
+      if (hostOffers.removeUnlessReserved(id)) {
         decline(id);
       }
     }
 
+    private void release(OfferID id) {
+      if (hostOffers.release(id)) {
+        removeAndDecline(id);
+      }
+    }
+
     void decline(OfferID id) {
       LOG.fine("Declining offer " + id);
       driver.declineOffer(id);
@@ -216,18 +238,13 @@ public interface OfferQueue extends EventSubscriber {
 
       // The small risk of inconsistency is acceptable here - if we have an accept/remove race
       // on an offer, the master will mark the task as LOST and it will be retried.
-      return Iterables.removeIf(hostOffers,
-          new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer input) {
-              return input.offer.getId().equals(offerId);
-            }
-          });
+      return hostOffers.remove(offerId);
     }
 
     @Override
     public Iterable<Offer> getOffers() {
       return Iterables.unmodifiableIterable(
-          FluentIterable.from(hostOffers)
+          FluentIterable.from(hostOffers.getOrdered())
               .transform(new Function<HostOffer, Offer>() {
                 @Override public Offer apply(HostOffer offer) {
                   return offer.offer;
@@ -242,25 +259,8 @@ public interface OfferQueue extends EventSubscriber {
      */
     @Subscribe
     public void hostChangedState(HostMaintenanceStateChange change) {
-      final HostStatus hostStatus = change.getStatus();
-
-      // Remove and re-add a host's offers to re-sort based on its new hostStatus
-      Set<HostOffer> changedOffers = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getHostname().equals(hostStatus.getHost());
-            }
-          })
-          .toSet();
-      hostOffers.removeAll(changedOffers);
-      hostOffers.addAll(
-          FluentIterable.from(changedOffers)
-              .transform(new Function<HostOffer, HostOffer>() {
-                @Override public HostOffer apply(HostOffer hostOffer) {
-                  return new HostOffer(hostOffer.offer, hostStatus.getMode());
-                }
-              })
-              .toSet());
+      HostStatus hostStatus = change.getStatus();
+      hostOffers.updateHostMode(hostStatus.getHost(), hostStatus.getMode());
     }
 
     /**
@@ -304,38 +304,183 @@ public interface OfferQueue extends EventSubscriber {
       }
     }
 
+    /**
+     * The offers held by the queue, ordered by preference and indexed by offer ID, slave ID and
+     * host name.
+     * <p>
+     * Mutations are serialized, and keep the ordered set and the indices consistent with each
+     * other.  Iteration over the ordered offers does not block mutations, and reflects the state
+     * of the offers at some point at or since the creation of the iterator.
+     * <p>
+     * An offer may be reserved by a single launch attempt at a time, which prevents concurrent
+     * attempts from accepting the same offer.  Declining a reserved offer is deferred until the
+     * reservation is released.
+     */
+    private static class HostOffers {
+      private final Set<HostOffer> offers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+      private final Map<OfferID, HostOffer> offersById = Maps.newConcurrentMap();
+      private final Multimap<SlaveID, HostOffer> offersBySlave = HashMultimap.create();
+      private final Multimap<String, HostOffer> offersByHost = HashMultimap.create();
+      private final Set<OfferID> reserved = Sets.newHashSet();
+      private final Set<OfferID> expired = Sets.newHashSet();
+
+      Iterable<HostOffer> getOrdered() {
+        return offers;
+      }
+
+      synchronized List<HostOffer> getForSlave(SlaveID slaveId) {
+        return ImmutableList.copyOf(offersBySlave.get(slaveId));
+      }
+
+      synchronized void add(HostOffer offer) {
+        HostOffer replaced = offersById.put(offer.offer.getId(), offer);
+        if (replaced != null) {
+          removeFromIndices(replaced);
+        }
+        offers.add(offer);
+        offersBySlave.put(offer.offer.getSlaveId(), offer);
+        offersByHost.put(offer.offer.getHostname(), offer);
+      }
+
+      synchronized boolean remove(OfferID id) {
+        reserved.remove(id);
+        expired.remove(id);
+        HostOffer removed = offersById.remove(id);
+        if (removed == null) {
+          return false;
+        }
+        removeFromIndices(removed);
+        return true;
+      }
+
+      synchronized boolean removeUnlessReserved(OfferID id) {
+        if (reserved.contains(id)) {
+          expired.add(id);
+          return false;
+        }
+        return remove(id);
+      }
+
+      synchronized boolean reserve(OfferID id) {
+        return offersById.containsKey(id) && reserved.add(id);
+      }
+
+      /**
+       * Releases a reservation.
+       *
+       * @param id Reserved offer.
+       * @return {@code true} if the offer should have been declined while it was reserved.
+       */
+      synchronized boolean release(OfferID id) {
+        reserved.remove(id);
+        return expired.remove(id) && offersById.containsKey(id);
+      }
+
+      private void removeFromIndices(HostOffer offer) {
+        offers.remove(offer);
+        offersBySlave.remove(offer.offer.getSlaveId(), offer);
+        offersByHost.remove(offer.offer.getHostname(), offer);
+      }
+
+      synchronized void updateHostMode(String host, MaintenanceMode mode) {
+        // Remove and re-add a host's offers to re-sort based on its new mode.
+        for (HostOffer offer : ImmutableList.copyOf(offersByHost.get(host))) {
+          add(new HostOffer(offer.offer, mode));
+        }
+      }
+
+      synchronized void clear() {
+        offers.clear();
+        offersById.clear();
+        offersBySlave.clear();
+        offersByHost.clear();
+        reserved.clear();
+        expired.clear();
+      }
+    }
+
     @Override
     public boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor)
         throws LaunchException {
 
-      // It's important that this method is not called concurrently - doing so would open up the
-      // possibility of a race between the same offers being accepted by different threads.
-
-      for (HostOffer hostOffer : hostOffers) {
-        Optional<TaskInfo> assignment = acceptor.apply(hostOffer.offer);
-        if (assignment.isPresent()) {
-          // Guard against an offer being removed after we grabbed it from the iterator.
-          // If that happens, the offer will not exist in hostOffers, and we can immediately
-          // send it back to LOST for quick reschedule.
-          if (hostOffers.remove(hostOffer)) {
-            try {
-              driver.launchTask(hostOffer.offer.getId(), assignment.get());
-              return true;
-            } catch (IllegalStateException e) {
-              // TODO(William Farner): Catch only the checked exception produced by Driver
-              // once it changes from throwing IllegalStateException when the driver is not yet
-              // registered.
-              throw new LaunchException("Failed to launch task.", e);
+      // Each offer is reserved while it is presented to the acceptor, so concurrent callers will
+      // never accept the same offer.
+
+      for (HostOffer hostOffer : hostOffers.getOrdered()) {
+        OfferID id = hostOffer.offer.getId();
+        if (!hostOffers.reserve(id)) {
+          reservationConflicts.incrementAndGet();
+          continue;
+        }
+
+        try {
+          Optional<TaskInfo> assignment = acceptor.apply(hostOffer.offer);
+          if (assignment.isPresent()) {
+            // Guard against an offer being canceled while it was reserved.
+            // If that happens, the offer will not exist in hostOffers, and we can immediately
+            // send it back to LOST for quick reschedule.
+            if (hostOffers.remove(id)) {
+              try {
+                driver.launchTask(id, assignment.get());
+                return true;
+              } catch (IllegalStateException e) {
+                // TODO(William Farner): Catch only the checked exception produced by Driver
+                // once it changes from throwing IllegalStateException when the driver is not yet
+                // registered.
+                throw new LaunchException("Failed to launch task.", e);
+              }
+            } else {
+              offerRaces.incrementAndGet();
+              throw new LaunchException(
+                  "Accepted offer no longer exists in offer queue, likely data race.");
             }
-          } else {
-            offerRaces.incrementAndGet();
-            throw new LaunchException(
-                "Accepted offer no longer exists in offer queue, likely data race.");
           }
+        } finally {
+          release(id);
         }
       }
 
       return false;
     }
+
+    @Override
+    public int launchAll(Function<Offer, List<TaskInfo>> acceptor, int maxTasks)
+        throws LaunchException {
+
+      int launched = 0;
+      for (HostOffer hostOffer : hostOffers.getOrdered()) {
+        if (launched >= maxTasks) {
+          break;
+        }
+
+        OfferID id = hostOffer.offer.getId();
+        if (!hostOffers.reserve(id)) {
+          reservationConflicts.incrementAndGet();
+          continue;
+        }
+
+        try {
+          List<TaskInfo> assignments = acceptor.apply(hostOffer.offer);
+          if (!assignments.isEmpty()) {
+            if (hostOffers.remove(id)) {
+              try {
+                driver.launchTasks(id, assignments);
+                launched += assignments.size();
+              } catch (IllegalStateException e) {
+                throw new LaunchException("Failed to launch tasks.", e);
+              }
+            } else {
+              offerRaces.incrementAndGet();
+              throw new LaunchException(
+                  "Accepted offer no longer exists in offer queue, likely data race.");
+            }
+          }
+        } finally {
+          release(id);
+        }
+      }
+
+      return launched;
+    }
   }
 }
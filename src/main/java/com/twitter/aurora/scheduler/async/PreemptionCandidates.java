@@ -0,0 +1,306 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.common.quantity.Data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+
+/**
+ * An index of the tasks that may be preempted, grouped by the slave they run on.
+ * <p>
+ * The index is updated from task state change notifications, and is loaded from storage when
+ * storage starts.  Alongside the tasks on each slave, it maintains the total resources that
+ * could be reclaimed by preempting them, so that slaves that cannot possibly satisfy a pending
+ * task can be skipped without evaluating individual tasks.
+ */
+class PreemptionCandidates implements EventSubscriber {
+
+  /**
+   * States of tasks that may be preempted.
+   */
+  @VisibleForTesting
+  static final Set<ScheduleStatus> CANDIDATE_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING)));
+
+  private static final Function<IAssignedTask, ResourceSlot> TASK_TO_RESOURCES =
+      new Function<IAssignedTask, ResourceSlot>() {
+        @Override public ResourceSlot apply(IAssignedTask input) {
+          return ResourceSlot.from(input.getTask());
+        }
+      };
+
+  private static final Function<IAssignedTask, Integer> GET_PRIORITY =
+      new Function<IAssignedTask, Integer>() {
+        @Override public Integer apply(IAssignedTask task) {
+          return task.getTask().getPriority();
+        }
+      };
+
+  // TODO(zmanji) Consider using Dominant Resource Fairness for ordering instead of the vector
+  // ordering
+  /**
+   * Order in which tasks on a slave are considered for preemption: non-production before
+   * production, then lowest priority first, then largest first, then by task ID.
+   */
+  @VisibleForTesting
+  static final Ordering<IAssignedTask> VICTIM_ORDER = Ordering.explicit(false, true)
+      .onResultOf(Functions.compose(Functions.forPredicate(Tasks.IS_PRODUCTION),
+          Tasks.ASSIGNED_TO_INFO))
+      .compound(Ordering.natural().onResultOf(GET_PRIORITY))
+      .compound(ResourceSlot.ORDER.onResultOf(TASK_TO_RESOURCES).reverse())
+      .compound(Ordering.natural().onResultOf(Tasks.ASSIGNED_TO_ID));
+
+  private final Storage storage;
+
+  private final Map<String, IAssignedTask> tasks = Maps.newHashMap();
+  private final Map<String, SlaveCandidates> bySlave = Maps.newHashMap();
+
+  @Inject
+  PreemptionCandidates(Storage storage) {
+    this.storage = checkNotNull(storage);
+  }
+
+  /**
+   * Gets the IDs of all slaves running tasks that may be preempted.
+   *
+   * @return Slave IDs.
+   */
+  synchronized Set<String> getSlaveIds() {
+    return ImmutableSet.copyOf(bySlave.keySet());
+  }
+
+  /**
+   * Gets the tasks on a slave that may be preempted, in the order they should be considered.
+   *
+   * @param slaveId Slave ID.
+   * @return Tasks on {@code slaveId}.
+   */
+  synchronized List<IAssignedTask> getCandidates(String slaveId) {
+    SlaveCandidates slave = bySlave.get(slaveId);
+    return (slave == null) ? ImmutableList.<IAssignedTask>of() : ImmutableList.copyOf(slave.tasks);
+  }
+
+  /**
+   * Tests whether a pending task could fit on a slave if all tasks it may preempt on the slave
+   * were preempted.  This is an upper bound, a {@code true} result does not imply that a
+   * preemption slot exists.
+   *
+   * @param slaveId Slave ID.
+   * @param pendingTask Task that would preempt other tasks.
+   * @param slack Resources already available on the slave.
+   * @return {@code false} if the task may not fit on the slave, {@code true} otherwise.
+   */
+  synchronized boolean mayFit(String slaveId, IAssignedTask pendingTask, ResourceSlot slack) {
+    SlaveCandidates slave = bySlave.get(slaveId);
+    Totals reclaimable = new Totals().add(slack, 1);
+    if (slave != null) {
+      // Tasks of the same role and lower priority may be preempted, as may any non-production
+      // task by a production task.  Non-production tasks of the role are counted twice, which
+      // only loosens the bound.
+      Totals role = slave.byRole.get(getRole(pendingTask));
+      if (role != null) {
+        reclaimable.add(role);
+      }
+      if (pendingTask.getTask().isProduction()) {
+        reclaimable.add(slave.nonProduction);
+      }
+    }
+    return reclaimable.fits(ResourceSlot.from(pendingTask.getTask()));
+  }
+
+  /**
+   * Updates the index with a task state change.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    IAssignedTask task = stateChange.getTask().getAssignedTask();
+    if (CANDIDATE_STATES.contains(stateChange.getNewState())) {
+      add(task);
+    } else {
+      remove(task.getTaskId());
+    }
+  }
+
+  /**
+   * Removes deleted tasks from the index.
+   *
+   * @param deleted Tasks deleted event.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Loads the index from storage.
+   *
+   * @param event Storage started notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted event) {
+    // Notifications are delivered under the storage write lock, so the index is rebuilt under it
+    // as well, rather than from a snapshot that a concurrent write could make stale.
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        Set<IScheduledTask> candidates = storeProvider.getTaskStore()
+            .fetchTasks(Query.unscoped().byStatus(CANDIDATE_STATES));
+        synchronized (PreemptionCandidates.this) {
+          tasks.clear();
+          bySlave.clear();
+          for (IScheduledTask task : candidates) {
+            add(task.getAssignedTask());
+          }
+        }
+      }
+    });
+  }
+
+  private static String getRole(IAssignedTask task) {
+    return task.getTask().getOwner().getRole();
+  }
+
+  private void add(IAssignedTask task) {
+    if (task.getSlaveId() == null) {
+      return;
+    }
+
+    // The task may have been updated, so it is replaced rather than ignored.
+    remove(task.getTaskId());
+    tasks.put(task.getTaskId(), task);
+    SlaveCandidates slave = bySlave.get(task.getSlaveId());
+    if (slave == null) {
+      slave = new SlaveCandidates();
+      bySlave.put(task.getSlaveId(), slave);
+    }
+    slave.update(task, 1);
+  }
+
+  private void remove(String taskId) {
+    IAssignedTask task = tasks.remove(taskId);
+    if (task == null) {
+      return;
+    }
+
+    SlaveCandidates slave = bySlave.get(task.getSlaveId());
+    slave.update(task, -1);
+    if (slave.tasks.isEmpty()) {
+      bySlave.remove(task.getSlaveId());
+    }
+  }
+
+  private static class SlaveCandidates {
+    private final SortedSet<IAssignedTask> tasks = Sets.newTreeSet(VICTIM_ORDER);
+    private final Totals nonProduction = new Totals();
+    private final Map<String, Totals> byRole = Maps.newHashMap();
+
+    void update(IAssignedTask task, int sign) {
+      if (sign > 0) {
+        tasks.add(task);
+      } else {
+        tasks.remove(task);
+      }
+
+      ResourceSlot resources = ResourceSlot.from(task.getTask());
+      if (!task.getTask().isProduction()) {
+        nonProduction.add(resources, sign);
+      }
+      String role = getRole(task);
+      Totals roleTotals = byRole.get(role);
+      if (roleTotals == null) {
+        roleTotals = new Totals();
+        byRole.put(role, roleTotals);
+      }
+      if (roleTotals.add(resources, sign).tasks == 0) {
+        byRole.remove(role);
+      }
+    }
+  }
+
+  /**
+   * Running resource totals of a group of tasks.
+   */
+  private static class Totals {
+    private double cpus = 0;
+    private long ramMb = 0;
+    private long diskMb = 0;
+    private int ports = 0;
+    private int tasks = 0;
+
+    Totals add(ResourceSlot resources, int sign) {
+      cpus += sign * resources.getNumCpus();
+      ramMb += sign * resources.getRam().as(Data.MB);
+      diskMb += sign * resources.getDisk().as(Data.MB);
+      ports += sign * resources.getNumPorts();
+      tasks += sign;
+      return this;
+    }
+
+    Totals add(Totals other) {
+      cpus += other.cpus;
+      ramMb += other.ramMb;
+      diskMb += other.diskMb;
+      ports += other.ports;
+      tasks += other.tasks;
+      return this;
+    }
+
+    boolean fits(ResourceSlot required) {
+      return (cpus >= required.getNumCpus())
+          && (ramMb >= required.getRam().as(Data.MB))
+          && (diskMb >= required.getDisk().as(Data.MB))
+          && (ports >= required.getNumPorts());
+    }
+  }
+}
@@ -17,8 +17,7 @@ package com.twitter.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
-import java.util.Collections;
-import java.util.EnumSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -27,7 +26,6 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
@@ -38,8 +36,6 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
 import com.google.inject.BindingAnnotation;
 
 import com.twitter.aurora.scheduler.ResourceSlot;
@@ -66,7 +62,6 @@ import org.apache.mesos.Protos.Offer;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
-import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
 import static com.twitter.aurora.scheduler.base.Tasks.SCHEDULED_TO_ASSIGNED;
 
 /**
@@ -100,10 +95,6 @@ public interface Preemptor {
     @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
     @interface PreemptionDelay { }
 
-    @VisibleForTesting
-    static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(
-        EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING))));
-
     private static final Logger LOG = Logger.getLogger(PreemptorImpl.class.getName());
 
     private static final Function<IAssignedTask, Integer> GET_PRIORITY =
@@ -119,6 +110,8 @@ public interface Preemptor {
     private final AtomicLong attemptedPreemptions = Stats.exportLong("preemptor_attempts");
     // Incremented every time we fail to find tasks to preempt for a pending task.
     private final AtomicLong noSlotsFound = Stats.exportLong("preemptor_no_slots_found");
+    // Incremented every time a slave is skipped because its preemptable resources are too small.
+    private final AtomicLong slotsPruned = Stats.exportLong("preemptor_slots_pruned");
 
     private final Predicate<IScheduledTask> isIdleTask = new Predicate<IScheduledTask>() {
       @Override public boolean apply(IScheduledTask task) {
@@ -131,6 +124,7 @@ public interface Preemptor {
     private final SchedulerCore scheduler;
     private final OfferQueue offerQueue;
     private final SchedulingFilter schedulingFilter;
+    private final PreemptionCandidates candidates;
     private final Amount<Long, Time> preemptionCandidacyDelay;
     private final Clock clock;
 
@@ -142,6 +136,7 @@ public interface Preemptor {
      *                  tasks.
      * @param offerQueue Queue that contains available Mesos resource offers.
      * @param schedulingFilter Filter to identify whether tasks may reside on given slaves.
+     * @param candidates Index of the tasks that may be preempted.
      * @param preemptionCandidacyDelay Time a task must be PENDING before it may preempt other
      *                                 tasks.
      * @param clock Clock to check current time.
@@ -152,6 +147,7 @@ public interface Preemptor {
         SchedulerCore scheduler,
         OfferQueue offerQueue,
         SchedulingFilter schedulingFilter,
+        PreemptionCandidates candidates,
         @PreemptionDelay Amount<Long, Time> preemptionCandidacyDelay,
         Clock clock) {
 
@@ -159,6 +155,7 @@ public interface Preemptor {
       this.scheduler = checkNotNull(scheduler);
       this.offerQueue = checkNotNull(offerQueue);
       this.schedulingFilter = checkNotNull(schedulingFilter);
+      this.candidates = checkNotNull(candidates);
       this.preemptionCandidacyDelay = checkNotNull(preemptionCandidacyDelay);
       this.clock = checkNotNull(clock);
     }
@@ -169,17 +166,6 @@ public interface Preemptor {
           SCHEDULED_TO_ASSIGNED));
     }
 
-    private List<IAssignedTask> fetch(Query.Builder query) {
-      return fetch(query, Predicates.<IScheduledTask>alwaysTrue());
-    }
-
-    private static final Function<IAssignedTask, String> TASK_TO_SLAVE_ID =
-        new Function<IAssignedTask, String>() {
-          @Override public String apply(IAssignedTask input) {
-            return input.getSlaveId();
-          }
-        };
-
     private static final Function<IAssignedTask, String> TASK_TO_HOST =
         new Function<IAssignedTask, String>() {
           @Override public String apply(IAssignedTask input) {
@@ -216,11 +202,6 @@ public interface Preemptor {
           }
         };
 
-    // TODO(zmanji) Consider using Dominant Resource Fairness for ordering instead of the vector
-    // ordering
-    private static final Ordering<IAssignedTask> RESOURCE_ORDER =
-        ResourceSlot.ORDER.onResultOf(TASK_TO_RESOURCES).reverse();
-
     /**
      * Optional.absent indicates that this slave does not have enough resources to satisfy the task.
      * The empty set indicates the offers (slack) are enough.
@@ -229,6 +210,7 @@ public interface Preemptor {
     private Optional<Set<IAssignedTask>> getTasksToPreempt(
         Iterable<IAssignedTask> possibleVictims,
         Iterable<Offer> offers,
+        ResourceSlot slackResources,
         IAssignedTask pendingTask) {
 
       // This enforces the precondition that all of the resources are from the same host. We need to
@@ -239,9 +221,6 @@ public interface Preemptor {
 
       String host = Iterables.getOnlyElement(hosts);
 
-      ResourceSlot slackResources =
-          ResourceSlot.sum(Iterables.transform(offers, OFFER_TO_RESOURCE_SLOT));
-
       if (!Iterables.isEmpty(offers)) {
         Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
             slackResources,
@@ -262,15 +241,12 @@ public interface Preemptor {
       }
 
       List<IAssignedTask> toPreemptTasks = Lists.newArrayList();
+      ResourceSlot totalResource = slackResources;
 
-      Iterable<IAssignedTask> sortedVictims = RESOURCE_ORDER.immutableSortedCopy(preemptableTasks);
-
-      for (IAssignedTask victim : sortedVictims) {
+      // Victims are already in the order they should be preempted in.
+      for (IAssignedTask victim : preemptableTasks) {
         toPreemptTasks.add(victim);
-
-        ResourceSlot totalResource = ResourceSlot.sum(
-            ResourceSlot.sum(Iterables.transform(toPreemptTasks, TASK_TO_RESOURCES)),
-            slackResources);
+        totalResource = ResourceSlot.sum(totalResource, TASK_TO_RESOURCES.apply(victim));
 
         Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
             totalResource,
@@ -292,17 +268,6 @@ public interface Preemptor {
           }
         };
 
-    private Multimap<String, IAssignedTask> getSlavesToActiveTasks() {
-      // Only non-pending active tasks may be preempted.
-      List<IAssignedTask> activeTasks = fetch(CANDIDATE_QUERY);
-
-      // Walk through the preemption candidates in reverse scheduling order.
-      Collections.sort(activeTasks, Tasks.SCHEDULING_ORDER.reverse());
-
-      // Group the tasks by slave id so they can be paired with offers from the same slave.
-      return Multimaps.index(activeTasks, TASK_TO_SLAVE_ID);
-    }
-
     // TODO(zmanji): Add throttling to prevent how much preemption a single task can cause over
     // time.
     // TODO(zmanji): Get the offer queue to associate a slave with a pending task.
@@ -318,9 +283,9 @@ public interface Preemptor {
 
       IAssignedTask pendingTask = Iterables.getOnlyElement(pendingTasks);
 
-      Multimap<String, IAssignedTask> slavesToActiveTasks = getSlavesToActiveTasks();
+      Set<String> candidateSlaves = candidates.getSlaveIds();
 
-      if (slavesToActiveTasks.isEmpty()) {
+      if (candidateSlaves.isEmpty()) {
         return Optional.absent();
       }
 
@@ -332,13 +297,26 @@ public interface Preemptor {
 
       Set<String> allSlaves = ImmutableSet.<String>builder()
           .addAll(slavesToOffers.keySet())
-          .addAll(slavesToActiveTasks.keySet())
+          .addAll(candidateSlaves)
           .build();
 
       for (String slaveID : allSlaves) {
+        Collection<Offer> offers = slavesToOffers.get(slaveID);
+        ResourceSlot slackResources =
+            ResourceSlot.sum(Iterables.transform(offers, OFFER_TO_RESOURCE_SLOT));
+
+        // Skip slaves where the task would not fit even if every task it may preempt was
+        // preempted, without consulting the scheduling filter.
+        if (!candidates.mayFit(slaveID, pendingTask, slackResources)) {
+          slotsPruned.incrementAndGet();
+          noSlotsFound.incrementAndGet();
+          continue;
+        }
+
         Optional<Set<IAssignedTask>> toPreemptTasks = getTasksToPreempt(
-            slavesToActiveTasks.get(slaveID),
-            slavesToOffers.get(slaveID),
+            candidates.getCandidates(slaveID),
+            offers,
+            slackResources,
             pendingTask);
 
         if (toPreemptTasks.isPresent()) {
@@ -80,6 +80,29 @@ class TaskGroup {
     return head.taskId;
   }
 
+  /**
+   * Removes up to {@code max} tasks from the head of the queue that are ready to be scheduled.
+   *
+   * @param max Maximum number of tasks to remove.
+   * @param nowMs Current time, used to determine whether tasks are ready.
+   * @return The ids of the removed tasks, in the order they became ready.
+   */
+  Set<String> popReady(int max, long nowMs) {
+    ImmutableSet.Builder<String> ready = ImmutableSet.builder();
+    for (int i = 0; i < max; i++) {
+      Task head = tasks.poll();
+      if (head == null) {
+        break;
+      }
+      if (head.readyTimestampMs > nowMs) {
+        tasks.offer(head);
+        break;
+      }
+      ready.add(head.taskId);
+    }
+    return ready.build();
+  }
+
   void remove(String taskId) {
     Iterables.removeIf(tasks, Predicates.compose(Predicates.equalTo(taskId), TO_TASK_ID));
   }
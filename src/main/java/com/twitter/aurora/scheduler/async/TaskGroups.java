@@ -15,6 +15,7 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +29,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -52,6 +54,7 @@ import com.twitter.common.util.BackoffStrategy;
 import com.twitter.common.util.Clock;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
@@ -79,10 +82,21 @@ public class TaskGroups implements EventSubscriber {
   static class TaskGroupsSettings {
     private final BackoffStrategy taskGroupBackoff;
     private final RateLimiter rateLimiter;
+    private final int batchSize;
+    private final int schedulingThreads;
+
+    TaskGroupsSettings(
+        BackoffStrategy taskGroupBackoff,
+        RateLimiter rateLimiter,
+        int batchSize,
+        int schedulingThreads) {
 
-    TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter) {
       this.taskGroupBackoff = checkNotNull(taskGroupBackoff);
       this.rateLimiter = checkNotNull(rateLimiter);
+      checkArgument(batchSize > 0);
+      this.batchSize = batchSize;
+      checkArgument(schedulingThreads > 0);
+      this.schedulingThreads = schedulingThreads;
     }
   }
 
@@ -97,10 +111,11 @@ public class TaskGroups implements EventSubscriber {
       Preemptor preemptor) {
 
     this(
-        createThreadPool(shutdownRegistry),
+        createThreadPool(shutdownRegistry, settings.schedulingThreads),
         storage,
         settings.taskGroupBackoff,
         settings.rateLimiter,
+        settings.batchSize,
         schedulingAction,
         clock,
         rescheduleCalculator,
@@ -112,6 +127,7 @@ public class TaskGroups implements EventSubscriber {
       final Storage storage,
       final BackoffStrategy taskGroupBackoffStrategy,
       final RateLimiter rateLimiter,
+      final int batchSize,
       final SchedulingAction schedulingAction,
       final Clock clock,
       final RescheduleCalculator rescheduleCalculator,
@@ -121,6 +137,7 @@ public class TaskGroups implements EventSubscriber {
     checkNotNull(executor);
     checkNotNull(taskGroupBackoffStrategy);
     checkNotNull(rateLimiter);
+    checkArgument(batchSize > 0);
     checkNotNull(schedulingAction);
     this.clock = checkNotNull(clock);
     this.rescheduleCalculator = checkNotNull(rescheduleCalculator);
@@ -131,13 +148,19 @@ public class TaskGroups implements EventSubscriber {
         rateLimiter.acquire();
         return schedulingAction.schedule(taskId);
       }
+
+      @Override public Set<String> schedule(Set<String> taskIds) {
+        // A batch counts as a single scheduling attempt.
+        rateLimiter.acquire();
+        return schedulingAction.schedule(taskIds);
+      }
     };
 
     groups = CacheBuilder.newBuilder().build(new CacheLoader<GroupKey, TaskGroup>() {
       @Override public TaskGroup load(GroupKey key) {
         TaskGroup group = new TaskGroup(key, taskGroupBackoffStrategy);
         LOG.info("Evaluating group " + key + " in " + group.getPenaltyMs() + " ms");
-        startGroup(group, executor, rateLimitedAction);
+        startGroup(group, executor, rateLimitedAction, batchSize);
         return group;
       }
     });
@@ -154,7 +177,8 @@ public class TaskGroups implements EventSubscriber {
   private void startGroup(
       final TaskGroup group,
       final ScheduledExecutorService executor,
-      final SchedulingAction action) {
+      final SchedulingAction action,
+      final int batchSize) {
 
     Runnable monitor = new Runnable() {
       @Override public void run() {
@@ -166,6 +190,11 @@ public class TaskGroups implements EventSubscriber {
             break;
 
           case READY:
+            if (batchSize > 1) {
+              scheduleBatch(this);
+              break;
+            }
+
             String id = group.pop();
             if (action.schedule(id)) {
               if (!maybeInvalidate(group)) {
@@ -187,15 +216,43 @@ public class TaskGroups implements EventSubscriber {
             throw new IllegalStateException("Unknown GroupState " + state);
         }
       }
+
+      private void scheduleBatch(Runnable monitor) {
+        long nowMs = clock.nowMillis();
+        Set<String> batch = group.popReady(batchSize, nowMs);
+        Set<String> scheduled = action.schedule(batch);
+        Set<String> unscheduled = Sets.difference(batch, scheduled);
+        for (String id : unscheduled) {
+          group.push(id, nowMs);
+        }
+
+        if (!scheduled.isEmpty()) {
+          if (!maybeInvalidate(group)) {
+            executor.schedule(monitor, group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
+          }
+        } else {
+          executor.schedule(monitor, group.penalizeAndGet(), TimeUnit.MILLISECONDS);
+          if (!unscheduled.isEmpty()) {
+            // Tasks in a group are interchangeable, so a slot for one would serve any of them.
+            preemptor.findPreemptionSlotFor(Iterables.getFirst(unscheduled, null));
+          }
+        }
+      }
     };
     executor.schedule(monitor, group.getPenaltyMs(), TimeUnit.MILLISECONDS);
   }
 
-  private static ScheduledExecutorService createThreadPool(ShutdownRegistry shutdownRegistry) {
+  private static ScheduledExecutorService createThreadPool(
+      ShutdownRegistry shutdownRegistry,
+      int threads) {
+
     // TODO(William Farner): Leverage ExceptionHandlingScheduledExecutorService:
     // com.twitter.common.util.concurrent.ExceptionHandlingScheduledExecutorService
+    // Groups may be evaluated concurrently, but a group is never evaluated by more than one thread
+    // at a time since its monitor is only rescheduled once an evaluation completes.  Evaluations
+    // that are due run in the order they became due, which round-robins between ready groups.
     final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
-        1,
+        threads,
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TaskScheduler-%d").build());
     Stats.exportSize("schedule_queue_size", executor.getQueue());
     shutdownRegistry.addAction(new Command() {
@@ -299,5 +356,15 @@ public class TaskGroups implements EventSubscriber {
      * @return {@code true} if the task was scheduled, {@code false} otherwise.
      */
     boolean schedule(String taskId);
+
+    /**
+     * Attempts to schedule a batch of tasks from the same task group, possibly performing
+     * irreversible actions.
+     *
+     * @param taskIds The tasks to attempt to schedule.
+     * @return The ids of tasks that no longer need scheduling.  Tasks that are not returned should
+     *         be retried.
+     */
+    Set<String> schedule(Set<String> taskIds);
   }
 }
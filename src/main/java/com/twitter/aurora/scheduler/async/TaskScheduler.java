@@ -15,6 +15,8 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,18 +26,22 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
 
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.state.TaskAssigner;
 import com.twitter.aurora.scheduler.storage.Storage;
-import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
-import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.Stats;
@@ -50,6 +56,10 @@ import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
  * backs off after a failed scheduling attempt.
  * <p>
  * Pending tasks are advertised to the scheduler via internal pubsub notifications.
+ * <p>
+ * Offers are matched against tasks without holding the storage write lock, so concurrent
+ * scheduling attempts do not serialize on it.  The offer queue reserves each offer while it is
+ * evaluated, and the task assigner commits the assignments to each offer in one short write.
  */
 class TaskScheduler implements SchedulingAction {
 
@@ -62,6 +72,7 @@ class TaskScheduler implements SchedulingAction {
 
   private final AtomicLong scheduleAttemptsFired = Stats.exportLong("schedule_attempts_fired");
   private final AtomicLong scheduleAttemptsFailed = Stats.exportLong("schedule_attempts_failed");
+  private final AtomicLong batchTasksLaunched = Stats.exportLong("schedule_batch_tasks_launched");
 
   @Inject
   TaskScheduler(
@@ -85,41 +96,38 @@ class TaskScheduler implements SchedulingAction {
   public boolean schedule(final String taskId) {
     scheduleAttemptsFired.incrementAndGet();
     try {
-      return storage.write(new MutateWork.Quiet<Boolean>() {
-        @Override public Boolean apply(MutableStoreProvider store) {
-          LOG.fine("Attempting to schedule task " + taskId);
-          Query.Builder pendingTaskQuery = Query.taskScoped(taskId).byStatus(PENDING);
-          final IScheduledTask task =
-              Iterables.getOnlyElement(store.getTaskStore().fetchTasks(pendingTaskQuery), null);
-          if (task == null) {
-            LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
-          } else {
-            Function<Offer, Optional<TaskInfo>> assignment =
-                new Function<Offer, Optional<TaskInfo>>() {
-                  @Override public Optional<TaskInfo> apply(Offer offer) {
-                    return assigner.maybeAssign(offer, task);
-                  }
-                };
-            try {
-              if (!offerQueue.launchFirst(assignment)) {
-                // Task could not be scheduled.
-                return false;
+      LOG.fine("Attempting to schedule task " + taskId);
+      Query.Builder pendingTaskQuery = Query.taskScoped(taskId).byStatus(PENDING);
+      final IScheduledTask task = Iterables.getOnlyElement(
+          Storage.Util.consistentFetchTasks(storage, pendingTaskQuery),
+          null);
+      if (task == null) {
+        LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
+      } else {
+        Function<Offer, Optional<TaskInfo>> assignment =
+            new Function<Offer, Optional<TaskInfo>>() {
+              @Override public Optional<TaskInfo> apply(Offer offer) {
+                return assigner.maybeAssign(offer, task);
               }
-            } catch (OfferQueue.LaunchException e) {
-              LOG.log(Level.WARNING, "Failed to launch task.", e);
-              scheduleAttemptsFailed.incrementAndGet();
-
-              // The attempt to schedule the task failed, so we need to backpedal on the assignment.
-              // It is in the LOST state and a new task will move to PENDING to replace it.
-              // Should the state change fail due to storage issues, that's okay.  The task will
-              // time out in the ASSIGNED state and be moved to LOST.
-              stateManager.changeState(pendingTaskQuery, LOST, LAUNCH_FAILED_MSG);
-            }
+            };
+        try {
+          if (!offerQueue.launchFirst(assignment)) {
+            // Task could not be scheduled.
+            return false;
           }
-
-          return true;
+        } catch (OfferQueue.LaunchException e) {
+          LOG.log(Level.WARNING, "Failed to launch task.", e);
+          scheduleAttemptsFailed.incrementAndGet();
+
+          // The attempt to schedule the task failed, so we need to backpedal on the assignment.
+          // It is in the LOST state and a new task will move to PENDING to replace it.
+          // Should the state change fail due to storage issues, that's okay.  The task will
+          // time out in the ASSIGNED state and be moved to LOST.
+          stateManager.changeState(pendingTaskQuery, LOST, LAUNCH_FAILED_MSG);
         }
-      });
+      }
+
+      return true;
     } catch (RuntimeException e) {
       // We catch the generic unchecked exception here to ensure tasks are not abandoned
       // if there is a transient issue resulting in an unchecked exception.
@@ -128,4 +136,61 @@ class TaskScheduler implements SchedulingAction {
       return false;
     }
   }
+
+  @Timed("task_schedule_batch_attempt")
+  @Override
+  public Set<String> schedule(final Set<String> taskIds) {
+    scheduleAttemptsFired.incrementAndGet();
+    try {
+      LOG.fine("Attempting to schedule tasks " + taskIds);
+      final List<IScheduledTask> pending = Lists.newLinkedList(Storage.Util.consistentFetchTasks(
+          storage,
+          Query.taskScoped(taskIds).byStatus(PENDING)));
+
+      // Tasks that could not be found may have been deleted, and need no further scheduling.
+      final Set<String> done = Sets.newHashSet(taskIds);
+      for (IScheduledTask task : pending) {
+        done.remove(Tasks.id(task));
+      }
+      if (!done.isEmpty()) {
+        LOG.warning("Failed to look up tasks " + done + ", they may have been deleted.");
+      }
+
+      // Tasks assigned to the offer currently being launched.
+      final Set<String> launching = Sets.newHashSet();
+      Function<Offer, List<TaskInfo>> assignment = new Function<Offer, List<TaskInfo>>() {
+        @Override public List<TaskInfo> apply(Offer offer) {
+          List<TaskInfo> assigned = assigner.maybeAssign(offer, ImmutableList.copyOf(pending));
+          launching.clear();
+          for (TaskInfo info : assigned) {
+            launching.add(info.getTaskId().getValue());
+          }
+          Iterables.removeIf(pending, Predicates.compose(
+              Predicates.in(launching),
+              Tasks.SCHEDULED_TO_ID));
+          done.addAll(launching);
+          return assigned;
+        }
+      };
+      try {
+        batchTasksLaunched.addAndGet(offerQueue.launchAll(assignment, pending.size()));
+      } catch (OfferQueue.LaunchException e) {
+        LOG.log(Level.WARNING, "Failed to launch tasks.", e);
+        scheduleAttemptsFailed.incrementAndGet();
+
+        // As with single task scheduling, the tasks assigned to the failed offer are moved to
+        // LOST, and replacements will be created.
+        stateManager.changeState(
+            Query.taskScoped(launching).byStatus(PENDING),
+            LOST,
+            LAUNCH_FAILED_MSG);
+      }
+
+      return done;
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Batch scheduling unexpectedly failed, will be retried", e);
+      scheduleAttemptsFailed.incrementAndGet();
+      return ImmutableSet.of();
+    }
+  }
 }
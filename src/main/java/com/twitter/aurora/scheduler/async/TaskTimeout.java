@@ -18,8 +18,6 @@ package com.twitter.aurora.scheduler.async;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -112,7 +110,7 @@ class TaskTimeout implements EventSubscriber {
   }
 
   private final Storage storage;
-  private final ScheduledExecutorService executor;
+  private final Timer timer;
   private final StateManager stateManager;
   private final long timeoutMillis;
   private final Clock clock;
@@ -121,14 +119,14 @@ class TaskTimeout implements EventSubscriber {
   @Inject
   TaskTimeout(
       Storage storage,
-      ScheduledExecutorService executor,
+      Timer timer,
       StateManager stateManager,
       final Clock clock,
       Amount<Long, Time> timeout,
       StatsProvider statsProvider) {
 
     this.storage = checkNotNull(storage);
-    this.executor = checkNotNull(executor);
+    this.timer = checkNotNull(timer);
     this.stateManager = checkNotNull(stateManager);
     this.timeoutMillis = timeout.as(Time.MILLISECONDS);
     this.clock = checkNotNull(clock);
@@ -139,14 +137,14 @@ class TaskTimeout implements EventSubscriber {
 
   private void registerTimeout(TimeoutKey key) {
     // This is an obvious check-then-act, but:
-    //   - there isn't much of a better option, given that we have to get the Future before
+    //   - there isn't much of a better option, given that we have to get the Timeout before
     //     inserting into the map
     //   - a key collision only happens in practice if something is wrong externally to this class
     //     (double event for the same state)
-    //   - the outcome is low-risk, we would wind up with a redundant Future that will eventually
+    //   - the outcome is low-risk, we would wind up with a redundant Timeout that will eventually
     //     no-op
     if (!futures.containsKey(key)) {
-      Future<?> timeoutHandler = executor.schedule(
+      Timer.Timeout timeoutHandler = timer.schedule(
           new TimedOutTaskHandler(key),
           timeoutMillis,
           TimeUnit.MILLISECONDS);
@@ -167,7 +165,7 @@ class TaskTimeout implements EventSubscriber {
       Context context = futures.remove(oldKey);
       if (context != null) {
         LOG.fine("Canceling state timeout for task " + oldKey);
-        context.future.cancel(false);
+        context.timeout.cancel();
       }
     }
 
@@ -218,11 +216,11 @@ class TaskTimeout implements EventSubscriber {
 
   private class Context {
     private final long timestampMillis;
-    private final Future<?> future;
+    private final Timer.Timeout timeout;
 
-    Context(long timestampMillis, Future<?> future) {
+    Context(long timestampMillis, Timer.Timeout timeout) {
       this.timestampMillis = timestampMillis;
-      this.future = future;
+      this.timeout = timeout;
     }
   }
 
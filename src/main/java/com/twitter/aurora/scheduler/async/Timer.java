@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks after a delay.  Intended for large numbers of timeouts that are usually canceled
+ * before they expire, where expiring slightly late is acceptable.
+ */
+interface Timer {
+
+  /**
+   * Schedules a task to run once after a delay.
+   *
+   * @param task Task to run.
+   * @param delay Minimum amount of time to wait before running the task.
+   * @param unit Unit of {@code delay}.
+   * @return A handle that may be used to cancel the task.
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+  /**
+   * A task scheduled with a {@link Timer}.
+   */
+  interface Timeout {
+
+    /**
+     * Cancels the task if it has not yet started running.
+     *
+     * @return {@code true} if the task was canceled, {@code false} if it has already run or was
+     *     already canceled.
+     */
+    boolean cancel();
+  }
+}
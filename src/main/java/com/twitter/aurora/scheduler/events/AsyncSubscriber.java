@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.events;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers events to a subscriber on a dedicated thread, so that slow subscribers do not delay
+ * the thread posting events.
+ * <p>
+ * Events are queued in a bounded queue and delivered in the order they were posted, so the
+ * subscriber observes the same sequence of events (and in particular the same sequence of state
+ * changes for any task) as it would with synchronous delivery.  Only events the subscriber
+ * handles are queued.
+ */
+class AsyncSubscriber {
+
+  private static final Logger LOG = Logger.getLogger(AsyncSubscriber.class.getName());
+
+  /**
+   * Action taken when an event is posted while the subscriber's queue is full.
+   */
+  enum OverflowPolicy {
+    /**
+     * Blocks the posting thread until the subscriber has room for the event.
+     */
+    BLOCK,
+
+    /**
+     * Discards the event.  Only suitable for subscribers that can tolerate missed events.
+     */
+    DISCARD
+  }
+
+  private final String name;
+  private final Set<Class<?>> eventTypes;
+  private final BlockingQueue<Object> queue;
+  private final OverflowPolicy overflowPolicy;
+  private final EventBus delivery;
+  private final SlidingStats handlerLatency;
+  private final AtomicLong eventsDiscarded;
+
+  private volatile Thread deliveryThread;
+
+  /**
+   * Creates a new asynchronous subscriber.  The delivery thread is not started until
+   * {@link #start()} is called.
+   *
+   * @param subscriber Subscriber to deliver events to.
+   * @param queueCapacity Maximum number of events awaiting delivery.
+   * @param overflowPolicy Action to take when the queue is full.
+   */
+  AsyncSubscriber(EventSubscriber subscriber, int queueCapacity, OverflowPolicy overflowPolicy) {
+    checkNotNull(subscriber);
+    checkArgument(queueCapacity > 0);
+
+    this.eventTypes = getEventTypes(subscriber.getClass());
+    this.queue = new LinkedBlockingQueue<Object>(queueCapacity);
+    this.overflowPolicy = checkNotNull(overflowPolicy);
+
+    this.name = getName(subscriber.getClass());
+    this.delivery = new EventBus(name);
+    delivery.register(subscriber);
+
+    String statPrefix = "event_subscriber_" + name;
+    Stats.exportSize(statPrefix + "_queue_size", queue);
+    this.handlerLatency = new SlidingStats(statPrefix + "_handler", "nanos");
+    this.eventsDiscarded = Stats.exportLong(statPrefix + "_events_discarded");
+  }
+
+  /**
+   * Gets a name for a subscriber class suitable for thread and stat names, omitting the suffixes
+   * added to classes enhanced for method interception.
+   *
+   * @param subscriberClass Subscriber class.
+   * @return Subscriber name.
+   */
+  @VisibleForTesting
+  static String getName(Class<?> subscriberClass) {
+    String name = subscriberClass.getSimpleName();
+    int enhancerSuffix = name.indexOf("$$");
+    return (enhancerSuffix == -1) ? name : name.substring(0, enhancerSuffix);
+  }
+
+  private static Set<Class<?>> getEventTypes(Class<?> subscriberClass) {
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(subscriberClass).getTypes().rawTypes()) {
+      for (Method method : type.getMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && (method.getParameterTypes().length == 1)) {
+
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types.build();
+  }
+
+  /**
+   * Starts the thread that delivers queued events to the subscriber.
+   */
+  void start() {
+    deliveryThread = new ThreadFactoryBuilder()
+        .setNameFormat("EventSubscriber-" + name)
+        .setDaemon(true)
+        .build()
+        .newThread(new Runnable() {
+          @Override public void run() {
+            deliverEvents();
+          }
+        });
+    deliveryThread.start();
+  }
+
+  private void deliverEvents() {
+    while (true) {
+      Object event;
+      try {
+        event = queue.take();
+      } catch (InterruptedException e) {
+        LOG.warning("Interrupted while waiting for events, stopping delivery.");
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      long start = System.nanoTime();
+      // The event bus logs and swallows exceptions thrown by the subscriber.
+      delivery.post(event);
+      handlerLatency.accumulate(System.nanoTime() - start);
+    }
+  }
+
+  private boolean isHandled(Object event) {
+    for (Class<?> type : eventTypes) {
+      if (type.isInstance(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues an event for delivery to the subscriber, if the subscriber handles the event.
+   *
+   * @param event Event to deliver.
+   */
+  @Subscribe
+  public void enqueue(PubsubEvent event) {
+    if (!isHandled(event)) {
+      return;
+    }
+
+    if (Thread.currentThread() == deliveryThread) {
+      // Events posted while handling an event are delivered once the handler returns, as with
+      // synchronous delivery.  Queueing them could deadlock when the queue is full.
+      delivery.post(event);
+      return;
+    }
+
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          queue.put(event);
+        } catch (InterruptedException e) {
+          LOG.log(Level.WARNING, "Interrupted while queueing event " + event, e);
+          Thread.currentThread().interrupt();
+        }
+        break;
+
+      case DISCARD:
+        if (!queue.offer(event)) {
+          eventsDiscarded.incrementAndGet();
+        }
+        break;
+
+      default:
+        throw new IllegalStateException("Unhandled overflow policy " + overflowPolicy);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.util.Set;
 
 import com.google.common.base.Objects;
 
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.scheduler.base.Tasks;
@@ -164,6 +165,36 @@ public interface PubsubEvent {
     }
   }
 
+  /**
+   * Event sent when the attributes of a host changed.
+   */
+  public static class HostAttributesChanged implements PubsubEvent {
+    private final HostAttributes attributes;
+
+    public HostAttributesChanged(HostAttributes attributes) {
+      this.attributes = checkNotNull(attributes);
+    }
+
+    public HostAttributes getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof HostAttributesChanged)) {
+        return false;
+      }
+
+      HostAttributesChanged other = (HostAttributesChanged) o;
+      return Objects.equal(attributes, other.attributes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(attributes);
+    }
+  }
+
   /**
    * Event sent when a scheduling assignment was vetoed.
    */
@@ -15,6 +15,8 @@
  */
 package com.twitter.aurora.scheduler.events;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -27,20 +29,29 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
+import com.google.inject.BindingAnnotation;
 import com.google.inject.TypeLiteral;
 import com.google.inject.matcher.Matchers;
 import com.google.inject.multibindings.Multibinder;
 
 import org.aopalliance.intercept.MethodInterceptor;
 
+import com.twitter.aurora.scheduler.events.AsyncSubscriber.OverflowPolicy;
 import com.twitter.aurora.scheduler.events.NotifyingSchedulingFilter.NotifyDelegate;
 import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.SendNotification;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.common.application.modules.LifecycleModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.Closure;
 import com.twitter.common.base.Command;
 
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -50,13 +61,43 @@ public final class PubsubEventModule extends AbstractModule {
 
   private static final Logger LOG = Logger.getLogger(PubsubEventModule.class.getName());
 
-  private PubsubEventModule() {
+  @CmdLine(name = "async_event_dispatch",
+      help = "Whether to deliver events to subscribers that permit it on a thread per subscriber, "
+          + "rather than on the thread posting the event.")
+  private static final Arg<Boolean> ASYNC_EVENT_DISPATCH = Arg.create(true);
+
+  @CmdLine(name = "async_event_queue_capacity",
+      help = "Maximum number of events awaiting delivery to each asynchronous subscriber.")
+  private static final Arg<Integer> ASYNC_EVENT_QUEUE_CAPACITY = Arg.create(10000);
+
+  @CmdLine(name = "async_event_overflow_policy",
+      help = "Action to take when an asynchronous subscriber's event queue is full.")
+  private static final Arg<OverflowPolicy> ASYNC_EVENT_OVERFLOW_POLICY =
+      Arg.create(OverflowPolicy.BLOCK);
+
+  /**
+   * Binding annotation for subscribers that may receive events asynchronously.
+   */
+  @BindingAnnotation
+  @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  @interface AsyncDelivery { }
+
+  private final boolean asyncDispatch;
+
+  private PubsubEventModule(boolean asyncDispatch) {
     // Must be constructed through factory.
+    this.asyncDispatch = asyncDispatch;
   }
 
+  /**
+   * Installs the pubsub system, delivering all events synchronously so that tests observe the
+   * effects of an event as soon as it is posted.
+   *
+   * @param binder Binder to install the pubsub system onto.
+   */
   @VisibleForTesting
   public static void installForTest(Binder binder) {
-    binder.install(new PubsubEventModule());
+    binder.install(new PubsubEventModule(false));
   }
 
   @Override
@@ -77,20 +118,47 @@ public final class PubsubEventModule extends AbstractModule {
     };
     bind(new TypeLiteral<Closure<PubsubEvent>>() { }).toInstance(eventPoster);
 
+    bind(DispatchSettings.class).toInstance(new DispatchSettings(
+        asyncDispatch,
+        ASYNC_EVENT_QUEUE_CAPACITY.get(),
+        ASYNC_EVENT_OVERFLOW_POLICY.get()));
+
     // Ensure at least an empty binding is present.
     getSubscriberBinder(binder());
+    getAsyncSubscriberBinder(binder());
     LifecycleModule.bindStartupAction(binder(), RegisterSubscribers.class);
     bindNotifyingInterceptor(binder());
   }
 
+  static class DispatchSettings {
+    private final boolean async;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    DispatchSettings(boolean async, int queueCapacity, OverflowPolicy overflowPolicy) {
+      this.async = async;
+      this.queueCapacity = queueCapacity;
+      this.overflowPolicy = checkNotNull(overflowPolicy);
+    }
+  }
+
   static class RegisterSubscribers implements Command {
     private final EventBus eventBus;
     private final Set<EventSubscriber> subscribers;
+    private final Set<EventSubscriber> asyncSubscribers;
+    private final DispatchSettings settings;
 
     @Inject
-    RegisterSubscribers(EventBus eventBus, Set<EventSubscriber> subscribers) {
+    RegisterSubscribers(
+        EventBus eventBus,
+        Set<EventSubscriber> subscribers,
+        @AsyncDelivery Set<EventSubscriber> asyncSubscribers,
+        DispatchSettings settings) {
+
       this.eventBus = checkNotNull(eventBus);
       this.subscribers = checkNotNull(subscribers);
+      this.asyncSubscribers = checkNotNull(asyncSubscribers);
+      this.settings = checkNotNull(settings);
     }
 
     @Override
@@ -98,6 +166,16 @@ public final class PubsubEventModule extends AbstractModule {
       for (EventSubscriber subscriber : subscribers) {
         eventBus.register(subscriber);
       }
+      for (EventSubscriber subscriber : asyncSubscribers) {
+        if (settings.async) {
+          AsyncSubscriber async =
+              new AsyncSubscriber(subscriber, settings.queueCapacity, settings.overflowPolicy);
+          async.start();
+          eventBus.register(async);
+        } else {
+          eventBus.register(subscriber);
+        }
+      }
     }
   }
 
@@ -111,13 +189,17 @@ public final class PubsubEventModule extends AbstractModule {
     binder.bind(SchedulingFilter.class).annotatedWith(NotifyDelegate.class).to(filterClass);
     binder.bind(SchedulingFilter.class).to(NotifyingSchedulingFilter.class);
     binder.bind(NotifyingSchedulingFilter.class).in(Singleton.class);
-    binder.install(new PubsubEventModule());
+    binder.install(new PubsubEventModule(ASYNC_EVENT_DISPATCH.get()));
   }
 
   private static Multibinder<EventSubscriber> getSubscriberBinder(Binder binder) {
     return Multibinder.newSetBinder(binder, EventSubscriber.class);
   }
 
+  private static Multibinder<EventSubscriber> getAsyncSubscriberBinder(Binder binder) {
+    return Multibinder.newSetBinder(binder, EventSubscriber.class, AsyncDelivery.class);
+  }
+
   /**
    * Binds a subscriber to receive task events.
    *
@@ -128,6 +210,27 @@ public final class PubsubEventModule extends AbstractModule {
     getSubscriberBinder(binder).addBinding().to(subscriber);
   }
 
+  /**
+   * Binds a subscriber to receive task events, which may be delivered on a thread dedicated to
+   * the subscriber rather than the thread posting the event.  Events are delivered in the order
+   * they were posted, but the subscriber may observe them after the poster has moved on, so it
+   * must not be relied upon to have processed an event by the time the event is posted.
+   * <p>
+   * Events are posted while storage locks are held, and a full delivery queue blocks the poster
+   * under the default overflow policy.  Subscribers whose handlers perform storage writes must
+   * therefore be bound with {@link #bindSubscriber(Binder, Class)} instead, or a full queue will
+   * deadlock the poster against the subscriber.
+   *
+   * @param binder Binder to bind the subscriber with.
+   * @param subscriber Subscriber implementation class to register for events.
+   */
+  public static void bindAsyncSubscriber(
+      Binder binder,
+      Class<? extends EventSubscriber> subscriber) {
+
+    getAsyncSubscriberBinder(binder).addBinding().to(subscriber);
+  }
+
   /**
    * Binds a method interceptor to all methods annotated with {@link SendNotification}.
    * <p>
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.AttributeStore;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.Work;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts the active tasks of each job by the attributes of the hosts they are assigned to, so
+ * that limit constraints may be evaluated without scanning the tasks of a job.
+ * <p>
+ * Counts are updated incrementally from task state change notifications, and are recomputed
+ * from storage when storage starts.  The attributes of a host are captured when the first task
+ * on it is counted, and are replaced when a change to the host's attributes is announced.
+ */
+public class AttributeAggregates implements EventSubscriber {
+
+  private static final Set<ScheduleStatus> ACTIVE_NOT_PENDING_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(ScheduleStatus.PENDING)));
+
+  private final Storage storage;
+
+  private final Map<String, CountedTask> tasks = Maps.newHashMap();
+  private final Multimap<String, String> tasksByHost = HashMultimap.create();
+  private final Map<String, Set<Attribute>> hostAttributes = Maps.newHashMap();
+  private final Map<IJobKey, Multiset<Attribute>> counts = Maps.newHashMap();
+
+  /**
+   * Creates a new attribute aggregate.
+   *
+   * @param storage Storage to load tasks and host attributes from.
+   */
+  @Inject
+  public AttributeAggregates(Storage storage) {
+    this.storage = checkNotNull(storage);
+  }
+
+  /**
+   * Gets the number of active tasks of a job assigned to hosts with any of a set of attributes.
+   * A task on a host with more than one of the attributes is counted once for each of them,
+   * which can only make limit constraints more restrictive.
+   *
+   * @param job Job to count tasks of.
+   * @param attributes Host attributes to count tasks by.
+   * @return Number of active tasks of {@code job} on hosts with {@code attributes}.
+   */
+  public synchronized int getCount(IJobKey job, Iterable<Attribute> attributes) {
+    Multiset<Attribute> jobCounts = counts.get(job);
+    if (jobCounts == null) {
+      return 0;
+    }
+
+    int count = 0;
+    for (Attribute attribute : attributes) {
+      count += jobCounts.count(attribute);
+    }
+    return count;
+  }
+
+  /**
+   * Updates the counts with a task state change.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public void taskChangedState(TaskStateChange stateChange) {
+    IScheduledTask task = stateChange.getTask();
+    if (ACTIVE_NOT_PENDING_STATES.contains(stateChange.getNewState())) {
+      String host = task.getAssignedTask().getSlaveHost();
+      if (!isCounted(Tasks.id(task))) {
+        // Attributes are loaded before acquiring the monitor, matching the lock order used when
+        // evaluating limit constraints.
+        add(Tasks.id(task), Tasks.SCHEDULED_TO_JOB_KEY.apply(task), host, loadAttributes(host));
+      }
+    } else {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Removes deleted tasks from the counts.
+   *
+   * @param deleted Tasks deleted event.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Recounts the tasks on a host whose attributes changed.
+   *
+   * @param change Host attributes change notification.
+   */
+  @Subscribe
+  public synchronized void hostAttributesChanged(HostAttributesChanged change) {
+    HostAttributes attributes = change.getAttributes();
+    String host = attributes.getHost();
+    Set<Attribute> previous = hostAttributes.get(host);
+    Set<Attribute> current = ImmutableSet.copyOf(attributes.getAttributes());
+    if ((previous == null) || previous.equals(current)) {
+      return;
+    }
+
+    hostAttributes.put(host, current);
+    for (String taskId : tasksByHost.get(host)) {
+      Multiset<Attribute> jobCounts = getJobCounts(tasks.get(taskId).job);
+      for (Attribute attribute : previous) {
+        jobCounts.remove(attribute);
+      }
+      jobCounts.addAll(current);
+    }
+  }
+
+  /**
+   * Loads the counts from storage.
+   *
+   * @param event Storage started notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted event) {
+    // Notifications are delivered under the storage write lock, so the counts are rebuilt under
+    // it as well, rather than from a snapshot that a concurrent write could make stale.
+    storage.write(new MutateWork.Quiet<Void>() {
+      @Override public Void apply(MutableStoreProvider storeProvider) {
+        ImmutableList.Builder<IScheduledTask> active = ImmutableList.builder();
+        Map<String, Set<Attribute>> attributes = Maps.newHashMap();
+        for (IScheduledTask task : storeProvider.getTaskStore()
+            .fetchTasks(Query.unscoped().byStatus(ACTIVE_NOT_PENDING_STATES))) {
+
+          String host = task.getAssignedTask().getSlaveHost();
+          if (!attributes.containsKey(host)) {
+            attributes.put(host, ImmutableSet.copyOf(
+                AttributeStore.Util.attributesOrNone(storeProvider, host)));
+          }
+          active.add(task);
+        }
+        replaceAll(active.build(), ImmutableMap.copyOf(attributes));
+        return null;
+      }
+    });
+  }
+
+  private synchronized boolean isCounted(String taskId) {
+    return tasks.containsKey(taskId);
+  }
+
+  private Set<Attribute> loadAttributes(final String host) {
+    return storage.weaklyConsistentRead(new Work.Quiet<Set<Attribute>>() {
+      @Override public Set<Attribute> apply(StoreProvider storeProvider) {
+        return ImmutableSet.copyOf(AttributeStore.Util.attributesOrNone(storeProvider, host));
+      }
+    });
+  }
+
+  private synchronized void replaceAll(
+      Iterable<IScheduledTask> active,
+      Map<String, Set<Attribute>> attributes) {
+
+    tasks.clear();
+    tasksByHost.clear();
+    hostAttributes.clear();
+    counts.clear();
+    for (IScheduledTask task : active) {
+      String host = task.getAssignedTask().getSlaveHost();
+      add(Tasks.id(task), Tasks.SCHEDULED_TO_JOB_KEY.apply(task), host, attributes.get(host));
+    }
+  }
+
+  private Multiset<Attribute> getJobCounts(IJobKey job) {
+    Multiset<Attribute> jobCounts = counts.get(job);
+    if (jobCounts == null) {
+      jobCounts = HashMultiset.create();
+      counts.put(job, jobCounts);
+    }
+    return jobCounts;
+  }
+
+  private synchronized void add(
+      String taskId,
+      IJobKey job,
+      String host,
+      Set<Attribute> loadedAttributes) {
+
+    if (tasks.containsKey(taskId)) {
+      return;
+    }
+
+    // Tasks on the same host are always counted against the same attributes, so that they are
+    // removed consistently if the attributes change.
+    Set<Attribute> attributes = hostAttributes.get(host);
+    if (attributes == null) {
+      attributes = loadedAttributes;
+      hostAttributes.put(host, attributes);
+    }
+
+    tasks.put(taskId, new CountedTask(job, host));
+    tasksByHost.put(host, taskId);
+    getJobCounts(job).addAll(attributes);
+  }
+
+  private synchronized void remove(String taskId) {
+    CountedTask task = tasks.remove(taskId);
+    if (task == null) {
+      return;
+    }
+
+    tasksByHost.remove(task.host, taskId);
+    Set<Attribute> attributes = tasksByHost.containsKey(task.host)
+        ? hostAttributes.get(task.host)
+        : hostAttributes.remove(task.host);
+    Multiset<Attribute> jobCounts = counts.get(task.job);
+    for (Attribute attribute : attributes) {
+      jobCounts.remove(attribute);
+    }
+    if (jobCounts.isEmpty()) {
+      counts.remove(task.job);
+    }
+  }
+
+  private static class CountedTask {
+    private final IJobKey job;
+    private final String host;
+
+    CountedTask(IJobKey job, String host) {
+      this.job = job;
+      this.host = host;
+    }
+  }
+}
@@ -15,59 +15,35 @@
  */
 package com.twitter.aurora.scheduler.filter;
 
-import java.util.Collection;
-import java.util.Set;
-import java.util.logging.Logger;
-
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.base.Supplier;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 
-import com.twitter.aurora.gen.Attribute;
-import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
-import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.AttributeLoader;
-import com.twitter.aurora.scheduler.storage.entities.IConstraint;
+import com.twitter.aurora.scheduler.filter.TaskRequirements.LimitRequirement;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
-import com.twitter.aurora.scheduler.storage.entities.ITaskConstraint;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Filter that determines whether a task's constraints are satisfied.
+ * Filter that determines whether a task's limit constraints are satisfied by a host.
  */
-class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
-
-  private static final Logger LOG = Logger.getLogger(ConstraintFilter.class.getName());
+class ConstraintFilter {
 
   private final IJobKey jobKey;
-  private final Supplier<Collection<IScheduledTask>> activeTasksSupplier;
-  private final AttributeLoader attributeLoader;
-  private final Iterable<Attribute> hostAttributes;
+  private final AttributeAggregates aggregates;
+  private final HostView host;
 
   /**
    * Creates a new constraint filer for a given job.
    *
    * @param jobKey Key for the job.
-   * @param activeTasksSupplier Supplier to fetch active tasks (if necessary).
-   * @param attributeLoader Interface to fetch host attributes (if necessary).
-   * @param hostAttributes The attributes of the host to test against.
+   * @param aggregates Counts of active tasks by host attribute.
+   * @param host The host to test against.
    */
-  ConstraintFilter(
-      IJobKey jobKey,
-      Supplier<Collection<IScheduledTask>> activeTasksSupplier,
-      AttributeLoader attributeLoader,
-      Iterable<Attribute> hostAttributes) {
-
+  ConstraintFilter(IJobKey jobKey, AttributeAggregates aggregates, HostView host) {
     this.jobKey = checkNotNull(jobKey);
-    this.activeTasksSupplier = checkNotNull(activeTasksSupplier);
-    this.attributeLoader = checkNotNull(attributeLoader);
-    this.hostAttributes = checkNotNull(hostAttributes);
+    this.aggregates = checkNotNull(aggregates);
+    this.host = checkNotNull(host);
   }
 
   @VisibleForTesting
@@ -85,54 +61,21 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
     return new Veto("Host " + reason + " for maintenance", Veto.MAX_SCORE);
   }
 
-  @Override
-  public Optional<Veto> apply(IConstraint constraint) {
-    Set<Attribute> attributes =
-        ImmutableSet.copyOf(Iterables.filter(hostAttributes, new NameFilter(constraint.getName())));
-
-    ITaskConstraint taskConstraint = constraint.getConstraint();
-    switch (taskConstraint.getSetField()) {
-      case VALUE:
-        boolean matches =
-            AttributeFilter.matches(attributes, taskConstraint.getValue());
-        return matches
-            ? Optional.<Veto>absent()
-            : Optional.of(mismatchVeto(constraint.getName()));
-
-      case LIMIT:
-        if (attributes.isEmpty()) {
-          return Optional.of(mismatchVeto(constraint.getName()));
-        }
-
-        boolean satisfied = AttributeFilter.matches(
-            attributes,
-            jobKey,
-            taskConstraint.getLimit().getLimit(),
-            activeTasksSupplier.get(),
-            attributeLoader);
-        return satisfied
-            ? Optional.<Veto>absent()
-            : Optional.of(limitVeto(constraint.getName()));
-
-      default:
-        LOG.warning("Unrecognized constraint type: " + taskConstraint.getSetField());
-        throw new SchedulerException("Failed to recognize the constraint type: "
-            + taskConstraint.getSetField());
-    }
-  }
-
   /**
-   * A filter to find attributes matching a name.
+   * Evaluates a limit constraint.
+   *
+   * @param constraint Constraint to evaluate.
+   * @return A veto if the host does not satisfy {@code constraint}.
    */
-  static class NameFilter implements Predicate<Attribute> {
-    private final String attributeName;
-
-    NameFilter(String attributeName) {
-      this.attributeName = attributeName;
+  Optional<Veto> apply(LimitRequirement constraint) {
+    if (!host.hasAttribute(constraint.getName())) {
+      return Optional.of(mismatchVeto(constraint.getName()));
     }
 
-    @Override public boolean apply(Attribute attribute) {
-      return attributeName.equals(attribute.getName());
-    }
+    boolean satisfied = constraint.getLimit()
+        > aggregates.getCount(jobKey, host.getAttributes(constraint.getName()));
+    return satisfied
+        ? Optional.<Veto>absent()
+        : Optional.of(limitVeto(constraint.getName()));
   }
 }
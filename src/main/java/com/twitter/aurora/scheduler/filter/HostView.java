@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+
+import com.twitter.aurora.gen.Attribute;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Attributes of a host, indexed by attribute name so that constraints may be evaluated with
+ * lookups rather than scans.
+ */
+final class HostView {
+
+  private final SetMultimap<String, Attribute> attributes;
+  private final SetMultimap<String, String> values;
+
+  private HostView(SetMultimap<String, Attribute> attributes, SetMultimap<String, String> values) {
+    this.attributes = checkNotNull(attributes);
+    this.values = checkNotNull(values);
+  }
+
+  /**
+   * Creates a view of host attributes.
+   *
+   * @param hostAttributes Attributes of the host.
+   * @return A view of {@code hostAttributes}.
+   */
+  static HostView from(Iterable<Attribute> hostAttributes) {
+    ImmutableSetMultimap.Builder<String, Attribute> attributes = ImmutableSetMultimap.builder();
+    ImmutableSetMultimap.Builder<String, String> values = ImmutableSetMultimap.builder();
+    for (Attribute attribute : hostAttributes) {
+      attributes.put(attribute.getName(), attribute);
+      values.putAll(attribute.getName(), attribute.getValues());
+    }
+    return new HostView(attributes.build(), values.build());
+  }
+
+  /**
+   * Tests whether the host has any attribute with a name.
+   *
+   * @param name Attribute name.
+   * @return {@code true} if the host has an attribute named {@code name}.
+   */
+  boolean hasAttribute(String name) {
+    return attributes.containsKey(name);
+  }
+
+  /**
+   * Gets the attributes of the host with a name.
+   *
+   * @param name Attribute name.
+   * @return Attributes named {@code name}, possibly empty.
+   */
+  Set<Attribute> getAttributes(String name) {
+    return attributes.get(name);
+  }
+
+  /**
+   * Gets all values of attributes of the host with a name.
+   *
+   * @param name Attribute name.
+   * @return Union of the values of attributes named {@code name}, possibly empty.
+   */
+  Set<String> getValues(String name) {
+    return values.get(name);
+  }
+}
@@ -15,39 +15,37 @@
  */
 package com.twitter.aurora.scheduler.filter;
 
-import java.util.Collection;
-import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.MaintenanceMode;
-import com.twitter.aurora.gen.ScheduleStatus;
-import com.twitter.aurora.gen.TaskConstraint;
 import com.twitter.aurora.scheduler.ResourceSlot;
-import com.twitter.aurora.scheduler.base.Query;
-import com.twitter.aurora.scheduler.base.Tasks;
-import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.filter.TaskRequirements.LimitRequirement;
+import com.twitter.aurora.scheduler.filter.TaskRequirements.ValueRequirement;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
-import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
-import com.twitter.aurora.scheduler.storage.entities.IConstraint;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
@@ -67,49 +65,53 @@ import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceV
  * fulfilled, and that tasks are allowed to run on the given machine.
  *
  */
-public class SchedulingFilterImpl implements SchedulingFilter {
+public class SchedulingFilterImpl implements SchedulingFilter, EventSubscriber {
 
   @VisibleForTesting static final Veto DEDICATED_HOST_VETO =
       Veto.constraintMismatch("Host is dedicated");
 
+  private static final Set<Veto> DEDICATED_HOST_VETOES = ImmutableSet.of(DEDICATED_HOST_VETO);
+
   private static final Optional<Veto> NO_VETO = Optional.absent();
 
   private static final Set<MaintenanceMode> VETO_MODES = EnumSet.of(DRAINING, DRAINED);
 
   private final Storage storage;
   private final MaintenanceController maintenance;
+  private final AttributeAggregates aggregates;
+  private final LoadingCache<ITaskConfig, TaskRequirements> requirements;
+
+  // Views of stored host attributes, shared by every task evaluated against a host.  Views are
+  // replaced when host attributes change, and only hosts with stored attributes are cached.
+  private final ConcurrentMap<String, HostView> hostViews = Maps.newConcurrentMap();
 
   /**
    * Creates a new scheduling filter.
    *
    * @param storage Interface to accessing the task store.
    * @param maintenance Interface to accessing the maintenance controller
+   * @param aggregates Counts of active tasks by host attribute, to evaluate limit constraints.
    */
   @Inject
-  public SchedulingFilterImpl(Storage storage, MaintenanceController maintenance) {
+  public SchedulingFilterImpl(
+      Storage storage,
+      MaintenanceController maintenance,
+      AttributeAggregates aggregates) {
+
     this.storage = checkNotNull(storage);
     this.maintenance = checkNotNull(maintenance);
-  }
-
-  /**
-   * A function that fetches attributes associated with a given host.
-   */
-  public interface AttributeLoader extends Function<String, Iterable<Attribute>> { }
-
-  /**
-   * A function that may veto a task.
-   */
-  private interface FilterRule extends Function<ITaskConfig, Iterable<Veto>> { }
-
-  /**
-   * Convenience class for a rule that will only ever have a single veto.
-   */
-  private abstract static class SingleVetoRule implements FilterRule {
-    @Override public final Iterable<Veto> apply(ITaskConfig task) {
-      return doApply(task).asSet();
-    }
-
-    abstract Optional<Veto> doApply(ITaskConfig task);
+    this.aggregates = checkNotNull(aggregates);
+
+    // Weak keys are compared by identity, which avoids hashing the task configuration on every
+    // evaluation.  A pending task is evaluated against many offers with the same configuration
+    // instance, and its entry is released once the task is no longer referenced.
+    this.requirements = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<ITaskConfig, TaskRequirements>() {
+          @Override public TaskRequirements load(ITaskConfig task) {
+            return TaskRequirements.from(task);
+          }
+        });
   }
 
   // Scaling ranges to use for comparison of vetos.  This has no real bearing besides trying to
@@ -153,142 +155,134 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     }
   }
 
-  private Iterable<FilterRule> rulesFromOffer(final ResourceSlot available) {
-    return ImmutableList.<FilterRule>of(
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return CPU.maybeVeto(
-                available.getNumCpus(),
-                ResourceSlot.from(task).getNumCpus());
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return RAM.maybeVeto(
-                available.getRam().as(Data.MB),
-                ResourceSlot.from(task).getRam().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return DISK.maybeVeto(available.getDisk().as(Data.MB),
-                ResourceSlot.from(task).getDisk().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return PORTS.maybeVeto(available.getNumPorts(),
-                ResourceSlot.from(task).getNumPorts());
-          }
-        }
-    );
+  private Optional<Veto> getMaintenanceVeto(String slaveHost) {
+    MaintenanceMode mode = maintenance.getMode(slaveHost);
+    return VETO_MODES.contains(mode)
+        ? Optional.of(ConstraintFilter.maintenanceVeto(mode.toString().toLowerCase()))
+        : NO_VETO;
   }
 
-  private static boolean isValueConstraint(IConstraint constraint) {
-    return constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE;
-  }
+  /**
+   * Accumulates vetoes, deferring allocation until a veto is added.
+   */
+  private static class Vetoes {
+    private ImmutableSet.Builder<Veto> builder;
 
-  private static final Ordering<IConstraint> VALUES_FIRST = Ordering.from(
-      new Comparator<IConstraint>() {
-        @Override public int compare(IConstraint a, IConstraint b) {
-          if (a.getConstraint().getSetField() == b.getConstraint().getSetField()) {
-            return 0;
-          }
-          return isValueConstraint(a) ? -1 : 1;
+    void add(Optional<Veto> veto) {
+      if (veto.isPresent()) {
+        if (builder == null) {
+          builder = ImmutableSet.builder();
         }
-      });
+        builder.add(veto.get());
+      }
+    }
 
-  private static final Iterable<ScheduleStatus> ACTIVE_NOT_PENDING_STATES =
-      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(ScheduleStatus.PENDING)));
+    Set<Veto> build() {
+      return (builder == null) ? ImmutableSet.<Veto>of() : builder.build();
+    }
+  }
 
-  private FilterRule getConstraintFilter(final String slaveHost) {
-    return new FilterRule() {
-      @Override public Iterable<Veto> apply(final ITaskConfig task) {
-        if (!task.isSetConstraints()) {
-          return ImmutableList.of();
-        }
+  private static void addResourceVetoes(ResourceSlot offer, TaskRequirements task, Vetoes vetoes) {
+    vetoes.add(CPU.maybeVeto(offer.getNumCpus(), task.getCpus()));
+    vetoes.add(RAM.maybeVeto(offer.getRam().as(Data.MB), task.getRamMb()));
+    vetoes.add(DISK.maybeVeto(offer.getDisk().as(Data.MB), task.getDiskMb()));
+    vetoes.add(PORTS.maybeVeto(offer.getNumPorts(), task.getPorts()));
+  }
 
-        // In the interest of performance, we perform a weakly consistent read here.  The biggest
-        // risk of this is that we might schedule against stale host attributes, or we might fail
-        // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
-        // for both of these, and the impact is also low, the weak consistency is acceptable.
-        return storage.weaklyConsistentRead(new Quiet<Iterable<Veto>>() {
-          @Override public Iterable<Veto> apply(final StoreProvider storeProvider) {
-            AttributeLoader attributeLoader = new AttributeLoader() {
-              @Override public Iterable<Attribute> apply(String host) {
-                return AttributeStore.Util.attributesOrNone(storeProvider, host);
-              }
-            };
-
-            Supplier<Collection<IScheduledTask>> activeTasksSupplier =
-                Suppliers.memoize(new Supplier<Collection<IScheduledTask>>() {
-                  @Override public Collection<IScheduledTask> get() {
-                    return storeProvider.getTaskStore().fetchTasks(
-                        Query.jobScoped(Tasks.INFO_TO_JOB_KEY.apply(task))
-                            .byStatus(ACTIVE_NOT_PENDING_STATES));
-                  }
-                });
-
-            ConstraintFilter constraintFilter = new ConstraintFilter(
-                Tasks.INFO_TO_JOB_KEY.apply(task),
-                activeTasksSupplier,
-                attributeLoader,
-                attributeLoader.apply(slaveHost));
-            ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
-            for (IConstraint constraint : VALUES_FIRST.sortedCopy(task.getConstraints())) {
-              Optional<Veto> veto = constraintFilter.apply(constraint);
-              if (veto.isPresent()) {
-                vetoes.add(veto.get());
-                if (isValueConstraint(constraint)) {
-                  // Break when a value constraint mismatch is found to avoid other
-                  // potentially-expensive operations to satisfy other constraints.
-                  break;
-                }
-              }
-            }
-
-            return vetoes.build();
-          }
-        });
-      }
-    };
+  /**
+   * Replaces the cached view of a host whose attributes changed.
+   *
+   * @param change Host attributes change notification.
+   */
+  @Subscribe
+  public void hostAttributesChanged(HostAttributesChanged change) {
+    HostAttributes attributes = change.getAttributes();
+    hostViews.put(attributes.getHost(), HostView.from(attributes.getAttributes()));
   }
 
-  private Optional<Veto> getMaintenanceVeto(String slaveHost) {
-    MaintenanceMode mode = maintenance.getMode(slaveHost);
-    return VETO_MODES.contains(mode)
-        ? Optional.of(ConstraintFilter.maintenanceVeto(mode.toString().toLowerCase()))
-        : NO_VETO;
+  /**
+   * Discards cached host views, since stored attributes may have been replaced.
+   *
+   * @param event Storage started notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted event) {
+    hostViews.clear();
   }
 
-  private Set<Veto> getResourceVetoes(ResourceSlot offer, ITaskConfig task) {
-    ImmutableSet.Builder<Veto> builder = ImmutableSet.builder();
-    for (FilterRule rule : rulesFromOffer(offer)) {
-      builder.addAll(rule.apply(task));
+  private HostView getHostView(final String slaveHost) {
+    HostView cached = hostViews.get(slaveHost);
+    if (cached != null) {
+      return cached;
     }
-    return builder.build();
-  }
 
-  private boolean isDedicated(final String slaveHost) {
-    Iterable<Attribute> slaveAttributes =
-        storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
-          @Override public Iterable<Attribute> apply(final StoreProvider storeProvider) {
-            return AttributeStore.Util.attributesOrNone(storeProvider, slaveHost);
+    // In the interest of performance, we perform a weakly consistent read here.  The biggest
+    // risk of this is that we might schedule against stale host attributes, or we might fail
+    // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
+    // for both of these, and the impact is also low, the weak consistency is acceptable.
+    Optional<HostAttributes> attributes =
+        storage.weaklyConsistentRead(new Quiet<Optional<HostAttributes>>() {
+          @Override public Optional<HostAttributes> apply(StoreProvider storeProvider) {
+            return storeProvider.getAttributeStore().getHostAttributes(slaveHost);
           }
         });
+    if (!attributes.isPresent()) {
+      return HostView.from(ImmutableList.<Attribute>of());
+    }
+
+    // A view loaded concurrently with an attribute change must not replace the changed view.
+    HostView loaded = HostView.from(attributes.get().getAttributes());
+    HostView raced = hostViews.putIfAbsent(slaveHost, loaded);
+    return (raced == null) ? loaded : raced;
+  }
+
+  /**
+   * Evaluates the constraints of a task against a host.
+   *
+   * @return {@code false} if the host is dedicated and may not run the task, otherwise
+   *     {@code true}.
+   */
+  private boolean addHostVetoes(String slaveHost, TaskRequirements task, Vetoes vetoes) {
+    HostView host = getHostView(slaveHost);
+    if (!task.isDedicated() && host.hasAttribute(DEDICATED_ATTRIBUTE)) {
+      return false;
+    }
 
-    return Iterables.any(slaveAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE));
+    for (ValueRequirement constraint : task.getValueRequirements()) {
+      if (!constraint.matches(host)) {
+        // Stop when a value constraint mismatch is found to avoid potentially-expensive
+        // operations to satisfy limit constraints.
+        vetoes.add(Optional.of(ConstraintFilter.mismatchVeto(constraint.getName())));
+        return true;
+      }
+    }
+
+    if (!task.getLimitRequirements().isEmpty()) {
+      ConstraintFilter constraintFilter = new ConstraintFilter(task.getJobKey(), aggregates, host);
+      for (LimitRequirement constraint : task.getLimitRequirements()) {
+        vetoes.add(constraintFilter.apply(constraint));
+      }
+    }
+    return true;
+  }
+
+  private TaskRequirements getRequirements(ITaskConfig task) {
+    try {
+      return requirements.getUnchecked(task);
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
   }
 
   @Override
   public Set<Veto> filter(ResourceSlot offer, String slaveHost, ITaskConfig task, String taskId) {
-    if (!ConfigurationManager.isDedicated(task) && isDedicated(slaveHost)) {
-      return ImmutableSet.of(DEDICATED_HOST_VETO);
+    TaskRequirements requirements = getRequirements(task);
+    Vetoes vetoes = new Vetoes();
+    if (!addHostVetoes(slaveHost, requirements, vetoes)) {
+      return DEDICATED_HOST_VETOES;
     }
-    return ImmutableSet.<Veto>builder()
-        .addAll(getConstraintFilter(slaveHost).apply(task))
-        .addAll(getResourceVetoes(offer, task))
-        .addAll(getMaintenanceVeto(slaveHost).asSet())
-        .build();
+    addResourceVetoes(offer, requirements, vetoes);
+    vetoes.add(getMaintenanceVeto(slaveHost));
+    return vetoes.build();
   }
 }
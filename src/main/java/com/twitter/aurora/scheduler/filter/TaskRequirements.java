@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.base.SchedulerException;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.storage.entities.IConstraint;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConstraint;
+import com.twitter.aurora.scheduler.storage.entities.IValueConstraint;
+import com.twitter.common.quantity.Data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Scheduling requirements of a task configuration, precomputed so that they may be evaluated
+ * against many offers without re-deriving resources or re-sorting constraints.
+ */
+final class TaskRequirements {
+
+  private static final Logger LOG = Logger.getLogger(TaskRequirements.class.getName());
+
+  private final double cpus;
+  private final double ramMb;
+  private final double diskMb;
+  private final int ports;
+  private final IJobKey jobKey;
+  private final boolean dedicated;
+  private final List<ValueRequirement> valueRequirements;
+  private final List<LimitRequirement> limitRequirements;
+
+  private TaskRequirements(
+      ResourceSlot resources,
+      IJobKey jobKey,
+      boolean dedicated,
+      List<ValueRequirement> valueRequirements,
+      List<LimitRequirement> limitRequirements) {
+
+    this.cpus = resources.getNumCpus();
+    this.ramMb = resources.getRam().as(Data.MB);
+    this.diskMb = resources.getDisk().as(Data.MB);
+    this.ports = resources.getNumPorts();
+    this.jobKey = checkNotNull(jobKey);
+    this.dedicated = dedicated;
+    this.valueRequirements = checkNotNull(valueRequirements);
+    this.limitRequirements = checkNotNull(limitRequirements);
+  }
+
+  /**
+   * Computes the requirements of a task.
+   *
+   * @param task Task configuration.
+   * @return Requirements of {@code task}.
+   * @throws SchedulerException If the task has a constraint of an unrecognized type.
+   */
+  static TaskRequirements from(ITaskConfig task) throws SchedulerException {
+    ImmutableList.Builder<ValueRequirement> values = ImmutableList.builder();
+    ImmutableList.Builder<LimitRequirement> limits = ImmutableList.builder();
+    if (task.isSetConstraints()) {
+      for (IConstraint constraint : task.getConstraints()) {
+        ITaskConstraint taskConstraint = constraint.getConstraint();
+        switch (taskConstraint.getSetField()) {
+          case VALUE:
+            values.add(new ValueRequirement(constraint.getName(), taskConstraint.getValue()));
+            break;
+
+          case LIMIT:
+            limits.add(
+                new LimitRequirement(constraint.getName(), taskConstraint.getLimit().getLimit()));
+            break;
+
+          default:
+            LOG.warning("Unrecognized constraint type: " + taskConstraint.getSetField());
+            throw new SchedulerException("Failed to recognize the constraint type: "
+                + taskConstraint.getSetField());
+        }
+      }
+    }
+
+    return new TaskRequirements(
+        ResourceSlot.from(task),
+        Tasks.INFO_TO_JOB_KEY.apply(task),
+        ConfigurationManager.isDedicated(task),
+        values.build(),
+        limits.build());
+  }
+
+  double getCpus() {
+    return cpus;
+  }
+
+  double getRamMb() {
+    return ramMb;
+  }
+
+  double getDiskMb() {
+    return diskMb;
+  }
+
+  int getPorts() {
+    return ports;
+  }
+
+  IJobKey getJobKey() {
+    return jobKey;
+  }
+
+  boolean isDedicated() {
+    return dedicated;
+  }
+
+  /**
+   * Gets the value constraints of the task.  These are cheap to evaluate, and should be checked
+   * before limit constraints.
+   *
+   * @return Value constraints.
+   */
+  List<ValueRequirement> getValueRequirements() {
+    return valueRequirements;
+  }
+
+  List<LimitRequirement> getLimitRequirements() {
+    return limitRequirements;
+  }
+
+  /**
+   * A value constraint, matched against the values a host has for the named attribute.
+   */
+  static final class ValueRequirement {
+    private final String name;
+    private final boolean negated;
+    private final Set<String> values;
+
+    ValueRequirement(String name, IValueConstraint constraint) {
+      this.name = checkNotNull(name);
+      this.negated = constraint.isNegated();
+      this.values = ImmutableSet.copyOf(constraint.getValues());
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /**
+     * Tests whether the constraint is satisfied by a host.
+     *
+     * @param host Host to match against.
+     * @return {@code true} if the host satisfies the constraint, {@code false} otherwise.
+     */
+    boolean matches(HostView host) {
+      Set<String> hostValues = host.getValues(name);
+      boolean match = false;
+      if (!hostValues.isEmpty()) {
+        for (String value : values) {
+          if (hostValues.contains(value)) {
+            match = true;
+            break;
+          }
+        }
+      }
+      return negated ^ match;
+    }
+  }
+
+  /**
+   * A limit on the number of active tasks of the job sharing a value of the named attribute.
+   */
+  static final class LimitRequirement {
+    private final String name;
+    private final int limit;
+
+    LimitRequirement(String name, int limit) {
+      this.name = checkNotNull(name);
+      this.limit = limit;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    int getLimit() {
+      return limit;
+    }
+  }
+}
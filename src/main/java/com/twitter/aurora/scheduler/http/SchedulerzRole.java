@@ -36,7 +36,6 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -59,6 +58,7 @@ import com.twitter.aurora.scheduler.cron.CronPredictor;
 import com.twitter.aurora.scheduler.quota.QuotaManager;
 import com.twitter.aurora.scheduler.quota.Quotas;
 import com.twitter.aurora.scheduler.state.CronJobManager;
+import com.twitter.aurora.scheduler.stats.ResourceAggregates;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.entities.IJobConfiguration;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
@@ -101,6 +101,7 @@ public class SchedulerzRole extends JerseyTemplateServlet {
   private final CronPredictor cronPredictor;
   private final String clusterName;
   private final QuotaManager quotaManager;
+  private final ResourceAggregates aggregates;
 
   @Inject
   SchedulerzRole(
@@ -108,7 +109,8 @@ public class SchedulerzRole extends JerseyTemplateServlet {
       CronJobManager cronJobManager,
       CronPredictor cronPredictor,
       @ClusterName String clusterName,
-      QuotaManager quotaManager) {
+      QuotaManager quotaManager,
+      ResourceAggregates aggregates) {
 
     super("schedulerzrole");
     this.storage = checkNotNull(storage);
@@ -116,6 +118,7 @@ public class SchedulerzRole extends JerseyTemplateServlet {
     this.cronPredictor = checkNotNull(cronPredictor);
     this.clusterName = checkNotBlank(clusterName);
     this.quotaManager = checkNotNull(quotaManager);
+    this.aggregates = checkNotNull(aggregates);
   }
 
   /**
@@ -165,12 +168,7 @@ public class SchedulerzRole extends JerseyTemplateServlet {
   }
 
   private IQuota getNonProdConsumption(String role) {
-    FluentIterable<ITaskConfig> tasks = FluentIterable
-        .from(Storage.Util.weaklyConsistentFetchTasks(storage, Query.roleScoped(role).active()))
-        .transform(Tasks.SCHEDULED_TO_INFO)
-        .filter(Predicates.not(Tasks.IS_PRODUCTION));
-
-    return Quotas.fromTasks(tasks);
+    return aggregates.getNonProductionConsumption(role);
   }
 
   /**
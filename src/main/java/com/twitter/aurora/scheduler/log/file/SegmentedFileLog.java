@@ -0,0 +1,609 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.aurora.scheduler.log.Log;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A durable, single-node log that stores entries in append-only segment files within a directory.
+ * <p>
+ * Each entry is stored as a record prefixed with the length and CRC32 checksum of its contents.
+ * A segment holds a contiguous range of positions starting at the position in its file name, and
+ * a new segment is started once the active segment reaches the maximum segment size.  Segments
+ * are read through memory mappings, using an index of record offsets that is built when the log
+ * is opened and maintained as entries are appended.  A record torn by a crash is dropped from the
+ * tail of the log when it is opened.
+ * <p>
+ * Truncation deletes the segments that only hold entries preceding the truncation position, and
+ * records the position so that remaining entries preceding it are skipped by reads.
+ * <p>
+ * This log is not replicated, and is intended for staging clusters and benchmarking.
+ */
+public class SegmentedFileLog implements Log {
+
+  private static final Logger LOG = Logger.getLogger(SegmentedFileLog.class.getName());
+
+  private static final String SEGMENT_SUFFIX = ".segment";
+  private static final String FIRST_POSITION_FILE = "first_position";
+  private static final int HEADER_BYTES = Ints.BYTES + Longs.BYTES;
+  private static final long INITIAL_POSITION = 1;
+
+  /**
+   * Policy for forcing appended entries to disk.
+   */
+  public enum SyncPolicy {
+    /**
+     * Each append is forced to disk before it completes.
+     */
+    PER_APPEND,
+
+    /**
+     * Each append waits for a force to disk, which is shared by appends issued concurrently.
+     */
+    GROUP,
+
+    /**
+     * Appends are forced to disk periodically.  Entries appended since the last force may be lost
+     * if the host fails.
+     */
+    INTERVAL
+  }
+
+  private final File directory;
+  private final long maxSegmentBytes;
+  private final SyncPolicy syncPolicy;
+  private final Amount<Long, Time> syncInterval;
+  private final SlidingStats syncStats = new SlidingStats("segmented_log_sync", "nanos");
+
+  /**
+   * Creates a new segmented file log.
+   *
+   * @param directory Directory to store segment files in.
+   * @param maxSegmentSize Size at which a new segment is started.
+   * @param syncPolicy Policy for forcing appended entries to disk.
+   * @param syncInterval Interval between forces to disk under {@link SyncPolicy#INTERVAL}.
+   */
+  public SegmentedFileLog(
+      File directory,
+      Amount<Long, Data> maxSegmentSize,
+      SyncPolicy syncPolicy,
+      Amount<Long, Time> syncInterval) {
+
+    this.directory = checkNotNull(directory);
+    this.maxSegmentBytes = maxSegmentSize.as(Data.BYTES);
+    checkArgument(maxSegmentBytes > 0 && maxSegmentBytes < Integer.MAX_VALUE,
+        "Segment size must be positive and less than 2 GB.");
+    this.syncPolicy = checkNotNull(syncPolicy);
+    this.syncInterval = checkNotNull(syncInterval);
+    checkArgument(syncInterval.getValue() > 0, "Sync interval must be positive.");
+  }
+
+  @Override
+  public Stream open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create log directory " + directory);
+    }
+    return new SegmentedStream();
+  }
+
+  @VisibleForTesting
+  static class FilePosition implements Position {
+    private final long value;
+
+    FilePosition(long value) {
+      this.value = value;
+    }
+
+    @Override
+    public int compareTo(Position position) {
+      return Longs.compare(value, ((FilePosition) position).value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof FilePosition) && (value == ((FilePosition) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Longs.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this).add("value", value).toString();
+    }
+  }
+
+  private static class FileEntry implements Entry {
+    private final byte[] contents;
+
+    FileEntry(byte[] contents) {
+      this.contents = contents;
+    }
+
+    @Override
+    public byte[] contents() {
+      return contents;
+    }
+  }
+
+  /**
+   * A segment file, with the offsets of its records indexed by position.
+   */
+  private static class Segment {
+    private final File file;
+    private final long basePosition;
+    private long[] offsets = new long[64];
+    private int count;
+    private long size;
+
+    Segment(File file, long basePosition) {
+      this.file = file;
+      this.basePosition = basePosition;
+    }
+
+    void add(long recordBytes) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      offsets[count++] = size;
+      size += recordBytes;
+    }
+
+    long nextPosition() {
+      return basePosition + count;
+    }
+
+    long offsetOf(long position) {
+      return (position < nextPosition()) ? offsets[(int) (position - basePosition)] : size;
+    }
+  }
+
+  /**
+   * A range of records to be read from a segment.
+   */
+  private static class SegmentRange {
+    private final File file;
+    private final long startOffset;
+    private final long endOffset;
+
+    SegmentRange(File file, long startOffset, long endOffset) {
+      this.file = file;
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+    }
+  }
+
+  private static long checksum(byte[] contents) {
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+    return crc.getValue();
+  }
+
+  private static MappedByteBuffer map(File file, long size) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // The mapping remains valid once the file is closed.
+      return raf.getChannel().map(MapMode.READ_ONLY, 0, size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads the record at the current position of a buffer.
+   *
+   * @param buffer Buffer to read from.
+   * @return The record contents, or absent if the record is incomplete or does not match its
+   *     checksum.
+   */
+  private static Optional<byte[]> readRecord(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_BYTES) {
+      return Optional.absent();
+    }
+    int length = buffer.getInt();
+    long checksum = buffer.getLong();
+    if ((length < 0) || (length > buffer.remaining())) {
+      return Optional.absent();
+    }
+    byte[] contents = new byte[length];
+    buffer.get(contents);
+    return (checksum(contents) == checksum) ? Optional.of(contents) : Optional.<byte[]>absent();
+  }
+
+  private File segmentFile(long basePosition) {
+    return new File(directory, String.format("%020d%s", basePosition, SEGMENT_SUFFIX));
+  }
+
+  private List<Segment> listSegments() throws IOException {
+    File[] files = directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (files == null) {
+      throw new IOException("Failed to list log directory " + directory);
+    }
+
+    List<Segment> segments = Lists.newArrayList();
+    for (File file : files) {
+      String name = file.getName();
+      try {
+        long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        segments.add(new Segment(file, base));
+      } catch (NumberFormatException e) {
+        throw new IOException("Unrecognized segment file " + file, e);
+      }
+    }
+    Collections.sort(segments, new Comparator<Segment>() {
+      @Override public int compare(Segment a, Segment b) {
+        return Longs.compare(a.basePosition, b.basePosition);
+      }
+    });
+    return segments;
+  }
+
+  /**
+   * Builds the record index of a segment.  Records of the last segment are verified against their
+   * checksums, and an incomplete or corrupt record and anything following it are dropped, since
+   * they can only be the result of an interrupted append.
+   */
+  private void loadSegment(Segment segment, boolean last) throws IOException {
+    long fileSize = segment.file.length();
+    ByteBuffer buffer = map(segment.file, fileSize);
+    while (buffer.hasRemaining()) {
+      int start = buffer.position();
+      boolean valid;
+      if (last) {
+        valid = readRecord(buffer).isPresent();
+      } else {
+        try {
+          int length = buffer.getInt();
+          buffer.position(buffer.position() + Longs.BYTES + length);
+          valid = length >= 0;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+          valid = false;
+        }
+      }
+
+      if (!valid) {
+        if (!last) {
+          throw new IOException("Corrupt record in " + segment.file + " at offset " + start);
+        }
+        LOG.warning("Dropping " + (fileSize - start) + " bytes of incomplete records from "
+            + segment.file + " at offset " + start);
+        RandomAccessFile raf = new RandomAccessFile(segment.file, "rw");
+        try {
+          raf.setLength(start);
+          raf.getChannel().force(true);
+        } finally {
+          raf.close();
+        }
+        return;
+      }
+      segment.add(buffer.position() - start);
+    }
+  }
+
+  private Optional<Long> readFirstPosition() throws IOException {
+    File file = new File(directory, FIRST_POSITION_FILE);
+    if (!file.exists()) {
+      return Optional.absent();
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return Optional.of(raf.readLong());
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void writeFirstPosition(long position) throws IOException {
+    File temp = new File(directory, FIRST_POSITION_FILE + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+    try {
+      raf.setLength(0);
+      raf.writeLong(position);
+      raf.getChannel().force(true);
+    } finally {
+      raf.close();
+    }
+    java.nio.file.Files.move(
+        temp.toPath(),
+        new File(directory, FIRST_POSITION_FILE).toPath(),
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private class SegmentedStream implements Stream {
+    // Guarded by this.
+    private final List<Segment> segments;
+    private long firstPosition;
+    private FileChannel activeChannel;
+    private boolean dirty;
+    private boolean closed;
+
+    // Position following the last entry forced to disk, guarded by syncLock.
+    private final Object syncLock = new Object();
+    private long syncedPosition;
+
+    private final Optional<ScheduledExecutorService> syncExecutor;
+
+    SegmentedStream() throws IOException {
+      segments = listSegments();
+      for (int i = 0; i < segments.size(); i++) {
+        Segment segment = segments.get(i);
+        if ((i > 0) && (segment.basePosition != segments.get(i - 1).nextPosition())) {
+          throw new IOException(
+              "Segment " + segment.file + " does not follow the segment before it");
+        }
+        loadSegment(segment, i == segments.size() - 1);
+      }
+
+      Optional<Long> storedFirstPosition = readFirstPosition();
+      if (segments.isEmpty()) {
+        long base = storedFirstPosition.or(INITIAL_POSITION);
+        segments.add(new Segment(segmentFile(base), base));
+      }
+      firstPosition = storedFirstPosition.or(segments.get(0).basePosition);
+      activeChannel = openForAppend(getActiveSegment());
+      syncedPosition = getActiveSegment().nextPosition();
+
+      if (syncPolicy == SyncPolicy.INTERVAL) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("SegmentedLogSync-%d")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(
+            new Runnable() {
+              @Override public void run() {
+                try {
+                  force();
+                } catch (IOException e) {
+                  LOG.log(Level.SEVERE, "Failed to force log to disk: " + e, e);
+                }
+              }
+            },
+            syncInterval.getValue(),
+            syncInterval.getValue(),
+            syncInterval.getUnit().getTimeUnit());
+        syncExecutor = Optional.of(executor);
+      } else {
+        syncExecutor = Optional.absent();
+      }
+    }
+
+    private Segment getActiveSegment() {
+      return segments.get(segments.size() - 1);
+    }
+
+    private FileChannel openForAppend(Segment segment) throws IOException {
+      FileChannel channel = new RandomAccessFile(segment.file, "rw").getChannel();
+      channel.position(segment.size);
+      return channel;
+    }
+
+    private void roll() throws IOException {
+      // Entries in the segment being rolled must be durable before the next segment is written.
+      activeChannel.force(false);
+      activeChannel.close();
+      long base = getActiveSegment().nextPosition();
+      Segment segment = new Segment(segmentFile(base), base);
+      segments.add(segment);
+      activeChannel = openForAppend(segment);
+    }
+
+    /**
+     * Forces appended entries to disk.
+     *
+     * @return The position following the last entry forced to disk.
+     */
+    private synchronized long force() throws IOException {
+      if (dirty && !closed) {
+        long start = System.nanoTime();
+        activeChannel.force(false);
+        syncStats.accumulate(System.nanoTime() - start);
+        dirty = false;
+      }
+      return getActiveSegment().nextPosition();
+    }
+
+    private void syncTo(long position) throws IOException {
+      // Appenders waiting here while another forces to disk find their entries forced with it.
+      synchronized (syncLock) {
+        if (syncedPosition < position) {
+          syncedPosition = force();
+        }
+      }
+    }
+
+    @Override
+    public Position append(byte[] contents) throws StreamAccessException {
+      checkNotNull(contents);
+
+      long position;
+      try {
+        synchronized (this) {
+          checkState(!closed, "Log stream is closed.");
+          Segment active = getActiveSegment();
+          if ((active.size >= maxSegmentBytes) && (active.count > 0)) {
+            roll();
+            active = getActiveSegment();
+          }
+
+          ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + contents.length);
+          record.putInt(contents.length).putLong(checksum(contents)).put(contents);
+          record.flip();
+          while (record.hasRemaining()) {
+            activeChannel.write(record);
+          }
+          position = active.nextPosition();
+          active.add(record.limit());
+          dirty = true;
+
+          if (syncPolicy == SyncPolicy.PER_APPEND) {
+            force();
+          }
+        }
+        if (syncPolicy == SyncPolicy.GROUP) {
+          syncTo(position + 1);
+        }
+      } catch (IOException e) {
+        throw new StreamAccessException("Failed to append to log", e);
+      }
+      return new FilePosition(position);
+    }
+
+    @Override
+    public Iterator<Entry> readAll() throws StreamAccessException {
+      final List<SegmentRange> ranges;
+      synchronized (this) {
+        checkState(!closed, "Log stream is closed.");
+        ImmutableList.Builder<SegmentRange> builder = ImmutableList.builder();
+        for (Segment segment : segments) {
+          if (segment.nextPosition() > firstPosition) {
+            long start = (segment.basePosition < firstPosition)
+                ? segment.offsetOf(firstPosition)
+                : 0;
+            builder.add(new SegmentRange(segment.file, start, segment.size));
+          }
+        }
+        ranges = builder.build();
+      }
+
+      return new AbstractIterator<Entry>() {
+        private final Iterator<SegmentRange> remaining = ranges.iterator();
+        private SegmentRange range;
+        private ByteBuffer buffer;
+
+        @Override
+        protected Entry computeNext() {
+          while ((buffer == null) || !buffer.hasRemaining()) {
+            if (!remaining.hasNext()) {
+              return endOfData();
+            }
+            range = remaining.next();
+            try {
+              buffer = map(range.file, range.endOffset);
+            } catch (IOException e) {
+              throw new StreamAccessException("Failed to read " + range.file, e);
+            }
+            buffer.position((int) range.startOffset);
+          }
+
+          int offset = buffer.position();
+          Optional<byte[]> contents = readRecord(buffer);
+          if (!contents.isPresent()) {
+            throw new StreamAccessException(
+                "Corrupt record in " + range.file + " at offset " + offset,
+                new IOException("Checksum mismatch"));
+          }
+          return new FileEntry(contents.get());
+        }
+      };
+    }
+
+    @Override
+    public synchronized void truncateBefore(Position position)
+        throws InvalidPositionException, StreamAccessException {
+
+      checkState(!closed, "Log stream is closed.");
+      if (!(position instanceof FilePosition)) {
+        throw new InvalidPositionException("Unrecognized position " + position);
+      }
+      long value = ((FilePosition) position).value;
+      if ((value < firstPosition) || (value >= getActiveSegment().nextPosition())) {
+        throw new InvalidPositionException("Position " + value + " is not in the log");
+      }
+
+      try {
+        writeFirstPosition(value);
+      } catch (IOException e) {
+        throw new StreamAccessException("Failed to record truncation position", e);
+      }
+      firstPosition = value;
+
+      while ((segments.size() > 1) && (segments.get(1).basePosition <= value)) {
+        Segment removed = segments.remove(0);
+        if (!removed.file.delete()) {
+          LOG.warning("Failed to delete truncated log segment " + removed.file);
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (syncExecutor.isPresent()) {
+        syncExecutor.get().shutdown();
+        try {
+          syncExecutor.get().awaitTermination(
+              syncInterval.as(Time.MILLISECONDS),
+              TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      synchronized (this) {
+        if (!closed) {
+          force();
+          closed = true;
+          activeChannel.close();
+        }
+      }
+    }
+  }
+}
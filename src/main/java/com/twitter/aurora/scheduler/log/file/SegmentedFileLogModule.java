@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.file;
+
+import java.io.File;
+
+import javax.inject.Singleton;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.PrivateModule;
+import com.google.inject.Provides;
+
+import com.twitter.aurora.scheduler.log.Log;
+import com.twitter.aurora.scheduler.log.file.SegmentedFileLog.SyncPolicy;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+
+/**
+ * Binds a log stored in segment files on local disk.
+ *
+ * <p>Exports the following bindings:
+ * <ul>
+ *   <li>{@link Log} - a log backed by local segment files</li>
+ * </ul>
+ */
+public class SegmentedFileLogModule extends PrivateModule {
+
+  @CmdLine(name = "segmented_log_dir",
+      help = "Directory to store local log segment files in.  If set, the scheduler stores its "
+          + "log on local disk rather than in the replicated native log.")
+  private static final Arg<File> LOG_DIR = Arg.create(null);
+
+  @CmdLine(name = "segmented_log_segment_size",
+      help = "Size at which a new log segment file is started.")
+  private static final Arg<Amount<Long, Data>> SEGMENT_SIZE =
+      Arg.create(Amount.of(64L, Data.MB));
+
+  @CmdLine(name = "segmented_log_sync_policy",
+      help = "Policy for forcing log appends to disk: PER_APPEND forces each append, GROUP shares "
+          + "a force among concurrent appends, and INTERVAL forces periodically.")
+  private static final Arg<SyncPolicy> SYNC_POLICY = Arg.create(SyncPolicy.GROUP);
+
+  @CmdLine(name = "segmented_log_sync_interval",
+      help = "Interval between forces to disk when using the INTERVAL sync policy.")
+  private static final Arg<Amount<Long, Time>> SYNC_INTERVAL =
+      Arg.create(Amount.of(100L, Time.MILLISECONDS));
+
+  /**
+   * Checks whether a log directory has been specified, and this module should be used in place of
+   * the replicated log.
+   *
+   * @return {@code true} if a segmented log directory has been specified.
+   */
+  public static boolean isEnabled() {
+    return LOG_DIR.hasAppliedValue();
+  }
+
+  @Override
+  protected void configure() {
+    bind(Log.class).to(SegmentedFileLog.class);
+    expose(Log.class);
+  }
+
+  @Provides
+  @Singleton
+  SegmentedFileLog provideLog() {
+    return new SegmentedFileLog(
+        Preconditions.checkNotNull(LOG_DIR.get()),
+        SEGMENT_SIZE.get(),
+        SYNC_POLICY.get(),
+        SYNC_INTERVAL.get());
+  }
+}
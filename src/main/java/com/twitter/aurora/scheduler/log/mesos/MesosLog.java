@@ -19,21 +19,28 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 
 import org.apache.mesos.Log;
@@ -44,6 +51,7 @@ import com.twitter.common.base.Function;
 import com.twitter.common.base.MorePreconditions;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.SlidingStats;
 import com.twitter.common.stats.Stats;
@@ -83,10 +91,28 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
   @Target({ PARAMETER, METHOD })
   public @interface WriteTimeout { }
 
+  /**
+   * Binding annotation for the maximum number of log positions to read in a single batch.
+   */
+  @BindingAnnotation
+  @Retention(RUNTIME)
+  @Target({ PARAMETER, METHOD })
+  public @interface ReadBatchSize { }
+
+  /**
+   * Binding annotation for the memory budget of the entries in a single batched read.
+   */
+  @BindingAnnotation
+  @Retention(RUNTIME)
+  @Target({ PARAMETER, METHOD })
+  public @interface ReadBatchMemory { }
+
   private final Provider<LogInterface> logFactory;
 
   private final Provider<ReaderInterface> readerFactory;
   private final Amount<Long, Time> readTimeout;
+  private final int readBatchSize;
+  private final Amount<Long, Data> readBatchMemory;
 
   private final Provider<WriterInterface> writerFactory;
   private final Amount<Long, Time> writeTimeout;
@@ -99,6 +125,8 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
    * @param logFactory Factory to provide access to log.
    * @param readerFactory Factory to provide access to log readers.
    * @param readTimeout Log read timeout.
+   * @param readBatchSize Maximum number of positions to read in a batch.
+   * @param readBatchMemory Memory budget for the entries of a batch.
    * @param writerFactory Factory to provide access to log writers.
    * @param writeTimeout Log write timeout.
    * @param noopEntry A no-op log entry blob.
@@ -108,6 +136,8 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
       Provider<LogInterface> logFactory,
       Provider<ReaderInterface> readerFactory,
       @ReadTimeout Amount<Long, Time> readTimeout,
+      @ReadBatchSize int readBatchSize,
+      @ReadBatchMemory Amount<Long, Data> readBatchMemory,
       Provider<WriterInterface> writerFactory,
       @WriteTimeout Amount<Long, Time> writeTimeout,
       @NoopEntry byte[] noopEntry) {
@@ -116,6 +146,8 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
 
     this.readerFactory = Preconditions.checkNotNull(readerFactory);
     this.readTimeout = readTimeout;
+    this.readBatchSize = readBatchSize;
+    this.readBatchMemory = Preconditions.checkNotNull(readBatchMemory);
 
     this.writerFactory = Preconditions.checkNotNull(writerFactory);
     this.writeTimeout = writeTimeout;
@@ -126,7 +158,14 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
   @Override
   public Stream open() {
     return new LogStream(
-        logFactory.get(), readerFactory.get(), readTimeout, writerFactory, writeTimeout, noopEntry);
+        logFactory.get(),
+        readerFactory.get(),
+        readTimeout,
+        readBatchSize,
+        readBatchMemory,
+        writerFactory,
+        writeTimeout,
+        noopEntry);
   }
 
   @VisibleForTesting
@@ -168,6 +207,9 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
     private final ReaderInterface reader;
     private final long readTimeout;
     private final TimeUnit readTimeUnit;
+    private final int readBatchSize;
+    private final Amount<Long, Data> readBatchMemory;
+    private final ExecutorService readAheadExecutor;
 
     private final Provider<WriterInterface> writerFactory;
     private final long writeTimeout;
@@ -178,6 +220,7 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
     private WriterInterface writer;
 
     LogStream(LogInterface log, ReaderInterface reader, Amount<Long, Time> readTimeout,
+        int readBatchSize, Amount<Long, Data> readBatchMemory,
         Provider<WriterInterface> writerFactory, Amount<Long, Time> writeTimeout,
         byte[] noopEntry) {
 
@@ -186,6 +229,10 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
       this.reader = reader;
       this.readTimeout = readTimeout.getValue();
       this.readTimeUnit = readTimeout.getUnit().getTimeUnit();
+      this.readBatchSize = readBatchSize;
+      this.readBatchMemory = readBatchMemory;
+      this.readAheadExecutor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("LogReadAhead-%d").setDaemon(true).build());
 
       this.writerFactory = writerFactory;
       this.writeTimeout = writeTimeout.getValue();
@@ -206,72 +253,116 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
         throw new StreamAccessException("Error writing noop prior to a read", e);
       }
 
-      final Log.Position from = reader.beginning();
-      final Log.Position to = end().unwrap();
-
-      // Reading all the entries at once may cause large garbage collections. Instead, we
-      // lazily read the entries one by one as they are requested.
-      // TODO(Benjamin Hindman): Eventually replace this functionality with functionality
-      // from the Mesos Log.
-      return new UnmodifiableIterator<Entry>() {
-        private long position = Longs.fromByteArray(from.identity());
-        private final long endPosition = Longs.fromByteArray(to.identity());
-        private Entry entry = null;
-
-        @Override
-        public boolean hasNext() {
-          if (entry != null) {
-            return true;
-          }
+      long from = Longs.fromByteArray(reader.beginning().identity());
+      long to = Longs.fromByteArray(end().unwrap().identity());
+      return new BatchIterator(from, to);
+    }
+
+    private static final class Batch {
+      private final long from;
+      private final long to;
+      private final List<Log.Entry> entries;
+
+      Batch(long from, long to, List<Log.Entry> entries) {
+        this.from = from;
+        this.to = to;
+        this.entries = entries;
+      }
+    }
 
-          while (position <= endPosition) {
-            long start = System.nanoTime();
-            try {
-              Log.Position p = log.position(Longs.toByteArray(position));
-              if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine("Reading position " + position + " from the log");
-              }
-              List<Log.Entry> entries = reader.read(p, p, readTimeout, readTimeUnit);
-
-              // N.B. HACK! There is currently no way to "increment" a position. Until the Mesos
-              // Log actually provides a way to "stream" the log, we approximate as much by
-              // using longs via Log.Position.identity and Log.position.
-              position++;
-
-              // Reading positions in this way means it's possible that we get an "invalid" entry
-              // (e.g., in the underlying log terminology this would be anything but an append)
-              // which will be removed from the returned entries resulting in an empty list.
-              // We skip these.
-              if (entries.isEmpty()) {
-                entriesSkipped.getAndIncrement();
-              } else {
-                entry = MESOS_ENTRY_TO_ENTRY.apply(Iterables.getOnlyElement(entries));
-                return true;
-              }
-            } catch (TimeoutException e) {
-              read.timeouts.getAndIncrement();
-              throw new StreamAccessException("Timeout reading from log.", e);
-            } catch (Log.OperationFailedException e) {
-              read.failures.getAndIncrement();
-              throw new StreamAccessException("Problem reading from log", e);
-            } finally {
-              read.timing.accumulate(System.nanoTime() - start);
-            }
+    private Batch readBatch(long from, long to) {
+      long start = System.nanoTime();
+      try {
+        if (LOG.isLoggable(Level.FINE)) {
+          LOG.fine("Reading positions " + from + " through " + to + " from the log");
+        }
+        // N.B. HACK! There is currently no way to "increment" a position. Until the Mesos
+        // Log actually provides a way to "stream" the log, we approximate as much by
+        // using longs via Log.Position.identity and Log.position.
+        List<Log.Entry> entries = reader.read(
+            log.position(Longs.toByteArray(from)),
+            log.position(Longs.toByteArray(to)),
+            readTimeout,
+            readTimeUnit);
+        return new Batch(from, to, entries);
+      } catch (TimeoutException e) {
+        read.timeouts.getAndIncrement();
+        throw new StreamAccessException("Timeout reading from log.", e);
+      } catch (Log.OperationFailedException e) {
+        read.failures.getAndIncrement();
+        throw new StreamAccessException("Problem reading from log", e);
+      } finally {
+        read.timing.accumulate(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Reads the log in batches of positions, reading the next batch in the background while the
+     * entries of the current batch are consumed.  At most two batches are held in memory at once.
+     */
+    private class BatchIterator extends AbstractIterator<Entry> {
+      private final long endPosition;
+      private final ReadBatchSizer sizer = new ReadBatchSizer(readBatchSize, readBatchMemory);
+      private long nextPosition;
+      @Nullable private Future<Batch> pending;
+      private Iterator<Log.Entry> current = Iterators.<Log.Entry>emptyIterator();
+
+      BatchIterator(long beginPosition, long endPosition) {
+        this.nextPosition = beginPosition;
+        this.endPosition = endPosition;
+        readAhead();
+      }
+
+      private void readAhead() {
+        if (nextPosition > endPosition) {
+          pending = null;
+          return;
+        }
+        final long from = nextPosition;
+        final long to = Math.min(endPosition, from + sizer.nextBatchSize() - 1);
+        nextPosition = to + 1;
+        pending = readAheadExecutor.submit(new Callable<Batch>() {
+          @Override public Batch call() {
+            return readBatch(from, to);
           }
-          return false;
+        });
+      }
+
+      private Batch awaitPending() {
+        try {
+          return pending.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new StreamAccessException("Interrupted while reading from log", e);
+        } catch (ExecutionException e) {
+          Throwables.propagateIfInstanceOf(e.getCause(), StreamAccessException.class);
+          throw new StreamAccessException("Problem reading from log", e.getCause());
         }
+      }
 
-        @Override
-        public Entry next() {
-          if (entry == null && !hasNext()) {
-            throw new NoSuchElementException();
+      @Override
+      protected Entry computeNext() {
+        while (!current.hasNext()) {
+          if (pending == null) {
+            return endOfData();
           }
+          Batch batch = awaitPending();
+
+          // Positions holding anything but an append (e.g., in the underlying log terminology a
+          // truncation or a hole filled by a coordinator election) are omitted from the entries
+          // returned by a read.  We skip these.
+          entriesSkipped.getAndAdd((batch.to - batch.from + 1) - batch.entries.size());
+          long bytes = 0;
+          for (Log.Entry entry : batch.entries) {
+            bytes += entry.data.length;
+          }
+          sizer.record(batch.entries.size(), bytes);
 
-          Entry result = Preconditions.checkNotNull(entry);
-          entry = null;
-          return result;
+          readAhead();
+          current = batch.entries.iterator();
         }
-      };
+        return MESOS_ENTRY_TO_ENTRY.apply(current.next());
+      }
     }
 
     @Override
@@ -339,7 +430,7 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
 
     @Override
     public void close() {
-      // noop
+      readAheadExecutor.shutdownNow();
     }
 
     private static class LogPosition implements com.twitter.aurora.scheduler.log.Log.Position {
@@ -40,6 +40,7 @@ import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.net.InetSocketAddressHelper;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.zookeeper.guice.client.ZooKeeperClientModule.ClientConfig;
 
@@ -91,6 +92,16 @@ public class MesosLogStreamModule extends PrivateModule {
   private static final Arg<Amount<Long, Time>> READ_TIMEOUT =
       Arg.create(Amount.of(5L, Time.SECONDS));
 
+  @CmdLine(name = "native_log_read_batch_size",
+           help = "The maximum number of log positions to read in a single batch.")
+  private static final Arg<Integer> READ_BATCH_SIZE = Arg.create(1000);
+
+  @CmdLine(name = "native_log_read_batch_memory",
+           help = "The approximate memory budget for the entries of a single batched log read.  "
+               + "The next batch is read ahead while the current one is consumed.")
+  private static final Arg<Amount<Long, Data>> READ_BATCH_MEMORY =
+      Arg.create(Amount.of(16L, Data.MB));
+
   @CmdLine(name = "native_log_write_timeout",
            help = "The timeout for doing log appends and truncations.")
   private static final Arg<Amount<Long, Time>> WRITE_TIMEOUT =
@@ -106,6 +117,10 @@ public class MesosLogStreamModule extends PrivateModule {
   protected void configure() {
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.ReadTimeout.class)
         .toInstance(READ_TIMEOUT.get());
+    bind(Integer.class).annotatedWith(MesosLog.ReadBatchSize.class)
+        .toInstance(READ_BATCH_SIZE.get());
+    bind(new TypeLiteral<Amount<Long, Data>>() { }).annotatedWith(MesosLog.ReadBatchMemory.class)
+        .toInstance(READ_BATCH_MEMORY.get());
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.WriteTimeout.class)
         .toInstance(WRITE_TIMEOUT.get());
 
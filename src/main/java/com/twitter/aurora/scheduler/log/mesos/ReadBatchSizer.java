@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.mesos;
+
+import com.google.common.base.Preconditions;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+/**
+ * Chooses the number of positions to request in each batched log read, such that a batch of
+ * entries fits within a memory budget.
+ * <p>
+ * The size of upcoming entries is estimated from an average of recent batches that favors the
+ * latest batch, so that the batch size recovers quickly after a run of large entries such as a
+ * snapshot.  Reads start with a small batch, since nothing is known about entry sizes until the
+ * first batch is read.
+ */
+class ReadBatchSizer {
+
+  private static final int INITIAL_BATCH_SIZE = 16;
+
+  private final int maxBatchSize;
+  private final long batchBytes;
+
+  // Estimated size of an entry, or zero if no entries have been read.
+  private long averageEntryBytes;
+
+  /**
+   * Creates a new batch sizer.
+   *
+   * @param maxBatchSize Maximum number of positions to read in a batch.
+   * @param batchMemory Memory budget for the entries of a batch.
+   */
+  ReadBatchSizer(int maxBatchSize, Amount<Long, Data> batchMemory) {
+    Preconditions.checkArgument(maxBatchSize > 0);
+    this.maxBatchSize = maxBatchSize;
+    this.batchBytes = batchMemory.as(Data.BYTES);
+    Preconditions.checkArgument(batchBytes > 0);
+  }
+
+  /**
+   * Records the entries returned by a batch read.
+   *
+   * @param entries Number of entries read.
+   * @param bytes Total size of the entries read.
+   */
+  void record(int entries, long bytes) {
+    if (entries > 0) {
+      long batchAverage = Math.max(1, bytes / entries);
+      averageEntryBytes = (averageEntryBytes == 0)
+          ? batchAverage
+          : (averageEntryBytes + batchAverage) / 2;
+    }
+  }
+
+  /**
+   * Gets the number of positions to request in the next batch.
+   *
+   * @return Number of positions to read, at least one.
+   */
+  int nextBatchSize() {
+    if (averageEntryBytes == 0) {
+      return Math.min(INITIAL_BATCH_SIZE, maxBatchSize);
+    }
+    return (int) Math.max(1, Math.min(maxBatchSize, batchBytes / averageEntryBytes));
+  }
+}
@@ -17,14 +17,10 @@ package com.twitter.aurora.scheduler.quota;
 
 import javax.inject.Inject;
 
-import com.google.common.collect.Iterables;
-
 import com.twitter.aurora.scheduler.base.JobKeys;
-import com.twitter.aurora.scheduler.base.Query;
-import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl;
 import com.twitter.aurora.scheduler.state.JobFilter;
-import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.stats.ResourceAggregates;
 import com.twitter.aurora.scheduler.storage.entities.IJobConfiguration;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
@@ -39,12 +35,12 @@ import static com.twitter.aurora.scheduler.quota.QuotaComparisonResult.Result.IN
  */
 class QuotaFilter implements JobFilter {
   private final QuotaManagerImpl quotaManager;
-  private final Storage storage;
+  private final ResourceAggregates aggregates;
 
   @Inject
-  QuotaFilter(QuotaManagerImpl quotaManager, Storage storage) {
+  QuotaFilter(QuotaManagerImpl quotaManager, ResourceAggregates aggregates) {
     this.quotaManager = checkNotNull(quotaManager);
-    this.storage = checkNotNull(storage);
+    this.aggregates = checkNotNull(aggregates);
   }
 
   @Override
@@ -66,10 +62,7 @@ class QuotaFilter implements JobFilter {
       return JobFilterResult.pass();
     }
 
-    IQuota currentUsage = Quotas.fromProductionTasks(
-        Iterables.transform(
-            Storage.Util.consistentFetchTasks(storage, Query.jobScoped(jobKey).active()),
-            Tasks.SCHEDULED_TO_INFO));
+    IQuota currentUsage = aggregates.getProductionConsumption(jobKey);
 
     IQuota additionalRequested =
         Quotas.subtract(Quotas.fromTasks(template, instanceCount), currentUsage);
@@ -15,14 +15,11 @@
  */
 package com.twitter.aurora.scheduler.quota;
 
-import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 
-import com.twitter.aurora.scheduler.base.Query;
-import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.stats.ResourceAggregates;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
-import com.twitter.aurora.scheduler.storage.Storage.Work;
 import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 
@@ -47,25 +44,19 @@ public interface QuotaManager {
    */
   static class QuotaManagerImpl implements QuotaManager {
     private final Storage storage;
+    private final ResourceAggregates aggregates;
 
     @Inject
-    public QuotaManagerImpl(Storage storage) {
+    public QuotaManagerImpl(Storage storage, ResourceAggregates aggregates) {
       this.storage = checkNotNull(storage);
+      this.aggregates = checkNotNull(aggregates);
     }
 
     @Override
-    public IQuota getConsumption(final String role) {
+    public IQuota getConsumption(String role) {
       checkNotBlank(role);
 
-      final Query.Builder query = Query.roleScoped(role).active();
-
-      return storage.consistentRead(
-          new Work.Quiet<IQuota>() {
-            @Override public IQuota apply(StoreProvider storeProvider) {
-              return Quotas.fromProductionTasks(Iterables.transform(
-                  storeProvider.getTaskStore().fetchTasks(query), Tasks.SCHEDULED_TO_INFO));
-            }
-          });
+      return aggregates.getProductionConsumption(role);
     }
 
     /**
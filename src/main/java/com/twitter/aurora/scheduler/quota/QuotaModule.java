@@ -21,6 +21,7 @@ import com.google.inject.AbstractModule;
 
 import com.twitter.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl;
 import com.twitter.aurora.scheduler.state.JobFilter;
+import com.twitter.aurora.scheduler.stats.ResourceAggregates;
 import com.twitter.aurora.scheduler.storage.Storage;
 
 /**
@@ -31,6 +32,7 @@ public class QuotaModule extends AbstractModule {
   @Override
   protected void configure() {
     requireBinding(Storage.class);
+    requireBinding(ResourceAggregates.class);
 
     bind(QuotaManager.class).to(QuotaManagerImpl.class);
     bind(QuotaManagerImpl.class).in(Singleton.class);
@@ -15,24 +15,34 @@
  */
 package com.twitter.aurora.scheduler.state;
 
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
 
+import com.twitter.aurora.gen.TaskConstraint;
 import com.twitter.aurora.scheduler.MesosTaskFactory;
 import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IConstraint;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -43,7 +53,8 @@ public interface TaskAssigner {
 
   /**
    * Tries to match a task against an offer.  If a match is found, the assigner should
-   * make the appropriate changes to the task and provide a non-empty result.
+   * make the appropriate changes to the task and provide a non-empty result.  The result is empty
+   * if the task is no longer pending by the time it is assigned.
    *
    * @param offer The resource offer.
    * @param task The task to match against and optionally assign.
@@ -51,52 +62,157 @@ public interface TaskAssigner {
    */
   Optional<TaskInfo> maybeAssign(Offer offer, IScheduledTask task);
 
+  /**
+   * Tries to match a batch of tasks with identical configurations against an offer, packing as
+   * many of the tasks into the offer as its resources allow.  Tasks are assigned in the order
+   * they are provided, and tasks that are no longer pending by the time they are assigned are
+   * skipped, so the result corresponds to a subsequence of {@code tasks}.
+   *
+   * @param offer The resource offer.
+   * @param tasks Tasks sharing a configuration to match against and optionally assign.
+   * @return Instructions for launching the tasks that were assigned, in the order of
+   *         {@code tasks}.
+   */
+  List<TaskInfo> maybeAssign(Offer offer, List<IScheduledTask> tasks);
+
+  /**
+   * Task assigner that evaluates scheduling filters without holding the storage write lock, and
+   * commits all assignments to an offer in a single short write operation.
+   */
   class TaskAssignerImpl implements TaskAssigner {
     private static final Logger LOG = Logger.getLogger(TaskAssignerImpl.class.getName());
 
+    private final Storage storage;
     private final StateManager stateManager;
     private final SchedulingFilter filter;
     private final MesosTaskFactory taskFactory;
 
     @Inject
     public TaskAssignerImpl(
+        Storage storage,
         StateManager stateManager,
         SchedulingFilter filter,
         MesosTaskFactory taskFactory) {
 
+      this.storage = checkNotNull(storage);
       this.stateManager = checkNotNull(stateManager);
       this.filter = checkNotNull(filter);
       this.taskFactory = checkNotNull(taskFactory);
     }
 
-    private TaskInfo assign(Offer offer, IScheduledTask task) {
-      String host = offer.getHostname();
-      Set<Integer> selectedPorts =
-          Resources.getPorts(offer, task.getAssignedTask().getTask().getRequestedPorts().size());
-      IAssignedTask assigned = stateManager.assignTask(
-          Tasks.id(task),
-          host,
-          offer.getSlaveId(),
-          selectedPorts);
-      LOG.info(String.format("Offer on slave %s (id %s) is being assigned task for %s.",
-          host, offer.getSlaveId(), Tasks.id(task)));
-      return taskFactory.createFrom(assigned, offer.getSlaveId());
-    }
-
-    @Override
-    public Optional<TaskInfo> maybeAssign(Offer offer, IScheduledTask task) {
+    private Set<Veto> filter(Offer offer, ResourceSlot available, IScheduledTask task) {
       Set<Veto> vetoes = filter.filter(
-          ResourceSlot.from(offer),
+          available,
           offer.getHostname(),
           task.getAssignedTask().getTask(),
           Tasks.id(task));
-      if (vetoes.isEmpty()) {
-        return Optional.of(assign(offer, task));
-      } else {
+      if (!vetoes.isEmpty()) {
         LOG.fine("Slave " + offer.getHostname() + " vetoed task " + Tasks.id(task)
             + ": " + vetoes);
+      }
+      return vetoes;
+    }
+
+    /**
+     * Assigns tasks sharing a configuration to an offer in a single write operation.
+     *
+     * @param offer Offer the tasks are assigned to.
+     * @param tasks Tasks that passed the scheduling filter for the offer.
+     * @param ports Ports selected for each task, in the order of {@code tasks}.
+     * @return Instructions for launching the tasks that were assigned.
+     */
+    private List<TaskInfo> assign(
+        final Offer offer,
+        final List<IScheduledTask> tasks,
+        final List<Set<Integer>> ports) {
+
+      final String host = offer.getHostname();
+      final boolean recheckLimits = hasLimitConstraint(tasks.get(0).getAssignedTask().getTask());
+      List<IAssignedTask> assigned = storage.write(new MutateWork.Quiet<List<IAssignedTask>>() {
+        @Override public List<IAssignedTask> apply(MutableStoreProvider storeProvider) {
+          ImmutableList.Builder<IAssignedTask> result = ImmutableList.builder();
+          for (int i = 0; i < tasks.size(); i++) {
+            IScheduledTask task = tasks.get(i);
+            // Limit constraints count the tasks already placed on the host, which may have
+            // changed since the filter was evaluated outside of this write.
+            if (recheckLimits && !filter(offer, ResourceSlot.from(offer), task).isEmpty()) {
+              continue;
+            }
+            IAssignedTask assignment =
+                stateManager.assignTask(Tasks.id(task), host, offer.getSlaveId(), ports.get(i));
+            if (assignment == null) {
+              LOG.info("Task " + Tasks.id(task) + " was not assigned to " + host
+                  + ", it may no longer be pending.");
+            } else {
+              result.add(assignment);
+            }
+          }
+          return result.build();
+        }
+      });
+
+      ImmutableList.Builder<TaskInfo> launches = ImmutableList.builder();
+      for (IAssignedTask task : assigned) {
+        LOG.info(String.format("Offer on slave %s (id %s) is being assigned task for %s.",
+            host, offer.getSlaveId(), task.getTaskId()));
+        launches.add(taskFactory.createFrom(task, offer.getSlaveId()));
+      }
+      return launches.build();
+    }
+
+    @Override
+    public Optional<TaskInfo> maybeAssign(Offer offer, IScheduledTask task) {
+      if (filter(offer, ResourceSlot.from(offer), task).isEmpty()) {
+        Set<Integer> ports = Resources.getPorts(
+            offer,
+            task.getAssignedTask().getTask().getRequestedPorts().size());
+        return Optional.fromNullable(Iterables.getOnlyElement(
+            assign(offer, ImmutableList.of(task), ImmutableList.of(ports)),
+            null));
+      } else {
         return Optional.absent();
       }
     }
+
+    private static boolean hasLimitConstraint(ITaskConfig config) {
+      for (IConstraint constraint : config.getConstraints()) {
+        if (constraint.getConstraint().getSetField() == TaskConstraint._Fields.LIMIT) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public List<TaskInfo> maybeAssign(Offer offer, List<IScheduledTask> tasks) {
+      if (tasks.isEmpty()) {
+        return ImmutableList.of();
+      }
+
+      IScheduledTask first = tasks.get(0);
+      ITaskConfig config = first.getAssignedTask().getTask();
+      ResourceSlot available = ResourceSlot.from(offer);
+      if (!filter(offer, available, first).isEmpty()) {
+        return ImmutableList.of();
+      }
+
+      // All other vetoes are a function of the host and the task configuration, so they hold for
+      // every task in the batch.  Limit constraints depend on the tasks already placed on the host,
+      // which is only known after assignment, so at most one such task is placed per offer.
+      int count = hasLimitConstraint(config)
+          ? 1
+          : Math.max(1, Math.min(tasks.size(), available.countFits(ResourceSlot.from(config))));
+
+      // Ports are selected for all tasks at once to ensure that no two tasks share a port.
+      int portsPerTask = config.getRequestedPorts().size();
+      List<Integer> ports = ImmutableList.copyOf(Resources.getPorts(offer, count * portsPerTask));
+
+      ImmutableList.Builder<Set<Integer>> taskPorts = ImmutableList.builder();
+      for (int i = 0; i < count; i++) {
+        taskPorts.add(
+            ImmutableSet.copyOf(ports.subList(i * portsPerTask, (i + 1) * portsPerTask)));
+      }
+      return assign(offer, tasks.subList(0, count), taskPorts.build());
+    }
   }
 }
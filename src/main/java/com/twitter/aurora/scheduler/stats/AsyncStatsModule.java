@@ -20,6 +20,7 @@ import java.lang.annotation.Target;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -35,7 +36,9 @@ import org.apache.mesos.Protos.Offer;
 import com.twitter.aurora.gen.Quota;
 import com.twitter.aurora.scheduler.async.OfferQueue;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEventModule;
 import com.twitter.aurora.scheduler.stats.SlotSizeCounter.ResourceSlotProvider;
+import com.twitter.aurora.scheduler.storage.Storage.StorageException;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.common.application.modules.LifecycleModule;
 import com.twitter.common.args.Arg;
@@ -57,6 +60,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class AsyncStatsModule extends AbstractModule {
 
+  private static final Logger LOG = Logger.getLogger(AsyncStatsModule.class.getName());
+
   @CmdLine(name = "async_task_stat_update_interval",
       help = "Interval on which to try to update resource consumption stats.")
   private static final Arg<Amount<Long, Time>> TASK_STAT_INTERVAL =
@@ -67,6 +72,11 @@ public class AsyncStatsModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> SLOT_STAT_INTERVAL =
       Arg.create(Amount.of(1L, Time.MINUTES));
 
+  @CmdLine(name = "resource_aggregate_reconcile_interval",
+      help = "Interval on which to check running resource totals against storage.")
+  private static final Arg<Amount<Long, Time>> RECONCILE_INTERVAL =
+      Arg.create(Amount.of(10L, Time.MINUTES));
+
   @BindingAnnotation
   @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
   private @interface StatExecutor { }
@@ -76,6 +86,8 @@ public class AsyncStatsModule extends AbstractModule {
     final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
         new ThreadFactoryBuilder().setNameFormat("AsyncStat-%d").setDaemon(true).build());
 
+    bind(ResourceAggregates.class).in(Singleton.class);
+    PubsubEventModule.bindSubscriber(binder(), ResourceAggregates.class);
     bind(TaskStatCalculator.class).in(Singleton.class);
     bind(CachedCounters.class).in(Singleton.class);
     bind(ResourceSlotProvider.class).to(OfferAdapter.class);
@@ -89,16 +101,19 @@ public class AsyncStatsModule extends AbstractModule {
     private final ScheduledExecutorService executor;
     private final TaskStatCalculator taskStats;
     private final SlotSizeCounter slotCounter;
+    private final ResourceAggregates aggregates;
 
     @Inject
     StatUpdater(
         @StatExecutor ScheduledExecutorService executor,
         TaskStatCalculator taskStats,
-        SlotSizeCounter slotCounter) {
+        SlotSizeCounter slotCounter,
+        ResourceAggregates aggregates) {
 
       this.executor = checkNotNull(executor);
       this.taskStats = checkNotNull(taskStats);
       this.slotCounter = checkNotNull(slotCounter);
+      this.aggregates = checkNotNull(aggregates);
     }
 
     @Override
@@ -107,6 +122,20 @@ public class AsyncStatsModule extends AbstractModule {
       executor.scheduleAtFixedRate(taskStats, taskInterval, taskInterval, TimeUnit.SECONDS);
       long slotInterval = SLOT_STAT_INTERVAL.get().as(Time.SECONDS);
       executor.scheduleAtFixedRate(slotCounter, slotInterval, slotInterval, TimeUnit.SECONDS);
+      long reconcileInterval = RECONCILE_INTERVAL.get().as(Time.SECONDS);
+      executor.scheduleAtFixedRate(
+          new Runnable() {
+            @Override public void run() {
+              try {
+                aggregates.reconcile();
+              } catch (StorageException e) {
+                LOG.fine("Unable to reconcile resource totals, storage is likely not ready.");
+              }
+            }
+          },
+          reconcileInterval,
+          reconcileInterval,
+          TimeUnit.SECONDS);
     }
   }
 
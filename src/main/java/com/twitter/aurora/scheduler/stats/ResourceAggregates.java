@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.stats;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.JobKey;
+import com.twitter.aurora.gen.Quota;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.stats.ResourceCounter.MetricType;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IQuota;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maintains running totals of the resources requested by active tasks, grouped by role, by role
+ * and environment, by job and by {@link MetricType}.
+ * <p>
+ * Totals are updated incrementally from task state change notifications, which are delivered
+ * while the storage write that caused them is still in progress.  Reads performed within a
+ * storage transaction are therefore consistent with the tasks in storage.  Tasks stored without
+ * a notification (such as those restored from a backup) are picked up by {@link #reconcile()},
+ * which is invoked when storage starts and periodically thereafter.
+ */
+public class ResourceAggregates implements EventSubscriber {
+  private static final Logger LOG = Logger.getLogger(ResourceAggregates.class.getName());
+
+  private final Storage storage;
+
+  private final Map<String, ITaskConfig> activeTasks = Maps.newHashMap();
+  private final Map<String, Consumption> byRole = Maps.newHashMap();
+  private final Table<String, String, Consumption> byRoleEnvironment = HashBasedTable.create();
+  private final Map<IJobKey, Consumption> byJob = Maps.newHashMap();
+  private final Map<MetricType, Aggregate> byType = new EnumMap<>(MetricType.class);
+
+  private boolean loaded = false;
+
+  private final AtomicLong reconciliationDrift = Stats.exportLong("resource_aggregate_drift");
+
+  @Inject
+  ResourceAggregates(Storage storage) {
+    this.storage = checkNotNull(storage);
+    resetTotals();
+  }
+
+  /**
+   * Gets the resources consumed by active production tasks of a role.
+   *
+   * @param role Role to fetch consumption for.
+   * @return Production consumption of {@code role}.
+   */
+  public synchronized IQuota getProductionConsumption(String role) {
+    Consumption consumption = byRole.get(role);
+    return (consumption == null) ? Aggregate.EMPTY : consumption.production.toQuota();
+  }
+
+  /**
+   * Gets the resources consumed by active non-production tasks of a role.
+   *
+   * @param role Role to fetch consumption for.
+   * @return Non-production consumption of {@code role}.
+   */
+  public synchronized IQuota getNonProductionConsumption(String role) {
+    Consumption consumption = byRole.get(role);
+    return (consumption == null) ? Aggregate.EMPTY : consumption.nonProduction.toQuota();
+  }
+
+  /**
+   * Gets the resources consumed by all active tasks in an environment of a role.
+   *
+   * @param role Role to fetch consumption for.
+   * @param environment Environment within {@code role}.
+   * @return Consumption of tasks in {@code environment}.
+   */
+  public synchronized IQuota getConsumption(String role, String environment) {
+    Consumption consumption = byRoleEnvironment.get(role, environment);
+    return (consumption == null) ? Aggregate.EMPTY : consumption.total();
+  }
+
+  /**
+   * Gets the resources consumed by active production tasks of a job.
+   *
+   * @param job Job to fetch consumption for.
+   * @return Production consumption of {@code job}.
+   */
+  public synchronized IQuota getProductionConsumption(IJobKey job) {
+    Consumption consumption = byJob.get(job);
+    return (consumption == null) ? Aggregate.EMPTY : consumption.production.toQuota();
+  }
+
+  /**
+   * Gets the resources consumed by all active tasks matching a metric type.
+   *
+   * @param type Metric type.
+   * @return Consumption of tasks matching {@code type}.
+   */
+  public synchronized IQuota getConsumption(MetricType type) {
+    return byType.get(type).toQuota();
+  }
+
+  /**
+   * Updates the totals with a task state change.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    IScheduledTask task = stateChange.getTask();
+    if (Tasks.isActive(stateChange.getNewState())) {
+      add(Tasks.id(task), task.getAssignedTask().getTask());
+    } else {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Removes deleted tasks from the totals.
+   *
+   * @param deleted Tasks deleted event.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Loads the initial totals from storage.
+   *
+   * @param event Storage started notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted event) {
+    reconcile();
+  }
+
+  /**
+   * Recomputes the totals from the active tasks in storage.  If the totals did not reflect the
+   * tasks in storage, the discrepancy is logged and counted.
+   *
+   * @return {@code true} if the totals had drifted from storage, {@code false} otherwise.
+   */
+  public boolean reconcile() {
+    // Notifications are delivered under the storage write lock, so the totals are rebuilt under
+    // it as well.  Otherwise a notification for a write that commits between the read and the
+    // rebuild would be overwritten by stale totals.  The lock is acquired before the monitor,
+    // matching the order in which notifications are delivered.
+    return storage.write(new MutateWork.Quiet<Boolean>() {
+      @Override public Boolean apply(MutableStoreProvider storeProvider) {
+        ImmutableMap.Builder<String, ITaskConfig> stored = ImmutableMap.builder();
+        for (IScheduledTask task
+            : storeProvider.getTaskStore().fetchTasks(Query.unscoped().active())) {
+
+          stored.put(Tasks.id(task), task.getAssignedTask().getTask());
+        }
+        return replaceAll(stored.build());
+      }
+    });
+  }
+
+  private synchronized boolean replaceAll(Map<String, ITaskConfig> stored) {
+    // The initial load is not counted as drift.
+    boolean drifted = loaded && !activeTasks.equals(stored);
+    loaded = true;
+    if (drifted) {
+      reconciliationDrift.incrementAndGet();
+      LOG.warning("Resource totals drifted from storage, " + activeTasks.size()
+          + " tasks were tracked but " + stored.size() + " are active.");
+    }
+
+    // Totals are always rebuilt, which also discards accumulated floating point error.
+    activeTasks.clear();
+    byRole.clear();
+    byRoleEnvironment.clear();
+    byJob.clear();
+    resetTotals();
+    for (Map.Entry<String, ITaskConfig> entry : stored.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+    return drifted;
+  }
+
+  private void resetTotals() {
+    for (MetricType type : MetricType.values()) {
+      byType.put(type, new Aggregate());
+    }
+  }
+
+  private void add(String taskId, ITaskConfig config) {
+    ITaskConfig previous = activeTasks.put(taskId, config);
+    if (previous != null) {
+      update(previous, -1);
+    }
+    update(config, 1);
+  }
+
+  private void remove(String taskId) {
+    ITaskConfig previous = activeTasks.remove(taskId);
+    if (previous != null) {
+      update(previous, -1);
+    }
+  }
+
+  private void update(ITaskConfig config, int sign) {
+    String role = config.getOwner().getRole();
+    Consumption roleConsumption = byRole.get(role);
+    if (roleConsumption == null) {
+      roleConsumption = new Consumption();
+      byRole.put(role, roleConsumption);
+    }
+    if (roleConsumption.update(config, sign)) {
+      byRole.remove(role);
+    }
+
+    String environment = Strings.nullToEmpty(config.getEnvironment());
+    Consumption environmentConsumption = byRoleEnvironment.get(role, environment);
+    if (environmentConsumption == null) {
+      environmentConsumption = new Consumption();
+      byRoleEnvironment.put(role, environment, environmentConsumption);
+    }
+    if (environmentConsumption.update(config, sign)) {
+      byRoleEnvironment.remove(role, environment);
+    }
+
+    // The key is built without validation, so that a malformed task cannot leave the totals
+    // partially updated.
+    IJobKey job = IJobKey.build(new JobKey(role, environment, config.getJobName()));
+    Consumption jobConsumption = byJob.get(job);
+    if (jobConsumption == null) {
+      jobConsumption = new Consumption();
+      byJob.put(job, jobConsumption);
+    }
+    if (jobConsumption.update(config, sign)) {
+      byJob.remove(job);
+    }
+
+    for (Map.Entry<MetricType, Aggregate> entry : byType.entrySet()) {
+      if (entry.getKey().filter.apply(config)) {
+        entry.getValue().update(config, sign);
+      }
+    }
+  }
+
+  /**
+   * Consumption of a group of tasks, split by production tier.
+   */
+  private static class Consumption {
+    private final Aggregate production = new Aggregate();
+    private final Aggregate nonProduction = new Aggregate();
+    private int tasks = 0;
+
+    /**
+     * Applies a task to the consumption.
+     *
+     * @return {@code true} if the group no longer contains tasks.
+     */
+    boolean update(ITaskConfig config, int sign) {
+      (config.isProduction() ? production : nonProduction).update(config, sign);
+      tasks += sign;
+      return tasks == 0;
+    }
+
+    IQuota total() {
+      return IQuota.build(new Quota()
+          .setNumCpus(production.cpu + nonProduction.cpu)
+          .setRamMb(production.ramMb + nonProduction.ramMb)
+          .setDiskMb(production.diskMb + nonProduction.diskMb));
+    }
+  }
+
+  private static class Aggregate {
+    private static final IQuota EMPTY = new Aggregate().toQuota();
+
+    private double cpu = 0;
+    private long ramMb = 0;
+    private long diskMb = 0;
+
+    void update(ITaskConfig config, int sign) {
+      cpu += sign * config.getNumCpus();
+      ramMb += sign * config.getRamMb();
+      diskMb += sign * config.getDiskMb();
+    }
+
+    IQuota toQuota() {
+      return IQuota.build(new Quota()
+          .setNumCpus(cpu)
+          .setRamMb(ramMb)
+          .setDiskMb(diskMb));
+    }
+  }
+}
@@ -45,10 +45,12 @@ import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
  */
 public class ResourceCounter {
   private final Storage storage;
+  private final ResourceAggregates aggregates;
 
   @Inject
-  ResourceCounter(Storage storage) {
+  ResourceCounter(Storage storage, ResourceAggregates aggregates) {
     this.storage = Preconditions.checkNotNull(storage);
+    this.aggregates = Preconditions.checkNotNull(aggregates);
   }
 
   private Iterable<ITaskConfig> getTasks(Query.Builder query) throws StorageException {
@@ -58,22 +60,20 @@ public class ResourceCounter {
   }
 
   /**
-   * Computes totals for each of the {@link MetricType}s.
+   * Computes totals for each of the {@link MetricType}s.  Totals are read from the running
+   * {@link ResourceAggregates}, and do not require a scan of tasks.
    *
    * @return aggregates for each global metric type.
-   * @throws StorageException if there was a problem fetching tasks from storage.
    */
-  public List<GlobalMetric> computeConsumptionTotals() throws StorageException {
+  public List<GlobalMetric> computeConsumptionTotals() {
     List<GlobalMetric> counts = Arrays.asList(
         new GlobalMetric(MetricType.TOTAL_CONSUMED),
         new GlobalMetric(MetricType.DEDICATED_CONSUMED),
         new GlobalMetric(MetricType.QUOTA_CONSUMED),
         new GlobalMetric(MetricType.FREE_POOL_CONSUMED));
 
-    for (ITaskConfig task : getTasks(Query.unscoped().active())) {
-      for (GlobalMetric count : counts) {
-        count.accumulate(task);
-      }
+    for (GlobalMetric count : counts) {
+      count.accumulate(aggregates.getConsumption(count.type));
     }
     return counts;
   }
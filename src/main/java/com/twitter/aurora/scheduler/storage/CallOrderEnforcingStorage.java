@@ -34,7 +34,8 @@ import com.twitter.aurora.scheduler.storage.Storage.NonVolatileStorage;
 import com.twitter.common.util.StateMachine;
 
 /**
- * A non-volatile storage wrapper that enforces method call ordering.
+ * A non-volatile storage wrapper that enforces method call ordering.  Write operations are also
+ * reported to {@link CommitActions}, so that actions may be deferred until a write commits.
  */
 public class CallOrderEnforcingStorage implements NonVolatileStorage {
 
@@ -47,6 +48,7 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
   private @interface EnforceOrderOn { }
 
   private final NonVolatileStorage wrapped;
+  private final CommitActions commitActions;
 
   private enum State {
     CONSTRUCTED,
@@ -64,8 +66,12 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
       .build();
 
   @Inject
-  CallOrderEnforcingStorage(@EnforceOrderOn NonVolatileStorage wrapped) {
+  CallOrderEnforcingStorage(
+      @EnforceOrderOn NonVolatileStorage wrapped,
+      CommitActions commitActions) {
+
     this.wrapped = wrapped;
+    this.commitActions = commitActions;
   }
 
   private void checkInState(State state) throws StorageException {
@@ -110,10 +116,25 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
   }
 
   @Override
-  public <T, E extends Exception> T write(MutateWork<T, E> work)
+  public <T, E extends Exception> T write(final MutateWork<T, E> work)
       throws StorageException, E {
     checkInState(State.READY);
-    return wrapped.write(work);
+    commitActions.begin();
+    boolean committed = false;
+    try {
+      T result = wrapped.write(new MutateWork<T, E>() {
+        @Override public T apply(MutableStoreProvider storeProvider) throws E {
+          T workResult = work.apply(storeProvider);
+          // Sealing under the write lock orders deferred actions the same way as the writes.
+          commitActions.seal();
+          return workResult;
+        }
+      });
+      committed = true;
+      return result;
+    } finally {
+      commitActions.end(committed);
+    }
   }
 
   @Override
@@ -124,7 +145,8 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
 
   /**
    * Creates a binding module that will wrap a storage class with {@link CallOrderEnforcingStorage},
-   * exposing the order-enforced storage as {@link Storage} and {@link NonVolatileStorage}.
+   * exposing the order-enforced storage as {@link Storage} and {@link NonVolatileStorage}, along
+   * with the {@link CommitActions} of its write operations.
    *
    * @param storageClass Non-volatile storage implementation class.
    * @return Binding module.
@@ -136,8 +158,10 @@ public class CallOrderEnforcingStorage implements NonVolatileStorage {
         bind(NonVolatileStorage.class).to(CallOrderEnforcingStorage.class);
         bind(CallOrderEnforcingStorage.class).in(Singleton.class);
         bind(NonVolatileStorage.class).annotatedWith(EnforceOrderOn.class).to(storageClass);
+        bind(CommitActions.class).in(Singleton.class);
         expose(Storage.class);
         expose(NonVolatileStorage.class);
+        expose(CommitActions.class);
       }
     };
   }
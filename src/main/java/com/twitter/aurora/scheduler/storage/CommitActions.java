@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.collect.Lists;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Defers actions until the write operation in progress on the calling thread has committed.
+ * <p>
+ * Write operations nested within another write operation are part of the same transaction, so
+ * actions are deferred until the outermost write operation completes.  Actions are discarded if
+ * the outermost write operation fails.
+ * <p>
+ * The storage seals each outermost write operation while it still holds the write lock, so the
+ * actions of committed write operations run in the order the write operations were applied, even
+ * if a later write operation ends first.
+ */
+public class CommitActions {
+  private static final Logger LOG = Logger.getLogger(CommitActions.class.getName());
+
+  private static class Transaction {
+    private int depth = 0;
+    private final List<Runnable> actions = Lists.newArrayList();
+    private boolean sealed = false;
+    private boolean queued = false;
+    private Boolean committed = null;
+  }
+
+  private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+
+  // Sealed transactions with deferred actions, in the order they were sealed.
+  private final Queue<Transaction> queue = Lists.newLinkedList();
+
+  /**
+   * Runs an action once the write operation in progress on the calling thread commits, or
+   * immediately if no write operation is in progress.
+   *
+   * @param action Action to run.
+   */
+  public void execute(Runnable action) {
+    checkNotNull(action);
+
+    Transaction current = transaction.get();
+    if (current == null) {
+      action.run();
+    } else {
+      current.actions.add(action);
+      if (current.sealed) {
+        enqueue(current);
+      }
+    }
+  }
+
+  /**
+   * Notes the start of a write operation on the calling thread.
+   */
+  void begin() {
+    Transaction current = transaction.get();
+    if (current == null) {
+      current = new Transaction();
+      transaction.set(current);
+    }
+    current.depth++;
+  }
+
+  // Transactions without actions are not queued, so that they never hold back others.
+  private void enqueue(Transaction current) {
+    if (!current.queued && !current.actions.isEmpty()) {
+      current.queued = true;
+      synchronized (queue) {
+        queue.add(current);
+      }
+    }
+  }
+
+  private void seal(Transaction current) {
+    if (!current.sealed) {
+      current.sealed = true;
+      enqueue(current);
+    }
+  }
+
+  /**
+   * Fixes the order of the actions deferred by the outermost write operation on the calling
+   * thread, relative to those of other write operations.  Must be called while holding the
+   * storage write lock, once the work of the outermost write operation is complete.  Has no
+   * effect for nested write operations.
+   */
+  void seal() {
+    Transaction current = transaction.get();
+    checkState(current != null, "No write operation in progress.");
+
+    if (current.depth == 1) {
+      seal(current);
+    }
+  }
+
+  /**
+   * Notes the end of a write operation on the calling thread.  If it was the outermost operation,
+   * its deferred actions are marked as committed or discarded, and the actions of committed write
+   * operations are run up to the first sealed write operation that has not yet ended.
+   *
+   * @param committed Whether the write operation committed.
+   */
+  void end(boolean committed) {
+    Transaction current = transaction.get();
+    checkState(current != null, "No write operation in progress.");
+
+    current.depth--;
+    if (current.depth > 0) {
+      return;
+    }
+
+    transaction.remove();
+
+    // A write operation that failed before its work completed was never sealed.
+    seal(current);
+    if (!current.queued) {
+      return;
+    }
+    synchronized (queue) {
+      current.committed = committed;
+      while (!queue.isEmpty() && (queue.peek().committed != null)) {
+        run(queue.remove());
+      }
+    }
+  }
+
+  private static void run(Transaction ended) {
+    if (!ended.committed) {
+      LOG.info("Discarding " + ended.actions.size() + " actions of a failed write.");
+      return;
+    }
+    for (Runnable action : ended.actions) {
+      try {
+        action.run();
+      } catch (RuntimeException e) {
+        // The write has committed, so the remaining actions must still run.
+        LOG.log(Level.SEVERE, "Post-commit action failed: " + e, e);
+      }
+    }
+  }
+}
@@ -33,6 +33,7 @@ import com.twitter.aurora.scheduler.storage.backup.Recovery.RecoveryImpl;
 import com.twitter.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl;
 import com.twitter.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl.BackupConfig;
 import com.twitter.aurora.scheduler.storage.backup.TemporaryStorage.TemporaryStorageFactory;
+import com.twitter.aurora.scheduler.storage.log.StreamingSnapshotStore;
 import com.twitter.common.application.Lifecycle;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
@@ -64,6 +65,7 @@ public class BackupModule extends PrivateModule {
   private static final Arg<File> BACKUP_DIR = Arg.create();
 
   private final Class<? extends SnapshotStore<Snapshot>> snapshotStore;
+  private final Class<? extends StreamingSnapshotStore> streamingSnapshotStore;
   private final File unvalidatedBackupDir;
 
   /**
@@ -71,7 +73,8 @@ public class BackupModule extends PrivateModule {
    *
    * @param snapshotStore Snapshot store implementation class.
    */
-  public BackupModule(Class<? extends SnapshotStore<Snapshot>> snapshotStore) {
+  public <T extends SnapshotStore<Snapshot> & StreamingSnapshotStore> BackupModule(
+      Class<T> snapshotStore) {
     this(BACKUP_DIR.get(), snapshotStore);
   }
 
@@ -82,20 +85,29 @@ public class BackupModule extends PrivateModule {
    * @param snapshotStore Snapshot store implementation class.
    */
   @VisibleForTesting
-  public BackupModule(File backupDir, Class<? extends SnapshotStore<Snapshot>> snapshotStore) {
+  public <T extends SnapshotStore<Snapshot> & StreamingSnapshotStore> BackupModule(
+      File backupDir,
+      Class<T> snapshotStore) {
+
     this.unvalidatedBackupDir = checkNotNull(backupDir);
     this.snapshotStore = checkNotNull(snapshotStore);
+    this.streamingSnapshotStore = snapshotStore;
   }
 
   @Override
   protected void configure() {
     TypeLiteral<SnapshotStore<Snapshot>> type = new TypeLiteral<SnapshotStore<Snapshot>>() { };
     bind(type).annotatedWith(StorageBackupImpl.SnapshotDelegate.class).to(snapshotStore);
+    bind(StreamingSnapshotStore.class)
+        .annotatedWith(StorageBackupImpl.SnapshotDelegate.class)
+        .to(streamingSnapshotStore);
 
     bind(type).to(StorageBackupImpl.class);
     bind(StorageBackup.class).to(StorageBackupImpl.class);
     bind(StorageBackupImpl.class).in(Singleton.class);
+    bind(StreamingSnapshotStore.class).to(StorageBackupImpl.class);
     expose(type);
+    expose(StreamingSnapshotStore.class);
     expose(StorageBackup.class);
 
     bind(new TypeLiteral<Function<Snapshot, TemporaryStorage>>() { })
@@ -40,7 +40,9 @@ import com.google.inject.BindingAnnotation;
 import com.twitter.aurora.codec.ThriftBinaryCodec;
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.gen.storage.SnapshotPart;
 import com.twitter.aurora.scheduler.storage.SnapshotStore;
+import com.twitter.aurora.scheduler.storage.log.StreamingSnapshotStore;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
@@ -67,7 +69,8 @@ public interface StorageBackup {
    */
   void backupNow();
 
-  class StorageBackupImpl implements StorageBackup, SnapshotStore<Snapshot> {
+  class StorageBackupImpl
+      implements StorageBackup, SnapshotStore<Snapshot>, StreamingSnapshotStore {
     private static final Logger LOG = Logger.getLogger(StorageBackup.class.getName());
 
     private static final String FILE_PREFIX = "scheduler-backup-";
@@ -91,13 +94,15 @@ public interface StorageBackup {
     }
 
     /**
-     * Binding annotation that the underlying {@link SnapshotStore} must be bound with.
+     * Binding annotation that the underlying {@link SnapshotStore} and
+     * {@link StreamingSnapshotStore} must be bound with.
      */
     @BindingAnnotation
     @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
     @interface SnapshotDelegate { }
 
     private final SnapshotStore<Snapshot> delegate;
+    private final StreamingSnapshotStore streamingDelegate;
     private final Clock clock;
     private final long backupIntervalMs;
     private volatile long lastBackupMs;
@@ -118,10 +123,12 @@ public interface StorageBackup {
     @Inject
     StorageBackupImpl(
         @SnapshotDelegate SnapshotStore<Snapshot> delegate,
+        @SnapshotDelegate StreamingSnapshotStore streamingDelegate,
         Clock clock,
         BackupConfig config) {
 
       this.delegate = checkNotNull(delegate);
+      this.streamingDelegate = checkNotNull(streamingDelegate);
       this.clock = checkNotNull(clock);
       this.config = checkNotNull(config);
       backupDateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm");
@@ -129,14 +136,33 @@ public interface StorageBackup {
       lastBackupMs = clock.nowMillis();
     }
 
+    private boolean isBackupDue() {
+      return clock.nowMillis() >= (lastBackupMs + backupIntervalMs);
+    }
+
     @Override public Snapshot createSnapshot() {
       Snapshot snapshot = delegate.createSnapshot();
-      if (clock.nowMillis() >= (lastBackupMs + backupIntervalMs)) {
+      if (isBackupDue()) {
         save(snapshot);
       }
       return snapshot;
     }
 
+    @Override public void streamSnapshot(int maxRecordsPerPart, PartSink sink)
+        throws CodingException {
+
+      // Backups are always written as complete snapshots, so a full snapshot is only created
+      // when a backup is due.
+      if (isBackupDue()) {
+        save(delegate.createSnapshot());
+      }
+      streamingDelegate.streamSnapshot(maxRecordsPerPart, sink);
+    }
+
+    @Override public void applySnapshotPart(SnapshotPart part) {
+      streamingDelegate.applySnapshotPart(part);
+    }
+
     @Override public void backupNow() {
       save(delegate.createSnapshot());
     }
@@ -18,19 +18,41 @@ package com.twitter.aurora.scheduler.storage.log;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
 import com.google.common.io.ByteStreams;
 
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
+
 import com.twitter.aurora.codec.ThriftBinaryCodec;
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.storage.BlockDeflatedEntry;
 import com.twitter.aurora.gen.storage.LogEntry;
 import com.twitter.aurora.gen.storage.LogEntry._Fields;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 
 /**
@@ -42,6 +64,26 @@ final class Entries {
 
   private static final AtomicLong COMPRESSION_BYTES_SAVED =
       Stats.exportLong("log_compressed_entry_bytes_saved");
+  private static final SlidingStats COMPRESSION_TIME =
+      new SlidingStats("log_compressed_entry_deflate", "nanos");
+  private static final SlidingStats DECOMPRESSION_TIME =
+      new SlidingStats("log_compressed_entry_inflate", "nanos");
+
+  // Compressed size of the most recently compressed entry, as a percentage of its original size.
+  private static volatile double lastCompressionRatio;
+  static {
+    Stats.export(new StatImpl<Double>("log_compressed_entry_ratio_percent") {
+      @Override public Double read() {
+        return lastCompressionRatio;
+      }
+    });
+  }
+
+  // Blocks are compressed and inflated on this pool, which is sized to the available processors.
+  private static final ForkJoinPool BLOCK_POOL = new ForkJoinPool();
+
+  // Number of blocks to inflate ahead of the block being decoded.
+  private static final int INFLATE_AHEAD_BLOCKS = BLOCK_POOL.getParallelism() * 2;
 
   private Entries() {
     // Utility class.
@@ -61,6 +103,7 @@ final class Entries {
    * @throws CodingException If the value could not be encoded or deflated.
    */
   static LogEntry deflate(LogEntry entry) throws CodingException {
+    long start = System.nanoTime();
     byte[] data = thriftBinaryEncode(entry);
     int initialLength = data.length;
     LOG.info("Deflating log entry of size " + initialLength);
@@ -78,26 +121,249 @@ final class Entries {
         LOG.info("Deflated log entry size: " + deflatedData.length + " (saved " + bytesSaved + ")");
       }
 
-      COMPRESSION_BYTES_SAVED.addAndGet(bytesSaved);
+      recordCompression(initialLength, deflatedData.length, System.nanoTime() - start);
       return LogEntry.deflatedEntry(ByteBuffer.wrap(deflatedData));
     } catch (IOException e) {
       throw new CodingException("Failed to deflate snapshot: " + e, e);
     }
   }
 
+  private static void recordCompression(long initialLength, long compressedLength, long nanos) {
+    COMPRESSION_BYTES_SAVED.addAndGet(initialLength - compressedLength);
+    COMPRESSION_TIME.accumulate(nanos);
+    if (initialLength > 0) {
+      lastCompressionRatio = (100.0 * compressedLength) / initialLength;
+    }
+  }
+
   /**
-   * Inflates and deserializes a deflated log entry.
+   * Checks whether a log entry is compressed, in either the deflated or block deflated format.
+   *
+   * @param entry Entry to check.
+   * @return {@code true} if the entry must be inflated before it is applied.
+   */
+  static boolean isCompressed(LogEntry entry) {
+    return entry.isSet(_Fields.DEFLATED_ENTRY) || entry.isSet(_Fields.BLOCK_DEFLATED_ENTRY);
+  }
+
+  /**
+   * Compresses a log entry in independently deflated blocks, and wraps it in a block deflated
+   * entry.
    * <p>
-   * This requires that the {@code deflatedEntry} field is set on the provided {@code entry}.
-   * The encoded value will be inflated and deserialized as a {@link LogEntry}.
+   * This will encode the entry using the thrift binary codec, split the encoded data into blocks,
+   * and apply deflate compression to the blocks in parallel.
+   * <p>
+   * This operation is symmetric with {@link #inflate(LogEntry)}.
    *
-   * @param entry Entry to inflate, which must be a deflated entry.
+   * @param entry Entry to compress.
+   * @param blockSize Maximum uncompressed size of a block.
+   * @param level Deflate compression level, from 0 to 9, or -1 for the default level.
+   * @return An entry with the {@code blockDeflatedEntry} field set with the compressed blocks of
+   *         the serialized original entry.
+   * @throws CodingException If the value could not be encoded or compressed.
+   */
+  static LogEntry blockDeflate(LogEntry entry, Amount<Integer, Data> blockSize, final int level)
+      throws CodingException {
+
+    int blockBytes = blockSize.as(Data.BYTES);
+    Preconditions.checkArgument(blockBytes > 0, "Block size must be positive.");
+    Preconditions.checkArgument(
+        (level >= Deflater.DEFAULT_COMPRESSION) && (level <= Deflater.BEST_COMPRESSION),
+        "Invalid deflate compression level " + level);
+
+    long start = System.nanoTime();
+    final byte[] data = thriftBinaryEncode(entry);
+    List<Callable<byte[]>> blocks = Lists.newArrayList();
+    for (int offset = 0; offset < data.length; offset += blockBytes) {
+      final int blockOffset = offset;
+      final int blockLength = Math.min(blockBytes, data.length - offset);
+      blocks.add(new Callable<byte[]>() {
+        @Override public byte[] call() {
+          return deflateBlock(data, blockOffset, blockLength, level);
+        }
+      });
+    }
+
+    ImmutableList.Builder<ByteBuffer> deflatedBlocks = ImmutableList.builder();
+    long deflatedLength = 0;
+    for (Future<byte[]> block : BLOCK_POOL.invokeAll(blocks)) {
+      byte[] deflatedBlock = getBlock(block);
+      deflatedLength += deflatedBlock.length;
+      deflatedBlocks.add(ByteBuffer.wrap(deflatedBlock));
+    }
+    LOG.info("Deflated log entry of size " + data.length + " in " + blocks.size()
+        + " blocks to size " + deflatedLength);
+
+    recordCompression(data.length, deflatedLength, System.nanoTime() - start);
+    return LogEntry.blockDeflatedEntry(new BlockDeflatedEntry(deflatedBlocks.build()));
+  }
+
+  private static byte[] deflateBlock(byte[] data, int offset, int length, int level) {
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(64, length / 4));
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        deflated.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return deflated.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflateBlock(ByteBuffer block) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(block.array(), block.arrayOffset() + block.position(), block.remaining());
+      ByteArrayOutputStream inflated = new ByteArrayOutputStream(block.remaining() * 4);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if ((length == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated deflate block");
+        }
+        inflated.write(buffer, 0, length);
+      }
+      return inflated.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static byte[] getBlock(Future<byte[]> block) throws CodingException {
+    try {
+      return block.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CodingException("Interrupted while processing compressed log entry.", e);
+    } catch (ExecutionException e) {
+      throw new CodingException("Failed to process compressed log entry block.", e.getCause());
+    }
+  }
+
+  /**
+   * An input stream over the concatenated contents of deflated blocks, which inflates blocks in
+   * parallel ahead of the block being read.
+   */
+  private static class BlockInflaterStream extends InputStream {
+    private final Iterator<ByteBuffer> blocks;
+    private final Queue<Future<byte[]>> inflating = Queues.newArrayDeque();
+    private byte[] current = new byte[0];
+    private int offset;
+    private long inflatedLength;
+
+    BlockInflaterStream(List<ByteBuffer> blocks) {
+      this.blocks = blocks.iterator();
+      while ((inflating.size() < INFLATE_AHEAD_BLOCKS) && this.blocks.hasNext()) {
+        submitNext();
+      }
+    }
+
+    private void submitNext() {
+      final ByteBuffer block = blocks.next();
+      inflating.add(BLOCK_POOL.submit(new Callable<byte[]>() {
+        @Override public byte[] call() throws DataFormatException {
+          return inflateBlock(block);
+        }
+      }));
+    }
+
+    private boolean advance() throws IOException {
+      while (offset == current.length) {
+        Future<byte[]> next = inflating.poll();
+        if (next == null) {
+          return false;
+        }
+        if (blocks.hasNext()) {
+          submitNext();
+        }
+        try {
+          current = getBlock(next);
+        } catch (CodingException e) {
+          throw new IOException(e);
+        }
+        offset = 0;
+        inflatedLength += current.length;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return advance() ? (current[offset++] & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!advance()) {
+        return -1;
+      }
+      int length = Math.min(len, current.length - offset);
+      System.arraycopy(current, offset, buffer, off, length);
+      offset += length;
+      return length;
+    }
+
+    @Override
+    public void close() {
+      for (Future<byte[]> block : inflating) {
+        block.cancel(false);
+      }
+      inflating.clear();
+    }
+  }
+
+  /**
+   * Inflates and deserializes a compressed log entry.
+   * <p>
+   * This requires that the {@code deflatedEntry} or {@code blockDeflatedEntry} field is set on the
+   * provided {@code entry}.  The encoded value will be inflated and deserialized as a
+   * {@link LogEntry}.  Blocks of a block deflated entry are inflated in parallel, and decoded as
+   * they are inflated.
+   *
+   * @param entry Entry to inflate, which must be a compressed entry.
    * @return The inflated entry.
    * @throws CodingException If the value could not be inflated or decoded.
    */
   static LogEntry inflate(LogEntry entry) throws CodingException {
-    Preconditions.checkArgument(entry.isSet(_Fields.DEFLATED_ENTRY));
+    Preconditions.checkArgument(isCompressed(entry));
+
+    long start = System.nanoTime();
+    try {
+      return entry.isSet(_Fields.BLOCK_DEFLATED_ENTRY)
+          ? inflateBlocks(entry.getBlockDeflatedEntry())
+          : inflateDeflated(entry);
+    } finally {
+      DECOMPRESSION_TIME.accumulate(System.nanoTime() - start);
+    }
+  }
+
+  private static LogEntry inflateBlocks(BlockDeflatedEntry entry) throws CodingException {
+    List<ByteBuffer> blocks = entry.isSetBlocks()
+        ? entry.getBlocks()
+        : ImmutableList.<ByteBuffer>of();
+    LOG.info("Inflating log entry of " + blocks.size() + " deflated blocks");
+    BlockInflaterStream inflater = new BlockInflaterStream(blocks);
+    try {
+      LogEntry inflated = new LogEntry();
+      inflated.read(
+          ThriftBinaryCodec.PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(inflater)));
+      LOG.info("Inflated log entry size: " + inflater.inflatedLength);
+      return inflated;
+    } catch (TException e) {
+      throw new CodingException("Failed to inflate block compressed log entry.", e);
+    } finally {
+      inflater.close();
+    }
+  }
 
+  private static LogEntry inflateDeflated(LogEntry entry) throws CodingException {
     ByteArrayOutputStream inflated = new ByteArrayOutputStream();
     ByteBuffer data = entry.bufferForDeflatedEntry();
     LOG.info("Inflating deflated log entry of size " + data.remaining());
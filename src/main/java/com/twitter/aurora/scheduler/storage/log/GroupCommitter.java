@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.scheduler.log.Log.Position;
+import com.twitter.aurora.scheduler.storage.Storage.StorageException;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces log transactions submitted by concurrent writers into a single log entry append.
+ * <p>
+ * A batch is started by the first submitted transaction, and is closed once it holds at least
+ * {@code maxBatchOps} ops or the batch window has elapsed since the first transaction was
+ * submitted.  All transactions in a batch are committed as one entry, preserving submission order,
+ * and each submitter is notified only once the shared append has completed.
+ * <p>
+ * Transactions are applied to local storage before they are submitted, so a batch that fails to
+ * be appended leaves local storage ahead of the log.  The committer stops after such a failure,
+ * failing the batch and every transaction submitted afterwards, rather than appending later
+ * transactions that may depend on the lost ones.
+ */
+class GroupCommitter {
+
+  private static final Logger LOG = Logger.getLogger(GroupCommitter.class.getName());
+
+  private final StreamManager streamManager;
+  private final int maxBatchOps;
+  private final long batchWindowNanos;
+  private final BlockingQueue<PendingCommit> pending = new LinkedBlockingQueue<>();
+  private final SlidingStats batchSizes =
+      new SlidingStats("scheduler_log_group_commit_batch_size", "transactions");
+  private final SlidingStats batchOps =
+      new SlidingStats("scheduler_log_group_commit_batch_ops", "ops");
+  private final SlidingStats commitWait =
+      new SlidingStats("scheduler_log_group_commit_wait", "nanos");
+
+  private ExecutorService executor;
+  private boolean stopped = false;
+
+  /**
+   * Creates a group committer that appends to the given stream.
+   *
+   * @param streamManager Stream to commit batched transactions to.
+   * @param maxBatchOps Number of ops after which a batch is committed without further waiting.
+   * @param batchWindow Maximum time to wait for other transactions to join a batch.
+   */
+  GroupCommitter(StreamManager streamManager, int maxBatchOps, Amount<Long, Time> batchWindow) {
+    this.streamManager = checkNotNull(streamManager);
+    checkArgument(maxBatchOps > 0);
+    this.maxBatchOps = maxBatchOps;
+    this.batchWindowNanos = batchWindow.as(Time.NANOSECONDS);
+  }
+
+  /**
+   * Starts the background thread that drains and commits batches.
+   */
+  synchronized void start() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LogGroupCommitter-%d").build());
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          while (!Thread.currentThread().isInterrupted()) {
+            try {
+              commitNextBatch();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops the background committer.  Transactions that are queued but not yet part of a batch
+   * fail with a {@link StorageException}, as do transactions submitted afterwards.
+   */
+  synchronized void stop() {
+    stopped = true;
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+
+    List<PendingCommit> abandoned = Lists.newArrayList();
+    pending.drainTo(abandoned);
+    if (!abandoned.isEmpty()) {
+      LOG.warning("Failing " + abandoned.size() + " uncommitted transactions on shutdown.");
+      fail(abandoned, new StorageException("Log group committer was stopped."));
+    }
+  }
+
+  /**
+   * Submits a transaction to be committed in the next batch.  The transaction may not be used by
+   * the caller after it is submitted.  Callers that require a consistent order of commits must
+   * serialize calls to this method.
+   *
+   * @param transaction Transaction to commit.
+   * @return A future that completes with the position of the batch entry once it is appended.
+   * @throws StorageException If the committer has been stopped.
+   */
+  synchronized Future<Position> submit(StreamTransaction transaction) throws StorageException {
+    if (stopped) {
+      throw new StorageException("Log group committer is stopped.");
+    }
+
+    PendingCommit commit = new PendingCommit(transaction);
+    pending.add(commit);
+    return commit.result;
+  }
+
+  /**
+   * Waits for a transaction to be submitted, and then commits a batch containing it and any
+   * others that arrive within the batch window.
+   *
+   * @throws InterruptedException If interrupted while waiting for transactions.
+   */
+  @VisibleForTesting
+  void commitNextBatch() throws InterruptedException {
+    PendingCommit first = pending.take();
+    List<PendingCommit> batch = Lists.newArrayList(first);
+    int ops = first.opCount;
+    long deadlineNanos = first.submittedNanos + batchWindowNanos;
+    while (ops < maxBatchOps) {
+      long remainingNanos = deadlineNanos - System.nanoTime();
+      PendingCommit next;
+      try {
+        next = (remainingNanos > 0)
+            ? pending.poll(remainingNanos, TimeUnit.NANOSECONDS)
+            : pending.poll();
+      } catch (InterruptedException e) {
+        // The batch has already been removed from the queue, so it would not be failed by stop().
+        fail(batch, new StorageException("Interrupted while collecting a log commit batch."));
+        throw e;
+      }
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+      ops += next.opCount;
+    }
+
+    try {
+      StreamTransaction combined = streamManager.startTransaction();
+      for (PendingCommit commit : batch) {
+        combined.absorb(commit.transaction);
+      }
+      Position position = combined.commit();
+      for (PendingCommit commit : batch) {
+        commit.result.set(position);
+      }
+    } catch (CodingException | RuntimeException e) {
+      LOG.log(Level.SEVERE, "Failed to commit a batch of " + batch.size()
+          + " transactions, no further transactions will be committed", e);
+      fail(batch, e);
+      stop();
+    }
+
+    batchSizes.accumulate(batch.size());
+    batchOps.accumulate(ops);
+    long now = System.nanoTime();
+    for (PendingCommit commit : batch) {
+      commitWait.accumulate(now - commit.submittedNanos);
+    }
+  }
+
+  private static void fail(List<PendingCommit> commits, Exception cause) {
+    for (PendingCommit commit : commits) {
+      commit.result.setException(cause);
+    }
+  }
+
+  private static class PendingCommit {
+    private final StreamTransaction transaction;
+    private final int opCount;
+    private final long submittedNanos = System.nanoTime();
+    private final SettableFuture<Position> result = SettableFuture.create();
+
+    PendingCommit(StreamTransaction transaction) {
+      this.transaction = checkNotNull(transaction);
+      this.opCount = transaction.getOpCount();
+    }
+  }
+}
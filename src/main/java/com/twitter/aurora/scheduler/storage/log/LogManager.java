@@ -36,6 +36,7 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
@@ -44,16 +45,18 @@ import com.google.inject.BindingAnnotation;
 
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.storage.ChangeTaskStates;
 import com.twitter.aurora.gen.storage.Frame;
 import com.twitter.aurora.gen.storage.FrameChunk;
 import com.twitter.aurora.gen.storage.FrameHeader;
 import com.twitter.aurora.gen.storage.LogEntry;
-import com.twitter.aurora.gen.storage.LogEntry._Fields;
 import com.twitter.aurora.gen.storage.Op;
 import com.twitter.aurora.gen.storage.RemoveTasks;
 import com.twitter.aurora.gen.storage.SaveHostAttributes;
 import com.twitter.aurora.gen.storage.SaveTasks;
 import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.gen.storage.SnapshotPart;
+import com.twitter.aurora.gen.storage.TaskStateDelta;
 import com.twitter.aurora.gen.storage.Transaction;
 import com.twitter.aurora.gen.storage.storageConstants;
 import com.twitter.aurora.scheduler.log.Log;
@@ -62,12 +65,15 @@ import com.twitter.aurora.scheduler.log.Log.Position;
 import com.twitter.aurora.scheduler.log.Log.Stream;
 import com.twitter.aurora.scheduler.log.Log.Stream.InvalidPositionException;
 import com.twitter.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import com.twitter.aurora.scheduler.storage.log.ReplayPipeline.EntrySource;
+import com.twitter.aurora.scheduler.storage.log.StreamingSnapshotStore.PartSink;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Closure;
 import com.twitter.common.base.ExceptionalCommand;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.SlidingStats;
 import com.twitter.common.stats.Stats;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -93,11 +99,34 @@ public final class LogManager {
   @BindingAnnotation
   public @interface SnapshotSetting { }
 
+  /**
+   * Binding annotation for whether deflated snapshots are compressed as independently deflated
+   * blocks, in parallel, rather than as a single deflated stream.  Logs containing block deflated
+   * entries cannot be read by schedulers that predate the format.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface BlockDeflateSnapshots { }
+
+  /**
+   * Identifies the number of threads to decode log entries with when replaying the log.  Entries
+   * are decoded on the replaying thread if this is not positive.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface ReplayThreads { }
+
   private static final Logger LOG = Logger.getLogger(LogManager.class.getName());
 
   private final Log log;
   private final Amount<Integer, Data> maxEntrySize;
   private final boolean deflateSnapshots;
+  private final boolean blockDeflateSnapshots;
+  private final Amount<Integer, Data> deflateBlockSize;
+  private final int deflateLevel;
+  private final int replayThreads;
   private final ShutdownRegistry shutdownRegistry;
 
   @Inject
@@ -105,11 +134,19 @@ public final class LogManager {
       Log log,
       @MaxEntrySize Amount<Integer, Data> maxEntrySize,
       @SnapshotSetting boolean deflateSnapshots,
+      @BlockDeflateSnapshots boolean blockDeflateSnapshots,
+      @SnapshotSetting Amount<Integer, Data> deflateBlockSize,
+      @SnapshotSetting int deflateLevel,
+      @ReplayThreads int replayThreads,
       ShutdownRegistry shutdownRegistry) {
 
     this.log = checkNotNull(log);
     this.maxEntrySize = checkNotNull(maxEntrySize);
     this.deflateSnapshots = deflateSnapshots;
+    this.blockDeflateSnapshots = blockDeflateSnapshots;
+    this.deflateBlockSize = checkNotNull(deflateBlockSize);
+    this.deflateLevel = deflateLevel;
+    this.replayThreads = replayThreads;
     this.shutdownRegistry = checkNotNull(shutdownRegistry);
   }
 
@@ -126,7 +163,14 @@ public final class LogManager {
         stream.close();
       }
     });
-    return new StreamManager(stream, deflateSnapshots, maxEntrySize);
+    return new StreamManager(
+        stream,
+        deflateSnapshots,
+        blockDeflateSnapshots,
+        deflateBlockSize,
+        deflateLevel,
+        maxEntrySize,
+        replayThreads);
   }
 
   /**
@@ -157,18 +201,40 @@ public final class LogManager {
       private final AtomicLong deflatedEntriesRead =
           Stats.exportLong("scheduler_log_deflated_entries_read");
       private final AtomicLong snapshots = Stats.exportLong("scheduler_log_snapshots");
+      private final AtomicLong snapshotPartsWritten =
+          Stats.exportLong("scheduler_log_snapshot_parts_written");
+      private final SlidingStats entriesApplied =
+          new SlidingStats("scheduler_log_replay_apply", "nanos");
     }
     private final Vars vars = new Vars();
 
     private final Object writeMutex = new Object();
+    // Position of the most recently appended entry, guarded by writeMutex.
+    private Position lastPosition;
     private final Stream stream;
     private final boolean deflateSnapshots;
+    private final boolean blockDeflateSnapshots;
+    private final Amount<Integer, Data> deflateBlockSize;
+    private final int deflateLevel;
     private final MessageDigest digest;
     private final EntrySerializer entrySerializer;
+    private final int replayThreads;
+
+    StreamManager(
+        Stream stream,
+        boolean deflateSnapshots,
+        boolean blockDeflateSnapshots,
+        Amount<Integer, Data> deflateBlockSize,
+        int deflateLevel,
+        Amount<Integer, Data> maxEntrySize,
+        int replayThreads) {
 
-    StreamManager(Stream stream, boolean deflateSnapshots, Amount<Integer, Data> maxEntrySize) {
       this.stream = checkNotNull(stream);
       this.deflateSnapshots = deflateSnapshots;
+      this.blockDeflateSnapshots = blockDeflateSnapshots;
+      this.deflateBlockSize = checkNotNull(deflateBlockSize);
+      this.deflateLevel = deflateLevel;
+      this.replayThreads = replayThreads;
       digest = createDigest();
       entrySerializer = new EntrySerializer(digest, maxEntrySize);
     }
@@ -185,27 +251,79 @@ public final class LogManager {
     public void readFromBeginning(Closure<LogEntry> reader)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
-      Iterator<Entry> entries = stream.readAll();
-
-      while (entries.hasNext()) {
-        LogEntry logEntry = decodeLogEntry(entries.next());
-        while (logEntry != null && isFrame(logEntry)) {
-          logEntry = tryDecodeFrame(logEntry.getFrame(), entries);
+      final Iterator<Entry> entries = stream.readAll();
+
+      if (replayThreads > 0) {
+        ReplayPipeline pipeline = new ReplayPipeline(
+            entries,
+            new ReplayPipeline.Decoder() {
+              @Override public LogEntry decode(byte[] contents) throws CodingException {
+                return decodeLogEntry(contents);
+              }
+
+              @Override public LogEntry assemble(LogEntry logEntry, EntrySource following)
+                  throws CodingException {
+
+                return StreamManager.this.assemble(logEntry, following);
+              }
+
+              @Override public LogEntry inflate(LogEntry logEntry) throws CodingException {
+                return inflateIfDeflated(logEntry);
+              }
+            },
+            replayThreads);
+        pipeline.start();
+        try {
+          while (pipeline.hasNext()) {
+            apply(reader, pipeline.next());
+          }
+        } finally {
+          pipeline.close();
         }
-        if (logEntry != null) {
-          if (logEntry.isSet(_Fields.DEFLATED_ENTRY)) {
-            logEntry = Entries.inflate(logEntry);
-            vars.deflatedEntriesRead.incrementAndGet();
+      } else {
+        EntrySource source = new EntrySource() {
+          @Override public boolean hasNext() {
+            return entries.hasNext();
           }
 
-          reader.execute(logEntry);
-          vars.entriesRead.incrementAndGet();
+          @Override public LogEntry next() throws CodingException {
+            return decodeLogEntry(entries.next().contents());
+          }
+        };
+        while (source.hasNext()) {
+          LogEntry logEntry = assemble(source.next(), source);
+          if (logEntry != null) {
+            apply(reader, inflateIfDeflated(logEntry));
+          }
         }
       }
     }
 
+    private void apply(Closure<LogEntry> reader, LogEntry logEntry) {
+      long start = System.nanoTime();
+      reader.execute(logEntry);
+      vars.entriesApplied.accumulate(System.nanoTime() - start);
+      vars.entriesRead.incrementAndGet();
+    }
+
+    @Nullable
+    private LogEntry assemble(LogEntry logEntry, EntrySource following) throws CodingException {
+      while (logEntry != null && isFrame(logEntry)) {
+        logEntry = tryDecodeFrame(logEntry.getFrame(), following);
+      }
+      return logEntry;
+    }
+
+    private LogEntry inflateIfDeflated(LogEntry logEntry) throws CodingException {
+      if (Entries.isCompressed(logEntry)) {
+        vars.deflatedEntriesRead.incrementAndGet();
+        return Entries.inflate(logEntry);
+      }
+      return logEntry;
+    }
+
     @Nullable
-    private LogEntry tryDecodeFrame(Frame frame, Iterator<Entry> entries) throws CodingException {
+    private LogEntry tryDecodeFrame(Frame frame, EntrySource entries) throws CodingException {
       if (!isHeader(frame)) {
         LOG.warning("Found a frame with no preceding header, skipping.");
         return null;
@@ -219,7 +337,7 @@ public final class LogManager {
           logBadFrame(header, i);
           return null;
         }
-        LogEntry logEntry = decodeLogEntry(entries.next());
+        LogEntry logEntry = entries.next();
         if (!isFrame(logEntry)) {
           logBadFrame(header, i);
           return logEntry;
@@ -257,8 +375,7 @@ public final class LogManager {
       vars.badFramesRead.incrementAndGet();
     }
 
-    private LogEntry decodeLogEntry(Entry entry) throws CodingException {
-      byte[] contents = entry.contents();
+    private LogEntry decodeLogEntry(byte[] contents) throws CodingException {
       vars.bytesRead.addAndGet(contents.length);
       return Entries.thriftBinaryDecode(contents);
     }
@@ -295,19 +412,90 @@ public final class LogManager {
      * @throws InvalidPositionException if there was a problem truncating before the snapshot.
      * @throws StreamAccessException if there was a problem appending the snapshot to the log.
      */
-    @Timed("log_manager_snapshot")
     void snapshot(Snapshot snapshot)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
-      LogEntry entry = LogEntry.snapshot(snapshot);
-      if (deflateSnapshots) {
-        entry = Entries.deflate(entry);
+      snapshot(snapshot, null);
+    }
+
+    /**
+     * Marks the current end of the log stream, prior to capturing a snapshot of local storage that
+     * is appended while other entries may be appended concurrently.  The most recently appended
+     * entry may belong to a transaction that is not yet reflected in local storage, so the log may
+     * only be truncated before it.  If no entry has been appended, a no-op entry is appended to
+     * mark the position.
+     *
+     * @return The position to truncate the log before once the snapshot is appended.
+     * @throws CodingException if the was a problem encoding a no-op entry.
+     * @throws StreamAccessException if there was a problem appending a no-op entry to the log.
+     */
+    Position markSnapshot() throws CodingException, StreamAccessException {
+      synchronized (writeMutex) {
+        return (lastPosition == null) ? appendAndGetPosition(LogEntry.noop(true)) : lastPosition;
       }
+    }
+
+    /**
+     * Adds a snapshot to the log and if successful, truncates the log entries preceding the
+     * given position.
+     *
+     * @param snapshot The snapshot to add.
+     * @param truncatePosition Position to truncate before, or {@code null} to truncate before the
+     *     snapshot.
+     * @throws CodingException if the was a problem encoding the snapshot into a log entry.
+     * @throws InvalidPositionException if there was a problem truncating the log.
+     * @throws StreamAccessException if there was a problem appending the snapshot to the log.
+     */
+    @Timed("log_manager_snapshot")
+    void snapshot(Snapshot snapshot, @Nullable Position truncatePosition)
+        throws CodingException, InvalidPositionException, StreamAccessException {
 
-      Position position = appendAndGetPosition(entry);
+      Position position = appendAndGetPosition(compressSnapshot(LogEntry.snapshot(snapshot)));
       vars.snapshots.incrementAndGet();
       vars.unSnapshottedTransactions.set(0);
-      stream.truncateBefore(position);
+      stream.truncateBefore((truncatePosition == null) ? position : truncatePosition);
+    }
+
+    /**
+     * Streams a snapshot to the log as a series of bounded-size parts and if successful, truncates
+     * the log entries preceding the given position.  Each part is encoded, deflated if enabled, and
+     * appended as it is produced.  Other entries may be appended between parts.
+     *
+     * @param snapshotStore Store to stream the snapshot from.
+     * @param maxRecordsPerPart Maximum number of stored records to include in each part.
+     * @param truncatePosition Position to truncate before, as returned by {@link #markSnapshot()}.
+     * @throws CodingException if the was a problem encoding a snapshot part into a log entry.
+     * @throws InvalidPositionException if there was a problem truncating the log.
+     * @throws StreamAccessException if there was a problem appending the snapshot to the log.
+     */
+    @Timed("log_manager_snapshot_stream")
+    void streamSnapshot(
+        StreamingSnapshotStore snapshotStore,
+        int maxRecordsPerPart,
+        Position truncatePosition)
+        throws CodingException, InvalidPositionException, StreamAccessException {
+
+      checkNotNull(truncatePosition);
+
+      snapshotStore.streamSnapshot(maxRecordsPerPart, new PartSink() {
+        @Override public void write(SnapshotPart part) throws CodingException {
+          appendAndGetPosition(compressSnapshot(LogEntry.snapshotPart(part)));
+          vars.snapshotPartsWritten.incrementAndGet();
+        }
+      });
+
+      vars.snapshots.incrementAndGet();
+      vars.unSnapshottedTransactions.set(0);
+      stream.truncateBefore(truncatePosition);
+    }
+
+    private LogEntry compressSnapshot(LogEntry entry) throws CodingException {
+      if (!deflateSnapshots) {
+        return entry;
+      }
+      return blockDeflateSnapshots
+          ? Entries.blockDeflate(entry, deflateBlockSize, deflateLevel)
+          : Entries.deflate(entry);
     }
 
     @Timed("log_manager_append")
@@ -322,6 +510,7 @@ public final class LogManager {
           }
           vars.bytesWritten.addAndGet(entry.length);
         }
+        lastPosition = firstPosition;
       }
       vars.entriesWritten.incrementAndGet();
       return firstPosition;
@@ -411,6 +600,32 @@ public final class LogManager {
         return position;
       }
 
+      /**
+       * Gets the number of ops currently held by this transaction, after coalescing.
+       *
+       * @return The number of ops that would be committed.
+       */
+      int getOpCount() {
+        return transaction.getOpsSize();
+      }
+
+      /**
+       * Moves all ops from another uncommitted transaction into this one, coalescing them with
+       * the ops already added.  The other transaction may not be committed after this call.
+       *
+       * @param other The transaction to absorb.
+       */
+      void absorb(StreamTransaction other) {
+        Preconditions.checkState(!other.committed.getAndSet(true),
+            "Cannot absorb a committed transaction.");
+
+        if (other.transaction.isSetOps()) {
+          for (Op op : other.transaction.getOps()) {
+            add(op);
+          }
+        }
+      }
+
       /**
        * Adds a local storage operation to this transaction.
        *
@@ -465,6 +680,9 @@ public final class LogManager {
             return true;
           case SAVE_HOST_ATTRIBUTES:
             return coalesce(prior.getSaveHostAttributes(), next.getSaveHostAttributes());
+          case CHANGE_TASK_STATES:
+            coalesce(prior.getChangeTaskStates(), next.getChangeTaskStates());
+            return true;
           default:
             LOG.warning("Unoptimized op: " + priorType);
             return false;
@@ -504,9 +722,25 @@ public final class LogManager {
         }
       }
 
+      private void coalesce(ChangeTaskStates prior, ChangeTaskStates next) {
+        if (next.isSetDeltas()) {
+          if (prior.isSetDeltas()) {
+            // Deltas are relative to the preceding state of a task, so they must be kept in order.
+            prior.setDeltas(ImmutableList.<TaskStateDelta>builder()
+                .addAll(prior.getDeltas())
+                .addAll(next.getDeltas())
+                .build());
+          } else {
+            prior.setDeltas(next.getDeltas());
+          }
+        }
+      }
+
       private boolean coalesce(SaveHostAttributes prior, SaveHostAttributes next) {
         if (prior.getHostAttributes().getHost().equals(next.getHostAttributes().getHost())) {
-          prior.getHostAttributes().setAttributes(next.getHostAttributes().getAttributes());
+          // Each op records the complete stored attributes of the host, so the latest supersedes
+          // the prior, including its mode and slave ID.
+          prior.setHostAttributes(next.getHostAttributes());
           return true;
         }
         return false;
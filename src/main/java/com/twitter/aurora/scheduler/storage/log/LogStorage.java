@@ -20,21 +20,29 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.inject.BindingAnnotation;
@@ -42,6 +50,7 @@ import com.google.inject.BindingAnnotation;
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.gen.storage.ChangeTaskStates;
 import com.twitter.aurora.gen.storage.LogEntry;
 import com.twitter.aurora.gen.storage.Op;
 import com.twitter.aurora.gen.storage.RemoveJob;
@@ -56,9 +65,14 @@ import com.twitter.aurora.gen.storage.SaveLock;
 import com.twitter.aurora.gen.storage.SaveQuota;
 import com.twitter.aurora.gen.storage.SaveTasks;
 import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.gen.storage.SnapshotPart;
+import com.twitter.aurora.gen.storage.TaskStateDelta;
+import com.twitter.aurora.gen.storage.Transaction;
+import com.twitter.aurora.gen.storage.storageConstants;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.log.Log.Position;
 import com.twitter.aurora.scheduler.log.Log.Stream.InvalidPositionException;
 import com.twitter.aurora.scheduler.log.Log.Stream.StreamAccessException;
 import com.twitter.aurora.scheduler.storage.AttributeStore;
@@ -88,6 +102,7 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -170,13 +185,27 @@ public class LogStorage extends ForwardingStore
   private final LogManager logManager;
   private final SchedulingService schedulingService;
   private final SnapshotStore<Snapshot> snapshotStore;
+  private final StreamingSnapshotStore streamingSnapshotStore;
   private final Amount<Long, Time> snapshotInterval;
+  private final int snapshotPartRecords;
+  private final int groupCommitMaxOps;
+  private final Amount<Long, Time> groupCommitWindow;
+  private final boolean logTaskStateDeltas;
+  private final int maxReappliedTransactions;
 
   private StreamManager streamManager;
+  private GroupCommitter groupCommitter;
 
   private boolean recovered = false;
   private StreamTransaction transaction = null;
 
+  // Serializes snapshots, which are taken without holding the storage write lock.
+  private final Object snapshotLock = new Object();
+
+  // The most recent transactions replayed since the last snapshot was replayed, bounded by
+  // maxReappliedTransactions.  Only accessed during recovery.
+  private final Deque<Transaction> replayedTransactions = new ArrayDeque<>();
+
   private final MutableStoreProvider logStoreProvider = new MutableStoreProvider() {
     @Override public SchedulerStore.Mutable getSchedulerStore() {
       return LogStorage.this;
@@ -233,12 +262,61 @@ public class LogStorage extends ForwardingStore
   @BindingAnnotation
   public @interface WriteBehind { }
 
+  /**
+   * Identifies the number of ops after which a group commit batch is closed.  Group commit is
+   * disabled if this is not positive.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface GroupCommitMaxOps { }
+
+  /**
+   * Identifies the maximum time to wait for concurrent transactions to join a group commit batch.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface GroupCommitWindow { }
+
+  /**
+   * Identifies the maximum number of stored records to include in each part of a streamed
+   * snapshot.  Snapshots are written as a single log entry if this is not positive.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface SnapshotPartRecords { }
+
+  /**
+   * Identifies whether task state changes are logged as deltas against the prior task state.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface LogTaskStateDeltas { }
+
+  /**
+   * Identifies the maximum number of transactions preceding a snapshot that are applied again
+   * after it during recovery.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface MaxReappliedTransactions { }
+
   @Inject
   LogStorage(LogManager logManager,
              ShutdownRegistry shutdownRegistry,
              @ShutdownGracePeriod Amount<Long, Time> shutdownGracePeriod,
              SnapshotStore<Snapshot> snapshotStore,
+             StreamingSnapshotStore streamingSnapshotStore,
              @SnapshotInterval Amount<Long, Time> snapshotInterval,
+             @SnapshotPartRecords int snapshotPartRecords,
+             @GroupCommitMaxOps int groupCommitMaxOps,
+             @GroupCommitWindow Amount<Long, Time> groupCommitWindow,
+             @LogTaskStateDeltas boolean logTaskStateDeltas,
+             @MaxReappliedTransactions int maxReappliedTransactions,
              @WriteBehind Storage storage,
              @WriteBehind SchedulerStore.Mutable schedulerStore,
              @WriteBehind JobStore.Mutable jobStore,
@@ -250,7 +328,13 @@ public class LogStorage extends ForwardingStore
     this(logManager,
         new ScheduledExecutorSchedulingService(shutdownRegistry, shutdownGracePeriod),
         snapshotStore,
+        streamingSnapshotStore,
         snapshotInterval,
+        snapshotPartRecords,
+        groupCommitMaxOps,
+        groupCommitWindow,
+        logTaskStateDeltas,
+        maxReappliedTransactions,
         storage,
         schedulerStore,
         jobStore,
@@ -264,7 +348,13 @@ public class LogStorage extends ForwardingStore
   LogStorage(LogManager logManager,
              SchedulingService schedulingService,
              SnapshotStore<Snapshot> snapshotStore,
+             StreamingSnapshotStore streamingSnapshotStore,
              Amount<Long, Time> snapshotInterval,
+             int snapshotPartRecords,
+             int groupCommitMaxOps,
+             Amount<Long, Time> groupCommitWindow,
+             boolean logTaskStateDeltas,
+             int maxReappliedTransactions,
              Storage storage,
              SchedulerStore.Mutable schedulerStore,
              JobStore.Mutable jobStore,
@@ -277,7 +367,14 @@ public class LogStorage extends ForwardingStore
     this.logManager = checkNotNull(logManager);
     this.schedulingService = checkNotNull(schedulingService);
     this.snapshotStore = checkNotNull(snapshotStore);
+    this.streamingSnapshotStore = checkNotNull(streamingSnapshotStore);
     this.snapshotInterval = checkNotNull(snapshotInterval);
+    this.snapshotPartRecords = snapshotPartRecords;
+    this.groupCommitMaxOps = groupCommitMaxOps;
+    this.groupCommitWindow = checkNotNull(groupCommitWindow);
+    this.logTaskStateDeltas = logTaskStateDeltas;
+    checkArgument(maxReappliedTransactions > 0);
+    this.maxReappliedTransactions = maxReappliedTransactions;
   }
 
   @Override
@@ -289,6 +386,11 @@ public class LogStorage extends ForwardingStore
       throw new IllegalStateException("Failed to open the log, cannot continue", e);
     }
 
+    if (groupCommitMaxOps > 0) {
+      groupCommitter = new GroupCommitter(streamManager, groupCommitMaxOps, groupCommitWindow);
+      groupCommitter.start();
+    }
+
     // TODO(John Sirois): start incremental recovery here from the log and do a final recovery
     // catchup in start after shutting down the incremental syncer.
   }
@@ -313,8 +415,10 @@ public class LogStorage extends ForwardingStore
   }
 
   @Override
-  public void stop() {
-    // No-op.
+  public synchronized void stop() {
+    if (groupCommitter != null) {
+      groupCommitter.stop();
+    }
   }
 
   @Timed("scheduler_log_recover")
@@ -327,6 +431,8 @@ public class LogStorage extends ForwardingStore
       });
     } catch (CodingException | InvalidPositionException | StreamAccessException e) {
       throw new RecoveryFailedException(e);
+    } finally {
+      replayedTransactions.clear();
     }
   }
 
@@ -342,12 +448,28 @@ public class LogStorage extends ForwardingStore
         Snapshot snapshot = logEntry.getSnapshot();
         LOG.info("Applying snapshot taken on " + new Date(snapshot.getTimestamp()));
         snapshotStore.applySnapshot(snapshot);
+        reapplyTransactions();
+        break;
+
+      case SNAPSHOT_PART:
+        SnapshotPart part = logEntry.getSnapshotPart();
+        if (part.getIndex() == 0) {
+          LOG.info("Reading streamed snapshot taken on " + new Date(part.getTimestamp()));
+        }
+        streamingSnapshotStore.applySnapshotPart(part);
+        if (part.isComplete()) {
+          reapplyTransactions();
+        }
         break;
 
       case TRANSACTION:
-        for (Op op : logEntry.getTransaction().getOps()) {
-          replayOp(op);
+        replayTransaction(logEntry.getTransaction());
+        if (replayedTransactions.size() == maxReappliedTransactions) {
+          // Only transactions logged while a snapshot was captured need to be applied again after
+          // it, so older transactions are discarded rather than retaining the log in memory.
+          replayedTransactions.removeFirst();
         }
+        replayedTransactions.addLast(logEntry.getTransaction());
         break;
 
       case NOOP:
@@ -355,6 +477,7 @@ public class LogStorage extends ForwardingStore
         break;
 
       case DEFLATED_ENTRY:
+      case BLOCK_DEFLATED_ENTRY:
         throw new IllegalArgumentException("Deflated entries are not handled at this layer.");
 
       case FRAME:
@@ -365,6 +488,31 @@ public class LogStorage extends ForwardingStore
     }
   }
 
+  private void replayTransaction(Transaction replayed) {
+    if (replayed.getSchemaVersion() > storageConstants.CURRENT_SCHEMA_VERSION) {
+      throw new IllegalStateException("Transaction has schema version "
+          + replayed.getSchemaVersion() + ", which is newer than the latest supported version "
+          + storageConstants.CURRENT_SCHEMA_VERSION + ".");
+    }
+    for (Op op : replayed.getOps()) {
+      replayOp(op);
+    }
+  }
+
+  /**
+   * Snapshots are captured while transactions continue to be logged, so a snapshot may be
+   * preceded in the log by transactions it does not reflect.  Replaying the transactions preceding
+   * a snapshot again restores their effect, as transactions are replayable over newer state.  Only
+   * the most recent transactions are retained for this, which must cover those logged while the
+   * snapshot was captured.
+   */
+  private void reapplyTransactions() {
+    for (Transaction replayed : replayedTransactions) {
+      replayTransaction(replayed);
+    }
+    replayedTransactions.clear();
+  }
+
   private void replayOp(Op op) {
     switch (op.getSetField()) {
       case SAVE_FRAMEWORK_ID:
@@ -391,6 +539,19 @@ public class LogStorage extends ForwardingStore
         unsafeModifyInPlace(rewriteTask.getTaskId(), ITaskConfig.build(rewriteTask.getTask()));
         break;
 
+      case CHANGE_TASK_STATES:
+        // Applied directly to the underlying store, as replayed ops are not logged.
+        for (final TaskStateDelta delta : op.getChangeTaskStates().getDeltas()) {
+          super.mutateTasks(
+              Query.taskScoped(delta.getTaskId()),
+              new Function<IScheduledTask, IScheduledTask>() {
+                @Override public IScheduledTask apply(IScheduledTask task) {
+                  return TaskStateDeltas.apply(task, delta);
+                }
+              });
+        }
+        break;
+
       case REMOVE_TASKS:
         deleteTasks(op.getRemoveTasks().getTaskIds());
         break;
@@ -440,7 +601,10 @@ public class LogStorage extends ForwardingStore
   }
 
   /**
-   * Forces a snapshot of the storage state.
+   * Forces a snapshot of the storage state.  The snapshot is captured from a consistent read of
+   * local storage, and encoded and appended to the log while writes continue.  The log is then
+   * truncated before the position marked when the snapshot was started, so that transactions
+   * logged while the snapshot was captured are retained.
    *
    * @throws CodingException If there is a problem encoding the snapshot.
    * @throws InvalidPositionException If the log stream cursor is invalid.
@@ -448,13 +612,19 @@ public class LogStorage extends ForwardingStore
    */
   @Timed("scheduler_log_snapshot")
   void doSnapshot() throws CodingException, InvalidPositionException, StreamAccessException {
-    super.write(new MutateWork.NoResult<CodingException>() {
-      @Override protected void execute(MutableStoreProvider unused)
-          throws CodingException, InvalidPositionException, StreamAccessException {
-
-        persist(snapshotStore.createSnapshot());
+    synchronized (snapshotLock) {
+      // The position must be marked before the read is started, so that every transaction logged
+      // before the position is reflected in the snapshot.
+      Position truncatePosition = streamManager.markSnapshot();
+      if (snapshotPartRecords > 0) {
+        streamManager.streamSnapshot(
+            streamingSnapshotStore,
+            snapshotPartRecords,
+            truncatePosition);
+      } else {
+        streamManager.snapshot(snapshotStore.createSnapshot(), truncatePosition);
       }
-    });
+    }
   }
 
   @Timed("scheduler_log_snapshot_persist")
@@ -466,30 +636,48 @@ public class LogStorage extends ForwardingStore
   }
 
   @Override
-  public synchronized <T, E extends Exception> T write(final MutateWork<T, E> work)
-      throws StorageException, E {
+  public <T, E extends Exception> T write(MutateWork<T, E> work) throws StorageException, E {
+    PendingWrite<T> pendingWrite = applyAndLog(work);
+
+    // When group commit is enabled, the log append may still be in flight.  This waits outside of
+    // the storage locks so that concurrent writers may join the same batch.
+    pendingWrite.awaitCommit();
+    return pendingWrite.result;
+  }
+
+  private synchronized <T, E extends Exception> PendingWrite<T> applyAndLog(
+      final MutateWork<T, E> work) throws StorageException, E {
 
     // We don't want to use the log when recovering from it, we just want to update the underlying
     // store - so pass mutations straight through to the underlying storage.
     if (!recovered) {
-      return super.write(work);
+      return new PendingWrite<>(super.write(work), null);
     }
 
     // The log stream transaction has already been set up so we just need to delegate with our
     // store provider so any mutations performed by work get logged.
     if (transaction != null) {
-      return super.write(new MutateWork<T, E>() {
-        @Override public T apply(MutableStoreProvider unused) throws E {
-          return work.apply(logStoreProvider);
-        }
-      });
+      return new PendingWrite<>(
+          super.write(new MutateWork<T, E>() {
+            @Override public T apply(MutableStoreProvider unused) throws E {
+              return work.apply(logStoreProvider);
+            }
+          }),
+          null);
     }
 
     transaction = streamManager.startTransaction();
     try {
-      return super.write(new MutateWork<T, E>() {
-        @Override public T apply(MutableStoreProvider unused) throws E {
+      return super.write(new MutateWork<PendingWrite<T>, E>() {
+        @Override public PendingWrite<T> apply(MutableStoreProvider unused) throws E {
           T result = work.apply(logStoreProvider);
+          if (groupCommitter != null) {
+            // Submitting under the lock preserves the order of transactions in the log.
+            return new PendingWrite<>(
+                result,
+                (transaction.getOpCount() > 0) ? groupCommitter.submit(transaction) : null);
+          }
+
           try {
             transaction.commit();
           } catch (CodingException e) {
@@ -499,7 +687,7 @@ public class LogStorage extends ForwardingStore
             throw new StorageException(
                 "There was a problem committing the transaction to the log.", e);
           }
-          return result;
+          return new PendingWrite<>(result, null);
         }
       });
     } finally {
@@ -507,6 +695,42 @@ public class LogStorage extends ForwardingStore
     }
   }
 
+  /**
+   * The result of a write that has been applied locally, and whose log commit may be pending.
+   *
+   * @param <T> Type of the write result.
+   */
+  private static class PendingWrite<T> {
+    private final T result;
+    @Nullable private final Future<Position> commit;
+
+    PendingWrite(T result, @Nullable Future<Position> commit) {
+      this.result = result;
+      this.commit = commit;
+    }
+
+    void awaitCommit() throws StorageException {
+      if (commit == null) {
+        return;
+      }
+
+      try {
+        commit.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StorageException("Interrupted while waiting for a log commit.", e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), StorageException.class);
+        if (e.getCause() instanceof CodingException) {
+          throw new IllegalStateException(
+              "Problem encoding transaction operations to the log stream", e.getCause());
+        }
+        throw new StorageException(
+            "There was a problem committing the transaction to the log.", e.getCause());
+      }
+    }
+  }
+
   @Timed("scheduler_log_save_framework_id")
   @Override
   public void saveFrameworkId(final String frameworkId) {
@@ -585,7 +809,15 @@ public class LogStorage extends ForwardingStore
 
     return write(new MutateWork.Quiet<ImmutableSet<IScheduledTask>>() {
       @Override public ImmutableSet<IScheduledTask> apply(MutableStoreProvider unused) {
-        ImmutableSet<IScheduledTask> mutated = LogStorage.super.mutateTasks(query, mutator);
+        final Map<String, IScheduledTask> originals = Maps.newHashMap();
+        ImmutableSet<IScheduledTask> mutated = LogStorage.super.mutateTasks(
+            query,
+            new Function<IScheduledTask, IScheduledTask>() {
+              @Override public IScheduledTask apply(IScheduledTask original) {
+                originals.put(Tasks.id(original), original);
+                return mutator.apply(original);
+              }
+            });
 
         Map<String, IScheduledTask> tasksById = Tasks.mapById(mutated);
         if (LOG.isLoggable(Level.FINE)) {
@@ -593,8 +825,30 @@ public class LogStorage extends ForwardingStore
               + Maps.transformValues(tasksById, Tasks.GET_STATUS));
         }
 
-        // TODO(William Farner): Avoid writing an op when mutated is empty.
-        log(Op.saveTasks(new SaveTasks(IScheduledTask.toBuildersSet(mutated))));
+        // If enabled, tasks are logged as deltas against their prior versions where possible,
+        // which omits the task configuration.
+        ImmutableList.Builder<TaskStateDelta> deltas = ImmutableList.builder();
+        ImmutableSet.Builder<IScheduledTask> saved = ImmutableSet.builder();
+        for (IScheduledTask task : mutated) {
+          IScheduledTask original = originals.get(Tasks.id(task));
+          Optional<TaskStateDelta> delta = (!logTaskStateDeltas || (original == null))
+              ? Optional.<TaskStateDelta>absent()
+              : TaskStateDeltas.diff(original, task);
+          if (delta.isPresent()) {
+            deltas.add(delta.get());
+          } else {
+            saved.add(task);
+          }
+        }
+
+        ImmutableSet<IScheduledTask> savedTasks = saved.build();
+        if (!savedTasks.isEmpty()) {
+          log(Op.saveTasks(new SaveTasks(IScheduledTask.toBuildersSet(savedTasks))));
+        }
+        List<TaskStateDelta> taskDeltas = deltas.build();
+        if (!taskDeltas.isEmpty()) {
+          log(Op.changeTaskStates(new ChangeTaskStates(taskDeltas)));
+        }
         return mutated;
       }
     });
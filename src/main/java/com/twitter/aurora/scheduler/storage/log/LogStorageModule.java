@@ -16,6 +16,7 @@
 package com.twitter.aurora.scheduler.storage.log;
 
 import java.lang.annotation.Annotation;
+import java.util.zip.Deflater;
 
 import javax.inject.Singleton;
 
@@ -27,10 +28,17 @@ import com.google.inject.TypeLiteral;
 import com.twitter.aurora.scheduler.log.Log;
 import com.twitter.aurora.scheduler.storage.CallOrderEnforcingStorage;
 import com.twitter.aurora.scheduler.storage.DistributedSnapshotStore;
+import com.twitter.aurora.scheduler.storage.log.LogManager.BlockDeflateSnapshots;
 import com.twitter.aurora.scheduler.storage.log.LogManager.MaxEntrySize;
+import com.twitter.aurora.scheduler.storage.log.LogManager.ReplayThreads;
 import com.twitter.aurora.scheduler.storage.log.LogManager.SnapshotSetting;
+import com.twitter.aurora.scheduler.storage.log.LogStorage.GroupCommitMaxOps;
+import com.twitter.aurora.scheduler.storage.log.LogStorage.GroupCommitWindow;
+import com.twitter.aurora.scheduler.storage.log.LogStorage.LogTaskStateDeltas;
+import com.twitter.aurora.scheduler.storage.log.LogStorage.MaxReappliedTransactions;
 import com.twitter.aurora.scheduler.storage.log.LogStorage.ShutdownGracePeriod;
 import com.twitter.aurora.scheduler.storage.log.LogStorage.SnapshotInterval;
+import com.twitter.aurora.scheduler.storage.log.LogStorage.SnapshotPartRecords;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
@@ -74,6 +82,55 @@ public class LogStorageModule extends AbstractModule {
   @CmdLine(name = "deflate_snapshots", help = "Whether snapshots should be deflate-compressed.")
   private static final Arg<Boolean> DEFLATE_SNAPSHOTS = Arg.create(true);
 
+  @CmdLine(name = "deflate_snapshots_in_blocks",
+           help = "Whether deflated snapshots are split into blocks that are deflate-compressed "
+                  + "independently and in parallel.  Logs written this way cannot be read by "
+                  + "schedulers that predate the format.")
+  private static final Arg<Boolean> BLOCK_DEFLATE_SNAPSHOTS = Arg.create(false);
+
+  @CmdLine(name = "deflate_snapshots_block_size",
+           help = "Size of the blocks that snapshots are split into when deflated in blocks.")
+  private static final Arg<Amount<Integer, Data>> DEFLATE_BLOCK_SIZE =
+      Arg.create(Amount.of(1, Data.MB));
+
+  @CmdLine(name = "deflate_snapshots_level",
+           help = "Deflate compression level for snapshots deflated in blocks, from 0 (no "
+                  + "compression) to 9 (best compression), or -1 for the default level.")
+  private static final Arg<Integer> DEFLATE_LEVEL = Arg.create(Deflater.DEFAULT_COMPRESSION);
+
+  @CmdLine(name = "dlog_replay_threads",
+           help = "Number of threads to decode log entries with when recovering from the log. "
+                  + "If not positive, entries are decoded on the recovering thread.")
+  private static final Arg<Integer> REPLAY_THREADS = Arg.create(0);
+
+  @CmdLine(name = "dlog_snapshot_part_records",
+           help = "If positive, snapshots are streamed to the log as a series of parts containing "
+                  + "at most this many stored records each, rather than as a single entry.")
+  private static final Arg<Integer> SNAPSHOT_PART_RECORDS = Arg.create(0);
+
+  @CmdLine(name = "dlog_group_commit_max_ops",
+           help = "If positive, enables group commit of concurrent write transactions into a "
+                  + "single log entry, closing a batch once it holds this many ops.")
+  private static final Arg<Integer> GROUP_COMMIT_MAX_OPS = Arg.create(0);
+
+  @CmdLine(name = "dlog_group_commit_window",
+           help = "Maximum time to wait for concurrent write transactions to join a group commit "
+                  + "batch.")
+  private static final Arg<Amount<Long, Time>> GROUP_COMMIT_WINDOW =
+      Arg.create(Amount.of(5L, Time.MILLISECONDS));
+
+  @CmdLine(name = "dlog_log_task_state_deltas",
+           help = "Whether to log task state changes as deltas against the prior task state, "
+                  + "rather than as complete tasks.  Logs containing deltas cannot be read by "
+                  + "schedulers that predate log schema version 2.")
+  private static final Arg<Boolean> LOG_TASK_STATE_DELTAS = Arg.create(false);
+
+  @CmdLine(name = "dlog_max_reapplied_transactions",
+           help = "Maximum number of transactions preceding a snapshot in the log to apply again "
+                  + "after the snapshot when recovering.  Must exceed the number of transactions "
+                  + "logged while a snapshot is taken.")
+  private static final Arg<Integer> MAX_REAPPLIED_TRANSACTIONS = Arg.create(10000);
+
   @Override
   protected void configure() {
     requireBinding(Log.class);
@@ -82,11 +139,26 @@ public class LogStorageModule extends AbstractModule {
 
     bindInterval(ShutdownGracePeriod.class, SHUTDOWN_GRACE_PERIOD);
     bindInterval(SnapshotInterval.class, SNAPSHOT_INTERVAL);
+    bindInterval(GroupCommitWindow.class, GROUP_COMMIT_WINDOW);
+    bind(Integer.class).annotatedWith(SnapshotPartRecords.class)
+        .toInstance(SNAPSHOT_PART_RECORDS.get());
+    bind(Integer.class).annotatedWith(GroupCommitMaxOps.class)
+        .toInstance(GROUP_COMMIT_MAX_OPS.get());
+    bind(Boolean.class).annotatedWith(LogTaskStateDeltas.class)
+        .toInstance(LOG_TASK_STATE_DELTAS.get());
+    bind(Integer.class).annotatedWith(MaxReappliedTransactions.class)
+        .toInstance(MAX_REAPPLIED_TRANSACTIONS.get());
 
     bind(new TypeLiteral<Amount<Integer, Data>>() { }).annotatedWith(MaxEntrySize.class)
         .toInstance(MAX_LOG_ENTRY_SIZE.get());
     bind(LogManager.class).in(Singleton.class);
     bind(Boolean.class).annotatedWith(SnapshotSetting.class).toInstance(DEFLATE_SNAPSHOTS.get());
+    bind(Boolean.class).annotatedWith(BlockDeflateSnapshots.class)
+        .toInstance(BLOCK_DEFLATE_SNAPSHOTS.get());
+    bind(new TypeLiteral<Amount<Integer, Data>>() { }).annotatedWith(SnapshotSetting.class)
+        .toInstance(DEFLATE_BLOCK_SIZE.get());
+    bind(Integer.class).annotatedWith(SnapshotSetting.class).toInstance(DEFLATE_LEVEL.get());
+    bind(Integer.class).annotatedWith(ReplayThreads.class).toInstance(REPLAY_THREADS.get());
 
     bind(LogStorage.class).in(Singleton.class);
     install(CallOrderEnforcingStorage.wrappingModule(LogStorage.class));
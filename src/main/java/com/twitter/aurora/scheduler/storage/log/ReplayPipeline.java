@@ -0,0 +1,344 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.storage.LogEntry;
+import com.twitter.aurora.scheduler.log.Log.Entry;
+import com.twitter.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import com.twitter.common.stats.SlidingStats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Decodes log entries for replay on a pool of threads while preserving log order.
+ * <p>
+ * A single reader thread pulls entries from the log stream and hands their contents to a pool of
+ * decoder threads.  A single assembler thread takes the decoded entries in log order, reassembles
+ * framed entries from their chunks, and hands each complete entry back to the pool to be inflated.
+ * Pending work is queued in log order in bounded queues, which limits how far the reader may run
+ * ahead of the consumer.  The consumer takes entries from the head of the last queue, so entries
+ * are always handed out in the order they were read.
+ * <p>
+ * A failure at any stage, including an {@link Error}, is handed to the consumer in place of the
+ * entry that could not be produced.
+ */
+class ReplayPipeline {
+
+  /**
+   * A source of log entries in log order.
+   */
+  interface EntrySource {
+
+    /**
+     * Checks whether there are more entries, blocking until the next entry is available if
+     * necessary.
+     *
+     * @return {@code true} if {@link #next()} will return an entry.
+     */
+    boolean hasNext();
+
+    /**
+     * Gets the next entry.
+     *
+     * @return The next entry.
+     * @throws CodingException If the entry could not be decoded.
+     */
+    LogEntry next() throws CodingException;
+  }
+
+  /**
+   * Decodes the raw contents of log entries into complete entries.
+   */
+  interface Decoder {
+
+    /**
+     * Decodes a log entry.  This may be called concurrently from multiple threads.
+     *
+     * @param contents Raw entry contents.
+     * @return The decoded entry, which may be a frame or compressed.
+     * @throws CodingException If the entry could not be decoded.
+     */
+    LogEntry decode(byte[] contents) throws CodingException;
+
+    /**
+     * Reassembles a framed entry from its chunks, which are taken from {@code following}.  This is
+     * called from a single thread, in log order.
+     *
+     * @param logEntry A decoded entry.
+     * @param following The decoded entries following {@code logEntry}.
+     * @return The reassembled entry, {@code logEntry} itself if it is not a frame, or {@code null}
+     *     if the entry should be skipped.
+     * @throws CodingException If a reassembled entry could not be decoded.
+     */
+    @Nullable
+    LogEntry assemble(LogEntry logEntry, EntrySource following) throws CodingException;
+
+    /**
+     * Inflates an entry if it is compressed.  This may be called concurrently from multiple
+     * threads.
+     *
+     * @param logEntry A complete entry.
+     * @return The inflated entry, or {@code logEntry} itself if it is not compressed.
+     * @throws CodingException If the entry could not be inflated.
+     */
+    LogEntry inflate(LogEntry logEntry) throws CodingException;
+  }
+
+  private static final int QUEUED_ENTRIES_PER_DECODER = 16;
+
+  // Marks the end of the stream.  Compared by identity.
+  private static final Future<LogEntry> END = Futures.immediateFuture(null);
+
+  private final SlidingStats readStats = new SlidingStats("scheduler_log_replay_read", "nanos");
+  private final SlidingStats decodeStats =
+      new SlidingStats("scheduler_log_replay_decode", "nanos");
+  private final SlidingStats inflateStats =
+      new SlidingStats("scheduler_log_replay_inflate", "nanos");
+  private final SlidingStats assemblerWaitStats =
+      new SlidingStats("scheduler_log_replay_assembler_wait", "nanos");
+  private final SlidingStats consumerWaitStats =
+      new SlidingStats("scheduler_log_replay_consumer_wait", "nanos");
+
+  private final Iterator<Entry> entries;
+  private final Decoder decoder;
+  private final BlockingQueue<Future<LogEntry>> decoded;
+  private final BlockingQueue<Future<LogEntry>> assembled;
+  private final ExecutorService readerExecutor;
+  private final ExecutorService assemblerExecutor;
+  private final ExecutorService decoderExecutor;
+  private final QueueSource output;
+
+  /**
+   * Creates a replay pipeline.  The pipeline must be {@link #start() started} before entries are
+   * consumed, and {@link #close() closed} once consumption is complete.
+   *
+   * @param entries Entries to decode, in log order.
+   * @param decoder Decoder to apply to entry contents.
+   * @param decoderThreads Number of threads to decode and inflate entries with.
+   */
+  ReplayPipeline(Iterator<Entry> entries, Decoder decoder, int decoderThreads) {
+    this.entries = checkNotNull(entries);
+    this.decoder = checkNotNull(decoder);
+    checkArgument(decoderThreads > 0);
+    this.decoded = new ArrayBlockingQueue<>(decoderThreads * QUEUED_ENTRIES_PER_DECODER);
+    this.assembled = new ArrayBlockingQueue<>(decoderThreads * QUEUED_ENTRIES_PER_DECODER);
+    this.readerExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LogReplayReader-%d").build());
+    this.assemblerExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LogReplayAssembler-%d").build());
+    this.decoderExecutor = Executors.newFixedThreadPool(decoderThreads,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LogReplayDecoder-%d").build());
+    this.output = new QueueSource(assembled, consumerWaitStats);
+  }
+
+  /**
+   * Starts reading entries from the stream.
+   */
+  void start() {
+    readerExecutor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          readAll();
+        } catch (InterruptedException e) {
+          // The pipeline was closed before the stream was exhausted.
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assemblerExecutor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          assembleAll();
+        } catch (InterruptedException e) {
+          // The pipeline was closed before the stream was exhausted.
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+  }
+
+  private void readAll() throws InterruptedException {
+    try {
+      while (entries.hasNext()) {
+        long start = System.nanoTime();
+        final byte[] contents = entries.next().contents();
+        readStats.accumulate(System.nanoTime() - start);
+        decoded.put(decoderExecutor.submit(new Callable<LogEntry>() {
+          @Override public LogEntry call() throws CodingException {
+            long start = System.nanoTime();
+            LogEntry logEntry = decoder.decode(contents);
+            decodeStats.accumulate(System.nanoTime() - start);
+            return logEntry;
+          }
+        }));
+      }
+      decoded.put(END);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Throwable e) {
+      decoded.put(Futures.<LogEntry>immediateFailedFuture(e));
+    }
+  }
+
+  private void assembleAll() throws InterruptedException {
+    QueueSource decodedEntries = new QueueSource(decoded, assemblerWaitStats);
+    try {
+      while (decodedEntries.hasNext()) {
+        final LogEntry logEntry = decoder.assemble(decodedEntries.next(), decodedEntries);
+        if (logEntry != null) {
+          assembled.put(decoderExecutor.submit(new Callable<LogEntry>() {
+            @Override public LogEntry call() throws CodingException {
+              long start = System.nanoTime();
+              LogEntry inflated = decoder.inflate(logEntry);
+              inflateStats.accumulate(System.nanoTime() - start);
+              return inflated;
+            }
+          }));
+        }
+      }
+      assembled.put(END);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Throwable e) {
+      if (Thread.currentThread().isInterrupted()) {
+        // The pipeline was closed while waiting for a decoded entry.
+        throw new InterruptedException();
+      }
+      assembled.put(Futures.<LogEntry>immediateFailedFuture(e));
+    }
+  }
+
+  /**
+   * Checks whether there are more entries to consume, blocking until the next entry has been
+   * assembled if necessary.
+   *
+   * @return {@code true} if {@link #next()} will return an entry.
+   */
+  boolean hasNext() {
+    return output.hasNext();
+  }
+
+  /**
+   * Gets the next complete entry in log order, blocking until it has been decoded and inflated.
+   *
+   * @return The next complete entry.
+   * @throws CodingException If the entry could not be decoded.
+   */
+  LogEntry next() throws CodingException {
+    return output.next();
+  }
+
+  /**
+   * Stops reading, decoding and assembling entries.
+   */
+  void close() {
+    readerExecutor.shutdownNow();
+    assemblerExecutor.shutdownNow();
+    decoderExecutor.shutdownNow();
+  }
+
+  /**
+   * Waits for the pipeline's threads to exit after it is {@link #close() closed}.
+   *
+   * @param timeout Maximum time to wait.
+   * @param unit Unit of {@code timeout}.
+   * @return {@code true} if all threads exited within the timeout.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  @VisibleForTesting
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ExecutorService executor
+        : new ExecutorService[] {readerExecutor, assemblerExecutor, decoderExecutor}) {
+
+      if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Takes entries in order from a queue of pending results.
+   */
+  private static class QueueSource implements EntrySource {
+    private final BlockingQueue<Future<LogEntry>> queue;
+    private final SlidingStats waitStats;
+
+    private Future<LogEntry> head;
+    private long headWaitNanos;
+
+    QueueSource(BlockingQueue<Future<LogEntry>> queue, SlidingStats waitStats) {
+      this.queue = queue;
+      this.waitStats = waitStats;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (head == null) {
+        long start = System.nanoTime();
+        try {
+          head = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new StreamAccessException("Interrupted while replaying the log", e);
+        }
+        headWaitNanos = System.nanoTime() - start;
+      }
+      return head != END;
+    }
+
+    @Override
+    public LogEntry next() throws CodingException {
+      checkState(hasNext());
+      Future<LogEntry> next = head;
+      head = null;
+
+      long start = System.nanoTime();
+      try {
+        return next.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StreamAccessException("Interrupted while replaying the log", e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), CodingException.class);
+        throw Throwables.propagate(e.getCause());
+      } finally {
+        waitStats.accumulate(headWaitNanos + System.nanoTime() - start);
+      }
+    }
+  }
+}
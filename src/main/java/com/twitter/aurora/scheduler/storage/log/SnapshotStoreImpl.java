@@ -22,14 +22,19 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.Lock;
 import com.twitter.aurora.gen.storage.QuotaConfiguration;
 import com.twitter.aurora.gen.storage.SchedulerMetadata;
 import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.gen.storage.SnapshotPart;
 import com.twitter.aurora.gen.storage.StoredJob;
+import com.twitter.aurora.gen.storage.StoredTask;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.storage.SnapshotStore;
 import com.twitter.aurora.scheduler.storage.Storage;
@@ -42,10 +47,14 @@ import com.twitter.aurora.scheduler.storage.entities.IJobConfiguration;
 import com.twitter.aurora.scheduler.storage.entities.ILock;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.util.BuildInfo;
 import com.twitter.common.util.Clock;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.apiConstants.CURRENT_API_VERSION;
@@ -54,7 +63,7 @@ import static com.twitter.aurora.gen.apiConstants.CURRENT_API_VERSION;
  * Snapshot store implementation that delegates to underlying snapshot stores by
  * extracting/applying fields in a snapshot thrift struct.
  */
-public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
+public class SnapshotStoreImpl implements SnapshotStore<Snapshot>, StreamingSnapshotStore {
 
   private static final Logger LOG = Logger.getLogger(SnapshotStoreImpl.class.getName());
 
@@ -74,23 +83,45 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
     }
   };
 
-  private static final Iterable<SnapshotField> SNAPSHOT_FIELDS = Arrays.asList(
-      ATTRIBUTE_FIELD,
-      new SnapshotField() {
-        @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
-          snapshot.setTasks(
-              IScheduledTask.toBuildersSet(store.getTaskStore().fetchTasks(Query.unscoped())));
-        }
+  private static final SnapshotField TASK_FIELD = new SnapshotField() {
+    @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
+      snapshot.setTasks(
+          IScheduledTask.toBuildersSet(store.getTaskStore().fetchTasks(Query.unscoped())));
+    }
 
-        @Override public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
-          store.getUnsafeTaskStore().deleteAllTasks();
+    @Override public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
+      store.getUnsafeTaskStore().deleteAllTasks();
 
-          if (snapshot.isSetTasks()) {
-            store.getUnsafeTaskStore().saveTasks(
-                IScheduledTask.setFromBuilders(snapshot.getTasks()));
-          }
-        }
-      },
+      // Either layout is restored, regardless of the layout this scheduler writes.
+      if (snapshot.isSetTasks()) {
+        store.getUnsafeTaskStore().saveTasks(
+            IScheduledTask.setFromBuilders(snapshot.getTasks()));
+      }
+      if (snapshot.isSetStoredTasks()) {
+        store.getUnsafeTaskStore().saveTasks(
+            TaskConfigTable.restore(snapshot.getTaskConfigs(), snapshot.getStoredTasks()));
+      }
+    }
+  };
+
+  private static final SnapshotField DEDUPLICATED_TASK_FIELD = new SnapshotField() {
+    @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
+      TaskConfigTable configs = new TaskConfigTable();
+      ImmutableSet.Builder<StoredTask> tasks = ImmutableSet.builder();
+      for (IScheduledTask task : store.getTaskStore().fetchTasks(Query.unscoped())) {
+        tasks.add(configs.store(task));
+      }
+      snapshot.setStoredTasks(tasks.build());
+      snapshot.setTaskConfigs(configs.getConfigs());
+    }
+
+    @Override public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
+      TASK_FIELD.restoreFromSnapshot(store, snapshot);
+    }
+  };
+
+  // Fields other than host attributes and tasks, which are saved and restored first.
+  private static final Iterable<SnapshotField> SNAPSHOT_FIELDS = Arrays.asList(
       new SnapshotField() {
         @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
           ImmutableSet.Builder<StoredJob> jobs = ImmutableSet.builder();
@@ -116,17 +147,7 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
       },
       new SnapshotField() {
         @Override public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
-          Properties props = new BuildInfo().getProperties();
-
-          snapshot.setSchedulerMetadata(
-                new SchedulerMetadata()
-                  .setFrameworkId(store.getSchedulerStore().fetchFrameworkId())
-                  .setRevision(props.getProperty(BuildInfo.Key.GIT_REVISION.value))
-                  .setTag(props.getProperty(BuildInfo.Key.GIT_TAG.value))
-                  .setTimestamp(props.getProperty(BuildInfo.Key.TIMESTAMP.value))
-                  .setUser(props.getProperty(BuildInfo.Key.USER.value))
-                  .setMachine(props.getProperty(BuildInfo.Key.MACHINE.value))
-                  .setVersion(CURRENT_API_VERSION));
+          snapshot.setSchedulerMetadata(createMetadata(store));
         }
 
         @Override public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
@@ -175,13 +196,49 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
       }
   );
 
+  private static SchedulerMetadata createMetadata(StoreProvider store) {
+    Properties props = new BuildInfo().getProperties();
+
+    return new SchedulerMetadata()
+        .setFrameworkId(store.getSchedulerStore().fetchFrameworkId())
+        .setRevision(props.getProperty(BuildInfo.Key.GIT_REVISION.value))
+        .setTag(props.getProperty(BuildInfo.Key.GIT_TAG.value))
+        .setTimestamp(props.getProperty(BuildInfo.Key.TIMESTAMP.value))
+        .setUser(props.getProperty(BuildInfo.Key.USER.value))
+        .setMachine(props.getProperty(BuildInfo.Key.MACHINE.value))
+        .setVersion(CURRENT_API_VERSION);
+  }
+
+  @CmdLine(name = "snapshot_deduplicate_task_configs",
+      help = "Whether snapshots store each distinct task configuration once in a table, rather "
+          + "than with every task.  Snapshots in this layout cannot be read by schedulers that "
+          + "predate it, so this should only be enabled once all schedulers can read it.")
+  private static final Arg<Boolean> DEDUPLICATE_TASK_CONFIGS = Arg.create(false);
+
   private final Clock clock;
   private final Storage storage;
+  private final boolean deduplicateTaskConfigs;
+  private final Iterable<SnapshotField> snapshotFields;
+
+  // Holds the parts of a streamed snapshot applied so far, until its final part is read.  Only
+  // accessed within storage write operations.
+  private StagedSnapshot stagedSnapshot;
 
   @Inject
   public SnapshotStoreImpl(Clock clock, @Volatile Storage storage) {
+    this(clock, storage, DEDUPLICATE_TASK_CONFIGS.get());
+  }
+
+  @VisibleForTesting
+  SnapshotStoreImpl(Clock clock, Storage storage, boolean deduplicateTaskConfigs) {
     this.clock = checkNotNull(clock);
     this.storage = checkNotNull(storage);
+    this.deduplicateTaskConfigs = deduplicateTaskConfigs;
+    this.snapshotFields = ImmutableList.<SnapshotField>builder()
+        .add(ATTRIBUTE_FIELD)
+        .add(deduplicateTaskConfigs ? DEDUPLICATED_TASK_FIELD : TASK_FIELD)
+        .addAll(SNAPSHOT_FIELDS)
+        .build();
   }
 
   @Timed("snapshot_create")
@@ -193,7 +250,7 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
         // Capture timestamp to signify the beginning of a snapshot operation, apply after in case
         // one of the field closures is mean and tries to apply a timestamp.
         long timestamp = clock.nowMillis();
-        for (SnapshotField field : SNAPSHOT_FIELDS) {
+        for (SnapshotField field : snapshotFields) {
           field.saveToSnapshot(storeProvider, snapshot);
         }
         snapshot.setTimestamp(timestamp);
@@ -210,13 +267,249 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
       @Override protected void execute(MutableStoreProvider storeProvider) {
         LOG.info("Restoring snapshot.");
 
-        for (SnapshotField field : SNAPSHOT_FIELDS) {
+        for (SnapshotField field : snapshotFields) {
           field.restoreFromSnapshot(storeProvider, snapshot);
         }
       }
     });
   }
 
+  @Timed("snapshot_stream")
+  @Override
+  public void streamSnapshot(final int maxRecordsPerPart, final PartSink sink)
+      throws CodingException {
+
+    checkArgument(maxRecordsPerPart > 0);
+    checkNotNull(sink);
+
+    storage.consistentRead(new Work<Void, CodingException>() {
+      @Override public Void apply(StoreProvider store) throws CodingException {
+        PartWriter writer = new PartWriter(
+            clock.nowMillis(),
+            maxRecordsPerPart,
+            deduplicateTaskConfigs,
+            sink);
+
+        writer.current().setSchedulerMetadata(createMetadata(store));
+        for (Map.Entry<String, IQuota> entry : store.getQuotaStore().fetchQuotas().entrySet()) {
+          writer.current().addToQuotaConfigurations(
+              new QuotaConfiguration(entry.getKey(), entry.getValue().newBuilder()));
+          writer.recordAdded();
+        }
+        for (ILock lock : store.getLockStore().fetchLocks()) {
+          writer.current().addToLocks(lock.newBuilder());
+          writer.recordAdded();
+        }
+        for (HostAttributes attributes : store.getAttributeStore().getHostAttributes()) {
+          writer.current().addToHostAttributes(attributes);
+          writer.recordAdded();
+        }
+        for (String managerId : store.getJobStore().fetchManagerIds()) {
+          for (IJobConfiguration config : store.getJobStore().fetchJobs(managerId)) {
+            writer.current().addToJobs(new StoredJob(managerId, config.newBuilder()));
+            writer.recordAdded();
+          }
+        }
+        for (IScheduledTask task : store.getTaskStore().fetchTasks(Query.unscoped())) {
+          writer.addTask(task);
+        }
+        writer.finish();
+        return null;
+      }
+    });
+  }
+
+  @Timed("snapshot_apply_part")
+  @Override
+  public void applySnapshotPart(final SnapshotPart part) {
+    checkNotNull(part);
+
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider store) {
+        if (part.getIndex() == 0) {
+          LOG.info("Staging streamed snapshot.");
+          stagedSnapshot = new StagedSnapshot(part.getTimestamp());
+        } else if ((stagedSnapshot == null) || !stagedSnapshot.isNext(part)) {
+          LOG.warning("Snapshot part " + part.getIndex() + " of snapshot " + part.getTimestamp()
+              + " is out of sequence, discarding the snapshot.");
+          stagedSnapshot = null;
+          return;
+        }
+
+        stagedSnapshot.apply(part);
+        if (part.isComplete()) {
+          LOG.info("Restoring streamed snapshot.");
+          final StagedSnapshot complete = stagedSnapshot;
+          stagedSnapshot = null;
+          complete.staging.consistentRead(new Work.Quiet<Void>() {
+            @Override public Void apply(StoreProvider staged) {
+              replaceContents(staged, store);
+              return null;
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /**
+   * Replaces the contents of a store with those of another.  Stored records are immutable or
+   * copied on save, so the records of {@code from} are shared rather than copied.
+   */
+  private static void replaceContents(StoreProvider from, MutableStoreProvider to) {
+    to.getAttributeStore().deleteHostAttributes();
+    for (HostAttributes attributes : from.getAttributeStore().getHostAttributes()) {
+      to.getAttributeStore().saveHostAttributes(attributes);
+    }
+
+    to.getUnsafeTaskStore().deleteAllTasks();
+    to.getUnsafeTaskStore().saveTasks(from.getTaskStore().fetchTasks(Query.unscoped()));
+
+    to.getJobStore().deleteJobs();
+    for (String managerId : from.getJobStore().fetchManagerIds()) {
+      for (IJobConfiguration config : from.getJobStore().fetchJobs(managerId)) {
+        to.getJobStore().saveAcceptedJob(managerId, config);
+      }
+    }
+
+    String frameworkId = from.getSchedulerStore().fetchFrameworkId();
+    if (frameworkId != null) {
+      to.getSchedulerStore().saveFrameworkId(frameworkId);
+    }
+
+    to.getQuotaStore().deleteQuotas();
+    for (Map.Entry<String, IQuota> entry : from.getQuotaStore().fetchQuotas().entrySet()) {
+      to.getQuotaStore().saveQuota(entry.getKey(), entry.getValue());
+    }
+
+    to.getLockStore().deleteLocks();
+    for (ILock lock : from.getLockStore().fetchLocks()) {
+      to.getLockStore().saveLock(lock);
+    }
+  }
+
+  /**
+   * Accumulates records into snapshot parts, handing each part to a sink once it is full.  When
+   * task configurations are deduplicated, each part carries the task configurations referenced by
+   * its own tasks.
+   */
+  private static class PartWriter {
+    private final long timestamp;
+    private final int maxRecordsPerPart;
+    private final boolean deduplicateTaskConfigs;
+    private final PartSink sink;
+    private SnapshotPart current;
+    private TaskConfigTable configs = new TaskConfigTable();
+    private int records = 0;
+
+    PartWriter(
+        long timestamp,
+        int maxRecordsPerPart,
+        boolean deduplicateTaskConfigs,
+        PartSink sink) {
+
+      this.timestamp = timestamp;
+      this.maxRecordsPerPart = maxRecordsPerPart;
+      this.deduplicateTaskConfigs = deduplicateTaskConfigs;
+      this.sink = sink;
+      this.current = new SnapshotPart().setTimestamp(timestamp).setIndex(0);
+    }
+
+    SnapshotPart current() {
+      return current;
+    }
+
+    void addTask(IScheduledTask task) throws CodingException {
+      if (deduplicateTaskConfigs) {
+        current.addToStoredTasks(configs.store(task));
+      } else {
+        current.addToTasks(task.newBuilder());
+      }
+      recordAdded();
+    }
+
+    void recordAdded() throws CodingException {
+      records++;
+      if (records >= maxRecordsPerPart) {
+        write();
+        current = new SnapshotPart().setTimestamp(timestamp).setIndex(current.getIndex() + 1);
+        records = 0;
+      }
+    }
+
+    void finish() throws CodingException {
+      current.setComplete(true);
+      write();
+    }
+
+    private void write() throws CodingException {
+      if (current.isSetStoredTasks()) {
+        current.setTaskConfigs(configs.getConfigs());
+        configs = new TaskConfigTable();
+      }
+      sink.write(current);
+    }
+  }
+
+  /**
+   * A streamed snapshot being restored, whose parts are applied to a staging store as they are
+   * read.  Each part is released once applied, so the snapshot is never held in memory as a whole.
+   */
+  private static class StagedSnapshot {
+    private final long timestamp;
+    private final Storage staging = MemStorage.newEmptyStorage();
+    private int nextIndex = 0;
+
+    StagedSnapshot(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    boolean isNext(SnapshotPart part) {
+      return (part.getTimestamp() == timestamp) && (part.getIndex() == nextIndex);
+    }
+
+    void apply(final SnapshotPart part) {
+      nextIndex = part.getIndex() + 1;
+      staging.write(new MutateWork.NoResult.Quiet() {
+        @Override protected void execute(MutableStoreProvider store) {
+          if (part.isSetSchedulerMetadata()) {
+            store.getSchedulerStore().saveFrameworkId(part.getSchedulerMetadata().getFrameworkId());
+          }
+          if (part.isSetQuotaConfigurations()) {
+            for (QuotaConfiguration quota : part.getQuotaConfigurations()) {
+              store.getQuotaStore().saveQuota(quota.getRole(), IQuota.build(quota.getQuota()));
+            }
+          }
+          if (part.isSetLocks()) {
+            for (Lock lock : part.getLocks()) {
+              store.getLockStore().saveLock(ILock.build(lock));
+            }
+          }
+          if (part.isSetHostAttributes()) {
+            for (HostAttributes attributes : part.getHostAttributes()) {
+              store.getAttributeStore().saveHostAttributes(attributes);
+            }
+          }
+          if (part.isSetJobs()) {
+            for (StoredJob job : part.getJobs()) {
+              store.getJobStore().saveAcceptedJob(
+                  job.getJobManagerId(),
+                  IJobConfiguration.build(job.getJobConfiguration()));
+            }
+          }
+          if (part.isSetTasks()) {
+            store.getUnsafeTaskStore().saveTasks(IScheduledTask.setFromBuilders(part.getTasks()));
+          }
+          if (part.isSetStoredTasks()) {
+            // Each part carries the task configurations referenced by its own tasks.
+            store.getUnsafeTaskStore().saveTasks(
+                TaskConfigTable.restore(part.getTaskConfigs(), part.getStoredTasks()));
+          }
+        }
+      });
+    }
+  }
+
   private interface SnapshotField {
     void saveToSnapshot(StoreProvider storeProvider, Snapshot snapshot);
 
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.storage.SnapshotPart;
+
+/**
+ * A snapshot store that produces and consumes snapshots as a series of bounded-size parts, so
+ * that a complete snapshot never needs to be held in memory.
+ */
+public interface StreamingSnapshotStore {
+
+  /**
+   * A consumer of snapshot parts as they are produced.
+   */
+  interface PartSink {
+
+    /**
+     * Accepts the next part of a snapshot.  The part may not be retained after this call returns.
+     *
+     * @param part Snapshot part.
+     * @throws CodingException If the part could not be encoded.
+     */
+    void write(SnapshotPart part) throws CodingException;
+  }
+
+  /**
+   * Creates a consistent snapshot of the local storage system, handing it to {@code sink} as a
+   * series of parts.  The final part will be marked as complete.
+   *
+   * @param maxRecordsPerPart Maximum number of stored records (tasks, jobs, etc) to include in a
+   *     single part.
+   * @param sink Consumer of snapshot parts.
+   * @throws CodingException If the sink failed to encode a part.
+   */
+  void streamSnapshot(int maxRecordsPerPart, PartSink sink) throws CodingException;
+
+  /**
+   * Applies a snapshot part to a staging store as it is read, replacing the contents of the local
+   * storage system with the staging store once the complete part has been applied following all
+   * preceding parts.  The staging store is discarded if a part is out of sequence, so that local
+   * storage is never left with a partially applied snapshot.
+   *
+   * @param part Snapshot part created by {@link #streamSnapshot(int, PartSink)}.
+   */
+  void applySnapshotPart(SnapshotPart part);
+}
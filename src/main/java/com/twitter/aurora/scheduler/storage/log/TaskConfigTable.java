@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.storage.StoredTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A table of task configurations that stores each distinct configuration once, for tasks that
+ * reference their configuration by key.
+ * <p>
+ * Many tasks in a job share an identical configuration, which makes up most of the size of a
+ * task.  Keys are a hash of the encoded configuration, and are only computed once for each
+ * distinct configuration added to the table.
+ */
+public class TaskConfigTable {
+
+  private final Map<ITaskConfig, String> keys = Maps.newHashMap();
+  private final ImmutableMap.Builder<String, TaskConfig> configs = ImmutableMap.builder();
+
+  /**
+   * Adds a task to the table, removing its configuration.
+   *
+   * @param task Task to store.
+   * @return The task without its configuration, along with the key of its configuration if the
+   *     task has one.
+   */
+  public StoredTask store(IScheduledTask task) {
+    ScheduledTask stripped = task.newBuilder();
+    StoredTask stored = new StoredTask().setTask(stripped);
+    if (stripped.isSetAssignedTask() && stripped.getAssignedTask().isSetTask()) {
+      stored.setConfigKey(add(task.getAssignedTask().getTask()));
+      stripped.getAssignedTask().unsetTask();
+    }
+    return stored;
+  }
+
+  private String add(ITaskConfig config) {
+    String key = keys.get(config);
+    if (key == null) {
+      TaskConfig builder = config.newBuilder();
+      key = key(builder);
+      keys.put(config, key);
+      configs.put(key, builder);
+    }
+    return key;
+  }
+
+  /**
+   * Gets the distinct configurations referenced by the tasks added to the table.
+   *
+   * @return Configurations, by key.
+   */
+  public Map<String, TaskConfig> getConfigs() {
+    return configs.build();
+  }
+
+  private static String key(TaskConfig config) {
+    try {
+      return Hashing.sha1().hashBytes(ThriftBinaryCodec.encodeNonNull(config)).toString();
+    } catch (CodingException e) {
+      throw new IllegalStateException("Failed to encode task configuration", e);
+    }
+  }
+
+  /**
+   * Restores tasks stored with a configuration table.
+   *
+   * @param configs Configurations, by key.
+   * @param storedTasks Tasks referencing configurations in {@code configs}.
+   * @return The tasks, with their configurations populated.
+   */
+  public static Set<IScheduledTask> restore(
+      Map<String, TaskConfig> configs,
+      Set<StoredTask> storedTasks) {
+
+    checkNotNull(configs);
+
+    ImmutableSet.Builder<IScheduledTask> tasks = ImmutableSet.builder();
+    for (StoredTask stored : storedTasks) {
+      ScheduledTask task = stored.getTask();
+      if (stored.isSetConfigKey()) {
+        String key = stored.getConfigKey();
+        TaskConfig config = configs.get(key);
+        checkState(config != null, "No task configuration stored with key " + key);
+        task = task.deepCopy();
+        task.getAssignedTask().setTask(config);
+      }
+      tasks.add(IScheduledTask.build(task));
+    }
+    return tasks.build();
+  }
+}
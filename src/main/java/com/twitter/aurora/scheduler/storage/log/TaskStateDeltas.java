@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskEvent;
+import com.twitter.aurora.gen.storage.TaskStateDelta;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskEvent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Utility class for recording changes to tasks as deltas against the stored tasks.
+ */
+final class TaskStateDeltas {
+
+  private TaskStateDeltas() {
+    // Utility class.
+  }
+
+  /**
+   * Computes the delta that changes a task to its mutated form.
+   *
+   * @param original The task before it was mutated.
+   * @param mutated The task after it was mutated.
+   * @return The delta that changes {@code original} to {@code mutated}, or absent if the mutation
+   *     changes more than the task's state, event history, failure count and slave assignment.
+   */
+  static Optional<TaskStateDelta> diff(IScheduledTask original, IScheduledTask mutated) {
+    checkNotNull(original);
+    checkNotNull(mutated);
+    checkArgument(Tasks.id(original).equals(Tasks.id(mutated)));
+
+    List<ITaskEvent> originalEvents = original.getTaskEvents();
+    List<ITaskEvent> mutatedEvents = mutated.getTaskEvents();
+    if ((mutatedEvents.size() < originalEvents.size())
+        || !mutatedEvents.subList(0, originalEvents.size()).equals(originalEvents)) {
+
+      return Optional.absent();
+    }
+
+    TaskStateDelta delta = new TaskStateDelta()
+        .setTaskId(Tasks.id(mutated))
+        .setPriorStatus(original.getStatus())
+        .setPriorEventCount(originalEvents.size())
+        .setStatus(mutated.getStatus())
+        .setAppendedEvents(ITaskEvent.toBuildersList(
+            mutatedEvents.subList(originalEvents.size(), mutatedEvents.size())))
+        .setFailureCount(mutated.getFailureCount());
+
+    IAssignedTask originalAssignment = original.getAssignedTask();
+    IAssignedTask mutatedAssignment = mutated.getAssignedTask();
+    if (!Objects.equal(originalAssignment.getSlaveId(), mutatedAssignment.getSlaveId())
+        || !Objects.equal(originalAssignment.getSlaveHost(), mutatedAssignment.getSlaveHost())
+        || !Objects.equal(
+            originalAssignment.getAssignedPorts(),
+            mutatedAssignment.getAssignedPorts())) {
+
+      AssignedTask assignment = mutatedAssignment.newBuilder();
+      delta.setSlaveId(assignment.getSlaveId())
+          .setSlaveHost(assignment.getSlaveHost())
+          .setAssignedPorts(assignment.getAssignedPorts());
+    }
+
+    // Any other change to the task, such as its configuration, may not be expressed as a delta.
+    return apply(original, delta).equals(mutated)
+        ? Optional.of(delta)
+        : Optional.<TaskStateDelta>absent();
+  }
+
+  /**
+   * Applies a delta to a task.  A delta recorded against a task in a different state than
+   * {@code task} is not applied, since the task either already reflects the delta or has since
+   * changed further.  This allows deltas to be replayed over a snapshot that may be newer.
+   *
+   * @param task The task to change.
+   * @param delta The delta to apply.
+   * @return The changed task, or {@code task} if the delta does not apply to it.
+   */
+  static IScheduledTask apply(IScheduledTask task, TaskStateDelta delta) {
+    checkNotNull(task);
+    checkNotNull(delta);
+
+    if ((delta.isSetPriorStatus() && (task.getStatus() != delta.getPriorStatus()))
+        || (delta.isSetPriorEventCount()
+            && (task.getTaskEvents().size() != delta.getPriorEventCount()))) {
+
+      return task;
+    }
+
+    ScheduledTask builder = task.newBuilder()
+        .setStatus(delta.getStatus())
+        .setFailureCount(delta.getFailureCount());
+    if (delta.isSetAppendedEvents()) {
+      for (TaskEvent event : delta.getAppendedEvents()) {
+        builder.addToTaskEvents(event);
+      }
+    }
+    if (delta.isSetSlaveId() || delta.isSetSlaveHost() || delta.isSetAssignedPorts()) {
+      builder.getAssignedTask()
+          .setSlaveId(delta.getSlaveId())
+          .setSlaveHost(delta.getSlaveHost())
+          .setAssignedPorts(delta.getAssignedPorts());
+    }
+    return IScheduledTask.build(builder);
+  }
+}
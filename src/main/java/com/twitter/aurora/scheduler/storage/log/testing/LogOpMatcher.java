@@ -98,6 +98,15 @@ public class LogOpMatcher implements IArgumentMatcher {
       LogEntry entry = LogEntry.snapshot(snapshot);
       return expect(stream.append(sameEntry(entry)));
     }
+
+    /**
+     * Sets an expectation for a no-op entry.
+     *
+     * @return An expectation setter.
+     */
+    public IExpectationSetters<Position> expectNoop() {
+      return expect(stream.append(sameEntry(LogEntry.noop(true))));
+    }
   }
 
   /**
@@ -16,11 +16,11 @@
 package com.twitter.aurora.scheduler.storage.mem;
 
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.HostAttributes;
@@ -29,9 +29,17 @@ import com.twitter.aurora.scheduler.storage.AttributeStore.Mutable;
 
 /**
  * An in-memory attribute store.
+ * <p>
+ * Stored host attributes are never modified, as they may be observed by concurrent readers.
+ * Updates store a modified copy instead.
  */
 class MemAttributeStore implements Mutable {
-  private final ConcurrentMap<String, HostAttributes> hostAttributes = Maps.newConcurrentMap();
+  private final VersionedMap<String, HostAttributes> hostAttributes;
+
+  @Inject
+  MemAttributeStore(Versions versions) {
+    hostAttributes = new VersionedMap<>(versions);
+  }
 
   @Override
   public void deleteHostAttributes() {
@@ -40,21 +48,21 @@ class MemAttributeStore implements Mutable {
 
   @Override
   public void saveHostAttributes(HostAttributes attributes) {
-    hostAttributes.putIfAbsent(attributes.getHost(), attributes);
-
-    HostAttributes stored = hostAttributes.get(attributes.getHost());
+    HostAttributes existing = hostAttributes.getLatest(attributes.getHost());
+    HostAttributes stored = (existing == null) ? attributes.deepCopy() : existing.deepCopy();
     if (!stored.isSetMode()) {
       stored.setMode(attributes.isSetMode() ? attributes.getMode() : MaintenanceMode.NONE);
     }
     stored.setAttributes(attributes.isSetAttributes()
         ? attributes.getAttributes() : ImmutableSet.<Attribute>of());
+    hostAttributes.put(stored.getHost(), stored);
   }
 
   @Override
   public boolean setMaintenanceMode(String host, MaintenanceMode mode) {
-    HostAttributes stored = hostAttributes.get(host);
-    if (stored != null) {
-      stored.setMode(mode);
+    HostAttributes existing = hostAttributes.getLatest(host);
+    if (existing != null) {
+      hostAttributes.put(host, existing.deepCopy().setMode(mode));
       return true;
     } else {
       return false;
@@ -68,6 +76,6 @@ class MemAttributeStore implements Mutable {
 
   @Override
   public Set<HostAttributes> getHostAttributes() {
-    return ImmutableSet.copyOf(hostAttributes.values());
+    return hostAttributes.values().toSet();
   }
 }
@@ -19,11 +19,11 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
@@ -36,15 +36,29 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * An in-memory job store.
+ * <p>
+ * The jobs of each manager are stored as an immutable map, which is replaced when the jobs
+ * change.  Job changes are rare relative to task changes, so copying a manager's jobs on write
+ * is preferred to versioning individual jobs.
  */
 class MemJobStore implements JobStore.Mutable {
 
-  private final LoadingCache<String, Manager> managers = CacheBuilder.newBuilder()
-      .build(new CacheLoader<String, Manager>() {
-        @Override public Manager load(String key) {
-          return new Manager();
-        }
-      });
+  private final VersionedMap<String, ImmutableMap<IJobKey, IJobConfiguration>> managers;
+
+  @Inject
+  MemJobStore(Versions versions) {
+    managers = new VersionedMap<>(versions);
+  }
+
+  @VisibleForTesting
+  MemJobStore() {
+    this(new Versions());
+  }
+
+  private Map<IJobKey, IJobConfiguration> getLatestJobs(String managerId) {
+    ImmutableMap<IJobKey, IJobConfiguration> jobs = managers.getLatest(managerId);
+    return (jobs == null) ? Maps.<IJobKey, IJobConfiguration>newHashMap() : Maps.newHashMap(jobs);
+  }
 
   @Override
   public void saveAcceptedJob(String managerId, IJobConfiguration jobConfig) {
@@ -52,35 +66,38 @@ class MemJobStore implements JobStore.Mutable {
     checkNotNull(jobConfig);
 
     IJobKey key = JobKeys.assertValid(jobConfig.getKey());
-    managers.getUnchecked(managerId).jobs.put(key, jobConfig);
+    Map<IJobKey, IJobConfiguration> jobs = getLatestJobs(managerId);
+    jobs.put(key, jobConfig);
+    managers.put(managerId, ImmutableMap.copyOf(jobs));
   }
 
   @Override
   public void removeJob(IJobKey jobKey) {
     checkNotNull(jobKey);
 
-    for (Manager manager : managers.asMap().values()) {
-      manager.jobs.remove(jobKey);
+    for (String managerId : managers.keySet()) {
+      Map<IJobKey, IJobConfiguration> jobs = getLatestJobs(managerId);
+      if (jobs.remove(jobKey) != null) {
+        managers.put(managerId, ImmutableMap.copyOf(jobs));
+      }
     }
   }
 
   @Override
   public void deleteJobs() {
-    managers.invalidateAll();
+    managers.clear();
   }
 
   @Override
   public Iterable<IJobConfiguration> fetchJobs(String managerId) {
     checkNotNull(managerId);
 
-    @Nullable Manager manager = managers.getIfPresent(managerId);
-    if (manager == null) {
+    @Nullable Map<IJobKey, IJobConfiguration> jobs = managers.get(managerId);
+    if (jobs == null) {
       return ImmutableSet.of();
     }
 
-    synchronized (manager.jobs) {
-      return ImmutableSet.copyOf(manager.jobs.values());
-    }
+    return ImmutableSet.copyOf(jobs.values());
   }
 
   @Override
@@ -88,20 +105,16 @@ class MemJobStore implements JobStore.Mutable {
     checkNotNull(managerId);
     checkNotNull(jobKey);
 
-    Optional<Manager> manager = Optional.fromNullable(managers.getIfPresent(managerId));
-    if (!manager.isPresent()) {
+    @Nullable Map<IJobKey, IJobConfiguration> jobs = managers.get(managerId);
+    if (jobs == null) {
       return Optional.absent();
     } else {
-      return Optional.fromNullable(manager.get().jobs.get(jobKey));
+      return Optional.fromNullable(jobs.get(jobKey));
     }
   }
 
   @Override
   public Set<String> fetchManagerIds() {
-    return ImmutableSet.copyOf(managers.asMap().keySet());
-  }
-
-  private static class Manager {
-    private final Map<IJobKey, IJobConfiguration> jobs = Maps.newConcurrentMap();
+    return managers.keySet();
   }
 }
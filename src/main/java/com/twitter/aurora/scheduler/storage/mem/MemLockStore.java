@@ -15,12 +15,12 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.Map;
 import java.util.Set;
 
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.scheduler.storage.LockStore;
 import com.twitter.aurora.scheduler.storage.entities.ILock;
@@ -31,7 +31,17 @@ import com.twitter.aurora.scheduler.storage.entities.ILockKey;
  */
 class MemLockStore implements LockStore.Mutable {
 
-  private final Map<ILockKey, ILock> locks = Maps.newConcurrentMap();
+  private final VersionedMap<ILockKey, ILock> locks;
+
+  @Inject
+  MemLockStore(Versions versions) {
+    locks = new VersionedMap<>(versions);
+  }
+
+  @VisibleForTesting
+  MemLockStore() {
+    this(new Versions());
+  }
 
   @Override
   public void saveLock(ILock lock) {
@@ -50,7 +60,7 @@ class MemLockStore implements LockStore.Mutable {
 
   @Override
   public Set<ILock> fetchLocks() {
-    return ImmutableSet.copyOf(locks.values());
+    return locks.values().toSet();
   }
 
   @Override
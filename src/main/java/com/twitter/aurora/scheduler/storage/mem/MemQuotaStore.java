@@ -17,9 +17,9 @@ package com.twitter.aurora.scheduler.storage.mem;
 
 import java.util.Map;
 
+import javax.inject.Inject;
+
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.scheduler.storage.QuotaStore;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
@@ -31,7 +31,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 class MemQuotaStore implements QuotaStore.Mutable {
 
-  private final Map<String, IQuota> quotas = Maps.newConcurrentMap();
+  private final VersionedMap<String, IQuota> quotas;
+
+  @Inject
+  MemQuotaStore(Versions versions) {
+    quotas = new VersionedMap<>(versions);
+  }
 
   @Override
   public void deleteQuotas() {
@@ -61,6 +66,6 @@ class MemQuotaStore implements QuotaStore.Mutable {
 
   @Override
   public Map<String, IQuota> fetchQuotas() {
-    return ImmutableMap.copyOf(quotas);
+    return quotas.snapshot();
   }
 }
@@ -19,13 +19,10 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
-import com.google.common.annotations.VisibleForTesting;
-
 import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.JobStore;
 import com.twitter.aurora.scheduler.storage.LockStore;
 import com.twitter.aurora.scheduler.storage.QuotaStore;
-import com.twitter.aurora.scheduler.storage.ReadWriteLockManager;
 import com.twitter.aurora.scheduler.storage.SchedulerStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.TaskStore;
@@ -37,22 +34,24 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A storage implementation comprised of individual in-memory store implementations.
  * <p>
- * This storage has a global read-write lock, which is used when invoking
- * {@link #consistentRead(Work)} and {@link #write(MutateWork)}.  However, no locks are used at this
- * level for {@link #weaklyConsistentRead(Work)}. It is the responsibility of the
- * individual stores to ensure that read operations are thread-safe (optimally supporting
- * concurrency).  Store implementations may assume that all methods invoked on {@code Mutable}
- * store interfaces are protected by the global write lock, and thus invoked serially.
+ * This storage has a global write lock, which is used when invoking {@link #write(MutateWork)}.
+ * {@link #consistentRead(Work)} takes no lock, and instead observes the stores as of the last
+ * write committed when the read started (see {@link Versions}).  No versioning is applied for
+ * {@link #weaklyConsistentRead(Work)}, which observes the latest state of the stores.  It is the
+ * responsibility of the individual stores to ensure that read operations are thread-safe
+ * (optimally supporting concurrency).  Store implementations may assume that all methods invoked
+ * on {@code Mutable} store interfaces are protected by the global write lock, and thus invoked
+ * serially.
  */
 public class MemStorage implements Storage {
-  private final AtomicLong readLockWaitNanos = Stats.exportLong("read_lock_wait_nanos");
   private final AtomicLong writeLockWaitNanos = Stats.exportLong("write_lock_wait_nanos");
 
   private final MutableStoreProvider storeProvider;
-  private final ReadWriteLockManager lockManager = new ReadWriteLockManager();
+  private final Versions versions;
 
   @Inject
   MemStorage(
+      Versions versions,
       final SchedulerStore.Mutable schedulerStore,
       final JobStore.Mutable jobStore,
       final TaskStore.Mutable taskStore,
@@ -60,6 +59,7 @@ public class MemStorage implements Storage {
       final QuotaStore.Mutable quotaStore,
       final AttributeStore.Mutable attributeStore) {
 
+    this.versions = checkNotNull(versions);
     storeProvider = new MutableStoreProvider() {
       @Override public SchedulerStore.Mutable getSchedulerStore() {
         return schedulerStore;
@@ -92,17 +92,19 @@ public class MemStorage implements Storage {
   }
 
   /**
-   * Creates a new empty in-memory storage for use in testing.
+   * Creates a new empty in-memory storage, for use in testing and to stage streamed snapshots
+   * before they are applied.
    */
-  @VisibleForTesting
   public static MemStorage newEmptyStorage() {
+    Versions versions = new Versions();
     return new MemStorage(
+        versions,
         new MemSchedulerStore(),
-        new MemJobStore(),
-        new MemTaskStore(),
-        new MemLockStore(),
-        new MemQuotaStore(),
-        new MemAttributeStore());
+        new MemJobStore(versions),
+        new MemTaskStore(versions),
+        new MemLockStore(versions),
+        new MemQuotaStore(versions),
+        new MemAttributeStore(versions));
   }
 
   @Timed("mem_storage_consistent_read_operation")
@@ -110,15 +112,11 @@ public class MemStorage implements Storage {
   public <T, E extends Exception> T consistentRead(Work<T, E> work) throws StorageException, E {
     checkNotNull(work);
 
-    long lockStartNanos = System.nanoTime();
-    boolean topLevelOperation = lockManager.readLock();
-    if (topLevelOperation) {
-      readLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
-    }
+    versions.beginRead();
     try {
       return work.apply(storeProvider);
     } finally {
-      lockManager.readUnlock();
+      versions.endRead();
     }
   }
 
@@ -138,14 +136,14 @@ public class MemStorage implements Storage {
     checkNotNull(work);
 
     long lockStartNanos = System.nanoTime();
-    boolean topLevelOperation = lockManager.writeLock();
+    boolean topLevelOperation = versions.beginWrite();
     if (topLevelOperation) {
       writeLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
     }
     try {
       return work.apply(storeProvider);
     } finally {
-      lockManager.writeUnlock();
+      versions.endWrite();
     }
   }
 
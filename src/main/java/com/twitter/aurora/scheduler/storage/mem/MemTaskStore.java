@@ -15,15 +15,16 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.Collection;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
-import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -32,12 +33,11 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.TaskQuery;
@@ -60,6 +60,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * An in-memory task store.
+ * <p>
+ * Tasks are versioned, such that consistent reads observe the tasks as of the write committed
+ * when they started.  Secondary indices are not versioned.  Stale index entries are retained
+ * until no read may observe the version of the task they refer to, so the indices always yield
+ * a superset of the matching tasks, which are then filtered by the query.
  */
 class MemTaskStore implements TaskStore.Mutable {
 
@@ -72,9 +77,8 @@ class MemTaskStore implements TaskStore.Mutable {
 
   private final long slowQueryThresholdNanos = SLOW_QUERY_LOG_THRESHOLD.get().as(Time.NANOSECONDS);
 
-  private final Map<String, Task> tasks = Maps.newConcurrentMap();
-  private final Multimap<IJobKey, String> tasksByJobKey =
-      Multimaps.synchronizedSetMultimap(HashMultimap.<IJobKey, String>create());
+  private final Versions versions;
+  private final VersionedMap<String, Task> tasks;
 
   // An interner is used here to collapse equivalent TaskConfig instances into canonical instances.
   // Ideally this would fall out of the object hierarchy (TaskConfig being associated with the job
@@ -82,9 +86,40 @@ class MemTaskStore implements TaskStore.Mutable {
   private final Interner<TaskConfig, String> configInterner = new Interner<TaskConfig, String>();
 
   private final AtomicLong taskQueriesById = Stats.exportLong("task_queries_by_id");
-  private final AtomicLong taskQueriesByJob = Stats.exportLong("task_queries_by_job");
   private final AtomicLong taskQueriesAll = Stats.exportLong("task_queries_all");
 
+  // Secondary indices, consulted by the query planner in matches() to avoid scanning all tasks.
+  private final SecondaryIndex<IJobKey> jobIndex = new SecondaryIndex<>(
+      Tasks.SCHEDULED_TO_JOB_KEY,
+      QUERY_TO_JOB_KEY,
+      "task_queries_by_job");
+  private final SecondaryIndex<ScheduleStatus> statusIndex = new SecondaryIndex<>(
+      Tasks.GET_STATUS,
+      QUERY_TO_STATUSES,
+      "task_queries_by_status");
+  private final SecondaryIndex<String> slaveHostIndex = new SecondaryIndex<>(
+      TO_SLAVE_HOST,
+      QUERY_TO_SLAVE_HOST,
+      "task_queries_by_host");
+  private final SecondaryIndex<String> roleIndex = new SecondaryIndex<>(
+      TO_ROLE,
+      QUERY_TO_ROLE,
+      "task_queries_by_role");
+
+  private final List<SecondaryIndex<?>> secondaryIndices =
+      ImmutableList.<SecondaryIndex<?>>of(jobIndex, statusIndex, slaveHostIndex, roleIndex);
+
+  @Inject
+  MemTaskStore(Versions versions) {
+    this.versions = checkNotNull(versions);
+    this.tasks = new VersionedMap<>(versions);
+  }
+
+  @VisibleForTesting
+  MemTaskStore() {
+    this(new Versions());
+  }
+
   @Timed("mem_storage_fetch_tasks")
   @Override
   public ImmutableSet<IScheduledTask> fetchTasks(Query.Builder query) {
@@ -116,22 +151,39 @@ class MemTaskStore implements TaskStore.Mutable {
     Preconditions.checkState(Tasks.ids(newTasks).size() == newTasks.size(),
         "Proposed new tasks would create task ID collision.");
 
-    Iterable<Task> canonicalized = Iterables.transform(newTasks, toTask);
-    tasks.putAll(Maps.uniqueIndex(canonicalized, TO_ID));
-    tasksByJobKey.putAll(taskIdsByJobKey(canonicalized));
+    for (Task task : Iterables.transform(newTasks, toTask)) {
+      store(task);
+    }
   }
 
-  private Multimap<IJobKey, String> taskIdsByJobKey(Iterable<Task> toIndex) {
-    return Multimaps.transformValues(
-        Multimaps.index(toIndex, Functions.compose(Tasks.SCHEDULED_TO_JOB_KEY, TO_SCHEDULED)),
-        TO_ID);
+  private void store(Task task) {
+    Task replaced = tasks.getLatest(Tasks.id(task.task));
+    tasks.put(Tasks.id(task.task), task);
+    for (SecondaryIndex<?> index : secondaryIndices) {
+      if (replaced != null) {
+        index.remove(replaced.task);
+      }
+      index.insert(task.task);
+    }
+  }
+
+  private void delete(String id) {
+    Task removed = tasks.getLatest(id);
+    if (removed != null) {
+      tasks.remove(id);
+      for (SecondaryIndex<?> index : secondaryIndices) {
+        index.remove(removed.task);
+      }
+      configInterner.removeAssociation(removed.task.getAssignedTask().getTask().newBuilder(), id);
+    }
   }
 
   @Timed("mem_storage_delete_all_tasks")
   @Override
   public void deleteAllTasks() {
-    tasks.clear();
-    tasksByJobKey.clear();
+    for (String id : ImmutableSet.copyOf(Iterables.transform(tasks.values(), TO_ID))) {
+      delete(id);
+    }
     configInterner.clear();
   }
 
@@ -141,11 +193,7 @@ class MemTaskStore implements TaskStore.Mutable {
     checkNotNull(taskIds);
 
     for (String id : taskIds) {
-      Task removed = tasks.remove(id);
-      if (removed != null) {
-        tasksByJobKey.remove(Tasks.SCHEDULED_TO_JOB_KEY.apply(removed.task), id);
-        configInterner.removeAssociation(removed.task.getAssignedTask().getTask().newBuilder(), id);
-      }
+      delete(id);
     }
   }
 
@@ -165,7 +213,7 @@ class MemTaskStore implements TaskStore.Mutable {
         Preconditions.checkState(
             Tasks.id(original).equals(Tasks.id(maybeMutated)),
             "A task's ID may not be mutated.");
-        tasks.put(Tasks.id(maybeMutated), toTask.apply(maybeMutated));
+        store(toTask.apply(maybeMutated));
         mutated.add(maybeMutated);
       }
     }
@@ -179,13 +227,13 @@ class MemTaskStore implements TaskStore.Mutable {
     MorePreconditions.checkNotBlank(taskId);
     checkNotNull(taskConfiguration);
 
-    Task stored = tasks.get(taskId);
+    Task stored = tasks.getLatest(taskId);
     if (stored == null) {
       return false;
     } else {
       ScheduledTask updated = stored.task.newBuilder();
       updated.getAssignedTask().setTask(taskConfiguration.newBuilder());
-      tasks.put(taskId, toTask.apply(IScheduledTask.build(updated)));
+      store(toTask.apply(IScheduledTask.build(updated)));
       return true;
     }
   }
@@ -258,26 +306,62 @@ class MemTaskStore implements TaskStore.Mutable {
   private FluentIterable<IScheduledTask> matches(TaskQuery query) {
     // Apply the query against the working set.
     Iterable<Task> from;
-    Optional<IJobKey> jobKey = JobKeys.from(Query.arbitrary(query));
     if (query.isSetTaskIds()) {
       taskQueriesById.incrementAndGet();
       from = fromIdIndex(query.getTaskIds());
-    } else if (jobKey.isPresent()) {
-      taskQueriesByJob.incrementAndGet();
-      Collection<String> taskIds = tasksByJobKey.get(jobKey.get());
-      if (taskIds == null) {
-        from = ImmutableList.of();
+    } else {
+      Optional<SecondaryIndex<?>> index = mostSelectiveIndex(query);
+      if (index.isPresent()) {
+        index.get().hitCount.incrementAndGet();
+        from = fromIdIndex(index.get().getMatches(query).get());
       } else {
-        from = fromIdIndex(taskIds);
+        taskQueriesAll.incrementAndGet();
+        from = tasks.values();
       }
-    } else {
-      taskQueriesAll.incrementAndGet();
-      from = tasks.values();
     }
 
     return FluentIterable.from(from).transform(TO_SCHEDULED).filter(queryFilter(query));
   }
 
+  /**
+   * Selects the secondary index that yields the fewest candidate tasks for a query.  Indices are
+   * compared by their match counts, so only the selected index has its matches copied.
+   *
+   * @param query Query to plan.
+   * @return The most selective applicable index, or absent if no index applies to the query.
+   */
+  private Optional<SecondaryIndex<?>> mostSelectiveIndex(TaskQuery query) {
+    SecondaryIndex<?> selected = null;
+    int selectedCount = 0;
+    for (SecondaryIndex<?> index : secondaryIndices) {
+      Optional<Integer> count = index.countMatches(query);
+      if (count.isPresent() && ((selected == null) || (count.get() < selectedCount))) {
+        selected = index;
+        selectedCount = count.get();
+      }
+    }
+    return Optional.<SecondaryIndex<?>>fromNullable(selected);
+  }
+
+  /**
+   * Fetches the name of the secondary index the query planner would use for a query.
+   *
+   * @param query Query to plan.
+   * @return Stat name of the selected index, or absent if no index applies to the query.
+   */
+  @VisibleForTesting
+  Optional<String> getSelectedIndex(Query.Builder query) {
+    Optional<SecondaryIndex<?>> index = mostSelectiveIndex(query.get());
+    return index.isPresent() ? Optional.of(index.get().name) : Optional.<String>absent();
+  }
+
+  private static final Function<Task, String> TO_ID =
+      new Function<Task, String>() {
+        @Override public String apply(Task task) {
+          return Tasks.id(task.task);
+        }
+      };
+
   private static final Function<Task, IScheduledTask> TO_SCHEDULED =
       new Function<Task, IScheduledTask>() {
         @Override public IScheduledTask apply(Task task) {
@@ -285,8 +369,155 @@ class MemTaskStore implements TaskStore.Mutable {
         }
       };
 
-  private static final Function<Task, String> TO_ID =
-      Functions.compose(Tasks.SCHEDULED_TO_ID, TO_SCHEDULED);
+  private static final Function<TaskQuery, Optional<Set<IJobKey>>> QUERY_TO_JOB_KEY =
+      new Function<TaskQuery, Optional<Set<IJobKey>>>() {
+        @Override public Optional<Set<IJobKey>> apply(TaskQuery query) {
+          Optional<IJobKey> jobKey = JobKeys.from(Query.arbitrary(query));
+          return jobKey.isPresent()
+              ? Optional.<Set<IJobKey>>of(ImmutableSet.of(jobKey.get()))
+              : Optional.<Set<IJobKey>>absent();
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<ScheduleStatus>>> QUERY_TO_STATUSES =
+      new Function<TaskQuery, Optional<Set<ScheduleStatus>>>() {
+        @Override public Optional<Set<ScheduleStatus>> apply(TaskQuery query) {
+          return (query.getStatusesSize() > 0)
+              ? Optional.of(query.getStatuses())
+              : Optional.<Set<ScheduleStatus>>absent();
+        }
+      };
+
+  private static final Function<IScheduledTask, String> TO_SLAVE_HOST =
+      new Function<IScheduledTask, String>() {
+        @Override public String apply(IScheduledTask task) {
+          return task.getAssignedTask().getSlaveHost();
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<String>>> QUERY_TO_SLAVE_HOST =
+      new Function<TaskQuery, Optional<Set<String>>>() {
+        @Override public Optional<Set<String>> apply(TaskQuery query) {
+          return StringUtils.isEmpty(query.getSlaveHost())
+              ? Optional.<Set<String>>absent()
+              : Optional.<Set<String>>of(ImmutableSet.of(query.getSlaveHost()));
+        }
+      };
+
+  private static final Function<IScheduledTask, String> TO_ROLE =
+      new Function<IScheduledTask, String>() {
+        @Override public String apply(IScheduledTask task) {
+          return Tasks.getRole(task);
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<String>>> QUERY_TO_ROLE =
+      new Function<TaskQuery, Optional<Set<String>>>() {
+        @Override public Optional<Set<String>> apply(TaskQuery query) {
+          return ((query.getOwner() == null) || StringUtils.isBlank(query.getOwner().getRole()))
+              ? Optional.<Set<String>>absent()
+              : Optional.<Set<String>>of(ImmutableSet.of(query.getOwner().getRole()));
+        }
+      };
+
+  /**
+   * A maintained mapping from a task attribute to the IDs of tasks with that attribute value.
+   * Index mutations are performed under the global storage write lock, but reads may be issued
+   * concurrently, so all access is synchronized on the backing map.
+   * <p>
+   * Removal of an entry is deferred until no read may observe the task it was added for, and
+   * the entry is kept if the latest version of the task has the indexed value again.
+   *
+   * @param <K> Type of the indexed attribute.
+   */
+  private class SecondaryIndex<K> {
+    private final Multimap<K, String> index = HashMultimap.create();
+    private final Function<IScheduledTask, K> indexer;
+    private final Function<TaskQuery, Optional<Set<K>>> queryExtractor;
+    private final String name;
+    private final AtomicLong hitCount;
+
+    SecondaryIndex(
+        Function<IScheduledTask, K> indexer,
+        Function<TaskQuery, Optional<Set<K>>> queryExtractor,
+        String name) {
+
+      this.indexer = checkNotNull(indexer);
+      this.queryExtractor = checkNotNull(queryExtractor);
+      this.name = checkNotNull(name);
+      this.hitCount = Stats.exportLong(name);
+    }
+
+    void insert(IScheduledTask task) {
+      K key = indexer.apply(task);
+      if (key != null) {
+        synchronized (index) {
+          index.put(key, Tasks.id(task));
+        }
+      }
+    }
+
+    void remove(IScheduledTask task) {
+      final K key = indexer.apply(task);
+      if (key != null) {
+        final String id = Tasks.id(task);
+        versions.onReleased(versions.getWriteVersion(), new Runnable() {
+          @Override public void run() {
+            Task latest = tasks.getLatest(id);
+            if ((latest == null) || !key.equals(indexer.apply(latest.task))) {
+              synchronized (index) {
+                index.remove(key, id);
+              }
+            }
+          }
+        });
+      }
+    }
+
+    /**
+     * Counts the tasks that may match a query according to this index, without copying them.
+     *
+     * @param query Query to match.
+     * @return The number of tasks matching the indexed field of the query, or absent if the query
+     *     does not constrain the indexed field.
+     */
+    Optional<Integer> countMatches(TaskQuery query) {
+      Optional<Set<K>> keys = queryExtractor.apply(query);
+      if (!keys.isPresent()) {
+        return Optional.absent();
+      }
+
+      int count = 0;
+      synchronized (index) {
+        for (K key : keys.get()) {
+          count += index.get(key).size();
+        }
+      }
+      return Optional.of(count);
+    }
+
+    /**
+     * Fetches the IDs of all tasks that may match a query according to this index.
+     *
+     * @param query Query to match.
+     * @return A copy of the IDs of tasks matching the indexed field of the query, or absent if the
+     *     query does not constrain the indexed field.
+     */
+    Optional<Set<String>> getMatches(TaskQuery query) {
+      Optional<Set<K>> keys = queryExtractor.apply(query);
+      if (!keys.isPresent()) {
+        return Optional.absent();
+      }
+
+      ImmutableSet.Builder<String> matches = ImmutableSet.builder();
+      synchronized (index) {
+        for (K key : keys.get()) {
+          matches.addAll(index.get(key));
+        }
+      }
+      return Optional.<Set<String>>of(matches.build());
+    }
+  }
 
   private static class Task {
     private final IScheduledTask task;
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A map whose entries are versioned, such that consistent reads observe the entries as of the
+ * version they started at while writes proceed.
+ * <p>
+ * Each key maps to a chain of entries, newest first.  A write replaces the head of the chain,
+ * and the superseded entries are truncated from the chain once no read may observe them.
+ * Mutations must be serialized, as they are by the storage write lock.  Reads may be issued
+ * concurrently.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+class VersionedMap<K, V> {
+
+  private static class Entry<V> {
+    private final long version;
+    // Null when the entry records the removal of the key.
+    @Nullable private final V value;
+    @Nullable private volatile Entry<V> previous;
+
+    Entry(long version, @Nullable V value, @Nullable Entry<V> previous) {
+      this.version = version;
+      this.value = value;
+      this.previous = previous;
+    }
+  }
+
+  private final Versions versions;
+  private final ConcurrentMap<K, Entry<V>> entries = Maps.newConcurrentMap();
+
+  VersionedMap(Versions versions) {
+    this.versions = checkNotNull(versions);
+  }
+
+  @Nullable
+  private static <V> V getVisible(@Nullable Entry<V> head, long version) {
+    Entry<V> entry = head;
+    while ((entry != null) && (entry.version > version)) {
+      entry = entry.previous;
+    }
+    return (entry == null) ? null : entry.value;
+  }
+
+  /**
+   * Gets the value of a key observable by the calling thread.
+   *
+   * @param key Key to look up.
+   * @return The value associated with {@code key}, or {@code null} if there is none.
+   */
+  @Nullable
+  V get(K key) {
+    return getVisible(entries.get(key), versions.getReadVersion());
+  }
+
+  /**
+   * Gets the latest value of a key, including uncommitted values.
+   *
+   * @param key Key to look up.
+   * @return The latest value associated with {@code key}, or {@code null} if there is none.
+   */
+  @Nullable
+  V getLatest(K key) {
+    Entry<V> head = entries.get(key);
+    return (head == null) ? null : head.value;
+  }
+
+  /**
+   * Gets a live view of the values observable by the calling thread.
+   *
+   * @return Observable values.
+   */
+  FluentIterable<V> values() {
+    final long version = versions.getReadVersion();
+    return FluentIterable.from(entries.values())
+        .transform(new Function<Entry<V>, V>() {
+          @Override public V apply(Entry<V> head) {
+            return getVisible(head, version);
+          }
+        })
+        .filter(Predicates.notNull());
+  }
+
+  /**
+   * Gets the keys with values observable by the calling thread.
+   *
+   * @return Observable keys.
+   */
+  ImmutableSet<K> keySet() {
+    return snapshot().keySet();
+  }
+
+  /**
+   * Gets a copy of the entries observable by the calling thread.
+   *
+   * @return Observable entries.
+   */
+  ImmutableMap<K, V> snapshot() {
+    long version = versions.getReadVersion();
+    ImmutableMap.Builder<K, V> snapshot = ImmutableMap.builder();
+    for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+      V value = getVisible(entry.getValue(), version);
+      if (value != null) {
+        snapshot.put(entry.getKey(), value);
+      }
+    }
+    return snapshot.build();
+  }
+
+  /**
+   * Associates a value with a key.
+   *
+   * @param key Key to associate.
+   * @param value Value to associate with {@code key}.
+   */
+  void put(K key, V value) {
+    set(key, checkNotNull(value));
+  }
+
+  /**
+   * Removes the value associated with a key.
+   *
+   * @param key Key to remove.
+   */
+  void remove(K key) {
+    if (getLatest(key) != null) {
+      set(key, null);
+    }
+  }
+
+  /**
+   * Removes all values.
+   */
+  void clear() {
+    for (K key : entries.keySet()) {
+      remove(key);
+    }
+  }
+
+  private void set(final K key, @Nullable V value) {
+    final long version = versions.getWriteVersion();
+    Entry<V> head = entries.get(key);
+    // Entries written earlier by the same write have never been observable by other threads.
+    Entry<V> previous = ((head != null) && (head.version == version)) ? head.previous : head;
+    entries.put(key, new Entry<V>(version, value, previous));
+    if ((previous != null) || (value == null)) {
+      versions.onReleased(version, new Runnable() {
+        @Override public void run() {
+          release(key, version);
+        }
+      });
+    }
+  }
+
+  private void release(K key, long version) {
+    Entry<V> head = entries.get(key);
+    Entry<V> entry = head;
+    while ((entry != null) && (entry.version > version)) {
+      entry = entry.previous;
+    }
+    if (entry != null) {
+      entry.previous = null;
+      if ((entry == head) && (entry.value == null)) {
+        entries.remove(key, head);
+      }
+    }
+  }
+}
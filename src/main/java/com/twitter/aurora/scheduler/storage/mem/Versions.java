@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Queues;
+import com.google.common.collect.TreeMultiset;
+
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tracks the versions of the in-memory stores, allowing consistent reads to observe a
+ * point-in-time view of storage without blocking writers.
+ * <p>
+ * Each top-level write is assigned the version following the last committed version, and
+ * store entries written by it are stamped with that version.  The version is committed when the
+ * write completes.  A top-level consistent read observes the entries stamped with the last
+ * committed version at the time the read started, or earlier.  Writers are serialized, and
+ * observe their own uncommitted entries.  Threads outside of a transaction observe the latest
+ * entries, as weakly consistent reads always have.
+ * <p>
+ * Superseded entries are retained while a read that may observe them is active.  Stores
+ * register an action to release them with {@link #onReleased(long, Runnable)}, which is run once
+ * no active read precedes the version that superseded them.
+ */
+class Versions {
+
+  /**
+   * Version observed by threads outside of a transaction.
+   */
+  static final long LATEST = Long.MAX_VALUE;
+
+  private enum Mode {
+    NONE,
+    READ,
+    WRITE
+  }
+
+  private static class Transaction {
+    private Mode mode = Mode.NONE;
+    private long version;
+    private int depth;
+  }
+
+  private static class Release {
+    private final long version;
+    private final Runnable action;
+
+    Release(long version, Runnable action) {
+      this.version = version;
+      this.action = action;
+    }
+  }
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final AtomicLong committed = new AtomicLong();
+  // Versions observed by active top-level reads, guarded by itself.
+  private final TreeMultiset<Long> activeReads = TreeMultiset.create();
+  private final Queue<Release> pendingReleases = Queues.newConcurrentLinkedQueue();
+  private final AtomicInteger retainedVersions = new AtomicInteger();
+
+  private final ThreadLocal<Transaction> transaction = new ThreadLocal<Transaction>() {
+    @Override protected Transaction initialValue() {
+      return new Transaction();
+    }
+  };
+
+  Versions() {
+    Stats.export(new StatImpl<Integer>("mem_storage_retained_versions") {
+      @Override public Integer read() {
+        return retainedVersions.get();
+      }
+    });
+    Stats.export(new StatImpl<Long>("mem_storage_oldest_read_version_lag") {
+      @Override public Long read() {
+        long current = committed.get();
+        return current - getReleaseHorizon(current);
+      }
+    });
+  }
+
+  /**
+   * Begins a consistent read on the calling thread.
+   *
+   * @return {@code true} if this is a top-level read, {@code false} if the thread is already in a
+   *     transaction.
+   */
+  boolean beginRead() {
+    Transaction current = transaction.get();
+    boolean topLevel = current.mode == Mode.NONE;
+    if (topLevel) {
+      synchronized (activeReads) {
+        current.version = committed.get();
+        activeReads.add(current.version);
+      }
+      current.mode = Mode.READ;
+    }
+    current.depth++;
+    return topLevel;
+  }
+
+  /**
+   * Ends a consistent read on the calling thread.
+   */
+  void endRead() {
+    Transaction current = transaction.get();
+    current.depth--;
+    if ((current.depth == 0) && (current.mode == Mode.READ)) {
+      synchronized (activeReads) {
+        activeReads.remove(current.version);
+      }
+      current.mode = Mode.NONE;
+    }
+  }
+
+  /**
+   * Blocks until the calling thread may write, and begins a write.
+   *
+   * @return {@code true} if this is a top-level write, {@code false} if the thread is already
+   *     writing.
+   */
+  boolean beginWrite() {
+    Transaction current = transaction.get();
+    Preconditions.checkState(current.mode != Mode.READ,
+        "A read operation may not be upgraded to a write operation.");
+
+    writeLock.lock();
+    boolean topLevel = current.mode == Mode.NONE;
+    if (topLevel) {
+      current.mode = Mode.WRITE;
+      current.version = committed.get() + 1;
+    }
+    current.depth++;
+    return topLevel;
+  }
+
+  /**
+   * Ends a write on the calling thread, committing its version if it is a top-level write.
+   */
+  void endWrite() {
+    Transaction current = transaction.get();
+    try {
+      current.depth--;
+      if (current.depth == 0) {
+        committed.set(current.version);
+        current.mode = Mode.NONE;
+        releaseUnobservable();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the version of entries observable by the calling thread.
+   *
+   * @return The version of a consistent read in progress, or {@link #LATEST}.
+   */
+  long getReadVersion() {
+    Transaction current = transaction.get();
+    return (current.mode == Mode.READ) ? current.version : LATEST;
+  }
+
+  /**
+   * Gets the version to stamp entries written by the calling thread with.  Writes issued outside
+   * of a write transaction are stamped with the last committed version.
+   *
+   * @return Version of the write in progress.
+   */
+  long getWriteVersion() {
+    Transaction current = transaction.get();
+    return (current.mode == Mode.WRITE) ? current.version : committed.get();
+  }
+
+  /**
+   * Registers an action to run once no active read may observe versions preceding
+   * {@code version}.
+   *
+   * @param version Version that superseded the state released by {@code action}.
+   * @param action Action to release superseded state.
+   */
+  void onReleased(long version, Runnable action) {
+    checkNotNull(action);
+
+    pendingReleases.add(new Release(version, action));
+    retainedVersions.incrementAndGet();
+    if (transaction.get().mode != Mode.WRITE) {
+      releaseUnobservable();
+    }
+  }
+
+  private long getReleaseHorizon(long current) {
+    synchronized (activeReads) {
+      return activeReads.isEmpty() ? current : activeReads.firstEntry().getElement();
+    }
+  }
+
+  private synchronized void releaseUnobservable() {
+    long horizon = getReleaseHorizon(committed.get());
+    Release release = pendingReleases.peek();
+    while ((release != null) && (release.version <= horizon)) {
+      pendingReleases.poll();
+      retainedVersions.decrementAndGet();
+      release.action.run();
+      release = pendingReleases.peek();
+    }
+  }
+}
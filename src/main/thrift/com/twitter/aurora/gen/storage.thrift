@@ -53,6 +53,30 @@ struct RemoveTasks {
   1: set<string> taskIds
 }
 
+// A change to a stored task, recorded relative to the stored task rather than as the complete task.
+struct TaskStateDelta {
+  1: string taskId
+  2: api.ScheduleStatus status
+  // Events appended to the end of the task's event history.
+  3: list<api.TaskEvent> appendedEvents
+  4: i32 failureCount
+  // The slave assignment of the task, only set when the task is assigned.
+  5: optional string slaveId
+  6: optional string slaveHost
+  7: optional map<string, i32> assignedPorts
+  // The status and number of events of the task the delta was recorded against.  A delta is only
+  // applied to a task in that state, so that replaying it over newer state has no effect.
+  8: optional api.ScheduleStatus priorStatus
+  9: optional i32 priorEventCount
+}
+
+// A compact alternative to SaveTasks for task state transitions.  Deltas are applied in order to
+// the stored tasks, and deltas for tasks that are not stored or are no longer in the state the
+// delta was recorded against are ignored.
+struct ChangeTaskStates {
+  1: list<TaskStateDelta> deltas
+}
+
 struct SaveQuota {
   1: string role
   2: api.Quota quota
@@ -78,11 +102,14 @@ union Op {
   11: RewriteTask rewriteTask
   12: SaveLock saveLock
   13: RemoveLock removeLock
+  14: ChangeTaskStates changeTaskStates
 }
 
 // The current schema version ID.  This should be incremented each time the
 // schema is changed, and support code for schema migrations should be added.
-const i32 CURRENT_SCHEMA_VERSION = 1
+// Version 2 adds ChangeTaskStates ops.  Transactions with a newer schema version than the reader
+// supports are rejected during recovery.
+const i32 CURRENT_SCHEMA_VERSION = 2
 
 // Represents a series of local storage mutations that should be applied in a single atomic
 // transaction.
@@ -116,6 +143,16 @@ struct QuotaConfiguration {
   2: api.Quota quota
 }
 
+// A task whose configuration is stored in a table of task configurations alongside it, to avoid
+// repeating configurations shared by many tasks.
+struct StoredTask {
+  // The task, with its configuration (assignedTask.task) unset.
+  1: api.ScheduledTask task
+
+  // Key of the task's configuration in the table, unset if the task has no configuration.
+  2: optional string configKey
+}
+
 // Represents a complete snapshot of local storage data suitable for restoring the local storage
 // system to its state at the time the snapshot was taken.
 struct Snapshot {
@@ -129,6 +166,39 @@ struct Snapshot {
   6: SchedulerMetadata schedulerMetadata
   8: set<QuotaConfiguration> quotaConfigurations
   9: set<api.Lock> locks
+  // Task configurations referenced by storedTasks, keyed by a hash of their contents.  Only
+  // written when task configurations are deduplicated, otherwise tasks are stored in tasks.
+  10: map<string, api.TaskConfig> taskConfigs
+  11: set<StoredTask> storedTasks
+}
+
+// A bounded-size section of a snapshot that is streamed to the log as a series of entries rather
+// than as a single Snapshot.  Parts are applied to a staging store as they are read, and the
+// staging store replaces local storage only once the snapshot's complete part is read following
+// all of its preceding parts.  Parts of a snapshot that is never completed are discarded.
+// Snapshots are captured while transactions continue to be logged, so transactions preceding a
+// snapshot in the log are applied again once it is complete.
+struct SnapshotPart {
+  // The timestamp when the snapshot was made in milliseconds since the epoch, shared by all parts
+  // of a snapshot.
+  1: i64 timestamp
+
+  // The sequence number of this part within its snapshot, starting from 0.
+  2: i32 index
+
+  // Whether this is the final part of the snapshot.
+  3: bool complete
+
+  4: set<api.HostAttributes> hostAttributes
+  5: set<api.ScheduledTask> tasks
+  6: set<StoredJob> jobs
+  7: SchedulerMetadata schedulerMetadata
+  8: set<QuotaConfiguration> quotaConfigurations
+  9: set<api.Lock> locks
+  // Task configurations referenced by storedTasks in this part, so that each part can be applied
+  // on its own.
+  10: map<string, api.TaskConfig> taskConfigs
+  11: set<StoredTask> storedTasks
 }
 
 // A message header that calls out the number of expected FrameChunks to follow to form a complete
@@ -165,6 +235,14 @@ union Frame {
   2: FrameChunk chunk
 }
 
+// A LogEntry that is first serialized in the thrift binary format, then split into blocks that are
+// each compressed independently using the "deflate" compression format, allowing the blocks to be
+// compressed and inflated in parallel.  The serialized entry is recovered by concatenating the
+// inflated blocks in order.
+struct BlockDeflatedEntry {
+  1: list<binary> blocks
+}
+
 // A scheduler storage write-ahead log entry consisting of no-ops to skip over or else snapshots or
 // transactions to apply.  Any entry type can also be chopped up into frames if the entry is too big
 // for whatever reason.
@@ -182,5 +260,12 @@ union LogEntry {
   // Deflated entries are expected to be un-framed.  They may be pieced together by multiple frames,
   // but the contents of the deflated entry should not be a Frame.
   5: binary deflatedEntry
+
+  // A section of a snapshot that is streamed across several log entries.
+  6: SnapshotPart snapshotPart
+
+  // A LogEntry compressed in independently deflated blocks.  Like deflated entries, block deflated
+  // entries are expected to be un-framed, but may be pieced together by multiple frames.
+  7: BlockDeflatedEntry blockDeflatedEntry
 }
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.util.Providers;
+
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.state.StateManager;
+import com.twitter.aurora.scheduler.storage.CommitActions;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.LOST;
+
+public class DriverOutboxTest extends EasyMockTest {
+
+  private static final OfferID OFFER_ID = OfferID.newBuilder().setValue("offer-id").build();
+  private static final TaskInfo TASK = TaskInfo.newBuilder()
+      .setName("task-name")
+      .setTaskId(TaskID.newBuilder().setValue("task-id"))
+      .setSlaveId(SlaveID.newBuilder().setValue("slave-id"))
+      .build();
+
+  private Driver delegate;
+  private StateManager stateManager;
+  private List<Runnable> dispatches;
+  private Driver outbox;
+
+  @Before
+  public void setUp() {
+    delegate = createMock(Driver.class);
+    stateManager = createMock(StateManager.class);
+    dispatches = Lists.newArrayList();
+    Executor executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        dispatches.add(command);
+      }
+    };
+    outbox = new DriverOutbox(
+        delegate,
+        new CommitActions(),
+        Providers.of(stateManager),
+        executor);
+  }
+
+  private void dispatchAll() {
+    for (Runnable dispatch : dispatches) {
+      dispatch.run();
+    }
+    dispatches.clear();
+  }
+
+  @Test
+  public void testDispatchedInOrder() {
+    delegate.launchTasks(OFFER_ID, ImmutableList.of(TASK));
+    delegate.killTask("a");
+    delegate.declineOffer(OFFER_ID);
+
+    control.replay();
+
+    outbox.launchTask(OFFER_ID, TASK);
+    outbox.killTask("a");
+    outbox.declineOffer(OFFER_ID);
+
+    // Nothing is sent to the driver until the dispatch thread runs.
+    assertEquals(3, dispatches.size());
+    dispatchAll();
+  }
+
+  @Test
+  public void testDispatchFailure() {
+    delegate.killTask("a");
+    expectLastCall().andThrow(new IllegalStateException("Driver not running."));
+    delegate.killTask("b");
+
+    control.replay();
+
+    outbox.killTask("a");
+    outbox.killTask("b");
+    dispatchAll();
+  }
+
+  @Test
+  public void testLaunchFailureMovesTasksToLost() {
+    delegate.launchTasks(OFFER_ID, ImmutableList.of(TASK));
+    expectLastCall().andThrow(new IllegalStateException("Driver not running."));
+    expect(stateManager.changeState(
+        Query.taskScoped("task-id").byStatus(ASSIGNED),
+        LOST,
+        DriverOutbox.LAUNCH_FAILED_MSG))
+        .andReturn(1);
+
+    control.replay();
+
+    outbox.launchTask(OFFER_ID, TASK);
+    dispatchAll();
+  }
+
+  @Test
+  public void testLifecyclePassesThrough() {
+    delegate.stop();
+
+    control.replay();
+
+    outbox.stop();
+    assertEquals(0, dispatches.size());
+  }
+}
@@ -22,12 +22,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.testing.TearDown;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.TypeLiteral;
 
+import org.apache.mesos.Protos;
 import org.apache.mesos.Protos.FrameworkID;
 import org.apache.mesos.Protos.MasterInfo;
 import org.apache.mesos.Protos.Offer;
@@ -37,20 +39,26 @@ import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.TaskState;
 import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.Protos.Value.Text;
+import org.apache.mesos.Protos.Value.Type;
 import org.apache.mesos.SchedulerDriver;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.events.PubsubEvent;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StorageException;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
 import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
 import com.twitter.common.application.Lifecycle;
 import com.twitter.common.base.Closure;
@@ -106,6 +114,7 @@ public class MesosSchedulerImplTest extends EasyMockTest {
       .build();
 
   private StorageTestUtil storageUtil;
+  private Lifecycle lifecycle;
   private TaskLauncher systemLauncher;
   private TaskLauncher userLauncher;
   private SchedulerDriver driver;
@@ -116,7 +125,7 @@ public class MesosSchedulerImplTest extends EasyMockTest {
   @Before
   public void setUp() {
     storageUtil = new StorageTestUtil(this);
-    final Lifecycle lifecycle =
+    lifecycle =
         new Lifecycle(createMock(Command.class), createMock(UncaughtExceptionHandler.class));
     systemLauncher = createMock(TaskLauncher.class);
     userLauncher = createMock(TaskLauncher.class);
@@ -199,6 +208,59 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testHostAttributesChanged() throws Exception {
+    new OfferFixture() {
+      @Override void respondToOffer() throws Exception {
+        HostAttributes attributes = Conversions.getAttributes(OFFER);
+        HostAttributes previous = attributes.deepCopy()
+            .setAttributes(ImmutableSet.of(new Attribute("rack", ImmutableSet.of("a"))));
+        expect(storageUtil.attributeStore.getHostAttributes(SLAVE_HOST))
+            .andReturn(Optional.of(previous));
+        storageUtil.attributeStore.saveHostAttributes(attributes);
+        eventBus.execute(new HostAttributesChanged(attributes));
+        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+      }
+    }.run();
+  }
+
+  @Test
+  public void testHostAttributesChangedInMemStorage() throws Exception {
+    // The in-memory attribute store updates stored attributes in place, which must not mask
+    // a change.
+    MesosSchedulerImpl memScheduler = new MesosSchedulerImpl(
+        MemStorage.newEmptyStorage(),
+        createMock(SchedulerCore.class),
+        lifecycle,
+        Arrays.asList(systemLauncher, userLauncher),
+        eventBus);
+    Offer rackA = offerOnRack("a");
+    Offer rackB = offerOnRack("b");
+
+    expect(systemLauncher.createTask(rackA)).andReturn(Optional.<TaskInfo>absent()).times(2);
+    expect(userLauncher.createTask(rackA)).andReturn(Optional.<TaskInfo>absent()).times(2);
+    expect(systemLauncher.createTask(rackB)).andReturn(Optional.<TaskInfo>absent());
+    expect(userLauncher.createTask(rackB)).andReturn(Optional.<TaskInfo>absent());
+    eventBus.execute(new HostAttributesChanged(Conversions.getAttributes(rackB)));
+
+    control.replay();
+
+    memScheduler.registered(driver, FRAMEWORK, MasterInfo.getDefaultInstance());
+    memScheduler.resourceOffers(driver, ImmutableList.of(rackA));
+    memScheduler.resourceOffers(driver, ImmutableList.of(rackA));
+    memScheduler.resourceOffers(driver, ImmutableList.of(rackB));
+  }
+
+  private static Offer offerOnRack(String rack) {
+    return Offer.newBuilder(OFFER)
+        .addAttributes(Protos.Attribute.newBuilder()
+            .setName("rack")
+            .setType(Type.TEXT)
+            .setText(Text.newBuilder().setValue(rack)))
+        .build();
+  }
+
   @Test
   public void testStatusUpdateNoAccepts() throws Exception {
     new StatusFixture() {
@@ -257,6 +319,23 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testUnchangedAttributesNotSaved() throws Exception {
+    new RegisteredFixture() {
+      @Override void expectations() throws Exception {
+        // Attributes are saved once for the host, across offers and offer callbacks.
+        expectOfferAttributesSaved(OFFER);
+        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent()).times(3);
+        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent()).times(3);
+      }
+
+      @Override void test() {
+        scheduler.resourceOffers(driver, ImmutableList.of(OFFER, OFFER));
+        scheduler.resourceOffers(driver, ImmutableList.of(OFFER));
+      }
+    }.run();
+  }
+
   @Test
   public void testDisconnected() throws Exception {
     new RegisteredFixture() {
@@ -271,6 +350,8 @@ public class MesosSchedulerImplTest extends EasyMockTest {
   }
 
   private void expectOfferAttributesSaved(Offer offer) {
+    expect(storageUtil.attributeStore.getHostAttributes(offer.getHostname()))
+        .andReturn(Optional.<HostAttributes>absent());
     storageUtil.attributeStore.saveHostAttributes(Conversions.getAttributes(offer));
   }
 
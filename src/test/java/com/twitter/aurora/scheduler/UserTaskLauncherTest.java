@@ -15,12 +15,17 @@
  */
 package com.twitter.aurora.scheduler;
 
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.apache.mesos.Protos.Attribute;
 import org.apache.mesos.Protos.FrameworkID;
@@ -41,17 +46,24 @@ import org.junit.Test;
 
 import com.twitter.aurora.scheduler.async.OfferQueue;
 import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.storage.Storage.StorageException;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.application.Lifecycle;
+import com.twitter.common.base.Command;
 import com.twitter.common.collections.Pair;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import static com.twitter.aurora.gen.ScheduleStatus.FAILED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
 import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
 import static com.twitter.aurora.scheduler.configuration.ConfigurationManager.HOST_CONSTRAINT;
 
@@ -63,12 +75,18 @@ public class UserTaskLauncherTest extends EasyMockTest {
   private static final String SLAVE_HOST_1 = "SlaveHost1";
 
   private static final String TASK_ID_A = "task_id_a";
+  private static final String TASK_ID_B = "task_id_b";
+  private static final String TASK_ID_C = "task_id_c";
 
   private static final OfferID OFFER_ID = OfferID.newBuilder().setValue("OfferId").build();
   private static final Offer OFFER = createOffer(SLAVE_ID, SLAVE_HOST_1, 4, 1024, 1024);
 
   private OfferQueue offerQueue;
   private StateManager stateManager;
+  private StorageTestUtil storageUtil;
+  private Command shutdownCommand;
+  private Lifecycle lifecycle;
+  private List<Runnable> drains;
 
   private TaskLauncher launcher;
 
@@ -76,7 +94,39 @@ public class UserTaskLauncherTest extends EasyMockTest {
   public void setUp() {
     offerQueue = createMock(OfferQueue.class);
     stateManager = createMock(StateManager.class);
-    launcher = new UserTaskLauncher(offerQueue, stateManager);
+    storageUtil = new StorageTestUtil(this);
+    shutdownCommand = createMock(Command.class);
+    lifecycle = new Lifecycle(shutdownCommand, createMock(UncaughtExceptionHandler.class));
+    launcher = createLauncher(MoreExecutors.sameThreadExecutor(), 10);
+  }
+
+  private TaskLauncher createLauncher(Executor executor, int maxBatchSize) {
+    return new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        storageUtil.storage,
+        lifecycle,
+        executor,
+        100,
+        maxBatchSize);
+  }
+
+  private TaskLauncher createDeferredLauncher(int maxBatchSize) {
+    drains = Lists.newArrayList();
+    return createLauncher(
+        new Executor() {
+          @Override public void execute(Runnable command) {
+            drains.add(command);
+          }
+        },
+        maxBatchSize);
+  }
+
+  private static TaskStatus makeStatus(String taskId, TaskState state) {
+    return TaskStatus.newBuilder()
+        .setState(state)
+        .setTaskId(TaskID.newBuilder().setValue(taskId))
+        .build();
   }
 
   @Test
@@ -90,6 +140,7 @@ public class UserTaskLauncherTest extends EasyMockTest {
 
   @Test
   public void testForwardsStatusUpdates() throws Exception {
+    storageUtil.expectOperations();
     expect(
         stateManager.changeState(Query.taskScoped(TASK_ID_A), RUNNING, Optional.of("fake message")))
         .andReturn(1);
@@ -113,13 +164,15 @@ public class UserTaskLauncherTest extends EasyMockTest {
     launcher.cancelOffer(OFFER_ID);
   }
 
-  @Test(expected = StorageException.class)
+  @Test
   public void testFailedStatusUpdate() throws Exception {
+    storageUtil.expectOperations();
     expect(stateManager.changeState(
         Query.taskScoped(TASK_ID_A),
         RUNNING,
         Optional.of("fake message")))
         .andThrow(new StorageException("Injected error"));
+    shutdownCommand.execute();
 
     control.replay();
 
@@ -128,11 +181,77 @@ public class UserTaskLauncherTest extends EasyMockTest {
         .setTaskId(TaskID.newBuilder().setValue(TASK_ID_A))
         .setMessage("fake message")
         .build();
-    launcher.statusUpdate(status);
+    try {
+      launcher.statusUpdate(status);
+      fail("Failed status update should have been rejected.");
+    } catch (SchedulerException e) {
+      assertTrue(e.getCause() instanceof StorageException);
+    }
+
+    // Updates are rejected once an update has failed to apply.
+    try {
+      launcher.statusUpdate(makeStatus(TASK_ID_B, TaskState.TASK_FINISHED));
+      fail("Status update should have been rejected after a failure.");
+    } catch (SchedulerException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testBatchesStatusUpdates() throws Exception {
+    launcher = createDeferredLauncher(2);
+
+    storageUtil.expectOperations();
+    expect(stateManager.changeState(
+        Query.taskScoped(TASK_ID_A), RUNNING, Optional.<String>absent())).andReturn(1);
+    expect(stateManager.changeState(
+        Query.taskScoped(TASK_ID_B), RUNNING, Optional.<String>absent())).andReturn(1);
+    expect(stateManager.changeState(
+        Query.taskScoped(TASK_ID_A), FINISHED, Optional.<String>absent())).andReturn(1);
+
+    control.replay();
+
+    // Receiving an update does not wait for it to be applied, so updates accumulate into batches.
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_B, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_FINISHED)));
+
+    // Only one drain is scheduled while updates are pending.
+    assertEquals(1, drains.size());
+    drains.get(0).run();
+  }
+
+  @Test
+  public void testFailedBatchIsNotRetried() throws Exception {
+    launcher = createDeferredLauncher(10);
+
+    storageUtil.expectOperations();
+    expect(stateManager.changeState(
+        Query.taskScoped(TASK_ID_A), RUNNING, Optional.<String>absent())).andReturn(1);
+    expect(stateManager.changeState(
+        Query.taskScoped(TASK_ID_B), RUNNING, Optional.<String>absent()))
+        .andThrow(new StorageException("Injected error"));
+    shutdownCommand.execute();
+
+    control.replay();
+
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_B, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_C, TaskState.TASK_RUNNING)));
+
+    // The update applied before the failure is not applied again, and later updates are dropped.
+    drains.get(0).run();
+    try {
+      launcher.statusUpdate(makeStatus(TASK_ID_C, TaskState.TASK_FINISHED));
+      fail("Status update should have been rejected after a failure.");
+    } catch (SchedulerException e) {
+      assertTrue(e.getCause() instanceof StorageException);
+    }
   }
 
   @Test
   public void testMemoryLimitTranslationHack() throws Exception {
+    storageUtil.expectOperations();
     expect(stateManager.changeState(
         Query.taskScoped(TASK_ID_A),
         FAILED,
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest extends EasyMockTest {
+
+  private static final Amount<Long, Time> TICK = Amount.of(10L, Time.MILLISECONDS);
+  private static final int WHEEL_SIZE = 8;
+
+  private ScheduledExecutorService executor;
+  private FakeClock clock;
+  private HashedWheelTimer timer;
+  private List<String> ran;
+
+  @Before
+  public void setUp() {
+    executor = createMock(ScheduledExecutorService.class);
+    clock = new FakeClock();
+    // Ticks are driven manually rather than by the executor.
+    timer = new HashedWheelTimer(executor, clock, TICK, WHEEL_SIZE);
+    ran = Lists.newArrayList();
+  }
+
+  private Timer.Timeout schedule(final String name, long delayMillis) {
+    return timer.schedule(
+        new Runnable() {
+          @Override public void run() {
+            ran.add(name);
+          }
+        },
+        delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void advanceAndTick(long millis) {
+    clock.advance(Amount.of(millis, Time.MILLISECONDS));
+    timer.tick();
+  }
+
+  @Test
+  public void testStartAndStop() {
+    ScheduledFuture<?> ticker = createMock(ScheduledFuture.class);
+    executor.scheduleAtFixedRate(isA(Runnable.class), eq(10L), eq(10L), eq(TimeUnit.MILLISECONDS));
+    expectLastCall().andReturn(ticker);
+    expect(ticker.cancel(false)).andReturn(true);
+
+    control.replay();
+
+    timer.start();
+    timer.stop();
+  }
+
+  @Test
+  public void testNotRunEarly() {
+    control.replay();
+
+    schedule("a", 15);
+    advanceAndTick(10);
+    assertEquals(ImmutableList.<String>of(), ran);
+    advanceAndTick(4);
+    assertEquals(ImmutableList.<String>of(), ran);
+    advanceAndTick(6);
+    assertEquals(ImmutableList.of("a"), ran);
+
+    advanceAndTick(100);
+    assertEquals(ImmutableList.of("a"), ran);
+  }
+
+  @Test
+  public void testBeyondOneRevolution() {
+    control.replay();
+
+    long revolution = TICK.as(Time.MILLISECONDS) * WHEEL_SIZE;
+    schedule("a", revolution * 2 + 10);
+    schedule("b", 10);
+    for (int i = 0; i < WHEEL_SIZE * 2; i++) {
+      advanceAndTick(TICK.as(Time.MILLISECONDS));
+    }
+    assertEquals(ImmutableList.of("b"), ran);
+    advanceAndTick(TICK.as(Time.MILLISECONDS));
+    assertEquals(ImmutableList.of("b", "a"), ran);
+  }
+
+  @Test
+  public void testDelayedTickCatchesUp() {
+    control.replay();
+
+    long revolution = TICK.as(Time.MILLISECONDS) * WHEEL_SIZE;
+    schedule("a", revolution * 3);
+    schedule("b", revolution + 20);
+    advanceAndTick(revolution * 2);
+    assertEquals(ImmutableList.of("b"), ran);
+    advanceAndTick(revolution * 2);
+    assertEquals(ImmutableList.of("b", "a"), ran);
+  }
+
+  @Test
+  public void testCancel() {
+    control.replay();
+
+    Timer.Timeout a = schedule("a", 10);
+    Timer.Timeout b = schedule("b", 10);
+    assertTrue(a.cancel());
+    assertFalse(a.cancel());
+    advanceAndTick(10);
+    assertEquals(ImmutableList.of("b"), ran);
+    assertFalse(b.cancel());
+  }
+
+  @Test
+  public void testFailedTimeoutDoesNotBlockOthers() {
+    control.replay();
+
+    timer.schedule(
+        new Runnable() {
+          @Override public void run() {
+            throw new IllegalStateException("Expected");
+          }
+        },
+        10,
+        TimeUnit.MILLISECONDS);
+    schedule("a", 10);
+    advanceAndTick(10);
+    assertEquals(ImmutableList.of("a"), ran);
+  }
+}
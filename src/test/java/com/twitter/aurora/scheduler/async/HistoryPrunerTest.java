@@ -18,7 +18,6 @@ package com.twitter.aurora.scheduler.async;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableList;
@@ -52,6 +51,7 @@ import com.twitter.common.base.Command;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.testing.FakeClock;
 
 import static org.easymock.EasyMock.eq;
@@ -76,9 +76,11 @@ public class HistoryPrunerTest extends EasyMockTest {
   private static final Amount<Long, Time> ONE_DAY = Amount.of(1L, Time.DAYS);
   private static final Amount<Long, Time> ONE_HOUR = Amount.of(1L, Time.HOURS);
   private static final int PER_JOB_HISTORY = 2;
+  private static final int BATCH_SIZE = 2;
+  private static final Amount<Long, Time> BATCH_INTERVAL = Amount.of(1L, Time.SECONDS);
 
-  private ScheduledFuture<?> future;
-  private ScheduledExecutorService executor;
+  private Timer.Timeout future;
+  private Timer timer;
   private FakeClock clock;
   private StorageTestUtil storageUtil;
   private StateManager stateManager;
@@ -86,19 +88,21 @@ public class HistoryPrunerTest extends EasyMockTest {
 
   @Before
   public void setUp() {
-    future = createMock(new Clazz<ScheduledFuture<?>>() { });
-    executor = createMock(ScheduledExecutorService.class);
+    future = createMock(Timer.Timeout.class);
+    timer = createMock(Timer.class);
     clock = new FakeClock();
     storageUtil = new StorageTestUtil(this);
     storageUtil.expectOperations();
     stateManager = createMock(StateManager.class);
     pruner = new HistoryPruner(
-        executor,
+        timer,
         storageUtil.storage,
         stateManager,
         clock,
         ONE_DAY,
-        PER_JOB_HISTORY);
+        PER_JOB_HISTORY,
+        BATCH_SIZE,
+        BATCH_INTERVAL);
   }
 
   @After
@@ -166,19 +170,17 @@ public class HistoryPrunerTest extends EasyMockTest {
     expectDefaultTaskWatch();
     expectDefaultTaskWatch();
 
-    // Cancel future and delete pruned task "a" asynchronously.
-    expectCancelFuture();
-    stateManager.deleteTasks(Tasks.ids(a));
-
-    // Cancel future and delete pruned task "b" asynchronously.
-    expectCancelFuture();
-    stateManager.deleteTasks(Tasks.ids(b));
+    // Cancel futures for pruned tasks "a" and "b", and delete them together in a batch.
+    expectCancelFuture().times(2);
+    expectFlush();
+    stateManager.deleteTasks(Tasks.ids(a, b));
 
     expectCancelFuture().times(3);
 
     control.replay();
 
     pruner.storageStarted(new StorageStarted());
+    pruner.flush();
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(c, d, e)));
@@ -206,7 +208,8 @@ public class HistoryPrunerTest extends EasyMockTest {
   public void testActivateFutureAndExceedHistoryGoal() {
     Capture<Runnable> delayedDelete = expectDefaultTaskWatch();
 
-    // Expect task "a" to be pruned when future is activated.
+    // Expect task "a" to be pruned in the next batch when future is activated.
+    expectFlush();
     stateManager.deleteTasks(ImmutableSet.of("a"));
 
     control.replay();
@@ -216,6 +219,7 @@ public class HistoryPrunerTest extends EasyMockTest {
     clock.advance(ONE_HOUR);
     // Execute future to prune task "a" from the system.
     delayedDelete.getValue().run();
+    pruner.flush();
   }
 
   @Test
@@ -223,8 +227,9 @@ public class HistoryPrunerTest extends EasyMockTest {
     // Future for tasks - a,b,c
     expectDefaultTaskWatchTimes(3);
 
-    // Cancel future and delete task "a" asynchronously when history goal is exceeded.
+    // Cancel future and delete task "a" in the next batch when history goal is exceeded.
     expectCancelFuture();
+    expectFlush();
     stateManager.deleteTasks(ImmutableSet.of("a"));
 
     expectCancelFuture().times(2);
@@ -236,6 +241,55 @@ public class HistoryPrunerTest extends EasyMockTest {
     IScheduledTask b = changeState("b", RUNNING, KILLED);
     clock.advance(ONE_HOUR);
     IScheduledTask c = changeState("c", RUNNING, LOST);
+    pruner.flush();
+
+    // Clean-up
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b, c)));
+  }
+
+  @Test
+  public void testBatchSizeBounded() {
+    expectDefaultTaskWatchTimes(5);
+
+    // Tasks "a", "b" and "c" exceed the history goal, and are deleted in two batches.
+    expectCancelFuture().times(3);
+    expectFlush().times(2);
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+    stateManager.deleteTasks(ImmutableSet.of("c"));
+
+    expectCancelFuture().times(2);
+
+    control.replay();
+
+    changeState("a", RUNNING, KILLED);
+    changeState("b", RUNNING, KILLED);
+    changeState("c", RUNNING, KILLED);
+    IScheduledTask d = changeState("d", RUNNING, KILLED);
+    IScheduledTask e = changeState("e", RUNNING, KILLED);
+    pruner.flush();
+    pruner.flush();
+
+    // Clean-up
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(d, e)));
+  }
+
+  @Test
+  public void testDeletedWhilePending() {
+    expectDefaultTaskWatchTimes(3);
+
+    // Task "a" exceeds the history goal, but is deleted before its batch.
+    expectCancelFuture();
+    expectFlush();
+
+    expectCancelFuture().times(2);
+
+    control.replay();
+
+    IScheduledTask a = changeState("a", RUNNING, KILLED);
+    IScheduledTask b = changeState("b", RUNNING, KILLED);
+    IScheduledTask c = changeState("c", RUNNING, KILLED);
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
+    pruner.flush();
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b, c)));
@@ -315,13 +369,21 @@ public class HistoryPrunerTest extends EasyMockTest {
             .setDaemon(true)
             .setNameFormat("testThreadSafeEvents-executor")
             .build());
-    return new HistoryPruner(
+    HashedWheelTimer realTimer = new HashedWheelTimer(
         realExecutor,
+        Clock.SYSTEM_CLOCK,
+        Amount.of(1L, Time.MILLISECONDS),
+        16);
+    realTimer.start();
+    return new HistoryPruner(
+        realTimer,
         storageUtil.storage,
         stateManager,
         clock,
         Amount.of(1L, Time.MILLISECONDS),
-        PER_JOB_HISTORY);
+        PER_JOB_HISTORY,
+        BATCH_SIZE,
+        Amount.of(1L, Time.MILLISECONDS));
   }
 
   private CountDownLatch expectTaskDeleted(final Command onDelete, String taskId) {
@@ -376,7 +438,7 @@ public class HistoryPrunerTest extends EasyMockTest {
 
   private Capture<Runnable> expectTaskWatch(long timestampMillis, int count) {
     Capture<Runnable> capture = createCapture();
-    executor.schedule(
+    timer.schedule(
         EasyMock.capture(capture),
         eq(pruner.calculateTimeout(timestampMillis)),
         eq(TimeUnit.MILLISECONDS));
@@ -384,8 +446,15 @@ public class HistoryPrunerTest extends EasyMockTest {
     return capture;
   }
 
+  private IExpectationSetters<Timer.Timeout> expectFlush() {
+    return expect(timer.schedule(
+        EasyMock.isA(Runnable.class),
+        eq(BATCH_INTERVAL.as(Time.MILLISECONDS)),
+        eq(TimeUnit.MILLISECONDS))).andReturn(future);
+  }
+
   private IExpectationSetters<?> expectCancelFuture() {
-    return expect(future.cancel(false)).andReturn(true);
+    return expect(future.cancel()).andReturn(true);
   }
 
   private IScheduledTask changeState(ScheduleStatus from, ScheduleStatus to) {
@@ -15,6 +15,7 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -24,29 +25,39 @@ import java.util.concurrent.ThreadFactory;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.testing.TearDown;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.Driver;
 import com.twitter.aurora.scheduler.async.OfferQueue.LaunchException;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class OfferQueueImplTest extends EasyMockTest {
 
@@ -84,7 +95,13 @@ public class OfferQueueImplTest extends EasyMockTest {
         return RETURN_DELAY;
       }
     };
-    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenanceController);
+    HashedWheelTimer timer = new HashedWheelTimer(
+        executor,
+        Clock.SYSTEM_CLOCK,
+        Amount.of(100L, Time.MILLISECONDS),
+        16);
+    timer.start();
+    offerQueue = new OfferQueueImpl(driver, returnDelay, timer, maintenanceController);
   }
 
   @Test
@@ -152,4 +169,122 @@ public class OfferQueueImplTest extends EasyMockTest {
     offerQueue.driverDisconnected(new DriverDisconnected());
     assertFalse(offerQueue.launchFirst(offerAcceptor));
   }
+
+  @Test
+  public void testHostChangedStateResortsOffers() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.<TaskInfo>absent());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.hostChangedState(
+        new HostMaintenanceStateChange(new HostStatus(HOST_A, MaintenanceMode.DRAINING)));
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    assertEquals(2, Iterables.size(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testCancelOffer() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.cancelOffer(OFFER_A.getId());
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+  }
+
+  @Test
+  public void testSameSlaveOffersReturned() throws Exception {
+    Offer sameSlave = OFFER_A.toBuilder()
+        .setId(OfferID.newBuilder().setValue("OFFER_A_2"))
+        .build();
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    driver.declineOffer(sameSlave.getId());
+    driver.declineOffer(OFFER_A.getId());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(sameSlave);
+    assertTrue(Iterables.isEmpty(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testLaunchAll() throws Exception {
+    Function<Offer, List<TaskInfo>> batchAcceptor =
+        createMock(new Clazz<Function<Offer, List<TaskInfo>>>() { });
+    List<TaskInfo> tasksA = ImmutableList.of(makeTaskInfo("a"), makeTaskInfo("b"));
+    List<TaskInfo> tasksC = ImmutableList.of(makeTaskInfo("c"));
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
+    expect(maintenanceController.getMode(HOST_C)).andReturn(MaintenanceMode.NONE);
+    expect(batchAcceptor.apply(OFFER_A)).andReturn(tasksA);
+    driver.launchTasks(OFFER_A.getId(), tasksA);
+    expect(batchAcceptor.apply(OFFER_C)).andReturn(tasksC);
+    driver.launchTasks(OFFER_C.getId(), tasksC);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.addOffer(OFFER_C);
+    assertEquals(3, offerQueue.launchAll(batchAcceptor, 3));
+    assertEquals(ImmutableList.of(OFFER_B), ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testReservedOfferNotPresentedConcurrently() throws Exception {
+    final Function<Offer, Optional<TaskInfo>> concurrentAcceptor =
+        createMock(new Clazz<Function<Offer, Optional<TaskInfo>>>() { });
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(offerAcceptor.apply(OFFER_A)).andAnswer(new IAnswer<Optional<TaskInfo>>() {
+      @Override public Optional<TaskInfo> answer() throws LaunchException {
+        // The offer is reserved, so it must not be presented to another launch attempt.
+        assertFalse(offerQueue.launchFirst(concurrentAcceptor));
+        return Optional.absent();
+      }
+    });
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.<TaskInfo>absent());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+  }
+
+  @Test
+  public void testDeclineDeferredWhileReserved() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(offerAcceptor.apply(OFFER_A)).andAnswer(new IAnswer<Optional<TaskInfo>>() {
+      @Override public Optional<TaskInfo> answer() {
+        offerQueue.removeAndDecline(OFFER_A.getId());
+        assertEquals(1, Iterables.size(offerQueue.getOffers()));
+        return Optional.absent();
+      }
+    });
+    driver.declineOffer(OFFER_A.getId());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    assertTrue(Iterables.isEmpty(offerQueue.getOffers()));
+  }
+
+  private static TaskInfo makeTaskInfo(String taskId) {
+    return TaskInfo.newBuilder()
+        .setName(taskId)
+        .setTaskId(TaskID.newBuilder().setValue(taskId))
+        .setSlaveId(SlaveID.newBuilder().setValue("slave-" + taskId))
+        .build();
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class PreemptionCandidatesTest {
+
+  private static final String ROLE_A = "roleA";
+  private static final String ROLE_B = "roleB";
+  private static final String SLAVE_A = "slaveA";
+  private static final String SLAVE_B = "slaveB";
+
+  private static final ResourceSlot NO_SLACK =
+      ResourceSlot.from(0, Amount.of(0L, Data.MB), Amount.of(0L, Data.MB), 0);
+
+  private Storage storage;
+  private PreemptionCandidates candidates;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    candidates = new PreemptionCandidates(storage);
+  }
+
+  private static IScheduledTask makeTask(
+      String id,
+      String role,
+      boolean production,
+      int priority,
+      double cpus,
+      String slaveId) {
+
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(RUNNING)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(id)
+            .setSlaveId(slaveId)
+            .setSlaveHost(slaveId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity(role, role))
+                .setJobName("job")
+                .setEnvironment("env")
+                .setProduction(production)
+                .setPriority(priority)
+                .setNumCpus(cpus)
+                .setRamMb(1024)
+                .setDiskMb(1024))));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus newState) {
+    candidates.taskChangedState(new TaskStateChange(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        task.getStatus()));
+  }
+
+  private static ImmutableList<IAssignedTask> assigned(IScheduledTask... tasks) {
+    ImmutableList.Builder<IAssignedTask> builder = ImmutableList.builder();
+    for (IScheduledTask task : tasks) {
+      builder.add(task.getAssignedTask());
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testVictimOrder() {
+    IScheduledTask prod = makeTask("prod", ROLE_A, true, 0, 4, SLAVE_A);
+    IScheduledTask highPriority = makeTask("high", ROLE_A, false, 10, 4, SLAVE_A);
+    IScheduledTask small = makeTask("small", ROLE_A, false, 0, 1, SLAVE_A);
+    IScheduledTask large = makeTask("large", ROLE_A, false, 0, 2, SLAVE_A);
+    changeState(prod, RUNNING);
+    changeState(highPriority, RUNNING);
+    changeState(small, RUNNING);
+    changeState(large, RUNNING);
+
+    assertEquals(ImmutableSet.of(SLAVE_A), candidates.getSlaveIds());
+    assertEquals(
+        assigned(large, small, highPriority, prod),
+        candidates.getCandidates(SLAVE_A));
+  }
+
+  @Test
+  public void testRemoval() {
+    IScheduledTask a1 = makeTask("a1", ROLE_A, false, 0, 1, SLAVE_A);
+    IScheduledTask a2 = makeTask("a2", ROLE_A, false, 0, 1, SLAVE_A);
+    IScheduledTask b1 = makeTask("b1", ROLE_A, false, 0, 1, SLAVE_B);
+    changeState(a1, RUNNING);
+    changeState(a2, RUNNING);
+    changeState(b1, RUNNING);
+
+    changeState(a1, PREEMPTING);
+    assertEquals(assigned(a2), candidates.getCandidates(SLAVE_A));
+
+    changeState(a2, FINISHED);
+    candidates.tasksDeleted(new TasksDeleted(ImmutableSet.of(b1)));
+    assertEquals(ImmutableSet.<String>of(), candidates.getSlaveIds());
+    assertEquals(ImmutableList.<IAssignedTask>of(), candidates.getCandidates(SLAVE_A));
+  }
+
+  @Test
+  public void testMayFit() {
+    changeState(makeTask("a1", ROLE_A, false, 0, 2, SLAVE_A), RUNNING);
+    changeState(makeTask("b1", ROLE_B, false, 0, 2, SLAVE_A), RUNNING);
+    changeState(makeTask("b2", ROLE_B, true, 0, 2, SLAVE_A), RUNNING);
+
+    IAssignedTask nonProduction = makeTask("p1", ROLE_A, false, 10, 3, SLAVE_B).getAssignedTask();
+    IAssignedTask production = makeTask("p2", ROLE_A, true, 10, 3, SLAVE_B).getAssignedTask();
+
+    // Only tasks of the same role may be preempted by a non-production task.
+    assertFalse(candidates.mayFit(SLAVE_A, nonProduction, NO_SLACK));
+    assertTrue(candidates.mayFit(SLAVE_A, production, NO_SLACK));
+    assertTrue(candidates.mayFit(
+        SLAVE_A,
+        nonProduction,
+        ResourceSlot.from(1, Amount.of(0L, Data.MB), Amount.of(0L, Data.MB), 0)));
+    assertFalse(candidates.mayFit(SLAVE_B, production, NO_SLACK));
+  }
+
+  @Test
+  public void testStorageStarted() {
+    final IScheduledTask a1 = makeTask("a1", ROLE_A, false, 0, 1, SLAVE_A);
+    final IScheduledTask pending = IScheduledTask.build(
+        makeTask("a2", ROLE_A, false, 0, 1, SLAVE_A).newBuilder().setStatus(PENDING));
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(a1, pending));
+      }
+    });
+
+    candidates.storageStarted(new StorageStarted());
+
+    assertEquals(assigned(a1), candidates.getCandidates(SLAVE_A));
+  }
+}
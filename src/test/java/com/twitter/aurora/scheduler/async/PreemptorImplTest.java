@@ -45,6 +45,8 @@ import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.filter.AttributeAggregates;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
@@ -98,6 +100,7 @@ public class PreemptorImplTest extends EasyMockTest {
   private FakeClock clock;
   private MaintenanceController maintenance;
   private OfferQueue offerQueue;
+  private PreemptionCandidates candidates;
 
   @Before
   public void setUp() {
@@ -107,6 +110,7 @@ public class PreemptorImplTest extends EasyMockTest {
     maintenance = createMock(MaintenanceController.class);
     clock = new FakeClock();
     offerQueue = createMock(OfferQueue.class);
+    candidates = new PreemptionCandidates(storageUtil.storage);
   }
 
   private void runPreemptor(ScheduledTask pendingTask) {
@@ -115,6 +119,7 @@ public class PreemptorImplTest extends EasyMockTest {
         scheduler,
         offerQueue,
         schedulingFilter,
+        candidates,
         PREEMPTION_DELAY,
         clock);
 
@@ -132,10 +137,10 @@ public class PreemptorImplTest extends EasyMockTest {
         IScheduledTask.setFromBuilders(Arrays.asList(returnedTasks)));
   }
 
-  private void expectGetActiveTasks(ScheduledTask... returnedTasks) {
-    storageUtil.expectTaskFetch(
-        PreemptorImpl.CANDIDATE_QUERY,
-        IScheduledTask.setFromBuilders(Arrays.asList(returnedTasks)));
+  private void setActiveTasks(ScheduledTask... activeTasks) {
+    for (ScheduledTask task : activeTasks) {
+      candidates.taskChangedState(new TaskStateChange(IScheduledTask.build(task), PENDING));
+    }
   }
 
   @Test
@@ -150,7 +155,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(highPriority);
-    expectGetActiveTasks(lowPriority);
+    setActiveTasks(lowPriority);
 
     expectFiltering();
     expectPreempted(lowPriority, highPriority);
@@ -174,7 +179,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(highPriority);
-    expectGetActiveTasks(lowerPriority, lowerPriority);
+    setActiveTasks(lowerPriority, lowerPriority);
 
     expectFiltering();
     expectPreempted(lowerPriority, highPriority);
@@ -201,7 +206,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(pendingPriority);
-    expectGetActiveTasks(highPriority, lowerPriority, lowestPriority);
+    setActiveTasks(highPriority, lowerPriority, lowestPriority);
 
     expectFiltering();
     expectPreempted(lowestPriority, pendingPriority);
@@ -222,7 +227,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(task);
-    expectGetActiveTasks(highPriority);
+    setActiveTasks(highPriority);
 
     control.replay();
     runPreemptor(task);
@@ -241,7 +246,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(p1);
-    expectGetActiveTasks(a1);
+    setActiveTasks(a1);
 
     expectFiltering();
     expectPreempted(a1, p1);
@@ -263,7 +268,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(p1);
-    expectGetActiveTasks(a1);
+    setActiveTasks(a1);
 
     expectFiltering();
     expectPreempted(a1, p1);
@@ -284,7 +289,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(p1);
-    expectGetActiveTasks(a1);
+    setActiveTasks(a1);
 
     control.replay();
     runPreemptor(p1);
@@ -293,7 +298,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures a production task can preempt 2 tasks on the same host.
   @Test
   public void testProductionPreemptingManyNonProduction() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new AttributeAggregates(storageUtil.storage));
     ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
     a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
 
@@ -313,7 +321,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(p1);
-    expectGetActiveTasks(a1, b1);
+    setActiveTasks(a1, b1);
 
     expectPreempted(a1, p1);
     expectPreempted(b1, p1);
@@ -325,7 +333,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we select the minimal number of tasks to preempt
   @Test
   public void testMinimalSetPreempted() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new AttributeAggregates(storageUtil.storage));
     ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
     a1.getAssignedTask().getTask().setNumCpus(4).setRamMb(4096);
 
@@ -349,7 +360,7 @@ public class PreemptorImplTest extends EasyMockTest {
     expectNoOffers();
 
     expectGetPendingTasks(p1);
-    expectGetActiveTasks(b1, b2, a1);
+    setActiveTasks(b1, b2, a1);
 
     expectPreempted(a1, p1);
 
@@ -360,7 +371,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures a production task *never* preempts a production task from another job.
   @Test
   public void testProductionJobNeverPreemptsProductionJob() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new AttributeAggregates(storageUtil.storage));
     ScheduledTask p1 = makeProductionTask(USER_A, JOB_A, TASK_ID_A + "_p1");
     p1.getAssignedTask().getTask().setNumCpus(2).setRamMb(1024);
 
@@ -375,7 +389,7 @@ public class PreemptorImplTest extends EasyMockTest {
 
     expectNoOffers();
 
-    expectGetActiveTasks(p1);
+    setActiveTasks(p1);
     expectGetPendingTasks(p2);
 
     control.replay();
@@ -385,7 +399,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures that we can preempt if a task + offer can satisfy a pending task.
   @Test
   public void testPreemptWithOfferAndTask() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new AttributeAggregates(storageUtil.storage));
 
     setUpHost(HOST_A, RACK_A);
 
@@ -401,7 +418,7 @@ public class PreemptorImplTest extends EasyMockTest {
 
     clock.advance(PREEMPTION_DELAY);
 
-    expectGetActiveTasks(a1);
+    setActiveTasks(a1);
     expectGetPendingTasks(p1);
 
     expectPreempted(a1, p1);
@@ -413,7 +430,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we can preempt if two tasks and an offer can satisfy a pending task.
   @Test
   public void testPreemptWithOfferAndMultipleTasks() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new AttributeAggregates(storageUtil.storage));
 
     setUpHost(HOST_A, RACK_A);
 
@@ -433,7 +453,7 @@ public class PreemptorImplTest extends EasyMockTest {
 
     clock.advance(PREEMPTION_DELAY);
 
-    expectGetActiveTasks(a1, a2);
+    setActiveTasks(a1, a2);
     expectGetPendingTasks(p1);
 
     expectPreempted(a1, p1);
@@ -446,7 +466,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we don't preempt if a host has enough slack to satisfy a pending task.
   @Test
   public void testPreemptWithLargeOffer() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new AttributeAggregates(storageUtil.storage));
 
     setUpHost(HOST_A, RACK_A);
 
@@ -462,8 +485,30 @@ public class PreemptorImplTest extends EasyMockTest {
 
     clock.advance(PREEMPTION_DELAY);
 
-    expectGetActiveTasks(a1);
+    setActiveTasks(a1);
+    expectGetPendingTasks(p1);
+
+    control.replay();
+    runPreemptor(p1);
+  }
+
+  // Ensures slaves that cannot fit the task are skipped without consulting the filter.
+  @Test
+  public void testSlotPruned() throws Exception {
+    schedulingFilter = createMock(SchedulingFilter.class);
+    ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
+    a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    runOnHost(a1, HOST_A);
+
+    ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
+    p1.getAssignedTask().getTask().setNumCpus(2).setRamMb(1024);
+
+    clock.advance(PREEMPTION_DELAY);
+
+    expectNoOffers();
+
     expectGetPendingTasks(p1);
+    setActiveTasks(a1);
 
     control.replay();
     runPreemptor(p1);
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.BackoffStrategy;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static com.twitter.aurora.gen.ScheduleStatus.INIT;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+
+public class TaskGroupsTest extends EasyMockTest {
+
+  private static final long NOW_MS = 10;
+
+  private Storage storage;
+  private BackoffStrategy backoffStrategy;
+  private RescheduleCalculator rescheduleCalculator;
+  private Preemptor preemptor;
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    storage = createMock(Storage.class);
+    backoffStrategy = createMock(BackoffStrategy.class);
+    rescheduleCalculator = createMock(RescheduleCalculator.class);
+    preemptor = createMock(Preemptor.class);
+    clock = new FakeClock();
+    clock.setNowMillis(NOW_MS);
+    expect(backoffStrategy.calculateBackoffMs(0)).andReturn(1L).anyTimes();
+    expect(backoffStrategy.calculateBackoffMs(1)).andReturn(2L).anyTimes();
+  }
+
+  private TaskGroups createTaskGroups(
+      ScheduledExecutorService executor,
+      int batchSize,
+      SchedulingAction action) {
+
+    return new TaskGroups(
+        executor,
+        storage,
+        backoffStrategy,
+        RateLimiter.create(1000),
+        batchSize,
+        action,
+        clock,
+        rescheduleCalculator,
+        preemptor);
+  }
+
+  @Test
+  public void testBatchScheduling() {
+    ScheduledExecutorService executor = createMock(ScheduledExecutorService.class);
+    SchedulingAction action = createMock(SchedulingAction.class);
+
+    IScheduledTask a = makeTask("a", "job");
+    IScheduledTask b = makeTask("b", "job");
+    IScheduledTask c = makeTask("c", "job");
+    expect(rescheduleCalculator.getReadyTimeMs(a)).andReturn(0L);
+    expect(rescheduleCalculator.getReadyTimeMs(b)).andReturn(1L);
+    expect(rescheduleCalculator.getReadyTimeMs(c)).andReturn(2L);
+
+    // The group's monitor is scheduled when the group is created, after the failed batch, and
+    // after the partially scheduled batch.  It is not rescheduled once the group is empty.
+    Capture<Runnable> monitor = createCapture();
+    executor.schedule(capture(monitor), anyLong(), eq(TimeUnit.MILLISECONDS));
+    expectLastCall().andReturn(createMock(ScheduledFuture.class)).times(3);
+
+    // No task in the first batch is scheduled, so the group backs off and looks for preemption.
+    expect(action.schedule(ImmutableSet.of("a", "b"))).andReturn(ImmutableSet.<String>of());
+    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
+
+    // The retried tasks are behind the task that has been ready the longest, and every task that
+    // is attempted is scheduled.
+    final List<Set<String>> batches = Lists.newArrayList();
+    expect(action.schedule(EasyMock.<Set<String>>anyObject()))
+        .andAnswer(new IAnswer<Set<String>>() {
+          @SuppressWarnings("unchecked")
+          @Override public Set<String> answer() {
+            Set<String> batch = (Set<String>) EasyMock.getCurrentArguments()[0];
+            batches.add(ImmutableSet.copyOf(batch));
+            return batch;
+          }
+        })
+        .times(2);
+
+    control.replay();
+
+    TaskGroups taskGroups = createTaskGroups(executor, 2, action);
+    for (IScheduledTask task : ImmutableSet.of(a, b, c)) {
+      taskGroups.taskChangedState(new TaskStateChange(task, INIT));
+    }
+
+    monitor.getValue().run();
+    monitor.getValue().run();
+    monitor.getValue().run();
+
+    assertEquals(2, batches.size());
+    assertEquals(2, batches.get(0).size());
+    assertTrue(batches.get(0).contains("c"));
+    assertEquals(1, batches.get(1).size());
+    assertEquals(
+        ImmutableSet.of("a", "b", "c"),
+        Sets.union(batches.get(0), batches.get(1)));
+    assertTrue(taskGroups.getGroups().isEmpty());
+  }
+
+  @Test
+  public void testGroupsScheduledConcurrently() throws Exception {
+    IScheduledTask a = makeTask("a", "jobA");
+    IScheduledTask b = makeTask("b", "jobB");
+    expect(rescheduleCalculator.getReadyTimeMs(a)).andReturn(0L);
+    expect(rescheduleCalculator.getReadyTimeMs(b)).andReturn(0L);
+
+    control.replay();
+
+    // Each scheduling attempt waits for an attempt in the other group, which only completes if
+    // the groups are evaluated on separate threads at the same time.
+    final CyclicBarrier bothScheduling = new CyclicBarrier(2);
+    final CountDownLatch scheduled = new CountDownLatch(2);
+    SchedulingAction action = new SchedulingAction() {
+      @Override public boolean schedule(String taskId) {
+        try {
+          bothScheduling.await(10, TimeUnit.SECONDS);
+          scheduled.countDown();
+          return true;
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+          return false;
+        }
+      }
+
+      @Override public Set<String> schedule(Set<String> taskIds) {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+    try {
+      TaskGroups taskGroups = createTaskGroups(executor, 1, action);
+      taskGroups.taskChangedState(new TaskStateChange(a, INIT));
+      taskGroups.taskChangedState(new TaskStateChange(b, INIT));
+      assertTrue(scheduled.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static IScheduledTask makeTask(String taskId, String jobName) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(PENDING)
+        .setAssignedTask(new AssignedTask()
+            .setInstanceId(0)
+            .setTaskId(taskId)
+            .setTask(new TaskConfig()
+                .setJobName(jobName)
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setEnvironment("env"))));
+  }
+}
@@ -16,6 +16,7 @@
 package com.twitter.aurora.scheduler.async;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -24,6 +25,7 @@ import javax.annotation.Nullable;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.RateLimiter;
 
@@ -108,6 +110,7 @@ public class TaskSchedulerTest extends EasyMockTest {
   private Driver driver;
   private ScheduledExecutorService executor;
   private ScheduledFuture<?> future;
+  private Timer timer;
   private OfferReturnDelay returnDelay;
   private OfferQueue offerQueue;
   private TaskGroups taskGroups;
@@ -125,6 +128,7 @@ public class TaskSchedulerTest extends EasyMockTest {
     driver = createMock(Driver.class);
     executor = createMock(ScheduledExecutorService.class);
     future = createMock(ScheduledFuture.class);
+    timer = createMock(Timer.class);
     returnDelay = createMock(OfferReturnDelay.class);
     clock = new FakeClock();
     clock.setNowMillis(0);
@@ -133,8 +137,12 @@ public class TaskSchedulerTest extends EasyMockTest {
   }
 
   private void replayAndCreateScheduler() {
+    replayAndCreateScheduler(1);
+  }
+
+  private void replayAndCreateScheduler(int batchSize) {
     control.replay();
-    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenance);
+    offerQueue = new OfferQueueImpl(driver, returnDelay, timer, maintenance);
     RateLimiter rateLimiter = RateLimiter.create(1);
     Amount<Long, Time> flappingThreshold = Amount.of(5L, Time.MINUTES);
     SchedulingAction scheduler =
@@ -144,6 +152,7 @@ public class TaskSchedulerTest extends EasyMockTest {
         storage,
         retryStrategy,
         rateLimiter,
+        batchSize,
         scheduler,
         clock,
         new RescheduleCalculatorImpl(
@@ -163,8 +172,8 @@ public class TaskSchedulerTest extends EasyMockTest {
   private Capture<Runnable> expectOfferDeclineIn(int delayMillis) {
     expect(returnDelay.get()).andReturn(Amount.of(delayMillis, Time.MILLISECONDS));
     Capture<Runnable> runnable = createCapture();
-    executor.schedule(capture(runnable), eq((long) delayMillis), eq(TimeUnit.MILLISECONDS));
-    expectLastCall().andReturn(createMock(ScheduledFuture.class));
+    timer.schedule(capture(runnable), eq((long) delayMillis), eq(TimeUnit.MILLISECONDS));
+    expectLastCall().andReturn(createMock(Timer.Timeout.class));
     return runnable;
   }
 
@@ -306,6 +315,36 @@ public class TaskSchedulerTest extends EasyMockTest {
     timeoutCapture3.getValue().run();
   }
 
+  @Test
+  public void testBatchAssigned() {
+    expectAnyMaintenanceCalls();
+    expectOfferDeclineIn(10);
+
+    IScheduledTask taskA = makeTask("a", PENDING);
+    ScheduledTask builderB = taskA.newBuilder();
+    builderB.getAssignedTask().setTaskId("b");
+    IScheduledTask taskB = IScheduledTask.build(builderB);
+    TaskInfo mesosTask = makeTaskInfo(taskA);
+
+    // Only one of the two tasks fits in the offer, the other is retried.
+    Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
+    expect(assigner.maybeAssign(eq(OFFER_A), EasyMock.<List<IScheduledTask>>anyObject()))
+        .andReturn(ImmutableList.of(mesosTask));
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask));
+
+    Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10);
+    expectTaskGroupBackoff(10, 20);
+    expect(preemptor.findPreemptionSlotFor(isA(String.class))).andReturn(Optional.<String>absent());
+
+    replayAndCreateScheduler(2);
+
+    offerQueue.addOffer(OFFER_A);
+    changeState(taskA, INIT, PENDING);
+    changeState(taskB, INIT, PENDING);
+    timeoutCapture.getValue().run();
+    timeoutCapture2.getValue().run();
+  }
+
   @Test
   public void testDriverNotReady() {
     IScheduledTask task = makeTask("a", PENDING);
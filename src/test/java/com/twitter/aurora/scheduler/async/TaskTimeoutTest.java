@@ -16,8 +16,6 @@
 package com.twitter.aurora.scheduler.async;
 
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -76,8 +74,8 @@ public class TaskTimeoutTest extends EasyMockTest {
   private Map<ScheduleStatus, Capture<Supplier<Number>>> stateCaptures;
 
   private StorageTestUtil storageUtil;
-  private ScheduledExecutorService executor;
-  private ScheduledFuture<?> future;
+  private Timer timer;
+  private Timer.Timeout future;
   private StateManager stateManager;
   private FakeClock clock;
   private TaskTimeout timeout;
@@ -87,8 +85,8 @@ public class TaskTimeoutTest extends EasyMockTest {
   public void setUp() {
     storageUtil = new StorageTestUtil(this);
     storageUtil.expectOperations();
-    executor = createMock(ScheduledExecutorService.class);
-    future = createMock(new Clazz<ScheduledFuture<?>>() { });
+    timer = createMock(Timer.class);
+    future = createMock(Timer.Timeout.class);
     stateManager = createMock(StateManager.class);
     clock = new FakeClock();
     statsProvider = createMock(StatsProvider.class);
@@ -125,7 +123,7 @@ public class TaskTimeoutTest extends EasyMockTest {
     control.replay();
     timeout = new TaskTimeout(
         storageUtil.storage,
-        executor,
+        timer,
         stateManager,
         clock,
         Amount.of(TIMEOUT_MS, Time.MILLISECONDS),
@@ -134,7 +132,7 @@ public class TaskTimeoutTest extends EasyMockTest {
 
   private Capture<Runnable> expectTaskWatch(long expireMs) {
     Capture<Runnable> capture = createCapture();
-    executor.schedule(
+    timer.schedule(
         EasyMock.capture(capture),
         eq(expireMs),
         eq(TimeUnit.MILLISECONDS));
@@ -147,7 +145,7 @@ public class TaskTimeoutTest extends EasyMockTest {
   }
 
   private IExpectationSetters<?> expectCancel() {
-    return expect(future.cancel(false)).andReturn(true);
+    return expect(future.cancel()).andReturn(true);
   }
 
   private void changeState(String taskId, ScheduleStatus from, ScheduleStatus to) {
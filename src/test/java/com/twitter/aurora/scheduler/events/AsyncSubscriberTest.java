@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.events;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.scheduler.events.AsyncSubscriber.OverflowPolicy;
+import com.twitter.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSubscriberTest {
+
+  private EventBus eventBus;
+
+  @Before
+  public void setUp() {
+    eventBus = new EventBus();
+  }
+
+  static class RecordingSubscriber implements EventSubscriber {
+    private final List<PubsubEvent> events = Lists.newCopyOnWriteArrayList();
+    private final CountDownLatch received;
+    private final CountDownLatch release;
+
+    RecordingSubscriber(int expectedEvents, CountDownLatch release) {
+      this.received = new CountDownLatch(expectedEvents);
+      this.release = release;
+    }
+
+    @Subscribe
+    public void storageStarted(StorageStarted event) throws InterruptedException {
+      release.await();
+      events.add(event);
+      received.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(received.await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  private RecordingSubscriber subscribe(
+      int expectedEvents,
+      CountDownLatch release,
+      int queueCapacity,
+      OverflowPolicy overflowPolicy) {
+
+    RecordingSubscriber subscriber = new RecordingSubscriber(expectedEvents, release);
+    AsyncSubscriber async = new AsyncSubscriber(subscriber, queueCapacity, overflowPolicy);
+    async.start();
+    eventBus.register(async);
+    return subscriber;
+  }
+
+  @Test
+  public void testDeliveredInOrder() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingSubscriber subscriber = subscribe(3, release, 10, OverflowPolicy.BLOCK);
+
+    StorageStarted first = new StorageStarted();
+    StorageStarted second = new StorageStarted();
+    StorageStarted third = new StorageStarted();
+    eventBus.post(first);
+    // Events the subscriber does not handle are not queued.
+    eventBus.post(new DriverRegistered());
+    eventBus.post(second);
+    eventBus.post(third);
+
+    // Events are queued while the subscriber is blocked.
+    assertTrue(subscriber.events.isEmpty());
+    release.countDown();
+
+    subscriber.await();
+    assertEquals(ImmutableList.<PubsubEvent>of(first, second, third), subscriber.events);
+  }
+
+  @Test
+  public void testDiscardOnOverflow() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingSubscriber subscriber = subscribe(1, release, 1, OverflowPolicy.DISCARD);
+
+    for (int i = 0; i < 10; i++) {
+      eventBus.post(new StorageStarted());
+    }
+    release.countDown();
+
+    subscriber.await();
+    // At most one event is being handled while another is queued, the rest are discarded.
+    assertTrue(subscriber.events.size() <= 2);
+  }
+
+  @Test
+  public void testGetName() {
+    assertEquals("RecordingSubscriber", AsyncSubscriber.getName(RecordingSubscriber.class));
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.base.JobKeys;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class AttributeAggregatesTest {
+
+  private static final String ROLE = "role";
+  private static final String ENV = "env";
+  private static final IJobKey JOB_A = JobKeys.from(ROLE, ENV, "jobA");
+  private static final IJobKey JOB_B = JobKeys.from(ROLE, ENV, "jobB");
+
+  private static final String HOST_A = "hostA";
+  private static final String HOST_B = "hostB";
+
+  private static final Attribute RACK_A = rack("a");
+  private static final Attribute RACK_B = rack("b");
+
+  private Storage storage;
+  private AttributeAggregates aggregates;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    aggregates = new AttributeAggregates(storage);
+  }
+
+  private static Attribute rack(String rack) {
+    return new Attribute("rack", ImmutableSet.of(rack));
+  }
+
+  private static HostAttributes hostAttributes(String host, Attribute... attributes) {
+    return new HostAttributes(host, ImmutableSet.copyOf(attributes));
+  }
+
+  private static IScheduledTask makeTask(String id, IJobKey job, String host) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(RUNNING)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(id)
+            .setSlaveHost(host)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity(job.getRole(), job.getRole()))
+                .setEnvironment(job.getEnvironment())
+                .setJobName(job.getName()))));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus oldState, ScheduleStatus newState) {
+    aggregates.taskChangedState(new TaskStateChange(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        oldState));
+  }
+
+  private void saveHostAttributes(final HostAttributes... attributes) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        for (HostAttributes hostAttributes : attributes) {
+          storeProvider.getAttributeStore().saveHostAttributes(hostAttributes);
+        }
+      }
+    });
+  }
+
+  private void saveTasks(final IScheduledTask... tasks) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.copyOf(tasks));
+      }
+    });
+  }
+
+  private void assertCount(int expected, IJobKey job, Attribute... attributes) {
+    assertEquals(expected, aggregates.getCount(job, ImmutableSet.copyOf(attributes)));
+  }
+
+  @Test
+  public void testStateChanges() {
+    saveHostAttributes(hostAttributes(HOST_A, RACK_A), hostAttributes(HOST_B, RACK_B));
+    IScheduledTask a1 = makeTask("a1", JOB_A, HOST_A);
+    IScheduledTask a2 = makeTask("a2", JOB_A, HOST_B);
+    IScheduledTask b1 = makeTask("b1", JOB_B, HOST_A);
+
+    assertCount(0, JOB_A, RACK_A);
+
+    changeState(a1, PENDING, ASSIGNED);
+    changeState(a2, PENDING, ASSIGNED);
+    changeState(b1, PENDING, ASSIGNED);
+    // Transitions between counted states do not change counts.
+    changeState(a1, ASSIGNED, RUNNING);
+
+    assertCount(1, JOB_A, RACK_A);
+    assertCount(1, JOB_A, RACK_B);
+    assertCount(2, JOB_A, RACK_A, RACK_B);
+    assertCount(1, JOB_B, RACK_A);
+    assertCount(0, JOB_B, RACK_B);
+
+    changeState(a1, RUNNING, FINISHED);
+    aggregates.tasksDeleted(new TasksDeleted(ImmutableSet.of(b1)));
+
+    assertCount(0, JOB_A, RACK_A);
+    assertCount(1, JOB_A, RACK_B);
+    assertCount(0, JOB_B, RACK_A);
+  }
+
+  @Test
+  public void testHostAttributesChanged() {
+    saveHostAttributes(hostAttributes(HOST_A, RACK_A));
+    IScheduledTask a1 = makeTask("a1", JOB_A, HOST_A);
+    changeState(a1, PENDING, ASSIGNED);
+    assertCount(1, JOB_A, RACK_A);
+
+    aggregates.hostAttributesChanged(
+        new HostAttributesChanged(hostAttributes(HOST_A, RACK_B)));
+    assertCount(0, JOB_A, RACK_A);
+    assertCount(1, JOB_A, RACK_B);
+
+    // The task is removed against the attributes it is currently counted by.
+    changeState(a1, ASSIGNED, FINISHED);
+    assertCount(0, JOB_A, RACK_B);
+  }
+
+  @Test
+  public void testStorageStarted() {
+    saveHostAttributes(hostAttributes(HOST_A, RACK_A), hostAttributes(HOST_B, RACK_B));
+    saveTasks(
+        makeTask("a1", JOB_A, HOST_A),
+        makeTask("a2", JOB_A, HOST_A),
+        makeTask("a3", JOB_A, HOST_B),
+        IScheduledTask.build(makeTask("a4", JOB_A, HOST_B).newBuilder().setStatus(PENDING)));
+
+    aggregates.storageStarted(new StorageStarted());
+
+    assertCount(2, JOB_A, RACK_A);
+    assertCount(1, JOB_A, RACK_B);
+  }
+}
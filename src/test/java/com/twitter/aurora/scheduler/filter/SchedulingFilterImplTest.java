@@ -37,13 +37,15 @@ import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.LimitConstraint;
 import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.TaskConstraint;
 import com.twitter.aurora.gen.ValueConstraint;
 import com.twitter.aurora.scheduler.ResourceSlot;
-import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.storage.AttributeStore;
@@ -107,7 +109,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   private final AtomicLong taskIdCounter = new AtomicLong();
 
-  private SchedulingFilter defaultFilter;
+  private AttributeAggregates aggregates;
+  private SchedulingFilterImpl defaultFilter;
   private MaintenanceController maintenance;
   private Storage storage;
   private StoreProvider storeProvider;
@@ -118,7 +121,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void setUp() throws Exception {
     storage = createMock(Storage.class);
     maintenance = createMock(MaintenanceController.class);
-    defaultFilter = new SchedulingFilterImpl(storage, maintenance);
+    aggregates = new AttributeAggregates(storage);
+    defaultFilter = new SchedulingFilterImpl(storage, maintenance, aggregates);
     storeProvider = createMock(StoreProvider.class);
     taskStore = createMock(TaskStore.Mutable.class);
     attributeStore = createMock(AttributeStore.Mutable.class);
@@ -144,7 +148,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void testMeetsOffer() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_A).times(2);
-    expectGetTasks().times(2);
 
     control.replay();
 
@@ -156,7 +159,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void testSufficientPorts() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_A).times(4);
-    expectGetTasks().times(4);
 
     control.replay();
 
@@ -192,7 +194,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void testInsufficientResources() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_A).times(4);
-    expectGetTasks().times(4);
 
     control.replay();
 
@@ -260,7 +261,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testHostScheduledForMaintenance() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.SCHEDULED);
 
     control.replay();
@@ -271,7 +271,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testHostDrainingForMaintenance() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.DRAINING);
 
     control.replay();
@@ -282,7 +281,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testHostDrainedForMaintenance() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.DRAINED);
 
     control.replay();
@@ -332,9 +330,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   @Test
   public void testUnderLimitNoTasks() throws Exception {
-    expectGetHostAttributes(HOST_A);
+    // Host attributes are loaded once, and shared by the dedicated check and the constraints.
     expectGetHostAttributes(HOST_A, host(HOST_A));
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A);
 
     control.replay();
@@ -363,17 +360,16 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     expectGetHostMaintenanceStatus(HOST_B).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_C).atLeastOnce();
 
-    expectGetTasks(
+    control.replay();
+
+    countTasks(
         makeScheduledTask(OWNER_A, JOB_A, HOST_A),
         makeScheduledTask(OWNER_B, JOB_A, HOST_A),
         makeScheduledTask(OWNER_B, JOB_A, HOST_A),
         makeScheduledTask(OWNER_A, JOB_A, HOST_B),
         makeScheduledTask(OWNER_A, JOB_A, HOST_B),
         makeScheduledTask(OWNER_B, JOB_A, HOST_B),
-        makeScheduledTask(OWNER_A, JOB_A, HOST_C))
-        .atLeastOnce();
-
-    control.replay();
+        makeScheduledTask(OWNER_A, JOB_A, HOST_C));
 
     assertNoVetoes(hostLimitTask(OWNER_A, JOB_A, 2), HOST_A);
     assertVetoes(hostLimitTask(OWNER_A, JOB_A, 1), HOST_B, limitVeto(HOST_ATTRIBUTE));
@@ -413,6 +409,24 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     checkConstraint(HOST_A, "xxx", false, "1.0", "1.4");
   }
 
+  @Test
+  public void testHostViewCachedUntilAttributesChange() throws Exception {
+    // Host attributes are read from storage once, and then replaced by change notifications.
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "1.0"));
+    expectGetHostMaintenanceStatus(HOST_A).atLeastOnce();
+
+    control.replay();
+
+    checkConstraint(HOST_A, "jvm", true, "1.0");
+    checkConstraint(HOST_A, "jvm", false, "2.0");
+
+    defaultFilter.hostAttributesChanged(new HostAttributesChanged(new HostAttributes()
+        .setHost(HOST_A)
+        .setAttributes(ImmutableSet.of(valueAttribute("jvm", "2.0")))));
+    checkConstraint(HOST_A, "jvm", false, "1.0");
+    checkConstraint(HOST_A, "jvm", true, "2.0");
+  }
+
   @Test
   public void testAttributes() throws Exception {
     expectGetHostAttributes(HOST_A,
@@ -536,11 +550,10 @@ public class SchedulingFilterImplTest extends EasyMockTest {
         TaskConstraint.value(new ValueConstraint(false, ImmutableSet.copyOf(values))));
   }
 
-  private IExpectationSetters<ImmutableSet<IScheduledTask>> expectGetTasks(
-      IScheduledTask... tasks) {
-
-    return expect(taskStore.fetchTasks((Query.Builder) anyObject()))
-        .andReturn(ImmutableSet.copyOf(tasks));
+  private void countTasks(IScheduledTask... tasks) {
+    for (IScheduledTask task : tasks) {
+      aggregates.taskChangedState(new TaskStateChange(task, ScheduleStatus.PENDING));
+    }
   }
 
   private IExpectationSetters<MaintenanceMode> expectGetHostMaintenanceStatus(String host) {
@@ -563,8 +576,9 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   }
 
   private IScheduledTask makeScheduledTask(Identity owner, String jobName, String host) {
-    return IScheduledTask.build(new ScheduledTask().setAssignedTask(
-        new AssignedTask()
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(ScheduleStatus.RUNNING)
+        .setAssignedTask(new AssignedTask()
             .setSlaveHost(host)
             .setTaskId("Task-" + taskIdCounter.incrementAndGet())
             .setTask(hostLimitTask(owner, jobName, 1 /* Max per host not used here. */)
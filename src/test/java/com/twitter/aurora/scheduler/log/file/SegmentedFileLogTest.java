@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.testing.TearDown;
+import com.google.common.testing.junit4.TearDownTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.scheduler.log.Log.Entry;
+import com.twitter.aurora.scheduler.log.Log.Position;
+import com.twitter.aurora.scheduler.log.Log.Stream;
+import com.twitter.aurora.scheduler.log.Log.Stream.InvalidPositionException;
+import com.twitter.aurora.scheduler.log.file.SegmentedFileLog.SyncPolicy;
+import com.twitter.common.io.FileUtils;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedFileLogTest extends TearDownTestCase {
+
+  private static final Amount<Long, Time> SYNC_INTERVAL = Amount.of(10L, Time.MILLISECONDS);
+
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = FileUtils.createTempDir();
+    addTearDown(new TearDown() {
+      @Override public void tearDown() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(directory);
+      }
+    });
+  }
+
+  private Stream open(long segmentBytes, SyncPolicy syncPolicy) throws IOException {
+    final Stream stream = new SegmentedFileLog(
+        directory,
+        Amount.of(segmentBytes, Data.BYTES),
+        syncPolicy,
+        SYNC_INTERVAL).open();
+    addTearDown(new TearDown() {
+      @Override public void tearDown() throws Exception {
+        stream.close();
+      }
+    });
+    return stream;
+  }
+
+  private Stream open() throws IOException {
+    return open(Amount.of(1L, Data.MB).as(Data.BYTES), SyncPolicy.GROUP);
+  }
+
+  private static List<Position> append(Stream stream, String... entries) {
+    List<Position> positions = Lists.newArrayList();
+    for (String entry : entries) {
+      positions.add(stream.append(entry.getBytes(Charsets.UTF_8)));
+    }
+    return positions;
+  }
+
+  private static List<String> readAll(Stream stream) {
+    return ImmutableList.copyOf(Lists.transform(
+        ImmutableList.copyOf(stream.readAll()),
+        new Function<Entry, String>() {
+          @Override public String apply(Entry entry) {
+            return new String(entry.contents(), Charsets.UTF_8);
+          }
+        }));
+  }
+
+  private int countSegments() {
+    return directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.getName().endsWith(".segment");
+      }
+    }).length;
+  }
+
+  private void testAppendAndRead(SyncPolicy syncPolicy) throws Exception {
+    Stream stream = open(Amount.of(1L, Data.MB).as(Data.BYTES), syncPolicy);
+    List<Position> positions = append(stream, "a", "b", "c");
+    assertTrue(positions.get(0).compareTo(positions.get(1)) < 0);
+    assertTrue(positions.get(1).compareTo(positions.get(2)) < 0);
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll(stream));
+  }
+
+  @Test
+  public void testAppendAndReadPerAppendSync() throws Exception {
+    testAppendAndRead(SyncPolicy.PER_APPEND);
+  }
+
+  @Test
+  public void testAppendAndReadGroupSync() throws Exception {
+    testAppendAndRead(SyncPolicy.GROUP);
+  }
+
+  @Test
+  public void testAppendAndReadIntervalSync() throws Exception {
+    testAppendAndRead(SyncPolicy.INTERVAL);
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    Stream stream = open();
+    append(stream, "a", "b");
+    stream.close();
+
+    stream = open();
+    append(stream, "c");
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll(stream));
+  }
+
+  @Test
+  public void testRollsSegments() throws Exception {
+    Stream stream = open(20, SyncPolicy.PER_APPEND);
+    append(stream, "first entry", "second entry", "third entry");
+    assertEquals(3, countSegments());
+    assertEquals(ImmutableList.of("first entry", "second entry", "third entry"), readAll(stream));
+  }
+
+  @Test
+  public void testTruncateBefore() throws Exception {
+    Stream stream = open(20, SyncPolicy.PER_APPEND);
+    List<Position> positions = append(stream, "first entry", "second entry", "third entry");
+
+    stream.truncateBefore(positions.get(1));
+    assertEquals(2, countSegments());
+    assertEquals(ImmutableList.of("second entry", "third entry"), readAll(stream));
+    stream.close();
+
+    stream = open(20, SyncPolicy.PER_APPEND);
+    assertEquals(ImmutableList.of("second entry", "third entry"), readAll(stream));
+  }
+
+  @Test
+  public void testTruncateWithinSegment() throws Exception {
+    Stream stream = open();
+    List<Position> positions = append(stream, "a", "b", "c");
+
+    stream.truncateBefore(positions.get(2));
+    assertEquals(1, countSegments());
+    assertEquals(ImmutableList.of("c"), readAll(stream));
+    stream.close();
+
+    stream = open();
+    assertEquals(ImmutableList.of("c"), readAll(stream));
+  }
+
+  @Test(expected = InvalidPositionException.class)
+  public void testTruncateBeforeTruncatedPosition() throws Exception {
+    Stream stream = open();
+    List<Position> positions = append(stream, "a", "b");
+    stream.truncateBefore(positions.get(1));
+    stream.truncateBefore(positions.get(0));
+  }
+
+  @Test(expected = InvalidPositionException.class)
+  public void testTruncateBeforeUnknownPosition() throws Exception {
+    Stream stream = open();
+    append(stream, "a");
+    stream.truncateBefore(new SegmentedFileLog.FilePosition(100));
+  }
+
+  @Test
+  public void testDropsTornRecord() throws Exception {
+    Stream stream = open();
+    append(stream, "a", "b");
+    stream.close();
+
+    File segment = new File(directory, String.format("%020d.segment", 1));
+    RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+    try {
+      // Simulate an append interrupted after writing part of its record.
+      raf.setLength(raf.length() - 1);
+    } finally {
+      raf.close();
+    }
+
+    stream = open();
+    assertEquals(ImmutableList.of("a"), readAll(stream));
+    append(stream, "c");
+    assertEquals(ImmutableList.of("a", "c"), readAll(stream));
+  }
+}
@@ -15,6 +15,7 @@ import com.twitter.aurora.scheduler.log.Log.Stream.StreamAccessException;
 import com.twitter.aurora.scheduler.log.mesos.LogInterface.ReaderInterface;
 import com.twitter.aurora.scheduler.log.mesos.LogInterface.WriterInterface;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
@@ -23,6 +24,8 @@ import static org.easymock.EasyMock.expect;
 public class MesosLogTest extends EasyMockTest {
 
   private static final Amount<Long, Time> READ_TIMEOUT = Amount.of(5L, Time.SECONDS);
+  private static final int READ_BATCH_SIZE = 100;
+  private static final Amount<Long, Data> READ_BATCH_MEMORY = Amount.of(1L, Data.MB);
   private static final Amount<Long, Time> WRITE_TIMEOUT = Amount.of(3L, Time.SECONDS);
   private static final byte[] DUMMY_CONTENT = "test data".getBytes();
 
@@ -42,7 +45,7 @@ public class MesosLogTest extends EasyMockTest {
     dummyMutation = createMock(new Clazz<MesosLog.LogStream.Mutation<String>>() { });
     stats = new MesosLog.LogStream.OpStats("test");
     logStream = new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT,
-        writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT);
+        READ_BATCH_SIZE, READ_BATCH_MEMORY, writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT);
   }
 
   @Test(expected = StreamAccessException.class)
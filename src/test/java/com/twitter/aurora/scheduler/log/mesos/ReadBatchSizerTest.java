@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.mesos;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadBatchSizerTest {
+
+  private ReadBatchSizer sizer;
+
+  @Before
+  public void setUp() {
+    sizer = new ReadBatchSizer(1000, Amount.of(1L, Data.MB));
+  }
+
+  @Test
+  public void testInitialBatch() {
+    assertEquals(16, sizer.nextBatchSize());
+    assertEquals(1, new ReadBatchSizer(1, Amount.of(1L, Data.MB)).nextBatchSize());
+  }
+
+  @Test
+  public void testSmallEntries() {
+    sizer.record(16, 16 * 100);
+    assertEquals(1000, sizer.nextBatchSize());
+  }
+
+  @Test
+  public void testLargeEntries() {
+    sizer.record(2, Amount.of(1L, Data.MB).as(Data.BYTES));
+    assertEquals(2, sizer.nextBatchSize());
+
+    sizer.record(1, Amount.of(4L, Data.MB).as(Data.BYTES));
+    assertEquals(1, sizer.nextBatchSize());
+  }
+
+  @Test
+  public void testRecoversAfterLargeEntries() {
+    sizer.record(1, Amount.of(4L, Data.MB).as(Data.BYTES));
+    assertEquals(1, sizer.nextBatchSize());
+    for (int i = 0; i < 20; i++) {
+      sizer.record(100, 100 * 100);
+    }
+    assertEquals(1000, sizer.nextBatchSize());
+  }
+
+  @Test
+  public void testEmptyBatchKeepsEstimate() {
+    sizer.record(2, Amount.of(1L, Data.MB).as(Data.BYTES));
+    sizer.record(0, 0);
+    assertEquals(2, sizer.nextBatchSize());
+  }
+}
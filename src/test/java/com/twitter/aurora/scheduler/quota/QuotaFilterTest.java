@@ -18,21 +18,17 @@ package com.twitter.aurora.scheduler.quota;
 import org.junit.Before;
 import org.junit.Test;
 
-import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.JobConfiguration;
 import com.twitter.aurora.gen.Quota;
-import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.scheduler.base.JobKeys;
-import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl;
+import com.twitter.aurora.scheduler.stats.ResourceAggregates;
 import com.twitter.aurora.scheduler.storage.entities.IJobConfiguration;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
-import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
 import static org.easymock.EasyMock.expect;
@@ -48,7 +44,6 @@ public class QuotaFilterTest extends EasyMockTest {
   private static final String JOB_NAME = "test_job";
   private static final String ENV = "test_env";
   private static final IJobKey JOB_KEY = JobKeys.from(ROLE, ENV, JOB_NAME);
-  private static final Query.Builder QUERY = Query.jobScoped(JOB_KEY).active();
   private static final IQuota QUOTA = IQuota.build(new Quota()
       .setNumCpus(1.0)
       .setRamMb(256L)
@@ -65,16 +60,16 @@ public class QuotaFilterTest extends EasyMockTest {
   private QuotaFilter quotaFilter;
 
   private QuotaManagerImpl quotaManager;
-  private StorageTestUtil storageTestUtil;
+  private ResourceAggregates aggregates;
   private QuotaComparisonResult quotaCompResult;
 
   @Before
   public void setUp() {
     quotaManager = createMock(QuotaManagerImpl.class);
     quotaCompResult = createMock(QuotaComparisonResult.class);
-    storageTestUtil = new StorageTestUtil(this);
+    aggregates = createMock(ResourceAggregates.class);
 
-    quotaFilter = new QuotaFilter(quotaManager, storageTestUtil.storage);
+    quotaFilter = new QuotaFilter(quotaManager, aggregates);
   }
 
   @Test
@@ -94,8 +89,7 @@ public class QuotaFilterTest extends EasyMockTest {
     jobBuilder.getTaskConfig().setProduction(true);
     IJobConfiguration job = IJobConfiguration.build(jobBuilder);
 
-    storageTestUtil.expectOperations();
-    storageTestUtil.expectTaskFetch(QUERY).times(2);
+    expect(aggregates.getProductionConsumption(JOB_KEY)).andReturn(Quotas.noQuota()).times(2);
 
     expect(quotaManager.checkQuota(ROLE, QUOTA)).andReturn(quotaCompResult);
     expect(quotaCompResult.result()).andReturn(SUFFICIENT_QUOTA);
@@ -114,10 +108,7 @@ public class QuotaFilterTest extends EasyMockTest {
     JobConfiguration jobBuilder = JOB.newBuilder();
     jobBuilder.getTaskConfig().setProduction(true);
 
-    storageTestUtil.expectOperations();
-    storageTestUtil.expectTaskFetch(QUERY,
-        IScheduledTask.build(new ScheduledTask().setAssignedTask(
-            new AssignedTask().setTask(jobBuilder.getTaskConfig()))));
+    expect(aggregates.getProductionConsumption(JOB_KEY)).andReturn(QUOTA);
 
     expect(quotaManager.checkQuota(ROLE, IQuota.build(new Quota(0, 0, 0))))
         .andReturn(quotaCompResult);
@@ -136,16 +127,8 @@ public class QuotaFilterTest extends EasyMockTest {
     JobConfiguration jobBuilder = JOB.newBuilder().setInstanceCount(numTasks + additionalTasks);
     jobBuilder.getTaskConfig().setProduction(true);
 
-    IScheduledTask[] scheduledTasks = new IScheduledTask[numTasks];
-    for (int i = 0; i < numTasks; i++) {
-      ScheduledTask builder = new ScheduledTask().setAssignedTask(
-          new AssignedTask().setTask(jobBuilder.getTaskConfig()));
-      builder.getAssignedTask().setInstanceId(i);
-      scheduledTasks[i] = IScheduledTask.build(builder);
-    }
-
-    storageTestUtil.expectOperations();
-    storageTestUtil.expectTaskFetch(QUERY, scheduledTasks);
+    expect(aggregates.getProductionConsumption(JOB_KEY))
+        .andReturn(Quotas.scale(QUOTA, numTasks));
 
     expect(quotaManager.checkQuota(ROLE, QUOTA)).andReturn(quotaCompResult);
     expect(quotaCompResult.result()).andReturn(INSUFFICIENT_QUOTA);
@@ -165,10 +148,7 @@ public class QuotaFilterTest extends EasyMockTest {
         .setEnvironment(ENV)
         .setJobName(JOB_NAME);
 
-    storageTestUtil.expectOperations();
-    storageTestUtil.expectTaskFetch(QUERY,
-        IScheduledTask.build(new ScheduledTask().setAssignedTask(
-            new AssignedTask().setTask(jobBuilder.getTaskConfig()))));
+    expect(aggregates.getProductionConsumption(JOB_KEY)).andReturn(QUOTA);
 
     expect(quotaManager.checkQuota(ROLE, IQuota.build(new Quota(0, 0, 0))))
         .andReturn(quotaCompResult);
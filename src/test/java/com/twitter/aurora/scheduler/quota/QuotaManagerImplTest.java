@@ -16,6 +16,8 @@
 package com.twitter.aurora.scheduler.quota;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 
 import org.easymock.IExpectationSetters;
 import org.junit.Before;
@@ -27,8 +29,9 @@ import com.twitter.aurora.gen.Quota;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
-import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.quota.QuotaManager.QuotaManagerImpl;
+import com.twitter.aurora.scheduler.stats.ResourceAggregates;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
@@ -43,16 +46,17 @@ import static com.twitter.aurora.scheduler.quota.QuotaComparisonResult.Result.SU
 
 public class QuotaManagerImplTest extends EasyMockTest {
   private static final String ROLE = "foo";
-  private static final Query.Builder ACTIVE_QUERY = Query.roleScoped(ROLE).active();
 
   private StorageTestUtil storageUtil;
+  private ResourceAggregates aggregates;
   // TODO(maximk): Move checkQuota to QuotaFilter along with tests.
   private QuotaManagerImpl quotaManager;
 
   @Before
   public void setUp() throws Exception {
     storageUtil = new StorageTestUtil(this);
-    quotaManager = new QuotaManagerImpl(storageUtil.storage);
+    aggregates = createMock(ResourceAggregates.class);
+    quotaManager = new QuotaManagerImpl(storageUtil.storage, aggregates);
   }
 
   @Test
@@ -165,7 +169,10 @@ public class QuotaManagerImplTest extends EasyMockTest {
   }
 
   private IExpectationSetters<?> returnTasks(IScheduledTask... tasks) {
-    return storageUtil.expectTaskFetch(ACTIVE_QUERY, tasks);
+    return expect(aggregates.getProductionConsumption(ROLE)).andReturn(
+        Quotas.fromProductionTasks(Iterables.transform(
+            ImmutableList.copyOf(tasks),
+            Tasks.SCHEDULED_TO_INFO)));
   }
 
   private IExpectationSetters<?> returnNoTasks() {
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.state;
+
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.easymock.Capture;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Constraint;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.LimitConstraint;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskConstraint;
+import com.twitter.aurora.scheduler.MesosTaskFactory;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
+import com.twitter.aurora.scheduler.state.TaskAssigner.TaskAssignerImpl;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+
+public class TaskAssignerImplTest extends EasyMockTest {
+
+  private static final String HOST = "host";
+  private static final SlaveID SLAVE_ID = SlaveID.newBuilder().setValue("slave").build();
+  private static final Offer OFFER = Offer.newBuilder()
+      .setId(OfferID.newBuilder().setValue("offer"))
+      .setFrameworkId(FrameworkID.newBuilder().setValue("framework"))
+      .setSlaveId(SLAVE_ID)
+      .setHostname(HOST)
+      .addResources(Resources.makeMesosResource(Resources.CPUS, 4))
+      .addResources(Resources.makeMesosResource(Resources.RAM_MB, 4096))
+      .addResources(Resources.makeMesosResource(Resources.DISK_MB, 4096))
+      .build();
+
+  private static final ImmutableSet<Veto> NO_VETO = ImmutableSet.of();
+
+  private Storage storage;
+  private MutableStoreProvider storeProvider;
+  private StateManager stateManager;
+  private SchedulingFilter filter;
+  private MesosTaskFactory taskFactory;
+  private TaskAssigner assigner;
+
+  @Before
+  public void setUp() {
+    storage = createMock(Storage.class);
+    storeProvider = createMock(MutableStoreProvider.class);
+    stateManager = createMock(StateManager.class);
+    filter = createMock(SchedulingFilter.class);
+    taskFactory = createMock(MesosTaskFactory.class);
+    assigner = new TaskAssignerImpl(storage, stateManager, filter, taskFactory);
+  }
+
+  @Test
+  public void testAssignsBatchInOneWrite() {
+    ITaskConfig config = makeConfig();
+    List<IScheduledTask> tasks = ImmutableList.of(
+        makeTask("a", config),
+        makeTask("b", config),
+        makeTask("c", config));
+    expectFilter(config, "a", NO_VETO);
+    expectWrite();
+    TaskInfo a = expectAssignment(tasks.get(0));
+    TaskInfo b = expectAssignment(tasks.get(1));
+    TaskInfo c = expectAssignment(tasks.get(2));
+
+    control.replay();
+
+    assertEquals(ImmutableList.of(a, b, c), assigner.maybeAssign(OFFER, tasks));
+  }
+
+  @Test
+  public void testSkipsTasksNoLongerPending() {
+    ITaskConfig config = makeConfig();
+    List<IScheduledTask> tasks = ImmutableList.of(makeTask("a", config), makeTask("b", config));
+    expectFilter(config, "a", NO_VETO);
+    expectWrite();
+    expect(stateManager.assignTask("a", HOST, SLAVE_ID, ImmutableSet.<Integer>of()))
+        .andReturn(null);
+    TaskInfo b = expectAssignment(tasks.get(1));
+
+    control.replay();
+
+    assertEquals(ImmutableList.of(b), assigner.maybeAssign(OFFER, tasks));
+  }
+
+  @Test
+  public void testLimitRecheckDropsTask() {
+    // The limit was satisfied when the filter was evaluated outside of the write, but another
+    // task was placed on the host before the assignment was committed.
+    ITaskConfig config = makeLimitedConfig();
+    IScheduledTask task = makeTask("a", config);
+    expectFilter(config, "a", NO_VETO);
+    expectWrite();
+    expectFilter(config, "a", ImmutableSet.of(new Veto("limit", 1)));
+
+    control.replay();
+
+    assertEquals(Optional.<TaskInfo>absent(), assigner.maybeAssign(OFFER, task));
+  }
+
+  @Test
+  public void testLimitRecheckPasses() {
+    ITaskConfig config = makeLimitedConfig();
+    IScheduledTask task = makeTask("a", config);
+    expectFilter(config, "a", NO_VETO);
+    expectWrite();
+    expectFilter(config, "a", NO_VETO);
+    TaskInfo a = expectAssignment(task);
+
+    control.replay();
+
+    assertEquals(Optional.of(a), assigner.maybeAssign(OFFER, task));
+  }
+
+  @Test
+  public void testBatchWithLimitPlacesOneTask() {
+    ITaskConfig config = makeLimitedConfig();
+    List<IScheduledTask> tasks = ImmutableList.of(makeTask("a", config), makeTask("b", config));
+    expectFilter(config, "a", NO_VETO);
+    expectWrite();
+    expectFilter(config, "a", NO_VETO);
+    TaskInfo a = expectAssignment(tasks.get(0));
+
+    control.replay();
+
+    assertEquals(ImmutableList.of(a), assigner.maybeAssign(OFFER, tasks));
+  }
+
+  private void expectFilter(ITaskConfig config, String taskId, ImmutableSet<Veto> vetoes) {
+    expect(filter.filter(isA(ResourceSlot.class), eq(HOST), eq(config), eq(taskId)))
+        .andReturn(vetoes);
+  }
+
+  private void expectWrite() {
+    final Capture<MutateWork<Object, RuntimeException>> work = createCapture();
+    expect(storage.write(capture(work))).andAnswer(new IAnswer<Object>() {
+      @Override public Object answer() {
+        return work.getValue().apply(storeProvider);
+      }
+    });
+  }
+
+  private TaskInfo expectAssignment(IScheduledTask task) {
+    IAssignedTask assigned = IAssignedTask.build(task.getAssignedTask().newBuilder()
+        .setSlaveHost(HOST)
+        .setSlaveId(SLAVE_ID.getValue()));
+    expect(stateManager.assignTask(
+        task.getAssignedTask().getTaskId(),
+        HOST,
+        SLAVE_ID,
+        ImmutableSet.<Integer>of())).andReturn(assigned);
+    TaskInfo info = TaskInfo.newBuilder()
+        .setName(assigned.getTaskId())
+        .setTaskId(TaskID.newBuilder().setValue(assigned.getTaskId()))
+        .setSlaveId(SLAVE_ID)
+        .build();
+    expect(taskFactory.createFrom(assigned, SLAVE_ID)).andReturn(info);
+    return info;
+  }
+
+  private static ITaskConfig makeConfig() {
+    return ITaskConfig.build(baseConfig());
+  }
+
+  private static ITaskConfig makeLimitedConfig() {
+    return ITaskConfig.build(baseConfig().setConstraints(ImmutableSet.of(
+        new Constraint("host", TaskConstraint.limit(new LimitConstraint(1))))));
+  }
+
+  private static TaskConfig baseConfig() {
+    return new TaskConfig()
+        .setOwner(new Identity("role", "user"))
+        .setEnvironment("env")
+        .setJobName("job")
+        .setNumCpus(1)
+        .setRamMb(256)
+        .setDiskMb(256)
+        .setRequestedPorts(ImmutableSet.<String>of())
+        .setConstraints(ImmutableSet.<Constraint>of());
+  }
+
+  private static IScheduledTask makeTask(String taskId, ITaskConfig config) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setTask(config.newBuilder())));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.stats;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.Quota;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.base.JobKeys;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.quota.Quotas;
+import com.twitter.aurora.scheduler.stats.ResourceCounter.MetricType;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.entities.IQuota;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.INIT;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class ResourceAggregatesTest {
+
+  private static final String ROLE = "role";
+  private static final String ENV = "env";
+
+  private Storage storage;
+  private ResourceAggregates aggregates;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    aggregates = new ResourceAggregates(storage);
+  }
+
+  private static IScheduledTask makeTask(String id, String job, boolean production, int size) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(RUNNING)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(id)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity(ROLE, ROLE))
+                .setEnvironment(ENV)
+                .setJobName(job)
+                .setProduction(production)
+                .setNumCpus(size)
+                .setRamMb(size)
+                .setDiskMb(size))));
+  }
+
+  private static IQuota quota(int size) {
+    return IQuota.build(new Quota(size, size, size));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus oldState, ScheduleStatus newState) {
+    aggregates.taskChangedState(new TaskStateChange(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        oldState));
+  }
+
+  private void saveTasks(final IScheduledTask... tasks) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.copyOf(tasks));
+      }
+    });
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(Quotas.noQuota(), aggregates.getProductionConsumption(ROLE));
+    assertEquals(Quotas.noQuota(), aggregates.getNonProductionConsumption(ROLE));
+    assertEquals(Quotas.noQuota(), aggregates.getConsumption(ROLE, ENV));
+    assertEquals(
+        Quotas.noQuota(),
+        aggregates.getProductionConsumption(JobKeys.from(ROLE, ENV, "job")));
+    assertEquals(Quotas.noQuota(), aggregates.getConsumption(MetricType.TOTAL_CONSUMED));
+  }
+
+  @Test
+  public void testStateChanges() {
+    IScheduledTask prodA = makeTask("a", "prod", true, 1);
+    IScheduledTask prodB = makeTask("b", "prod", true, 2);
+    IScheduledTask nonProd = makeTask("c", "nonprod", false, 4);
+
+    changeState(prodA, INIT, PENDING);
+    changeState(prodB, INIT, PENDING);
+    changeState(nonProd, INIT, PENDING);
+    // Transitions between active states do not change consumption.
+    changeState(prodA, PENDING, RUNNING);
+
+    assertEquals(quota(3), aggregates.getProductionConsumption(ROLE));
+    assertEquals(quota(4), aggregates.getNonProductionConsumption(ROLE));
+    assertEquals(quota(7), aggregates.getConsumption(ROLE, ENV));
+    assertEquals(quota(3), aggregates.getProductionConsumption(JobKeys.from(ROLE, ENV, "prod")));
+    assertEquals(quota(7), aggregates.getConsumption(MetricType.TOTAL_CONSUMED));
+    assertEquals(quota(3), aggregates.getConsumption(MetricType.QUOTA_CONSUMED));
+    assertEquals(quota(4), aggregates.getConsumption(MetricType.FREE_POOL_CONSUMED));
+
+    changeState(prodA, RUNNING, FINISHED);
+    aggregates.tasksDeleted(new TasksDeleted(ImmutableSet.of(nonProd)));
+
+    assertEquals(quota(2), aggregates.getProductionConsumption(ROLE));
+    assertEquals(Quotas.noQuota(), aggregates.getNonProductionConsumption(ROLE));
+    assertEquals(quota(2), aggregates.getConsumption(MetricType.TOTAL_CONSUMED));
+  }
+
+  @Test
+  public void testReconcile() {
+    IScheduledTask prodA = makeTask("a", "prod", true, 1);
+    IScheduledTask prodB = makeTask("b", "prod", true, 2);
+    saveTasks(prodA);
+
+    // The initial load is not considered drift.
+    aggregates.storageStarted(new StorageStarted());
+    assertEquals(quota(1), aggregates.getProductionConsumption(ROLE));
+    assertFalse(aggregates.reconcile());
+
+    // A task stored without a notification is detected.
+    saveTasks(prodB);
+    assertEquals(quota(1), aggregates.getProductionConsumption(ROLE));
+    assertTrue(aggregates.reconcile());
+    assertEquals(quota(3), aggregates.getProductionConsumption(ROLE));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CommitActionsTest {
+
+  private List<String> executed;
+  private CommitActions commitActions;
+
+  @Before
+  public void setUp() {
+    executed = Lists.newArrayList();
+    commitActions = new CommitActions();
+  }
+
+  private void add(final String name) {
+    commitActions.execute(new Runnable() {
+      @Override public void run() {
+        executed.add(name);
+      }
+    });
+  }
+
+  @Test
+  public void testNoWrite() {
+    add("a");
+    assertEquals(ImmutableList.of("a"), executed);
+  }
+
+  @Test
+  public void testDeferredUntilCommit() {
+    commitActions.begin();
+    add("a");
+    add("b");
+    assertEquals(ImmutableList.<String>of(), executed);
+    commitActions.end(true);
+    assertEquals(ImmutableList.of("a", "b"), executed);
+
+    // Actions are no longer deferred once the write has ended.
+    add("c");
+    assertEquals(ImmutableList.of("a", "b", "c"), executed);
+  }
+
+  @Test
+  public void testNestedWrite() {
+    commitActions.begin();
+    add("a");
+    commitActions.begin();
+    add("b");
+    commitActions.end(true);
+    assertEquals(ImmutableList.<String>of(), executed);
+    add("c");
+    commitActions.end(true);
+    assertEquals(ImmutableList.of("a", "b", "c"), executed);
+  }
+
+  @Test
+  public void testDiscardedOnFailure() {
+    commitActions.begin();
+    add("a");
+    commitActions.begin();
+    add("b");
+    commitActions.end(true);
+    commitActions.end(false);
+    assertEquals(ImmutableList.<String>of(), executed);
+
+    commitActions.begin();
+    add("c");
+    commitActions.end(true);
+    assertEquals(ImmutableList.of("c"), executed);
+  }
+
+  @Test
+  public void testRunInSealedOrder() throws Exception {
+    commitActions.begin();
+    add("a");
+    commitActions.seal();
+
+    // A write sealed later on another thread waits for the earlier write to end.
+    Thread other = new Thread() {
+      @Override public void run() {
+        commitActions.begin();
+        add("b");
+        commitActions.seal();
+        commitActions.end(true);
+      }
+    };
+    other.start();
+    other.join();
+    assertEquals(ImmutableList.<String>of(), executed);
+
+    commitActions.end(true);
+    assertEquals(ImmutableList.of("a", "b"), executed);
+  }
+
+  @Test
+  public void testActionsAfterSeal() {
+    commitActions.begin();
+    commitActions.seal();
+    add("a");
+    commitActions.end(true);
+    assertEquals(ImmutableList.of("a"), executed);
+  }
+
+  @Test
+  public void testFailedActionDoesNotBlockOthers() {
+    commitActions.begin();
+    commitActions.execute(new Runnable() {
+      @Override public void run() {
+        throw new IllegalStateException("Injected failure.");
+      }
+    });
+    add("a");
+    commitActions.end(true);
+    assertEquals(ImmutableList.of("a"), executed);
+  }
+}
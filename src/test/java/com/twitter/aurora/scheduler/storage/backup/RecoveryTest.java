@@ -34,6 +34,7 @@ import com.twitter.aurora.gen.storage.QuotaConfiguration;
 import com.twitter.aurora.gen.storage.SchedulerMetadata;
 import com.twitter.aurora.gen.storage.Snapshot;
 import com.twitter.aurora.gen.storage.StoredJob;
+import com.twitter.aurora.gen.storage.StoredTask;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.storage.DistributedSnapshotStore;
@@ -47,6 +48,8 @@ import com.twitter.aurora.scheduler.storage.backup.StorageBackup.StorageBackupIm
 import com.twitter.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl.BackupConfig;
 import com.twitter.aurora.scheduler.storage.backup.TemporaryStorage.TemporaryStorageFactory;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.log.StreamingSnapshotStore;
+import com.twitter.aurora.scheduler.storage.log.TaskConfigTable;
 import com.twitter.common.base.Command;
 import com.twitter.common.io.FileUtils;
 import com.twitter.common.quantity.Amount;
@@ -91,8 +94,11 @@ public class RecoveryTest extends EasyMockTest {
     shutDownNow = createMock(Command.class);
     clock = new FakeClock();
     TemporaryStorageFactory factory = new TemporaryStorageFactory();
-    storageBackup =
-        new StorageBackupImpl(snapshotStore, clock, new BackupConfig(backupDir, 5, INTERVAL));
+    storageBackup = new StorageBackupImpl(
+        snapshotStore,
+        createMock(StreamingSnapshotStore.class),
+        clock,
+        new BackupConfig(backupDir, 5, INTERVAL));
     recovery = new RecoveryImpl(backupDir, factory, primaryStorage, distributedStore, shutDownNow);
   }
 
@@ -115,7 +121,27 @@ public class RecoveryTest extends EasyMockTest {
 
     recovery.stage(backup1);
     assertEquals(
-        IScheduledTask.setFromBuilders(SNAPSHOT1.getTasks()),
+        IScheduledTask.setFromBuilders(ImmutableSet.of(TASK1, TASK2)),
+        recovery.query(Query.unscoped()));
+    recovery.commit();
+    transaction.getValue().apply(storeProvider);
+  }
+
+  @Test
+  public void testRecoverLegacySnapshot() throws Exception {
+    expect(snapshotStore.createSnapshot()).andReturn(makeLegacySnapshot(TASK1, TASK2));
+    Capture<MutateWork<?, ?>> transaction = createCapture();
+    expect(primaryStorage.write(capture(transaction))).andReturn(null);
+    distributedStore.persist(SNAPSHOT1);
+    shutDownNow.execute();
+
+    control.replay();
+
+    clock.advance(INTERVAL);
+    storageBackup.createSnapshot();
+    recovery.stage(storageBackup.createBackupName());
+    assertEquals(
+        IScheduledTask.setFromBuilders(ImmutableSet.of(TASK1, TASK2)),
         recovery.query(Query.unscoped()));
     recovery.commit();
     transaction.getValue().apply(storeProvider);
@@ -124,7 +150,7 @@ public class RecoveryTest extends EasyMockTest {
   @Test
   public void testModifySnapshotBeforeCommit() throws Exception {
     expect(snapshotStore.createSnapshot()).andReturn(SNAPSHOT1);
-    Snapshot modified = SNAPSHOT1.deepCopy().setTasks(ImmutableSet.of(TASK1));
+    Snapshot modified = makeSnapshot(TASK1);
     Capture<MutateWork<?, ?>> transaction = createCapture();
     expect(primaryStorage.write(capture(transaction))).andReturn(null);
     distributedStore.persist(modified);
@@ -137,11 +163,11 @@ public class RecoveryTest extends EasyMockTest {
     String backup1 = storageBackup.createBackupName();
     recovery.stage(backup1);
     assertEquals(
-        IScheduledTask.setFromBuilders(SNAPSHOT1.getTasks()),
+        IScheduledTask.setFromBuilders(ImmutableSet.of(TASK1, TASK2)),
         recovery.query(Query.unscoped()));
     recovery.deleteTasks(Query.taskScoped(Tasks.id(TASK2)));
     assertEquals(
-        IScheduledTask.setFromBuilders(modified.getTasks()),
+        IScheduledTask.setFromBuilders(ImmutableSet.of(TASK1)),
         recovery.query(Query.unscoped()));
     recovery.commit();
     transaction.getValue().apply(storeProvider);
@@ -159,16 +185,30 @@ public class RecoveryTest extends EasyMockTest {
     recovery.commit();
   }
 
-  private static Snapshot makeSnapshot(ScheduledTask... tasks) {
+  private static Snapshot makeEmptySnapshot() {
     return new Snapshot()
         .setHostAttributes(ImmutableSet.<HostAttributes>of())
         .setJobs(ImmutableSet.<StoredJob>of())
         .setSchedulerMetadata(new SchedulerMetadata().setVersion(CURRENT_API_VERSION))
         .setQuotaConfigurations(ImmutableSet.<QuotaConfiguration>of())
-        .setTasks(ImmutableSet.<ScheduledTask>builder().add(tasks).build())
         .setLocks(ImmutableSet.<Lock>of());
   }
 
+  private static Snapshot makeSnapshot(ScheduledTask... tasks) {
+    TaskConfigTable configs = new TaskConfigTable();
+    ImmutableSet.Builder<StoredTask> storedTasks = ImmutableSet.builder();
+    for (ScheduledTask task : tasks) {
+      storedTasks.add(configs.store(IScheduledTask.build(task)));
+    }
+    return makeEmptySnapshot()
+        .setStoredTasks(storedTasks.build())
+        .setTaskConfigs(configs.getConfigs());
+  }
+
+  private static Snapshot makeLegacySnapshot(ScheduledTask... tasks) {
+    return makeEmptySnapshot().setTasks(ImmutableSet.<ScheduledTask>builder().add(tasks).build());
+  }
+
   private static ScheduledTask makeTask(String taskId) {
     return new ScheduledTask().setAssignedTask(
         new AssignedTask()
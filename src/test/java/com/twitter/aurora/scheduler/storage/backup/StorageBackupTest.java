@@ -41,6 +41,8 @@ import com.twitter.aurora.gen.storage.StoredJob;
 import com.twitter.aurora.scheduler.storage.SnapshotStore;
 import com.twitter.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl;
 import com.twitter.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl.BackupConfig;
+import com.twitter.aurora.scheduler.storage.log.StreamingSnapshotStore;
+import com.twitter.aurora.scheduler.storage.log.StreamingSnapshotStore.PartSink;
 import com.twitter.common.io.FileUtils;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -48,6 +50,7 @@ import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.testing.FakeClock;
 
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.Assert.assertEquals;
 
 public class StorageBackupTest extends EasyMockTest {
@@ -56,6 +59,7 @@ public class StorageBackupTest extends EasyMockTest {
   private static final Amount<Long, Time> INTERVAL = Amount.of(1L, Time.HOURS);
 
   private SnapshotStore<Snapshot> delegate;
+  private StreamingSnapshotStore streamingDelegate;
   private FakeClock clock;
   private BackupConfig config;
   private StorageBackupImpl storageBackup;
@@ -63,6 +67,7 @@ public class StorageBackupTest extends EasyMockTest {
   @Before
   public void setUp() {
     delegate = createMock(new Clazz<SnapshotStore<Snapshot>>() { });
+    streamingDelegate = createMock(StreamingSnapshotStore.class);
     clock = new FakeClock();
     final File backupDir = FileUtils.createTempDir();
     addTearDown(new TearDown() {
@@ -72,7 +77,7 @@ public class StorageBackupTest extends EasyMockTest {
     });
     config = new BackupConfig(backupDir, MAX_BACKUPS, INTERVAL);
     clock.advance(Amount.of(365 * 30L, Time.DAYS));
-    storageBackup = new StorageBackupImpl(delegate, clock, config);
+    storageBackup = new StorageBackupImpl(delegate, streamingDelegate, clock, config);
   }
 
   @Test
@@ -98,6 +103,23 @@ public class StorageBackupTest extends EasyMockTest {
     assertEquals(snapshot, restored);
   }
 
+  @Test
+  public void testStreamedBackup() throws Exception {
+    Snapshot snapshot = makeSnapshot();
+    PartSink sink = createMock(PartSink.class);
+    streamingDelegate.streamSnapshot(10, sink);
+    expectLastCall().times(2);
+    expect(delegate.createSnapshot()).andReturn(snapshot);
+
+    control.replay();
+
+    storageBackup.streamSnapshot(10, sink);
+    assertBackupCount(0);
+    clock.advance(INTERVAL);
+    storageBackup.streamSnapshot(10, sink);
+    assertBackupCount(1);
+  }
+
   @Test
   public void testDirectoryMissing() {
     Snapshot snapshot = makeSnapshot();
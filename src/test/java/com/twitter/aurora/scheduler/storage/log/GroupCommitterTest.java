@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.gen.storage.LogEntry;
+import com.twitter.aurora.gen.storage.Op;
+import com.twitter.aurora.gen.storage.RemoveTasks;
+import com.twitter.aurora.gen.storage.SaveFrameworkId;
+import com.twitter.aurora.gen.storage.Transaction;
+import com.twitter.aurora.gen.storage.storageConstants;
+import com.twitter.aurora.scheduler.log.Log.Position;
+import com.twitter.aurora.scheduler.log.Log.Stream;
+import com.twitter.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import com.twitter.aurora.scheduler.storage.Storage.StorageException;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest extends EasyMockTest {
+
+  private static final Amount<Long, Time> NO_WAIT = Amount.of(0L, Time.MILLISECONDS);
+
+  private Stream stream;
+  private Position position;
+  private StreamManager streamManager;
+
+  @Before
+  public void setUp() {
+    stream = createMock(Stream.class);
+    position = createMock(Position.class);
+    streamManager = new StreamManager(
+        stream,
+        false,
+        false,
+        Amount.of(1, Data.MB),
+        Deflater.DEFAULT_COMPRESSION,
+        Amount.of(Integer.MAX_VALUE, Data.GB),
+        0);
+  }
+
+  @Test
+  public void testCoalescesQueuedTransactions() throws Exception {
+    Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("a"));
+    Op saveFrameworkIdAgain = Op.saveFrameworkId(new SaveFrameworkId("b"));
+    Op removeTasks = Op.removeTasks(new RemoveTasks(ImmutableSet.of("c")));
+    expectAppend(Op.saveFrameworkId(new SaveFrameworkId("b")), removeTasks);
+
+    control.replay();
+
+    GroupCommitter committer = new GroupCommitter(streamManager, 100, NO_WAIT);
+    Future<Position> first = committer.submit(transaction(saveFrameworkId));
+    Future<Position> second = committer.submit(transaction(saveFrameworkIdAgain, removeTasks));
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+
+    committer.commitNextBatch();
+    assertSame(position, first.get());
+    assertSame(position, second.get());
+  }
+
+  @Test
+  public void testBatchLimitedByOps() throws Exception {
+    Op removeA = Op.removeTasks(new RemoveTasks(ImmutableSet.of("a")));
+    Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("b"));
+    expectAppend(removeA);
+    expectAppend(saveFrameworkId);
+
+    control.replay();
+
+    GroupCommitter committer = new GroupCommitter(streamManager, 1, NO_WAIT);
+    Future<Position> first = committer.submit(transaction(removeA));
+    Future<Position> second = committer.submit(transaction(saveFrameworkId));
+
+    committer.commitNextBatch();
+    assertTrue(first.isDone());
+    assertFalse(second.isDone());
+
+    committer.commitNextBatch();
+    assertTrue(second.isDone());
+  }
+
+  @Test
+  public void testAppendFailure() throws Exception {
+    Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("a"));
+    expect(stream.append(aryEq(encode(saveFrameworkId))))
+        .andThrow(new StreamAccessException("Injected failure", new Exception()));
+
+    control.replay();
+
+    GroupCommitter committer = new GroupCommitter(streamManager, 1, NO_WAIT);
+    Future<Position> commit = committer.submit(transaction(saveFrameworkId));
+    Future<Position> queued =
+        committer.submit(transaction(Op.saveFrameworkId(new SaveFrameworkId("b"))));
+    committer.commitNextBatch();
+
+    try {
+      commit.get();
+      fail("Commit should have failed.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StreamAccessException);
+    }
+
+    // The committer stops, rather than appending transactions that followed the failed batch.
+    try {
+      queued.get();
+      fail("Queued commit should have failed.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StorageException);
+    }
+    try {
+      committer.submit(transaction(Op.saveFrameworkId(new SaveFrameworkId("c"))));
+      fail("Submit should fail once the committer has stopped.");
+    } catch (StorageException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testStopFailsQueuedCommits() throws Exception {
+    control.replay();
+
+    GroupCommitter committer = new GroupCommitter(streamManager, 100, NO_WAIT);
+    Future<Position> commit =
+        committer.submit(transaction(Op.saveFrameworkId(new SaveFrameworkId("a"))));
+    committer.stop();
+
+    try {
+      commit.get();
+      fail("Commit should have failed.");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StorageException);
+    }
+  }
+
+  @Test(expected = StorageException.class)
+  public void testSubmitAfterStop() throws Exception {
+    control.replay();
+
+    GroupCommitter committer = new GroupCommitter(streamManager, 100, NO_WAIT);
+    committer.stop();
+    committer.submit(transaction(Op.saveFrameworkId(new SaveFrameworkId("a"))));
+  }
+
+  private StreamTransaction transaction(Op... ops) {
+    StreamTransaction transaction = streamManager.startTransaction();
+    for (Op op : ops) {
+      transaction.add(op);
+    }
+    return transaction;
+  }
+
+  private void expectAppend(Op... ops) throws Exception {
+    expect(stream.append(aryEq(encode(ops)))).andReturn(position);
+  }
+
+  private static byte[] encode(Op... ops) throws Exception {
+    return ThriftBinaryCodec.encode(LogEntry.transaction(
+        new Transaction(ImmutableList.copyOf(ops), storageConstants.CURRENT_SCHEMA_VERSION)));
+  }
+}
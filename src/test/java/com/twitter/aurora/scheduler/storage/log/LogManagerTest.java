@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.zip.Deflater;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
@@ -41,6 +42,7 @@ import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
@@ -52,6 +54,7 @@ import com.twitter.aurora.gen.storage.Op;
 import com.twitter.aurora.gen.storage.RemoveJob;
 import com.twitter.aurora.gen.storage.RemoveTasks;
 import com.twitter.aurora.gen.storage.SaveFrameworkId;
+import com.twitter.aurora.gen.storage.SaveHostAttributes;
 import com.twitter.aurora.gen.storage.SaveTasks;
 import com.twitter.aurora.gen.storage.Snapshot;
 import com.twitter.aurora.gen.storage.Transaction;
@@ -84,6 +87,8 @@ public class LogManagerTest extends EasyMockTest {
 
   private static final Amount<Integer, Data> NO_FRAMES_EVER_SIZE =
       Amount.of(Integer.MAX_VALUE, Data.GB);
+  private static final Amount<Integer, Data> DEFLATE_BLOCK_SIZE = Amount.of(64, Data.BYTES);
+  private static final int DEFLATE_LEVEL = Deflater.DEFAULT_COMPRESSION;
 
   private static final Function<LogEntry, byte[]> ENCODE = new Function<LogEntry, byte[]>() {
     @Override public byte[] apply(LogEntry entry) {
@@ -111,7 +116,18 @@ public class LogManagerTest extends EasyMockTest {
   }
 
   private StreamManager createStreamManager(Amount<Integer, Data> maxEntrySize) {
-    return new StreamManager(stream, false, maxEntrySize);
+    return createStreamManager(maxEntrySize, 0);
+  }
+
+  private StreamManager createStreamManager(Amount<Integer, Data> maxEntrySize, int replayThreads) {
+    return new StreamManager(
+        stream,
+        false,
+        false,
+        DEFLATE_BLOCK_SIZE,
+        DEFLATE_LEVEL,
+        maxEntrySize,
+        replayThreads);
   }
 
   @Test
@@ -128,7 +144,15 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    new LogManager(log, NO_FRAMES_EVER_SIZE, false, shutdownRegistry).open();
+    new LogManager(
+        log,
+        NO_FRAMES_EVER_SIZE,
+        false,
+        false,
+        DEFLATE_BLOCK_SIZE,
+        DEFLATE_LEVEL,
+        0,
+        shutdownRegistry).open();
 
     assertTrue(shutdownAction.hasCaptured());
     shutdownAction.getValue().execute();
@@ -252,6 +276,27 @@ public class LogManagerTest extends EasyMockTest {
     assertEquals(position1, streamTransaction.commit());
   }
 
+  @Test
+  public void testCoalesceHostAttributes() throws CodingException {
+    HostAttributes draining = new HostAttributes()
+        .setHost("host")
+        .setAttributes(ImmutableSet.of(new Attribute("rack", ImmutableSet.of("a"))))
+        .setMode(MaintenanceMode.DRAINING)
+        .setSlaveId("slave");
+    HostAttributes drained = draining.deepCopy().setMode(MaintenanceMode.DRAINED);
+
+    expectAppend(position1,
+        createLogEntry(Op.saveHostAttributes(new SaveHostAttributes(drained))));
+
+    control.replay();
+
+    StreamTransaction streamTransaction = createNoMessagesStreamManager().startTransaction();
+    streamTransaction.add(Op.saveHostAttributes(new SaveHostAttributes(draining)));
+    streamTransaction.add(Op.saveHostAttributes(new SaveHostAttributes(drained.deepCopy())));
+
+    assertEquals(position1, streamTransaction.commit());
+  }
+
   @Test
   public void testTransactionSnapshot() throws CodingException {
     Snapshot snapshot = createSnapshot();
@@ -263,6 +308,27 @@ public class LogManagerTest extends EasyMockTest {
     createNoMessagesStreamManager().snapshot(snapshot);
   }
 
+  @Test
+  public void testSnapshotTruncatesBeforeMark() throws CodingException {
+    Snapshot snapshot = createSnapshot();
+    Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("jake"));
+    // With no entries appended, a no-op entry marks the position.
+    expectAppend(position1, LogEntry.noop(true));
+    expectTransaction(position2, saveFrameworkId);
+    expectAppend(createMock(Position.class), LogEntry.snapshot(snapshot));
+    stream.truncateBefore(position2);
+
+    control.replay();
+
+    StreamManager streamManager = createNoMessagesStreamManager();
+    assertEquals(position1, streamManager.markSnapshot());
+    StreamTransaction transaction = streamManager.startTransaction();
+    transaction.add(saveFrameworkId);
+    transaction.commit();
+    assertEquals(position2, streamManager.markSnapshot());
+    streamManager.snapshot(snapshot, position2);
+  }
+
   @Test
   public void testTransactionOps() throws CodingException {
     Op saveFrameworkId = Op.saveFrameworkId(new SaveFrameworkId("jake"));
@@ -392,7 +458,14 @@ public class LogManagerTest extends EasyMockTest {
       }
     };
 
-    final StreamManager streamManager = new StreamManager(mockStream, false, message1.chunkSize);
+    final StreamManager streamManager = new StreamManager(
+        mockStream,
+        false,
+        false,
+        DEFLATE_BLOCK_SIZE,
+        DEFLATE_LEVEL,
+        message1.chunkSize,
+        0);
     StreamTransaction tr1 = streamManager.startTransaction();
     tr1.add(op1);
 
@@ -423,6 +496,15 @@ public class LogManagerTest extends EasyMockTest {
 
   @Test
   public void testStreamManagerReadFrames() throws Exception {
+    expectReadFrames(0);
+  }
+
+  @Test
+  public void testStreamManagerReadFramesParallel() throws Exception {
+    expectReadFrames(4);
+  }
+
+  private void expectReadFrames(int replayThreads) throws Exception {
     LogEntry transaction1 = createLogEntry(
         Op.removeJob(new RemoveJob(JobKeys.from("r1", "env", "name").newBuilder())));
     LogEntry transaction2 = createLogEntry(
@@ -472,7 +554,7 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    createStreamManager(message.chunkSize).readFromBeginning(reader);
+    createStreamManager(message.chunkSize, replayThreads).readFromBeginning(reader);
   }
 
   @Test
@@ -494,11 +576,67 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    StreamManager streamManager = new StreamManager(stream, true, NO_FRAMES_EVER_SIZE);
+    StreamManager streamManager = new StreamManager(
+        stream,
+        true,
+        false,
+        DEFLATE_BLOCK_SIZE,
+        DEFLATE_LEVEL,
+        NO_FRAMES_EVER_SIZE,
+        0);
+    streamManager.snapshot(snapshot);
+    streamManager.readFromBeginning(reader);
+  }
+
+  @Test
+  public void testWriteAndReadBlockDeflatedEntry() throws Exception {
+    Snapshot snapshot = createSnapshot();
+    LogEntry snapshotLogEntry = LogEntry.snapshot(snapshot);
+    LogEntry deflatedSnapshotEntry =
+        Entries.blockDeflate(snapshotLogEntry, DEFLATE_BLOCK_SIZE, DEFLATE_LEVEL);
+    assertTrue(deflatedSnapshotEntry.getBlockDeflatedEntry().getBlocksSize() > 1);
+
+    Entry snapshotEntry = createMock(Entry.class);
+    expect(stream.append(EasyMock.aryEq(encode(deflatedSnapshotEntry)))).andReturn(position1);
+    stream.truncateBefore(position1);
+
+    expect(snapshotEntry.contents()).andReturn(encode(deflatedSnapshotEntry));
+
+    expect(stream.readAll()).andReturn(ImmutableList.of(snapshotEntry).iterator());
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(snapshotLogEntry);
+
+    control.replay();
+
+    StreamManager streamManager = new StreamManager(
+        stream,
+        true,
+        true,
+        DEFLATE_BLOCK_SIZE,
+        DEFLATE_LEVEL,
+        NO_FRAMES_EVER_SIZE,
+        0);
     streamManager.snapshot(snapshot);
     streamManager.readFromBeginning(reader);
   }
 
+  @Test
+  public void testReadLegacyDeflatedEntry() throws Exception {
+    LogEntry snapshotLogEntry = LogEntry.snapshot(createSnapshot());
+
+    Entry snapshotEntry = createMock(Entry.class);
+    expect(snapshotEntry.contents()).andReturn(encode(Entries.deflate(snapshotLogEntry)));
+    expect(stream.readAll()).andReturn(ImmutableList.of(snapshotEntry).iterator());
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(snapshotLogEntry);
+
+    control.replay();
+
+    createNoMessagesStreamManager().readFromBeginning(reader);
+  }
+
   private Snapshot createSnapshot() {
     return new Snapshot()
         .setTimestamp(1L)
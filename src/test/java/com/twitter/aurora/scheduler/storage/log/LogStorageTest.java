@@ -18,11 +18,13 @@ package com.twitter.aurora.scheduler.storage.log;
 import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.testing.TearDown;
@@ -46,6 +48,8 @@ import com.twitter.aurora.gen.Quota;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskEvent;
+import com.twitter.aurora.gen.storage.ChangeTaskStates;
 import com.twitter.aurora.gen.storage.LogEntry;
 import com.twitter.aurora.gen.storage.Op;
 import com.twitter.aurora.gen.storage.RemoveJob;
@@ -60,6 +64,7 @@ import com.twitter.aurora.gen.storage.SaveLock;
 import com.twitter.aurora.gen.storage.SaveQuota;
 import com.twitter.aurora.gen.storage.SaveTasks;
 import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.gen.storage.TaskStateDelta;
 import com.twitter.aurora.gen.storage.Transaction;
 import com.twitter.aurora.gen.storage.storageConstants;
 import com.twitter.aurora.scheduler.base.JobKeys;
@@ -98,6 +103,7 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.notNull;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LogStorageTest extends EasyMockTest {
 
@@ -105,6 +111,7 @@ public class LogStorageTest extends EasyMockTest {
   private static final long NOW = 42L;
 
   private LogStorage logStorage;
+  private LogManager logManager;
   private Log log;
   private Stream stream;
   private Position position;
@@ -112,6 +119,7 @@ public class LogStorageTest extends EasyMockTest {
   private ShutdownRegistry shutdownRegistry;
   private SchedulingService schedulingService;
   private SnapshotStore<Snapshot> snapshotStore;
+  private StreamingSnapshotStore streamingSnapshotStore;
   private StorageTestUtil storageUtil;
 
   @Before
@@ -119,30 +127,48 @@ public class LogStorageTest extends EasyMockTest {
     log = createMock(Log.class);
 
     shutdownRegistry = createMock(ShutdownRegistry.class);
-    LogManager logManager = new LogManager(log, Amount.of(1, Data.GB), false, shutdownRegistry);
+    logManager = new LogManager(
+        log,
+        Amount.of(1, Data.GB),
+        false,
+        false,
+        Amount.of(1, Data.MB),
+        Deflater.DEFAULT_COMPRESSION,
+        0,
+        shutdownRegistry);
 
     schedulingService = createMock(SchedulingService.class);
     snapshotStore = createMock(new Clazz<SnapshotStore<Snapshot>>() { });
+    streamingSnapshotStore = createMock(StreamingSnapshotStore.class);
     storageUtil = new StorageTestUtil(this);
 
-    logStorage =
-        new LogStorage(logManager,
-            schedulingService,
-            snapshotStore,
-            SNAPSHOT_INTERVAL,
-            storageUtil.storage,
-            storageUtil.schedulerStore,
-            storageUtil.jobStore,
-            storageUtil.taskStore,
-            storageUtil.lockStore,
-            storageUtil.quotaStore,
-            storageUtil.attributeStore);
+    logStorage = createLogStorage(false, 100);
 
     stream = createMock(Stream.class);
     streamMatcher = LogOpMatcher.matcherFor(stream);
     position = createMock(Position.class);
   }
 
+  private LogStorage createLogStorage(boolean logTaskStateDeltas, int maxReappliedTransactions) {
+    return new LogStorage(logManager,
+        schedulingService,
+        snapshotStore,
+        streamingSnapshotStore,
+        SNAPSHOT_INTERVAL,
+        0,
+        0,
+        Amount.of(0L, Time.MILLISECONDS),
+        logTaskStateDeltas,
+        maxReappliedTransactions,
+        storageUtil.storage,
+        storageUtil.schedulerStore,
+        storageUtil.jobStore,
+        storageUtil.taskStore,
+        storageUtil.lockStore,
+        storageUtil.quotaStore,
+        storageUtil.attributeStore);
+  }
+
   @Test
   public void testStart() throws Exception {
     // We should open the log and arrange for its clean shutdown.
@@ -213,9 +239,13 @@ public class LogStorageTest extends EasyMockTest {
             new ScheduledTask()
                 .setStatus(ScheduleStatus.RUNNING)
                 .setAssignedTask(new AssignedTask().setTaskId("task_id"))));
+    // No entries have been appended, so the snapshot is preceded by a no-op marking the position
+    // to truncate before.
+    Position markPosition = createMock(Position.class);
+    streamMatcher.expectNoop().andReturn(markPosition);
     expect(snapshotStore.createSnapshot()).andReturn(snapshotContents);
     streamMatcher.expectSnapshot(snapshotContents).andReturn(position);
-    stream.truncateBefore(position);
+    stream.truncateBefore(markPosition);
     final Capture<MutateWork<Void, RuntimeException>> snapshotWork = createCapture();
     expect(storageUtil.storage.write(capture(snapshotWork))).andAnswer(
         new IAnswer<Void>() {
@@ -223,7 +253,7 @@ public class LogStorageTest extends EasyMockTest {
             snapshotWork.getValue().apply(storageUtil.mutableStoreProvider);
             return null;
           }
-        }).times(2);
+        });
     storageUtil.storage.snapshot();
 
     control.replay();
@@ -240,6 +270,126 @@ public class LogStorageTest extends EasyMockTest {
     shutdownStream.getValue().execute();
   }
 
+  @Test
+  public void testRecoverReappliesTransactionsPrecedingSnapshot() throws Exception {
+    expect(log.open()).andReturn(stream);
+    shutdownRegistry.addAction(EasyMock.<Command>notNull());
+    storageUtil.expectOperations();
+
+    // A transaction logged while a snapshot was captured precedes the snapshot in the log.
+    Entry entry1 = createMock(Entry.class);
+    Entry entry2 = createMock(Entry.class);
+    Entry entry3 = createMock(Entry.class);
+    Snapshot snapshot = new Snapshot().setTimestamp(NOW);
+    expect(entry1.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        createTransaction(Op.saveFrameworkId(new SaveFrameworkId("bob")))));
+    expect(entry2.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        LogEntry.snapshot(snapshot)));
+    expect(entry3.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        createTransaction(Op.saveFrameworkId(new SaveFrameworkId("jim")))));
+    expect(stream.readAll()).andReturn(Iterators.<Entry>forArray(entry1, entry2, entry3));
+
+    storageUtil.schedulerStore.saveFrameworkId("bob");
+    snapshotStore.applySnapshot(snapshot);
+    // The preceding transaction is applied again over the snapshot.
+    storageUtil.schedulerStore.saveFrameworkId("bob");
+    storageUtil.schedulerStore.saveFrameworkId("jim");
+
+    schedulingService.doEvery(eq(SNAPSHOT_INTERVAL), notNull(Runnable.class));
+
+    control.replay();
+
+    logStorage.prepare();
+    logStorage.start(MutateWork.NOOP);
+  }
+
+  @Test
+  public void testRecoverReappliesOnlyRecentTransactions() throws Exception {
+    logStorage = createLogStorage(false, 1);
+    expect(log.open()).andReturn(stream);
+    shutdownRegistry.addAction(EasyMock.<Command>notNull());
+    storageUtil.expectOperations();
+
+    Entry entry1 = createMock(Entry.class);
+    Entry entry2 = createMock(Entry.class);
+    Entry entry3 = createMock(Entry.class);
+    Snapshot snapshot = new Snapshot().setTimestamp(NOW);
+    expect(entry1.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        createTransaction(Op.saveFrameworkId(new SaveFrameworkId("bob")))));
+    expect(entry2.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        createTransaction(Op.saveFrameworkId(new SaveFrameworkId("jim")))));
+    expect(entry3.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        LogEntry.snapshot(snapshot)));
+    expect(stream.readAll()).andReturn(Iterators.<Entry>forArray(entry1, entry2, entry3));
+
+    storageUtil.schedulerStore.saveFrameworkId("bob");
+    storageUtil.schedulerStore.saveFrameworkId("jim");
+    snapshotStore.applySnapshot(snapshot);
+    // Only the most recent transaction is retained to be applied again.
+    storageUtil.schedulerStore.saveFrameworkId("jim");
+
+    schedulingService.doEvery(eq(SNAPSHOT_INTERVAL), notNull(Runnable.class));
+
+    control.replay();
+
+    logStorage.prepare();
+    logStorage.start(MutateWork.NOOP);
+  }
+
+  @Test
+  public void testRecoverReplaysDeltasOverNewerSnapshot() throws Exception {
+    expect(log.open()).andReturn(stream);
+    shutdownRegistry.addAction(EasyMock.<Command>notNull());
+    storageUtil.expectOperations();
+
+    final IScheduledTask pending = task("a", ScheduleStatus.PENDING);
+    final IScheduledTask assigned = IScheduledTask.build(pending.newBuilder()
+        .setStatus(ScheduleStatus.ASSIGNED)
+        .setTaskEvents(ImmutableList.of(new TaskEvent(NOW, ScheduleStatus.ASSIGNED))));
+    TaskStateDelta delta = TaskStateDeltas.diff(pending, assigned).get();
+
+    // The second snapshot was captured after the delta was logged, and already reflects it.
+    Snapshot before = new Snapshot().setTimestamp(NOW);
+    Snapshot after = new Snapshot().setTimestamp(NOW + 1);
+    Entry entry1 = createMock(Entry.class);
+    Entry entry2 = createMock(Entry.class);
+    Entry entry3 = createMock(Entry.class);
+    expect(entry1.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        LogEntry.snapshot(before)));
+    expect(entry2.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        createTransaction(Op.changeTaskStates(new ChangeTaskStates(ImmutableList.of(delta))))));
+    expect(entry3.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(
+        LogEntry.snapshot(after)));
+    expect(stream.readAll()).andReturn(Iterators.<Entry>forArray(entry1, entry2, entry3));
+
+    snapshotStore.applySnapshot(before);
+    final Capture<Function<IScheduledTask, IScheduledTask>> replayed = createCapture();
+    expect(storageUtil.taskStore.mutateTasks(eq(Query.taskScoped("a")), capture(replayed)))
+        .andAnswer(new IAnswer<ImmutableSet<IScheduledTask>>() {
+          @Override public ImmutableSet<IScheduledTask> answer() {
+            assertEquals(assigned, replayed.getValue().apply(pending));
+            return ImmutableSet.of(assigned);
+          }
+        });
+    snapshotStore.applySnapshot(after);
+    // Replaying the delta over the newer snapshot leaves the task unchanged.
+    final Capture<Function<IScheduledTask, IScheduledTask>> reapplied = createCapture();
+    expect(storageUtil.taskStore.mutateTasks(eq(Query.taskScoped("a")), capture(reapplied)))
+        .andAnswer(new IAnswer<ImmutableSet<IScheduledTask>>() {
+          @Override public ImmutableSet<IScheduledTask> answer() {
+            assertEquals(assigned, reapplied.getValue().apply(assigned));
+            return ImmutableSet.of(assigned);
+          }
+        });
+
+    schedulingService.doEvery(eq(SNAPSHOT_INTERVAL), notNull(Runnable.class));
+
+    control.replay();
+
+    logStorage.prepare();
+    logStorage.start(MutateWork.NOOP);
+  }
+
   abstract class MutationFixture {
     private final AtomicBoolean runCalled = new AtomicBoolean(false);
 
@@ -388,7 +538,7 @@ public class LogStorageTest extends EasyMockTest {
     new MutationFixture() {
       @Override protected void setupExpectations() throws Exception {
         storageUtil.expectOperations();
-        expect(storageUtil.taskStore.mutateTasks(query, mutation)).andReturn(mutated);
+        expect(storageUtil.taskStore.mutateTasks(eq(query), anyMutation())).andReturn(mutated);
         streamMatcher.expectTransaction(
             Op.saveTasks(new SaveTasks(IScheduledTask.toBuildersSet(mutated))))
             .andReturn(null);
@@ -400,6 +550,118 @@ public class LogStorageTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testRecoverRejectsNewerSchemaVersion() throws Exception {
+    expect(log.open()).andReturn(stream);
+    shutdownRegistry.addAction(EasyMock.<Command>notNull());
+    storageUtil.expectOperations();
+
+    Entry entry = createMock(Entry.class);
+    expect(entry.contents()).andReturn(ThriftBinaryCodec.encodeNonNull(LogEntry.transaction(
+        new Transaction(
+            ImmutableList.of(Op.saveFrameworkId(new SaveFrameworkId("bob"))),
+            storageConstants.CURRENT_SCHEMA_VERSION + 1))));
+    expect(stream.readAll()).andReturn(Iterators.<Entry>forArray(entry));
+
+    control.replay();
+
+    logStorage.prepare();
+    try {
+      logStorage.start(MutateWork.NOOP);
+      fail("Recovery should reject a transaction with an unknown schema version.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testMutateTasksDeltasDisabled() throws Exception {
+    final Query.Builder query = Query.unscoped();
+    final IScheduledTask pending = task("a", ScheduleStatus.PENDING);
+    final IScheduledTask assigned = IScheduledTask.build(pending.newBuilder()
+        .setStatus(ScheduleStatus.ASSIGNED)
+        .setTaskEvents(ImmutableList.of(new TaskEvent(NOW, ScheduleStatus.ASSIGNED))));
+
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws Exception {
+        storageUtil.expectOperations();
+        final Capture<Function<IScheduledTask, IScheduledTask>> mutator = createCapture();
+        expect(storageUtil.taskStore.mutateTasks(eq(query), capture(mutator))).andAnswer(
+            new IAnswer<ImmutableSet<IScheduledTask>>() {
+              @Override public ImmutableSet<IScheduledTask> answer() {
+                return ImmutableSet.of(mutator.getValue().apply(pending));
+              }
+            });
+        streamMatcher.expectTransaction(
+            Op.saveTasks(new SaveTasks(ImmutableSet.of(assigned.newBuilder()))))
+            .andReturn(position);
+      }
+
+      @Override protected void performMutations() {
+        assertEquals(
+            ImmutableSet.of(assigned),
+            logStorage.mutateTasks(query, Functions.forMap(ImmutableMap.of(pending, assigned))));
+      }
+    }.run();
+  }
+
+  @Test
+  public void testMutateTasksLogsDeltas() throws Exception {
+    logStorage = createLogStorage(true, 100);
+    final Query.Builder query = Query.unscoped();
+    final IScheduledTask pending = task("a", ScheduleStatus.PENDING);
+    final IScheduledTask assigned = IScheduledTask.build(pending.newBuilder()
+        .setStatus(ScheduleStatus.ASSIGNED)
+        .setTaskEvents(ImmutableList.of(new TaskEvent(NOW, ScheduleStatus.ASSIGNED))));
+    final IScheduledTask assignedOnHost = IScheduledTask.build(assigned.newBuilder()
+        .setAssignedTask(assigned.newBuilder().getAssignedTask()
+            .setSlaveId("slave")
+            .setSlaveHost("host")));
+    final IScheduledTask other = task("b", ScheduleStatus.PENDING);
+    final IScheduledTask reconfigured = IScheduledTask.build(other.newBuilder()
+        .setAssignedTask(other.newBuilder().getAssignedTask()
+            .setTask(new TaskConfig().setJobName("job"))));
+    final Function<IScheduledTask, IScheduledTask> mutation =
+        Functions.forMap(ImmutableMap.of(pending, assignedOnHost, other, reconfigured));
+
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws Exception {
+        storageUtil.expectOperations();
+        final Capture<Function<IScheduledTask, IScheduledTask>> mutator = createCapture();
+        expect(storageUtil.taskStore.mutateTasks(eq(query), capture(mutator))).andAnswer(
+            new IAnswer<ImmutableSet<IScheduledTask>>() {
+              @Override public ImmutableSet<IScheduledTask> answer() {
+                return ImmutableSet.of(
+                    mutator.getValue().apply(pending),
+                    mutator.getValue().apply(other));
+              }
+            });
+
+        // A change to the task configuration may not be expressed as a delta.
+        streamMatcher.expectTransaction(
+            Op.saveTasks(new SaveTasks(ImmutableSet.of(reconfigured.newBuilder()))),
+            Op.changeTaskStates(new ChangeTaskStates(ImmutableList.of(
+                new TaskStateDelta()
+                    .setTaskId("a")
+                    .setPriorStatus(ScheduleStatus.PENDING)
+                    .setPriorEventCount(0)
+                    .setStatus(ScheduleStatus.ASSIGNED)
+                    .setAppendedEvents(
+                        ImmutableList.of(new TaskEvent(NOW, ScheduleStatus.ASSIGNED)))
+                    .setFailureCount(0)
+                    .setSlaveId("slave")
+                    .setSlaveHost("host")))))
+            .andReturn(position);
+      }
+
+      @Override protected void performMutations() {
+        assertEquals(
+            ImmutableSet.of(assignedOnHost, reconfigured),
+            logStorage.mutateTasks(query, mutation));
+      }
+    }.run();
+  }
+
   @Test
   public void testUnsafeModifyInPlace() throws Exception {
     final String taskId = "wilma";
@@ -434,7 +696,7 @@ public class LogStorageTest extends EasyMockTest {
     new MutationFixture() {
       @Override protected void setupExpectations() throws Exception {
         storageUtil.expectOperations();
-        expect(storageUtil.taskStore.mutateTasks(query, mutation)).andReturn(mutated);
+        expect(storageUtil.taskStore.mutateTasks(eq(query), anyMutation())).andReturn(mutated);
 
         storageUtil.taskStore.deleteTasks(tasksToRemove);
 
@@ -472,7 +734,7 @@ public class LogStorageTest extends EasyMockTest {
         storageUtil.taskStore.saveTasks(saved);
 
         // Nested transaction with result.
-        expect(storageUtil.taskStore.mutateTasks(query, mutation)).andReturn(mutated);
+        expect(storageUtil.taskStore.mutateTasks(eq(query), anyMutation())).andReturn(mutated);
 
         // Resulting stream operation.
         streamMatcher.expectTransaction(Op.saveTasks(
@@ -504,7 +766,7 @@ public class LogStorageTest extends EasyMockTest {
         storageUtil.taskStore.saveTasks(saved);
 
         // Nested transaction with result.
-        expect(storageUtil.taskStore.mutateTasks(query, mutation)).andReturn(mutated);
+        expect(storageUtil.taskStore.mutateTasks(eq(query), anyMutation())).andReturn(mutated);
 
         // Resulting stream operation.
         streamMatcher.expectTransaction(
@@ -674,6 +936,36 @@ public class LogStorageTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testSnapshotTruncatesBeforeMarkedPosition() throws Exception {
+    final String frameworkId = "bob";
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws CodingException {
+        storageUtil.expectOperations();
+        storageUtil.schedulerStore.saveFrameworkId(frameworkId);
+        streamMatcher.expectTransaction(Op.saveFrameworkId(new SaveFrameworkId(frameworkId)))
+            .andReturn(position);
+
+        // The log is truncated before the last entry appended when the snapshot was started,
+        // rather than before the snapshot.
+        Snapshot snapshot = new Snapshot().setTimestamp(NOW);
+        expect(snapshotStore.createSnapshot()).andReturn(snapshot);
+        streamMatcher.expectSnapshot(snapshot).andReturn(createMock(Position.class));
+        stream.truncateBefore(position);
+        storageUtil.storage.snapshot();
+      }
+
+      @Override protected void performMutations() {
+        logStorage.saveFrameworkId(frameworkId);
+        logStorage.snapshot();
+      }
+    }.run();
+  }
+
+  private static Function<IScheduledTask, IScheduledTask> anyMutation() {
+    return EasyMock.notNull();
+  }
+
   private LogEntry createTransaction(Op... ops) {
     return LogEntry.transaction(
         new Transaction(ImmutableList.copyOf(ops), storageConstants.CURRENT_SCHEMA_VERSION));
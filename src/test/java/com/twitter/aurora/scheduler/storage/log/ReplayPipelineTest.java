@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.storage.LogEntry;
+import com.twitter.aurora.gen.storage.Transaction;
+import com.twitter.aurora.scheduler.log.Log.Entry;
+import com.twitter.aurora.scheduler.storage.log.ReplayPipeline.Decoder;
+import com.twitter.aurora.scheduler.storage.log.ReplayPipeline.EntrySource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayPipelineTest {
+
+  // Contents of an entry that is reassembled from the entry following it.
+  private static final int FRAME = -1;
+
+  private ReplayPipeline pipeline;
+
+  @After
+  public void tearDown() {
+    if (pipeline != null) {
+      pipeline.close();
+    }
+  }
+
+  @Test
+  public void testEntriesInLogOrder() throws Exception {
+    List<Integer> values = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      values.add(i);
+    }
+
+    // Earlier entries take longer to decode, so decodes complete out of order.
+    pipeline = new ReplayPipeline(entries(values), new FakeDecoder() {
+      @Override public LogEntry decode(byte[] contents) throws CodingException {
+        Uninterruptibles.sleepUninterruptibly(3 - (contents[0] % 4), TimeUnit.MILLISECONDS);
+        return super.decode(contents);
+      }
+    }, 4);
+    pipeline.start();
+
+    assertEquals(values, consumeAll());
+  }
+
+  @Test
+  public void testAssemblesAndInflatesInPipeline() throws Exception {
+    final String consumerThread = Thread.currentThread().getName();
+    pipeline = new ReplayPipeline(
+        entries(ImmutableList.of(1, FRAME, 2, 3)),
+        new FakeDecoder() {
+          @Override public LogEntry assemble(LogEntry logEntry, EntrySource following)
+              throws CodingException {
+
+            assertFalse(Thread.currentThread().getName().equals(consumerThread));
+            return super.assemble(logEntry, following);
+          }
+
+          @Override public LogEntry inflate(LogEntry logEntry) {
+            assertFalse(Thread.currentThread().getName().equals(consumerThread));
+            return transaction(value(logEntry) + 100);
+          }
+        },
+        2);
+    pipeline.start();
+
+    assertEquals(ImmutableList.of(101, 102, 103), consumeAll());
+  }
+
+  @Test
+  public void testDecodeFailureInLogOrder() throws Exception {
+    pipeline = new ReplayPipeline(entries(ImmutableList.of(0, 1, 2, 3)), new FakeDecoder() {
+      @Override public LogEntry decode(byte[] contents) throws CodingException {
+        if (contents[0] == 2) {
+          throw new CodingException("Corrupt entry");
+        }
+        return super.decode(contents);
+      }
+    }, 2);
+    pipeline.start();
+
+    assertTrue(pipeline.hasNext());
+    assertEquals(0, value(pipeline.next()));
+    assertTrue(pipeline.hasNext());
+    assertEquals(1, value(pipeline.next()));
+    assertTrue(pipeline.hasNext());
+    try {
+      pipeline.next();
+      fail("A decode failure should be propagated to the consumer.");
+    } catch (CodingException e) {
+      // Expected.
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testReadErrorPropagated() throws Exception {
+    final Iterator<Entry> entries = entries(ImmutableList.of(0));
+    pipeline = new ReplayPipeline(new AbstractIterator<Entry>() {
+      @Override protected Entry computeNext() {
+        if (entries.hasNext()) {
+          return entries.next();
+        }
+        throw new AssertionError("Read failed");
+      }
+    }, new FakeDecoder(), 2);
+    pipeline.start();
+
+    assertTrue(pipeline.hasNext());
+    assertEquals(0, value(pipeline.next()));
+    assertTrue(pipeline.hasNext());
+    try {
+      pipeline.next();
+      fail("An error reading the log should be propagated to the consumer.");
+    } catch (AssertionError e) {
+      assertEquals("Read failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCloseStopsThreads() throws Exception {
+    // An endless stream fills the pipeline's queues, leaving its threads blocked.
+    pipeline = new ReplayPipeline(new AbstractIterator<Entry>() {
+      @Override protected Entry computeNext() {
+        return entry(0);
+      }
+    }, new FakeDecoder(), 2);
+    pipeline.start();
+
+    assertTrue(pipeline.hasNext());
+    assertEquals(0, value(pipeline.next()));
+    pipeline.close();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  private List<Integer> consumeAll() throws CodingException {
+    List<Integer> values = Lists.newArrayList();
+    while (pipeline.hasNext()) {
+      values.add(value(pipeline.next()));
+    }
+    return values;
+  }
+
+  private static Iterator<Entry> entries(List<Integer> values) {
+    List<Entry> entries = Lists.newArrayList();
+    for (int value : values) {
+      entries.add(entry(value));
+    }
+    return entries.iterator();
+  }
+
+  private static Entry entry(final int value) {
+    return new Entry() {
+      @Override public byte[] contents() {
+        return new byte[] {(byte) value};
+      }
+    };
+  }
+
+  private static LogEntry transaction(int value) {
+    return LogEntry.transaction(new Transaction().setSchemaVersion(value));
+  }
+
+  private static int value(LogEntry logEntry) {
+    return logEntry.getTransaction().getSchemaVersion();
+  }
+
+  private static class FakeDecoder implements Decoder {
+    @Override
+    public LogEntry decode(byte[] contents) throws CodingException {
+      return transaction(contents[0]);
+    }
+
+    @Override
+    public LogEntry assemble(LogEntry logEntry, EntrySource following) throws CodingException {
+      return value(logEntry) == FRAME ? following.next() : logEntry;
+    }
+
+    @Override
+    public LogEntry inflate(LogEntry logEntry) {
+      return logEntry;
+    }
+  }
+}
@@ -19,10 +19,13 @@ import java.util.Set;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.JobConfiguration;
@@ -31,10 +34,13 @@ import com.twitter.aurora.gen.Lock;
 import com.twitter.aurora.gen.LockKey;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.storage.QuotaConfiguration;
 import com.twitter.aurora.gen.storage.SchedulerMetadata;
 import com.twitter.aurora.gen.storage.Snapshot;
+import com.twitter.aurora.gen.storage.SnapshotPart;
 import com.twitter.aurora.gen.storage.StoredJob;
+import com.twitter.aurora.gen.storage.StoredTask;
 import com.twitter.aurora.scheduler.base.JobKeys;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.quota.Quotas;
@@ -55,21 +61,51 @@ public class SnapshotStoreImplTest extends EasyMockTest {
 
   private static final long NOW = 10335463456L;
 
+  private FakeClock clock;
   private StorageTestUtil storageUtil;
-  private SnapshotStore<Snapshot> snapshotStore;
 
   @Before
   public void setUp() {
-    FakeClock clock = new FakeClock();
+    clock = new FakeClock();
     clock.setNowMillis(NOW);
     storageUtil = new StorageTestUtil(this);
-    snapshotStore = new SnapshotStoreImpl(clock, storageUtil.storage);
+  }
+
+  private static ScheduledTask makeTask(String taskId, TaskConfig config) {
+    return new ScheduledTask()
+        .setStatus(ScheduleStatus.PENDING)
+        .setAssignedTask(new AssignedTask().setTaskId(taskId).setTask(config));
+  }
+
+  private static StoredTask makeStoredTask(String taskId, String configKey) {
+    return new StoredTask()
+        .setTask(new ScheduledTask()
+            .setStatus(ScheduleStatus.PENDING)
+            .setAssignedTask(new AssignedTask().setTaskId(taskId)))
+        .setConfigKey(configKey);
   }
 
   @Test
-  public void testCreateAndRestoreNewSnapshot() {
+  public void testCreateAndRestoreNewSnapshot() throws Exception {
+    testCreateAndRestore(false);
+  }
+
+  @Test
+  public void testCreateAndRestoreDeduplicatedSnapshot() throws Exception {
+    testCreateAndRestore(true);
+  }
+
+  private void testCreateAndRestore(boolean deduplicateTaskConfigs) throws Exception {
+    SnapshotStore<Snapshot> snapshotStore =
+        new SnapshotStoreImpl(clock, storageUtil.storage, deduplicateTaskConfigs);
+    TaskConfig config = new TaskConfig().setJobName("job").setNumCpus(1.0);
+    String configKey =
+        Hashing.sha1().hashBytes(ThriftBinaryCodec.encodeNonNull(config)).toString();
+    ScheduledTask unassigned = new ScheduledTask().setStatus(ScheduleStatus.PENDING);
     ImmutableSet<IScheduledTask> tasks = ImmutableSet.of(
-        IScheduledTask.build(new ScheduledTask().setStatus(ScheduleStatus.PENDING)));
+        IScheduledTask.build(unassigned),
+        IScheduledTask.build(makeTask("a", config)),
+        IScheduledTask.build(makeTask("b", config.deepCopy())));
     Set<QuotaConfiguration> quotas =
         ImmutableSet.of(new QuotaConfiguration("steve", Quotas.noQuota().newBuilder()));
     HostAttributes attribute = new HostAttributes("host",
@@ -113,18 +149,103 @@ public class SnapshotStoreImplTest extends EasyMockTest {
 
     Snapshot expected = new Snapshot()
         .setTimestamp(NOW)
-        .setTasks(IScheduledTask.toBuildersSet(tasks))
         .setQuotaConfigurations(quotas)
         .setHostAttributes(ImmutableSet.of(attribute))
         .setJobs(ImmutableSet.of(job))
         .setSchedulerMetadata(metadata)
         .setLocks(ILock.toBuildersSet(ImmutableSet.of(lock)));
+    if (deduplicateTaskConfigs) {
+      expected
+          .setStoredTasks(ImmutableSet.of(
+              new StoredTask().setTask(unassigned),
+              makeStoredTask("a", configKey),
+              makeStoredTask("b", configKey)))
+          .setTaskConfigs(ImmutableMap.of(configKey, config));
+    } else {
+      expected.setTasks(IScheduledTask.toBuildersSet(tasks));
+    }
 
     assertEquals(expected, snapshotStore.createSnapshot());
 
     snapshotStore.applySnapshot(expected);
   }
 
+  @Test
+  public void testRestoreLegacySnapshotWhenDeduplicating() {
+    ImmutableSet<IScheduledTask> tasks = ImmutableSet.of(
+        IScheduledTask.build(makeTask("a", new TaskConfig().setJobName("job"))));
+
+    storageUtil.expectOperations();
+    expectDataWipe();
+    storageUtil.taskStore.saveTasks(tasks);
+
+    control.replay();
+
+    new SnapshotStoreImpl(clock, storageUtil.storage, true).applySnapshot(new Snapshot()
+        .setTimestamp(NOW)
+        .setTasks(IScheduledTask.toBuildersSet(tasks)));
+  }
+
+  @Test
+  public void testApplyStreamedSnapshot() {
+    ImmutableSet<IScheduledTask> tasks = ImmutableSet.of(
+        IScheduledTask.build(makeTask("a", new TaskConfig().setJobName("job"))));
+    StoredJob job = new StoredJob(
+        "jobManager",
+        new JobConfiguration().setKey(new JobKey("owner", "env", "name")));
+
+    storageUtil.expectOperations();
+    expectDataWipe();
+    storageUtil.taskStore.saveTasks(tasks);
+    storageUtil.jobStore.saveAcceptedJob(
+        job.getJobManagerId(),
+        IJobConfiguration.build(job.getJobConfiguration()));
+
+    control.replay();
+
+    StreamingSnapshotStore store = new SnapshotStoreImpl(clock, storageUtil.storage, false);
+    store.applySnapshotPart(new SnapshotPart()
+        .setTimestamp(NOW)
+        .setIndex(0)
+        .setTasks(IScheduledTask.toBuildersSet(tasks)));
+    store.applySnapshotPart(new SnapshotPart()
+        .setTimestamp(NOW)
+        .setIndex(1)
+        .setComplete(true)
+        .setJobs(ImmutableSet.of(job)));
+  }
+
+  @Test
+  public void testIncompleteStreamedSnapshotNotApplied() {
+    storageUtil.expectOperations();
+
+    control.replay();
+
+    StreamingSnapshotStore store = new SnapshotStoreImpl(clock, storageUtil.storage, false);
+    store.applySnapshotPart(new SnapshotPart()
+        .setTimestamp(NOW)
+        .setIndex(0)
+        .setTasks(ImmutableSet.of(makeTask("a", new TaskConfig().setJobName("job")))));
+  }
+
+  @Test
+  public void testOutOfSequencePartDiscardsSnapshot() {
+    storageUtil.expectOperations();
+
+    control.replay();
+
+    StreamingSnapshotStore store = new SnapshotStoreImpl(clock, storageUtil.storage, false);
+    store.applySnapshotPart(new SnapshotPart()
+        .setTimestamp(NOW)
+        .setIndex(0)
+        .setTasks(ImmutableSet.of(makeTask("a", new TaskConfig().setJobName("job")))));
+    store.applySnapshotPart(new SnapshotPart()
+        .setTimestamp(NOW)
+        .setIndex(2)
+        .setComplete(true)
+        .setTasks(ImmutableSet.of(makeTask("b", new TaskConfig().setJobName("job")))));
+  }
+
   private void expectDataWipe() {
     storageUtil.taskStore.deleteAllTasks();
     storageUtil.quotaStore.deleteQuotas();
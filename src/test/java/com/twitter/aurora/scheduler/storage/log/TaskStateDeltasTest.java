@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskEvent;
+import com.twitter.aurora.gen.storage.TaskStateDelta;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FAILED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class TaskStateDeltasTest {
+
+  private static final ScheduledTask PENDING_TASK = new ScheduledTask()
+      .setStatus(PENDING)
+      .setTaskEvents(ImmutableList.of(new TaskEvent(1L, PENDING)))
+      .setAssignedTask(new AssignedTask()
+          .setTaskId("task")
+          .setTask(new TaskConfig()
+              .setOwner(new Identity("role", "user"))
+              .setJobName("job")
+              .setEnvironment("env")));
+
+  private static IScheduledTask transition(
+      ScheduledTask task,
+      ScheduleStatus status,
+      long timestamp) {
+
+    ScheduledTask builder = task.deepCopy().setStatus(status);
+    builder.addToTaskEvents(new TaskEvent(timestamp, status));
+    return IScheduledTask.build(builder);
+  }
+
+  private static void expectRoundTrip(IScheduledTask original, IScheduledTask mutated) {
+    Optional<TaskStateDelta> delta = TaskStateDeltas.diff(original, mutated);
+    assertTrue(delta.isPresent());
+    assertEquals(mutated, TaskStateDeltas.apply(original, delta.get()));
+  }
+
+  @Test
+  public void testStatusChange() {
+    IScheduledTask original = IScheduledTask.build(PENDING_TASK);
+    IScheduledTask mutated = transition(PENDING_TASK, RUNNING, 2L);
+    expectRoundTrip(original, mutated);
+    assertFalse(TaskStateDeltas.diff(original, mutated).get().isSetSlaveHost());
+  }
+
+  @Test
+  public void testAssignment() {
+    IScheduledTask original = IScheduledTask.build(PENDING_TASK);
+    ScheduledTask assigned = transition(PENDING_TASK, ASSIGNED, 2L).newBuilder();
+    assigned.getAssignedTask()
+        .setSlaveId("slave")
+        .setSlaveHost("host")
+        .setAssignedPorts(ImmutableMap.of("http", 80));
+    IScheduledTask mutated = IScheduledTask.build(assigned);
+
+    expectRoundTrip(original, mutated);
+    TaskStateDelta delta = TaskStateDeltas.diff(original, mutated).get();
+    assertEquals("slave", delta.getSlaveId());
+    assertEquals("host", delta.getSlaveHost());
+    assertEquals(ImmutableMap.of("http", 80), delta.getAssignedPorts());
+  }
+
+  @Test
+  public void testFailureCount() {
+    IScheduledTask original = IScheduledTask.build(PENDING_TASK);
+    IScheduledTask mutated =
+        IScheduledTask.build(transition(PENDING_TASK, FAILED, 2L).newBuilder().setFailureCount(1));
+    expectRoundTrip(original, mutated);
+  }
+
+  @Test
+  public void testReplayOverNewerState() {
+    IScheduledTask original = IScheduledTask.build(PENDING_TASK);
+    IScheduledTask assigned = transition(PENDING_TASK, ASSIGNED, 2L);
+    IScheduledTask running = transition(assigned.newBuilder(), RUNNING, 3L);
+    TaskStateDelta delta = TaskStateDeltas.diff(original, assigned).get();
+
+    // The delta has no effect on a task that already reflects it, or has changed further.
+    assertEquals(assigned, TaskStateDeltas.apply(assigned, delta));
+    assertEquals(running, TaskStateDeltas.apply(running, delta));
+  }
+
+  @Test
+  public void testConfigurationChangeNotExpressible() {
+    IScheduledTask original = IScheduledTask.build(PENDING_TASK);
+    ScheduledTask reconfigured = transition(PENDING_TASK, RUNNING, 2L).newBuilder();
+    reconfigured.getAssignedTask().getTask().setJobName("other");
+    assertFalse(
+        TaskStateDeltas.diff(original, IScheduledTask.build(reconfigured)).isPresent());
+  }
+
+  @Test
+  public void testRewrittenEventsNotExpressible() {
+    IScheduledTask original = IScheduledTask.build(PENDING_TASK);
+    IScheduledTask mutated = IScheduledTask.build(PENDING_TASK.deepCopy()
+        .setStatus(RUNNING)
+        .setTaskEvents(ImmutableList.of(new TaskEvent(2L, RUNNING))));
+    assertFalse(TaskStateDeltas.diff(original, mutated).isPresent());
+  }
+}
@@ -106,6 +106,51 @@ public class MemStorageTest extends TearDownTestCase {
     assertEquals("slowResult", future.get());
   }
 
+  @Test
+  public void testReadIsolatedFromConcurrentWrite() throws Exception {
+    // Validate that a slow read does not block a write, and does not observe it.
+
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("a")));
+      }
+    });
+
+    final CountDownLatch slowReadStarted = new CountDownLatch(1);
+    final CountDownLatch writeFinished = new CountDownLatch(1);
+
+    Future<Set<String>> future = executor.submit(new Callable<Set<String>>() {
+      @Override public Set<String> call() throws Exception {
+        return storage.consistentRead(new Work.Quiet<Set<String>>() {
+          @Override public Set<String> apply(StoreProvider storeProvider) {
+            slowReadStarted.countDown();
+            try {
+              writeFinished.await();
+            } catch (InterruptedException e) {
+              fail(e.getMessage());
+            }
+            return FluentIterable
+                .from(storeProvider.getTaskStore().fetchTasks(Query.unscoped()))
+                .transform(Tasks.SCHEDULED_TO_ID)
+                .toSet();
+          }
+        });
+      }
+    });
+
+    slowReadStarted.await();
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().deleteAllTasks();
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("b")));
+      }
+    });
+    writeFinished.countDown();
+
+    assertEquals(ImmutableSet.of("a"), future.get());
+    expectTasks("b");
+  }
+
   private IScheduledTask makeTask(String taskId) {
     return IScheduledTask.build(new ScheduledTask().setAssignedTask(
         new AssignedTask()
@@ -18,6 +18,7 @@ package com.twitter.aurora.scheduler.storage.mem;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -45,6 +46,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
 import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
 
 public class MemTaskStoreTest {
@@ -176,6 +179,28 @@ public class MemTaskStoreTest {
     assertStoreContents();
   }
 
+  @Test
+  public void testQueryPlanning() {
+    IScheduledTask running = IScheduledTask.build(TASK_A.newBuilder().setStatus(RUNNING));
+    store.saveTasks(ImmutableSet.of(running, TASK_B, TASK_C, TASK_D));
+
+    assertEquals(Optional.<String>absent(), store.getSelectedIndex(Query.unscoped()));
+    assertEquals(
+        Optional.of("task_queries_by_role"),
+        store.getSelectedIndex(Query.roleScoped("role-b").byStatus(PENDING)));
+    assertEquals(
+        Optional.of("task_queries_by_status"),
+        store.getSelectedIndex(Query.roleScoped("role-b").byStatus(FINISHED)));
+    assertEquals(
+        Optional.of("task_queries_by_job"),
+        store.getSelectedIndex(Query.jobScoped(JobKeys.from("role-c", "env-c", "job-c")).active()));
+
+    // The selected index only narrows the candidates, the full query is still applied.
+    assertQueryResults(Query.roleScoped("role-b").byStatus(PENDING), TASK_B);
+    assertQueryResults(Query.roleScoped("role-b").byStatus(FINISHED));
+    assertQueryResults(Query.roleScoped("role-a").byStatus(RUNNING), running);
+  }
+
   @Test
   public void testConsistentJobIndex() {
     final IScheduledTask a = makeTask("a", "jim", "test", "job");
@@ -221,6 +246,44 @@ public class MemTaskStoreTest {
     assertQueryResults(joesJob);
   }
 
+  @Test
+  public void testConsistentSecondaryIndices() {
+    store.saveTasks(ImmutableSet.of(TASK_A, TASK_B, TASK_C, TASK_D));
+    assertQueryResults(Query.statusScoped(PENDING), TASK_A, TASK_B, TASK_C, TASK_D);
+    assertQueryResults(Query.slaveScoped("host-a"));
+    assertQueryResults(Query.roleScoped("role-a"), TASK_A);
+
+    store.mutateTasks(Query.taskScoped("a", "b"), new TaskMutation() {
+      @Override public IScheduledTask apply(IScheduledTask task) {
+        ScheduledTask builder = task.newBuilder().setStatus(RUNNING);
+        builder.getAssignedTask().setSlaveHost("host-a");
+        return IScheduledTask.build(builder);
+      }
+    });
+    IScheduledTask aRunning = Iterables.getOnlyElement(store.fetchTasks(Query.taskScoped("a")));
+    IScheduledTask bRunning = Iterables.getOnlyElement(store.fetchTasks(Query.taskScoped("b")));
+    assertQueryResults(Query.statusScoped(PENDING), TASK_C, TASK_D);
+    assertQueryResults(Query.statusScoped(RUNNING), aRunning, bRunning);
+    assertQueryResults(Query.statusScoped(PENDING, RUNNING), aRunning, bRunning, TASK_C, TASK_D);
+    assertQueryResults(Query.slaveScoped("host-a"), aRunning, bRunning);
+    assertQueryResults(Query.slaveScoped("host-a").byStatus(PENDING));
+    assertQueryResults(Query.roleScoped("role-a").byStatus(RUNNING), aRunning);
+
+    // Overwriting a task should remove its stale index entries.
+    store.saveTasks(ImmutableSet.of(TASK_A));
+    assertQueryResults(Query.slaveScoped("host-a"), bRunning);
+    assertQueryResults(Query.statusScoped(RUNNING), bRunning);
+
+    store.deleteTasks(ImmutableSet.of("b"));
+    assertQueryResults(Query.slaveScoped("host-a"));
+    assertQueryResults(Query.statusScoped(RUNNING));
+    assertQueryResults(Query.roleScoped("role-b"));
+
+    store.deleteAllTasks();
+    assertQueryResults(Query.statusScoped(PENDING));
+    assertQueryResults(Query.roleScoped("role-a"));
+  }
+
   @Test
   public void testCanonicalTaskConfigs() {
     IScheduledTask a = makeTask("a", "role", "env", "job");